@@ -0,0 +1,81 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+
+/**
+ * Helper for benchmarks which need key stores of a given key type and size.  A single
+ * self-signed key is generated with the keytool of the running JDK and then stored under
+ * as many aliases as required, so even large key stores are created quickly and offline.
+ */
+public class BenchmarkKeyStores {
+    public static final String[] KEY_TYPES = {"RSA-2048", "RSA-4096", "EC-256"};
+
+    /**
+     * Create a PKCS12 key store holding the same generated key under the specified number
+     * of aliases, named host0, host1, ...
+     *
+     * @param dir The directory to create the key store in
+     * @param keyType The type of key, one of {@link #KEY_TYPES}
+     * @param aliasCount The number of aliases in the key store
+     * @return The key store file
+     */
+    public static File create(final Path dir, final String keyType, final int aliasCount)
+            throws Exception {
+        File single = dir.resolve("single-" + keyType + ".p12").toFile();
+        if (! single.exists()) {
+            String[] type = keyType.split("-");
+            String sizeOption = "EC".equals(type[0]) ? "-groupname" : "-keysize";
+            String size = "EC".equals(type[0]) ? "secp" + type[1] + "r1" : type[1];
+            TestKeyStores.keytool("-genkeypair", "-alias", "host", "-keyalg", type[0], sizeOption, size,
+                                  "-dname", "CN=localhost", "-validity", "30",
+                                  "-storetype", TestKeyStores.STORE_TYPE, "-keystore", single.getAbsolutePath(),
+                                  "-storepass", TestKeyStores.STORE_PASSWORD,
+                                  "-keypass", TestKeyStores.STORE_PASSWORD);
+        }
+
+        char[] password = TestKeyStores.STORE_PASSWORD.toCharArray();
+        KeyStore source = KeyStore.getInstance(TestKeyStores.STORE_TYPE);
+        try (InputStream in = new FileInputStream(single)) {
+            source.load(in, password);
+        }
+        Key key = source.getKey("host", password);
+        Certificate[] chain = source.getCertificateChain("host");
+
+        KeyStore keyStore = KeyStore.getInstance(TestKeyStores.STORE_TYPE);
+        keyStore.load(null, null);
+        for (int i = 0; i < aliasCount; i++) {
+            keyStore.setKeyEntry("host" + i, key, password, chain);
+        }
+
+        File file = dir.resolve(keyType + "-" + aliasCount + ".p12").toFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            keyStore.store(out, password);
+        }
+        return file;
+    }
+
+    /**
+     * Create a temporary directory for a benchmark's files.
+     */
+    public static Path createDirectory(final String prefix) throws Exception {
+        return Files.createTempDirectory(prefix);
+    }
+
+    /**
+     * Delete a benchmark's directory and its contents.
+     */
+    public static void deleteDirectory(final Path dir) {
+        if (dir != null) {
+            FileWatcherTest.deleteRecursively(dir.toFile());
+        }
+    }
+}
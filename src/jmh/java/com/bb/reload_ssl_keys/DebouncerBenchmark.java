@@ -0,0 +1,58 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link Debouncer#trigger()} when many threads report changes at once, as
+ * happens when a key file is rewritten in many small writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DebouncerBenchmark {
+    @Param({"0", "1"})
+    public long delaySeconds;
+
+    private Debouncer m_debouncer;
+    private final LongAdder m_callbacks = new LongAdder();
+
+    @Setup
+    public void setUp() {
+        m_debouncer = new Debouncer(m_callbacks::increment, delaySeconds);
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_debouncer.shutdown(true);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void triggerUncontended() {
+        m_debouncer.trigger();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void triggerContended() {
+        m_debouncer.trigger();
+    }
+}
@@ -0,0 +1,58 @@
+package com.bb.reload_ssl_keys;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency from writing the watched file to the FileWatcher callback running, with no
+ * callback delay.  This covers the WatchService, the selector thread and the Debouncer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileWatcherBenchmark {
+    private Path m_dir;
+    private Path m_file;
+    private FileWatcher m_fileWatcher;
+    private final Semaphore m_callbacks = new Semaphore(0);
+    private long m_sequence = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_dir = BenchmarkKeyStores.createDirectory("file-watcher-benchmark");
+        m_file = m_dir.resolve("keystore.p12");
+        Files.write(m_file, "initial".getBytes(StandardCharsets.UTF_8));
+        m_fileWatcher = new FileWatcher(m_file, m_callbacks::release, 0L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_fileWatcher.stopWatcher();
+        BenchmarkKeyStores.deleteDirectory(m_dir);
+    }
+
+    @Benchmark
+    public boolean eventToCallback() throws Exception {
+        m_callbacks.drainPermits();
+        Files.write(m_file, Long.toString(m_sequence++).getBytes(StandardCharsets.UTF_8));
+        return m_callbacks.tryAcquire(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,103 @@
+package com.bb.reload_ssl_keys;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of full TLS handshakes against an SslContextFactory before, during and after
+ * a reload.  Handshakes run in memory between SSLEngines, each with a new peer port so the
+ * client can not resume an earlier session.
+ * <ul>
+ *   <li>before - no reloads</li>
+ *   <li>during - a background thread reloads the factory continuously</li>
+ *   <li>after - the factory is reloaded before each iteration</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeBenchmark {
+    @Param({"before", "during", "after"})
+    public String phase;
+
+    @Param({"RSA-2048", "EC-256"})
+    public String keyType;
+
+    private Path m_dir;
+    private SslContextFactory.Server m_sslCtxFactory;
+    private SSLContext m_clientContext;
+    private Thread m_reloader;
+    private volatile boolean m_reloading;
+    private final AtomicInteger m_peerPort = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws Exception {
+        m_dir = BenchmarkKeyStores.createDirectory("handshake-benchmark");
+        m_sslCtxFactory = new SslContextFactory.Server();
+        m_sslCtxFactory.setKeyStorePath(BenchmarkKeyStores.create(m_dir, keyType, 1).getAbsolutePath());
+        m_sslCtxFactory.setKeyStorePassword(TestKeyStores.STORE_PASSWORD);
+        m_sslCtxFactory.start();
+        m_clientContext = TestHandshakes.newTrustAllClientContext();
+
+        if ("during".equals(phase)) {
+            m_reloading = true;
+            m_reloader = new Thread(() -> {
+                while (m_reloading) {
+                    try {
+                        m_sslCtxFactory.reload(scf -> {});
+                    } catch (Exception ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            }, "HandshakeBenchmark-Reloader");
+            m_reloader.setDaemon(true);
+            m_reloader.start();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reloadBeforeIteration() throws Exception {
+        if ("after".equals(phase)) {
+            m_sslCtxFactory.reload(scf -> {});
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (m_reloader != null) {
+            m_reloading = false;
+            m_reloader.join();
+        }
+        m_sslCtxFactory.stop();
+        BenchmarkKeyStores.deleteDirectory(m_dir);
+    }
+
+    @Benchmark
+    public SSLSession fullHandshake() throws Exception {
+        int peerPort = 1024 + (m_peerPort.getAndIncrement() & 0xFFFF);
+        return TestHandshakes.handshake(m_clientContext, m_sslCtxFactory.newSSLEngine(TestHandshakes.HOST, peerPort),
+                                        TestHandshakes.HOST, peerPort);
+    }
+}
@@ -0,0 +1,87 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of reloading keys, across key types and key store sizes.  Both the in place
+ * reload done by the SslContextFactory and the staging done by the KeyStoreLoader are
+ * measured, the latter being the work done off the factory lock when a password is set.
+ * Staging is measured both serially and with one loader thread per processor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReloadBenchmark {
+    @Param({"RSA-2048", "RSA-4096", "EC-256"})
+    public String keyType;
+
+    @Param({"1", "100", "1000"})
+    public int aliasCount;
+
+    @Param({"1", "0"})
+    public int loadParallelism;
+
+    private Path m_dir;
+    private File m_keyStore;
+    private SslContextFactory.Server m_sslCtxFactory;
+    private ParallelLoader m_parallelLoader;
+    private KeyStoreLoader m_keyStoreLoader;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_dir = BenchmarkKeyStores.createDirectory("reload-benchmark");
+        m_keyStore = BenchmarkKeyStores.create(m_dir, keyType, aliasCount);
+
+        m_sslCtxFactory = new SslContextFactory.Server();
+        m_sslCtxFactory.setKeyStorePath(m_keyStore.getAbsolutePath());
+        m_sslCtxFactory.setKeyStorePassword(TestKeyStores.STORE_PASSWORD);
+        m_sslCtxFactory.start();
+
+        m_parallelLoader = new ParallelLoader(loadParallelism);
+        m_keyStoreLoader = new KeyStoreLoader(m_sslCtxFactory, TestKeyStores.STORE_PASSWORD, null, m_parallelLoader);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        m_sslCtxFactory.stop();
+        m_parallelLoader.shutdown();
+        BenchmarkKeyStores.deleteDirectory(m_dir);
+    }
+
+    @Benchmark
+    public SslContextFactory reloadInPlace() throws Exception {
+        m_sslCtxFactory.reload(scf -> {});
+        return m_sslCtxFactory;
+    }
+
+    @Benchmark
+    public KeyMaterial stageKeyStore() throws Exception {
+        return m_keyStoreLoader.load(m_keyStore.toPath());
+    }
+
+    @Benchmark
+    public SslContextFactory stageAndPublish() throws Exception {
+        KeyMaterial keyMaterial = m_keyStoreLoader.load(m_keyStore.toPath());
+        m_sslCtxFactory.reload(scf -> scf.setKeyStore(keyMaterial.getKeyStore()));
+        return m_sslCtxFactory;
+    }
+}
@@ -0,0 +1,89 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses how to watch each file.  Files on file systems known not to deliver WatchService
+ * events for changes made elsewhere, such as network, overlay and FUSE mounts, are polled.
+ * Other files use native events, falling back to polling if the file can not be registered
+ * with the WatchService, for example once the inotify watch limit has been reached.
+ *
+ * @author Scott Stanley
+ */
+public class AutoWatchStrategy implements WatchStrategy {
+    static final Logger LOG = LoggerFactory.getLogger(AutoWatchStrategy.class);
+
+    static final Set<String> POLLED_FILE_STORE_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "smb3", "9p", "virtiofs", "vboxsf",
+            "afs", "ceph", "glusterfs", "overlay", "overlayfs", "aufs")));
+
+    private final WatchStrategy m_native;
+    private final WatchStrategy m_polling;
+
+    public AutoWatchStrategy(final WatchStrategy nativeStrategy, final WatchStrategy pollingStrategy) {
+        m_native = nativeStrategy;
+        m_polling = pollingStrategy;
+    }
+
+    @Override
+    public Watch watch(final Path filePath, final WatchRegistry.Listener listener) throws IOException {
+        return watch(filePath, listener, null);
+    }
+
+    @Override
+    public Watch watch(final Path filePath, final WatchRegistry.Listener listener,
+                       final LongSupplier expiryMillis) throws IOException {
+        String type = fileStoreType(filePath);
+        if (type != null && AutoWatchStrategy.isPolled(type)) {
+            LOG.info("{} is on a {} file system, polling it for changes", filePath, type);
+            return m_polling.watch(filePath, listener, expiryMillis);
+        }
+
+        try {
+            return m_native.watch(filePath, listener);
+        } catch (IOException ex) {
+            LOG.warn("Unable to watch " + filePath + " for events, polling it for changes", ex);
+            return m_polling.watch(filePath, listener, expiryMillis);
+        }
+    }
+
+    /**
+     * Check whether files on a file system of the given type must be polled.
+     */
+    static boolean isPolled(final String fileStoreType) {
+        String type = fileStoreType.toLowerCase(Locale.ENGLISH);
+        return POLLED_FILE_STORE_TYPES.contains(type) || type.startsWith("fuse");
+    }
+
+    /**
+     * Get the type of the file system holding the file, or its directory if the file does
+     * not exist yet.  Returns null if it can not be determined.
+     */
+    static String fileStoreType(final Path filePath) {
+        Path path = filePath.toAbsolutePath();
+        while (path != null) {
+            if (Files.exists(path)) {
+                try {
+                    FileStore store = Files.getFileStore(path);
+                    return store.type();
+                } catch (IOException ex) {
+                    return null;
+                }
+            }
+            path = path.getParent();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,65 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The CallbackExecutor runs the work a timer hands off, such as a reload or a trial parse,
+ * off the {@link SharedScheduler} thread, so one slow or hung reload never holds up the
+ * timers of other modules.  Each owner has its own single thread, run in order, which is
+ * only started when there is work and exits once it has been idle a while, so an idle
+ * owner holds no thread.  When {@link VirtualThreads} are enabled each task runs on a
+ * virtual thread of its own instead.
+ *
+ * @author Scott Stanley
+ */
+public class CallbackExecutor implements Executor {
+    static final Logger LOG = LoggerFactory.getLogger(CallbackExecutor.class);
+    static final long IDLE_MILLIS = 30000L;
+
+    private final String m_name;
+    private final ThreadPoolExecutor m_executor;
+
+    /**
+     * Create an executor.
+     *
+     * @param name The name of the threads tasks run on
+     */
+    public CallbackExecutor(final String name) {
+        m_name = name;
+        m_executor = new ThreadPoolExecutor(1, 1, IDLE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                task -> {
+                    Thread thread = new Thread(task, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        m_executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        VirtualThreads virtualThreads = VirtualThreads.getInstance();
+        if (virtualThreads.isEnabled()) {
+            virtualThreads.newThread(m_name, task).start();
+            return;
+        }
+        try {
+            m_executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Dropping {} task after shutdown", m_name);
+        }
+    }
+
+    /**
+     * Stop accepting tasks, letting any already handed off finish.
+     */
+    public void shutdown() {
+        m_executor.shutdown();
+    }
+}
@@ -0,0 +1,535 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A CertificateDirectory serves every certificate in a directory through a
+ * {@link SniKeyManager}.  Each entry of the directory is one certificate, either a
+ * subdirectory holding fullchain.pem and privkey.pem, as in certbot's live directory, or a
+ * single .pem file holding both the chain and the key.  The alias of each certificate is the
+ * name of its entry, without any .pem suffix.
+ * <p>
+ * The directory is watched for entries being added and removed, and the files of every
+ * entry are watched with the {@link WatchStrategy}.  Changes mark only the affected entries
+ * for refreshing; once the changes have settled the marked entries are fingerprinted, and
+ * only those whose files have changed are parsed again and replaced in the key manager.  An
+ * entry which fails to load keeps serving its previous certificate.
+ * <p>
+ * The marked entries are fingerprinted, parsed and validated in parallel on a
+ * {@link ParallelLoader}, and then replaced in the key manager one at a time in name order.
+ * <p>
+ * On file systems which deliver no events the directory is instead listed again on an
+ * interval to find added and removed entries.
+ *
+ * @author Scott Stanley
+ */
+public class CertificateDirectory {
+    static final Logger LOG = LoggerFactory.getLogger(CertificateDirectory.class);
+    static final String CHAIN_FILE = "fullchain.pem";
+    static final String KEY_FILE = "privkey.pem";
+    static final String PEM_SUFFIX = ".pem";
+
+    private final Path m_directory;
+    private final SniKeyManager m_keyManager;
+    private final WatchStrategy m_strategy;
+    private final long m_rescanMillis;
+    private final Debouncer m_refreshDebouncer;
+    private final ParallelLoader m_parallelLoader;
+    private ReloadMetrics m_metrics = new ReloadMetrics();
+    private final Map<String, Entry> m_entries = new HashMap<>();
+    private final Map<String, WatchRegistry.Registration> m_incomplete = new HashMap<>();
+    private final Set<String> m_dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicLong m_loaded = new AtomicLong();
+    private final AtomicLong m_failed = new AtomicLong();
+    private final AtomicBoolean m_listPending = new AtomicBoolean();
+    private WatchRegistry.Registration m_registration = null;
+    private Scheduler m_scheduler = null;
+    private volatile boolean m_stopped = false;
+
+    /**
+     * Create a certificate directory.  Nothing is loaded until it is started.
+     *
+     * @param directory The directory of certificates
+     * @param keyManager The key manager the certificates are served through
+     * @param strategy How the files of each entry are watched
+     * @param delaySeconds The period changes must settle for before entries are refreshed
+     * @param rescanMillis The interval between listings of the directory, or zero to watch it for events
+     */
+    public CertificateDirectory(final Path directory, final SniKeyManager keyManager,
+                                final WatchStrategy strategy, final long delaySeconds, final long rescanMillis) {
+        this(directory, keyManager, strategy, delaySeconds, rescanMillis, ParallelLoader.SERIAL);
+    }
+
+    /**
+     * Create a certificate directory whose entries are parsed on a parallel loader.
+     *
+     * @param directory The directory of certificates
+     * @param keyManager The key manager the certificates are served through
+     * @param strategy How the files of each entry are watched
+     * @param delaySeconds The period changes must settle for before entries are refreshed
+     * @param rescanMillis The interval between listings of the directory, or zero to watch it for events
+     * @param parallelLoader The loader entries are parsed and validated on
+     */
+    public CertificateDirectory(final Path directory, final SniKeyManager keyManager, final WatchStrategy strategy,
+                                final long delaySeconds, final long rescanMillis, final ParallelLoader parallelLoader) {
+        this(directory, keyManager, strategy, delaySeconds, rescanMillis, parallelLoader, Debouncer.Policy.TRAILING);
+    }
+
+    /**
+     * Create a certificate directory whose refreshes are debounced with the specified policy.
+     *
+     * @param directory The directory of certificates
+     * @param keyManager The key manager the certificates are served through
+     * @param strategy How the files of each entry are watched
+     * @param delaySeconds The period changes must settle for before entries are refreshed
+     * @param rescanMillis The interval between listings of the directory, or zero to watch it for events
+     * @param parallelLoader The loader entries are parsed and validated on
+     * @param policy The bounds on how refreshes are debounced
+     */
+    public CertificateDirectory(final Path directory, final SniKeyManager keyManager, final WatchStrategy strategy,
+                                final long delaySeconds, final long rescanMillis, final ParallelLoader parallelLoader,
+                                final Debouncer.Policy policy) {
+        m_directory = directory.toAbsolutePath().normalize();
+        m_keyManager = keyManager;
+        m_strategy = strategy;
+        m_rescanMillis = rescanMillis;
+        m_refreshDebouncer = new Debouncer(this::refresh, delaySeconds, policy);
+        m_parallelLoader = parallelLoader;
+    }
+
+    /**
+     * Set the metrics the directory's changes and refreshes are counted in.  Must be called
+     * before the directory is started.
+     */
+    void setReloadMetrics(final ReloadMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    /**
+     * Load every entry of the directory and start watching it.
+     *
+     * @throws IOException If the directory can not be listed or watched
+     */
+    public void start() throws IOException {
+        if (m_rescanMillis > 0) {
+            m_scheduler = SharedScheduler.getInstance().acquire();
+            m_scheduler.schedule(this::rescan, m_rescanMillis, TimeUnit.MILLISECONDS);
+        } else {
+            m_registration = WatchRegistry.getInstance().registerDirectory(m_directory,
+                    (entryPath, kind) -> {
+                        if (kind == StandardWatchEventKinds.OVERFLOW) {
+                            eventsLost();
+                        } else {
+                            changed(entryPath.getFileName().toString());
+                        }
+                    });
+        }
+
+        synchronized (this) {
+            m_dirty.addAll(list());
+            refreshDirty();
+        }
+        LOG.info("Loaded {} certificates from {}", m_keyManager.size(), m_directory);
+    }
+
+    /**
+     * Stop watching the directory.  The certificates loaded remain in the key manager.
+     */
+    public void stop() {
+        m_stopped = true;
+        if (m_registration != null) {
+            m_registration.cancel();
+            m_registration = null;
+        }
+        m_refreshDebouncer.shutdown(false);
+        synchronized (this) {
+            for (Entry entry : m_entries.values()) {
+                entry.cancel();
+            }
+            m_entries.clear();
+            for (WatchRegistry.Registration registration : m_incomplete.values()) {
+                registration.cancel();
+            }
+            m_incomplete.clear();
+        }
+        if (m_scheduler != null) {
+            SharedScheduler.getInstance().release();
+            m_scheduler = null;
+        }
+    }
+
+    /**
+     * Get the number of entries loaded, including replacements, since the directory was started.
+     */
+    public long getLoadedCount() {
+        return m_loaded.get();
+    }
+
+    /**
+     * Get the number of entries which failed to load.
+     */
+    public long getFailedCount() {
+        return m_failed.get();
+    }
+
+    /**
+     * Mark an entry for refreshing once changes have settled.
+     */
+    void changed(final String name) {
+        if (! m_stopped && CertificateDirectory.isCandidate(name)) {
+            m_metrics.fileEvent();
+            ReloadEvents.fileChanged(m_directory, name);
+            m_dirty.add(name);
+            m_refreshDebouncer.trigger();
+        }
+    }
+
+    /**
+     * Have the directory listed again by the next refresh, after watch events were lost.
+     * Called on the watch threads, so the listing and loading are left to the refresh.
+     */
+    void eventsLost() {
+        if (! m_stopped) {
+            m_listPending.set(true);
+            m_refreshDebouncer.trigger();
+        }
+    }
+
+    /**
+     * List the directory again, marking entries which have been added or removed.
+     */
+    private void rescan() {
+        if (m_stopped) {
+            return;
+        }
+        try {
+            Set<String> names = list();
+            for (String name : listChanges(names)) {
+                changed(name);
+            }
+        } catch (IOException ex) {
+            LOG.warn("Unable to list certificate directory " + m_directory, ex);
+        } finally {
+            Scheduler scheduler = m_scheduler;
+            if (! m_stopped && scheduler != null) {
+                scheduler.schedule(this::rescan, m_rescanMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Get the names of the entries which have been added or removed, given a listing of the
+     * directory.
+     */
+    private synchronized Set<String> listChanges(final Set<String> names) {
+        Set<String> changes = new TreeSet<>();
+        for (String name : names) {
+            if (! m_entries.containsKey(name)) {
+                changes.add(name);
+            }
+        }
+        for (String name : m_entries.keySet()) {
+            if (! names.contains(name)) {
+                changes.add(name);
+            }
+        }
+        return changes;
+    }
+
+    private Set<String> list() throws IOException {
+        Set<String> names = new TreeSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(m_directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (CertificateDirectory.isCandidate(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Check whether a directory entry could hold a certificate; hidden entries, such as the
+     * ..data links of a Kubernetes volume, are ignored.
+     */
+    private static boolean isCandidate(final String name) {
+        return ! name.startsWith(".");
+    }
+
+    /**
+     * Refresh the entries marked as changed, first listing the directory again if events
+     * were lost.  Runs on the debouncer's callback thread, never the watch selector.
+     */
+    private synchronized void refresh() {
+        if (m_stopped) {
+            return;
+        }
+        if (m_listPending.getAndSet(false)) {
+            try {
+                for (String name : listChanges(list())) {
+                    m_metrics.fileEvent();
+                    ReloadEvents.fileChanged(m_directory, name);
+                    m_dirty.add(name);
+                }
+            } catch (IOException ex) {
+                LOG.warn("Unable to list certificate directory " + m_directory, ex);
+            }
+        }
+        refreshDirty();
+    }
+
+    /**
+     * Refresh each entry marked as changed.  The entries are located and watched in name
+     * order, parsed in parallel, and then replaced in the key manager in name order.
+     */
+    private void refreshDirty() {
+        long startNanos = System.nanoTime();
+        List<String> names = new ArrayList<>(m_dirty);
+        m_dirty.removeAll(names);
+        Collections.sort(names);
+        List<Entry> entries = new ArrayList<>();
+        for (String name : names) {
+            Entry entry = locateChanged(name);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+
+        List<ParallelLoader.Outcome<Parsed>> outcomes = m_parallelLoader.map(entries, Entry::parse);
+        int loaded = 0;
+        int failed = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            try {
+                Parsed parsed = outcomes.get(i).get();
+                if (parsed != null) {
+                    m_keyManager.put(entry.m_alias, parsed.m_privateKey, parsed.m_chain);
+                    entry.m_fingerprints = parsed.m_fingerprints;
+                    m_loaded.incrementAndGet();
+                    loaded++;
+                    LOG.info("Loaded certificate {} from {}", entry.m_alias, entry.m_chainPath);
+                }
+            } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+                m_failed.incrementAndGet();
+                failed++;
+                LOG.warn("Unable to load certificate {} from {}: {}", entry.m_alias, entry.m_chainPath, ex.getMessage());
+            }
+        }
+
+        if (failed > 0) {
+            m_metrics.reloadFailed(m_directory, startNanos);
+        } else if (loaded > 0) {
+            m_metrics.reloadSucceeded(m_directory, startNanos);
+        } else {
+            m_metrics.reloadSkipped(m_directory, startNanos);
+        }
+    }
+
+    /**
+     * Locate the files of an entry, removing it if it no longer holds a certificate and
+     * watching it if its files have changed.  Returns the entry to be parsed, or null if
+     * there is none.
+     */
+    private Entry locateChanged(final String name) {
+        Entry current = m_entries.get(name);
+        Entry found = locate(name);
+        watchIfIncomplete(name, found);
+        if (found == null) {
+            if (current != null) {
+                current.cancel();
+                m_entries.remove(name);
+                m_keyManager.remove(current.m_alias);
+                LOG.info("Removed certificate {}", current.m_alias);
+            }
+            return null;
+        }
+
+        Entry entry = current;
+        if (current == null || ! current.sameFiles(found)) {
+            // Watch the new files before reading them, so no later write is missed
+            entry = found;
+            entry.watch(m_strategy, (path, kind) -> changed(name), m_keyManager);
+            if (current != null) {
+                current.cancel();
+                if (! current.m_alias.equals(entry.m_alias)) {
+                    m_keyManager.remove(current.m_alias);
+                }
+            }
+            m_entries.put(name, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Watch a subdirectory which does not yet hold both files, so the entry is loaded once
+     * they are written.  Polled directories find them when they are next listed.
+     */
+    private void watchIfIncomplete(final String name, final Entry found) {
+        Path path = m_directory.resolve(name);
+        boolean incomplete = found == null && m_registration != null && Files.isDirectory(path);
+        WatchRegistry.Registration registration = m_incomplete.get(name);
+        if (incomplete && registration == null) {
+            try {
+                m_incomplete.put(name, WatchRegistry.getInstance().registerDirectory(path, (p, kind) -> changed(name)));
+            } catch (IOException ex) {
+                LOG.warn("Unable to watch " + path, ex);
+            }
+        } else if (! incomplete && registration != null) {
+            registration.cancel();
+            m_incomplete.remove(name);
+        }
+    }
+
+    /**
+     * Find the files of a directory entry, returning null if it does not hold a certificate.
+     */
+    private Entry locate(final String name) {
+        Path path = m_directory.resolve(name);
+        if (Files.isDirectory(path)) {
+            Path chainPath = path.resolve(CHAIN_FILE);
+            Path keyPath = path.resolve(KEY_FILE);
+            if (Files.isRegularFile(chainPath) && Files.isRegularFile(keyPath)) {
+                return new Entry(name, chainPath, keyPath);
+            }
+        } else if (name.endsWith(PEM_SUFFIX) && name.length() > PEM_SUFFIX.length() && Files.isRegularFile(path)) {
+            return new Entry(name.substring(0, name.length() - PEM_SUFFIX.length()), path, path);
+        }
+        return null;
+    }
+
+    /**
+     * The files of a single certificate and their fingerprints when last loaded.
+     */
+    private static final class Entry {
+        private final String m_alias;
+        private final Path m_chainPath;
+        private final Path m_keyPath;
+        private final List<WatchStrategy.Watch> m_watches = new ArrayList<>();
+        private FileFingerprint[] m_fingerprints = null;
+
+        Entry(final String alias, final Path chainPath, final Path keyPath) {
+            m_alias = alias;
+            m_chainPath = chainPath;
+            m_keyPath = keyPath;
+        }
+
+        private List<Path> files() {
+            return m_chainPath.equals(m_keyPath) ? Collections.singletonList(m_chainPath) :
+                                                   Arrays.asList(m_chainPath, m_keyPath);
+        }
+
+        boolean sameFiles(final Entry other) {
+            return m_alias.equals(other.m_alias) && m_chainPath.equals(other.m_chainPath) &&
+                   m_keyPath.equals(other.m_keyPath);
+        }
+
+        FileFingerprint[] fingerprints() throws IOException {
+            List<Path> files = files();
+            FileFingerprint[] fingerprints = new FileFingerprint[files.size()];
+            for (int i = 0; i < fingerprints.length; i++) {
+                fingerprints[i] = FileFingerprint.of(files.get(i), m_fingerprints == null ? null : m_fingerprints[i]);
+            }
+            return fingerprints;
+        }
+
+        boolean sameContent(final FileFingerprint[] fingerprints) {
+            if (m_fingerprints == null) {
+                return false;
+            }
+            for (int i = 0; i < fingerprints.length; i++) {
+                if (! fingerprints[i].sameContent(m_fingerprints[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parse and validate the certificate, returning null if its files have not changed
+         * since it was last loaded or can not currently be read.
+         */
+        Parsed parse() throws IOException, GeneralSecurityException {
+            FileFingerprint[] fingerprints;
+            try {
+                fingerprints = fingerprints();
+            } catch (IOException ex) {
+                // Part way through being written or removed, wait for the next change
+                LOG.debug("Unable to read certificate " + m_chainPath, ex);
+                return null;
+            }
+            if (sameContent(fingerprints)) {
+                return null;
+            }
+
+            byte[] chainContent = Files.readAllBytes(m_chainPath);
+            byte[] keyContent = m_keyPath.equals(m_chainPath) ? chainContent : Files.readAllBytes(m_keyPath);
+            List<X509Certificate> chain = PemReader.readCertificates(chainContent);
+            if (chain.isEmpty()) {
+                throw new GeneralSecurityException("No certificates found");
+            }
+            PrivateKey privateKey = PemReader.readPrivateKey(keyContent);
+            KeyStoreLoader.validateKeyPair(m_alias, privateKey, chain.get(0).getPublicKey());
+            return new Parsed(fingerprints, privateKey, chain.toArray(new X509Certificate[0]));
+        }
+
+        /**
+         * Watch the files of the entry, polled files being checked more often as this
+         * entry's certificate, not any other, approaches expiry.
+         */
+        void watch(final WatchStrategy strategy, final WatchRegistry.Listener listener, final SniKeyManager keyManager) {
+            for (Path file : files()) {
+                try {
+                    m_watches.add(strategy.watch(file, listener, () -> keyManager.getExpiry(m_alias)));
+                } catch (IOException ex) {
+                    LOG.warn("Unable to watch " + file, ex);
+                }
+            }
+        }
+
+        void cancel() {
+            for (WatchStrategy.Watch watch : m_watches) {
+                watch.cancel();
+            }
+            m_watches.clear();
+        }
+    }
+
+    /**
+     * A parsed and validated certificate, with the fingerprints of the files it was read from.
+     */
+    private static final class Parsed {
+        private final FileFingerprint[] m_fingerprints;
+        private final PrivateKey m_privateKey;
+        private final X509Certificate[] m_chain;
+
+        Parsed(final FileFingerprint[] fingerprints, final PrivateKey privateKey, final X509Certificate[] chain) {
+            m_fingerprints = fingerprints;
+            m_privateKey = privateKey;
+            m_chain = chain;
+        }
+    }
+}
@@ -1,74 +1,398 @@
 package com.bb.reload_ssl_keys;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.jetty.util.thread.Scheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A Debouncer wraps around a simple Runnable object and provides the delay/debouncing logic 
+ * A Debouncer wraps around a simple Runnable object and provides the delay/debouncing logic
  * preventing the run() method from being called until a specified timeout has passed.  All subsequent
- * triggers of execution during the timeout period reset the timer for the timeout, however they 
+ * triggers of execution during the timeout period reset the timer for the timeout, however they
  * run() method is not called until the timeout has passed with no triggers.
- * 
+ * <p>
+ * Triggers do not reschedule a timer; they only push the deadline forward.  A single timer is
+ * armed per burst of triggers, and when it expires early it re-arms itself for the remaining time.
+ * Timers run on a {@link Scheduler} which may be shared by any number of Debouncers.  The
+ * callback is handed off to the Debouncer's own {@link CallbackExecutor}, so a slow callback
+ * does not hold up other timers.  Runs of the callback never overlap.
+ * <p>
+ * A {@link Policy} can bound the debouncing.  A maximum wait runs the callback within a fixed
+ * time of the first trigger of a burst however long the triggers continue, and a minimum
+ * interval keeps runs of the callback apart.  In leading edge mode the callback is run as soon
+ * as a burst starts, and the rest of the burst is suppressed; if further triggers arrived the
+ * callback is run once more when they settle, so the last change is never missed.
+ * <p>
+ * A callback which failed can be retried after a delay.  The retry is superseded by any
+ * trigger, which schedules the run according to the usual delay instead.  A run can also be
+ * requested immediately, cutting short any pending delay.
+ * <p>
+ * Each trigger, and each run of the callback with the number of triggers it coalesced, is
+ * emitted as a flight recorder event through {@link ReloadEvents}.
+ *
  * @author Scott Stanley
  */
 public class Debouncer {
     static final Logger LOG = LoggerFactory.getLogger(Debouncer.class);
-    private final ScheduledExecutorService m_exec;
-    private ScheduledFuture<?> m_future = null;
-    private Long m_delaySeconds;
+    /** How often a due run re-checks whether the previous run, on another thread, has finished */
+    static final long BUSY_RECHECK_MILLIS = 50L;
+    private final Scheduler m_scheduler;
+    private final boolean m_sharedScheduler;
+    private final AtomicLong m_deadline = new AtomicLong();
+    private final AtomicBoolean m_armed = new AtomicBoolean(false);
+    private final AtomicBoolean m_released = new AtomicBoolean(false);
+    private final AtomicInteger m_triggers = new AtomicInteger();
+    private final AtomicLong m_generation = new AtomicLong();
+    private volatile Scheduler.Task m_timer = null;
+    private volatile long m_burstStart;
+    private volatile long m_lastRunEnd;
+    private volatile boolean m_leadingPending = false;
+    private volatile boolean m_retryPending = false;
+    private volatile boolean m_runNowPending = false;
+    private volatile boolean m_running = false;
+    private volatile boolean m_shutdown = false;
+    private final long m_delayNanos;
+    private final long m_maxWaitNanos;
+    private final long m_minIntervalNanos;
+    private final boolean m_leadingEdge;
     private final Runnable m_callback;
+    private final CallbackExecutor m_callbackExecutor = new CallbackExecutor("ReloadSslKeys-Callback");
 
     /**
-     * Create a new Debouncer for the specified callback with the given delay.
-     * 
+     * Create a new Debouncer for the specified callback with the given delay, using the
+     * process wide {@link SharedScheduler}.
+     *
      * @param callback The callback to be wrapped in the Debouncer
      * @param delaySeconds The number of seconds to delay before executing the callback
      */
     public Debouncer(final Runnable callback, final Long delaySeconds) {
+        this(callback, delaySeconds, Policy.TRAILING);
+    }
+
+    /**
+     * Create a new Debouncer for the specified callback with the given delay and policy,
+     * using the process wide {@link SharedScheduler}.
+     *
+     * @param callback The callback to be wrapped in the Debouncer
+     * @param delaySeconds The number of seconds to delay before executing the callback
+     * @param policy The bounds on the debouncing
+     */
+    public Debouncer(final Runnable callback, final Long delaySeconds, final Policy policy) {
+        this(callback, delaySeconds, policy, SharedScheduler.getInstance().acquire(), true);
+    }
+
+    /**
+     * Create a new Debouncer for the specified callback with the given delay, using the
+     * provided scheduler.  The scheduler must be started and is not stopped by the Debouncer.
+     *
+     * @param callback The callback to be wrapped in the Debouncer
+     * @param delaySeconds The number of seconds to delay before executing the callback
+     * @param scheduler The scheduler used to time the delay
+     */
+    public Debouncer(final Runnable callback, final Long delaySeconds, final Scheduler scheduler) {
+        this(callback, delaySeconds, Policy.TRAILING, scheduler, false);
+    }
+
+    private Debouncer(final Runnable callback, final Long delaySeconds, final Policy policy,
+                      final Scheduler scheduler, final boolean sharedScheduler) {
         m_callback = callback;
-        m_delaySeconds = delaySeconds;
-        m_exec = Executors.newSingleThreadScheduledExecutor();
+        m_delayNanos = TimeUnit.SECONDS.toNanos(delaySeconds);
+        m_maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(policy.getMaxWaitMillis());
+        m_minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(policy.getMinIntervalMillis());
+        m_leadingEdge = policy.isLeadingEdge();
+        m_scheduler = scheduler;
+        m_sharedScheduler = sharedScheduler;
         LOG.debug("Created Debouncer(" + delaySeconds + "secs)");
     }
 
     /**
      * Trigger the execution of the callback after the delay.
      */
-    public synchronized void trigger() {
+    public void trigger() {
         LOG.debug("Debouncer triggered: ");
-        
-        // If a scheduled job exists and has not run, cancel it
-        if (m_future != null && !m_future.isDone()) {
-            m_future.cancel(false);
-            m_future = null;
-            
-            LOG.debug("Cancelled existing execution");
+        if (m_shutdown) {
+            LOG.debug("Ignoring trigger after shutdown");
+            return;
+        }
+
+        // Push the deadline out and arm the timer if this is the first trigger of a burst
+        long now = System.nanoTime();
+        m_deadline.set(now + m_delayNanos);
+        m_retryPending = false;
+        int triggers = m_triggers.incrementAndGet();
+        if (m_armed.compareAndSet(false, true)) {
+            m_burstStart = now;
+            m_leadingPending = m_leadingEdge;
+            arm(m_generation.get(), m_leadingEdge ? 0L : m_delayNanos);
+            LOG.debug("Scheduled new execution");
+        }
+        ReloadEvents.debounceTriggered(triggers, m_delayNanos);
+    }
+
+    /**
+     * Run the callback again after the specified delay, unless a trigger arrives first.  If a
+     * run is already pending it serves as the retry.
+     *
+     * @param delayMillis The delay before the retry
+     */
+    public void retry(final long delayMillis) {
+        if (m_shutdown) {
+            LOG.debug("Ignoring retry after shutdown");
+            return;
+        }
+
+        m_retryPending = true;
+        if (m_armed.compareAndSet(false, true)) {
+            long now = System.nanoTime();
+            long delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            m_deadline.set(now + delayNanos);
+            m_burstStart = now;
+            m_leadingPending = false;
+            arm(m_generation.get(), delayNanos);
+            LOG.debug("Scheduled retry in {}ms", delayMillis);
+        }
+    }
+
+    /**
+     * Run the callback as soon as possible, ahead of any pending delay.  The minimum interval
+     * between runs still applies, and a run in progress is waited for.  Triggers arriving
+     * before the run do not push it back out to the delay.
+     */
+    public void runNow() {
+        if (m_shutdown) {
+            LOG.debug("Ignoring run after shutdown");
+            return;
+        }
+
+        long now = System.nanoTime();
+        m_retryPending = true;
+        m_runNowPending = true;
+        m_deadline.set(now);
+        if (m_armed.compareAndSet(false, true)) {
+            m_burstStart = now;
+            m_leadingPending = false;
+            arm(m_generation.get(), 0L);
+        } else {
+            // Replace the armed timer, which may be waiting out a long delay, with one due now
+            long generation = m_generation.incrementAndGet();
+            Scheduler.Task timer = m_timer;
+            if (timer != null) {
+                timer.cancel();
+            }
+            arm(generation, 0L);
+        }
+        LOG.debug("Scheduled immediate run");
+    }
+
+    /**
+     * Schedule the timer for a generation of the timer chain.  A chain which has been replaced
+     * ends the next time its timer expires.
+     */
+    private void arm(final long generation, final long delayNanos) {
+        m_timer = m_scheduler.schedule(() -> expire(generation), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cancel a pending retry, such as when a change which will be run for has been seen.
+     */
+    public void cancelRetry() {
+        m_retryPending = false;
+    }
+
+    /**
+     * Check whether a retry is waiting to run.
+     */
+    public boolean isRetryPending() {
+        return m_retryPending;
+    }
+
+    /**
+     * Called when the armed timer expires.  If the callback is not yet due, because further
+     * triggers have moved the deadline or the minimum interval has not passed, the timer is
+     * re-armed for the remaining time, otherwise the callback is executed.
+     */
+    private void expire(final long generation) {
+        if (generation != m_generation.get()) {
+            return;
+        }
+        if (m_running) {
+            arm(generation, TimeUnit.MILLISECONDS.toNanos(BUSY_RECHECK_MILLIS));
+            return;
+        }
+
+        long deadline = m_deadline.get();
+        long now = System.nanoTime();
+        boolean leading = m_leadingPending;
+        long remaining = dueTime(deadline, now, leading) - now;
+        if (remaining > 0) {
+            arm(generation, remaining);
+            return;
+        }
+
+        if (leading) {
+            // Run for the first trigger, staying armed so the rest of the burst is suppressed
+            // until the triggers settle
+            m_leadingPending = false;
+            m_running = true;
+            long burstStart = m_burstStart;
+            runCallback(m_triggers.getAndSet(0), burstStart);
+            m_burstStart = System.nanoTime();
+            arm(generation, Math.max(0L, m_deadline.get() - System.nanoTime()));
+            return;
         }
 
-        // Register the callback to run after the specified delay
-        m_future = m_exec.schedule(m_callback, m_delaySeconds, TimeUnit.SECONDS);
-        LOG.debug("Scheduled new execution");
+        // Disarm, then catch any trigger which raced with the disarm and missed arming the timer
+        m_running = true;
+        long burstStart = m_burstStart;
+        int triggers = m_triggers.getAndSet(0);
+        boolean retry = m_retryPending;
+        m_retryPending = false;
+        m_runNowPending = false;
+        m_armed.set(false);
+        long newDeadline = m_deadline.get();
+        if (newDeadline != deadline && m_armed.compareAndSet(false, true)) {
+            m_burstStart = System.nanoTime();
+            arm(m_generation.get(), Math.max(0L, newDeadline - System.nanoTime()));
+        }
+
+        if (triggers > 0 || retry) {
+            runCallback(triggers, burstStart);
+        } else {
+            // Only triggers already covered by the previous run, such as the quiet end of a
+            // leading edge burst, or a cancelled retry
+            m_running = false;
+            synchronized (this) {
+                this.notifyAll();
+            }
+            releaseIfIdle();
+        }
+    }
+
+    /**
+     * Get the time the callback is next due, bounding the quiet period deadline by the
+     * maximum wait and the minimum interval.
+     */
+    private long dueTime(final long deadline, final long now, final boolean leading) {
+        boolean immediate = leading || m_runNowPending;
+        long due = immediate ? now : deadline;
+        if (! immediate && m_maxWaitNanos > 0) {
+            long ceiling = m_burstStart + m_maxWaitNanos;
+            if (ceiling - due < 0) {
+                due = ceiling;
+            }
+        }
+        long lastRunEnd = m_lastRunEnd;
+        if (m_minIntervalNanos > 0 && lastRunEnd != 0L) {
+            long earliest = lastRunEnd + m_minIntervalNanos;
+            if (earliest - due > 0) {
+                due = earliest;
+            }
+        }
+        return due;
     }
-    
+
     /**
-     * Shutdown the debouncer.
+     * Hand the callback off to the callback executor, keeping the scheduler's thread free.
      */
-    public synchronized void shutdown(final boolean awaitTermination) {
+    private void runCallback(final int triggers, final long burstStart) {
+        m_callbackExecutor.execute(() -> invokeCallback(triggers, burstStart));
+    }
+
+    private void invokeCallback(final int triggers, final long burstStart) {
+        long runStart = System.nanoTime();
+        try {
+            m_callback.run();
+        } catch (RuntimeException ex) {
+            LOG.warn("Debounced callback failed", ex);
+        } finally {
+            long runEnd = System.nanoTime();
+            m_lastRunEnd = runEnd == 0L ? 1L : runEnd;
+            ReloadEvents.debounceFired(triggers, runStart - burstStart, runEnd - runStart);
+            m_running = false;
+            synchronized (this) {
+                this.notifyAll();
+            }
+            releaseIfIdle();
+        }
+    }
+
+    /**
+     * Shutdown the debouncer.  A pending execution is still run once its delay has passed.
+     */
+    public void shutdown(final boolean awaitTermination) {
         LOG.debug("Shutting down debouncer");
-        m_exec.shutdown();
-        
+        m_shutdown = true;
+
         if (awaitTermination) {
-            try {
-                LOG.debug("Awating debouncer termination");
-                m_exec.awaitTermination(m_delaySeconds, TimeUnit.SECONDS);
-            } catch (InterruptedException ex) {
-                
+            LOG.debug("Awating debouncer termination");
+            long waitUntil = Math.max(m_deadline.get(), System.nanoTime()) + m_delayNanos + m_minIntervalNanos;
+            synchronized (this) {
+                try {
+                    long remaining;
+                    while (isPending() && (remaining = waitUntil - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        releaseIfIdle();
+    }
+
+    private boolean isPending() {
+        return m_armed.get() || m_running;
+    }
+
+    private void releaseIfIdle() {
+        if (m_shutdown && ! isPending() && m_released.compareAndSet(false, true)) {
+            m_callbackExecutor.shutdown();
+            if (m_sharedScheduler) {
+                SharedScheduler.getInstance().release();
             }
         }
     }
+
+    /**
+     * The bounds on how a Debouncer delays its callback.
+     */
+    public static final class Policy {
+        /**
+         * Run the callback only once triggers have settled for the delay, however long that takes.
+         */
+        public static final Policy TRAILING = new Policy(0L, false, 0L);
+
+        private final long m_maxWaitMillis;
+        private final boolean m_leadingEdge;
+        private final long m_minIntervalMillis;
+
+        /**
+         * Create a policy.
+         *
+         * @param maxWaitMillis The longest the callback is delayed after the first trigger of a burst, zero for no limit
+         * @param leadingEdge Run the callback at the start of a burst as well as when it settles
+         * @param minIntervalMillis The shortest time between the end of one run and the start of the next
+         */
+        public Policy(final long maxWaitMillis, final boolean leadingEdge, final long minIntervalMillis) {
+            m_maxWaitMillis = Math.max(0L, maxWaitMillis);
+            m_leadingEdge = leadingEdge;
+            m_minIntervalMillis = Math.max(0L, minIntervalMillis);
+        }
+
+        public long getMaxWaitMillis() {
+            return m_maxWaitMillis;
+        }
+
+        public boolean isLeadingEdge() {
+            return m_leadingEdge;
+        }
+
+        public long getMinIntervalMillis() {
+            return m_minIntervalMillis;
+        }
+    }
 }
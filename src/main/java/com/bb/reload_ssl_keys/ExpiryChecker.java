@@ -0,0 +1,134 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ExpiryChecker guards against missed file events, such as events dropped when a
+ * WatchService overflows or never delivered by the file system.  It periodically checks
+ * whether the key material on disk differs from the key material being served and, if it
+ * does, forces a reload.  Checks run on the {@link SharedScheduler}.
+ * <p>
+ * The interval follows the expiry of the certificate being served.  It is at most the
+ * maximum interval and shrinks as expiry approaches, in the same proportion as a
+ * {@link PollingWatchStrategy}, down to the minimum interval; a certificate a day from
+ * expiry is checked every minute.
+ *
+ * @author Scott Stanley
+ */
+public class ExpiryChecker {
+    static final Logger LOG = LoggerFactory.getLogger(ExpiryChecker.class);
+
+    private final LongSupplier m_expiryMillis;
+    private final BooleanSupplier m_stale;
+    private final Runnable m_reload;
+    private final long m_minIntervalMillis;
+    private final long m_maxIntervalMillis;
+    private final AtomicLong m_checks = new AtomicLong();
+    private final AtomicLong m_forcedReloads = new AtomicLong();
+    private Scheduler m_scheduler = null;
+    private Scheduler.Task m_task = null;
+    private boolean m_stopped = true;
+
+    /**
+     * Create a checker.  Nothing is checked until it is started.
+     *
+     * @param expiryMillis Supplies the expiry time of the certificate being served, or Long.MAX_VALUE if not known
+     * @param stale Checks whether the key material on disk differs from that being served
+     * @param reload Forces a reload of the key material
+     * @param minIntervalMillis The shortest interval between checks
+     * @param maxIntervalMillis The longest interval between checks
+     */
+    public ExpiryChecker(final LongSupplier expiryMillis, final BooleanSupplier stale, final Runnable reload,
+                         final long minIntervalMillis, final long maxIntervalMillis) {
+        m_expiryMillis = expiryMillis;
+        m_stale = stale;
+        m_reload = reload;
+        m_minIntervalMillis = Math.max(1L, minIntervalMillis);
+        m_maxIntervalMillis = Math.max(m_minIntervalMillis, maxIntervalMillis);
+    }
+
+    /**
+     * Start checking.
+     */
+    public synchronized void start() {
+        if (m_stopped) {
+            m_stopped = false;
+            m_scheduler = SharedScheduler.getInstance().acquire();
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Stop checking.
+     */
+    public synchronized void stop() {
+        if (! m_stopped) {
+            m_stopped = true;
+            if (m_task != null) {
+                m_task.cancel();
+                m_task = null;
+            }
+            m_scheduler = null;
+            SharedScheduler.getInstance().release();
+        }
+    }
+
+    /**
+     * Get the interval until the next check.
+     *
+     * @param now The current time
+     * @return The interval in milliseconds
+     */
+    long getInterval(final long now) {
+        long remaining = m_expiryMillis.getAsLong() - now;
+        if (remaining <= 0) {
+            return m_minIntervalMillis;
+        }
+        return Math.max(m_minIntervalMillis,
+                        Math.min(m_maxIntervalMillis, remaining / PollingWatchStrategy.EXPIRY_DIVISOR));
+    }
+
+    /**
+     * Get the number of checks made.
+     */
+    public long getCheckCount() {
+        return m_checks.get();
+    }
+
+    /**
+     * Get the number of reloads forced because the key material on disk had changed.
+     */
+    public long getForcedReloadCount() {
+        return m_forcedReloads.get();
+    }
+
+    private synchronized void scheduleNext() {
+        if (! m_stopped) {
+            long interval = getInterval(System.currentTimeMillis());
+            m_task = m_scheduler.schedule(this::check, interval, TimeUnit.MILLISECONDS);
+            LOG.debug("Next key material check in {}ms", interval);
+        }
+    }
+
+    private void check() {
+        try {
+            m_checks.incrementAndGet();
+            if (m_stale.getAsBoolean()) {
+                m_forcedReloads.incrementAndGet();
+                LOG.warn("Key material on disk differs from that being served, a change event was missed; reloading");
+                m_reload.run();
+            }
+        } catch (RuntimeException ex) {
+            LOG.warn("Key material check failed", ex);
+        } finally {
+            scheduleNext();
+        }
+    }
+}
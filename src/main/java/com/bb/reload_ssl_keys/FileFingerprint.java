@@ -0,0 +1,152 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A FileFingerprint captures the size, modification time and SHA-256 digest of a file so
+ * that a change notification can be checked against the content actually on disk.  The
+ * size and modification time are used as a fast pre-check; the file is only read and
+ * digested again when either of them has changed.
+ *
+ * @author Scott Stanley
+ */
+public final class FileFingerprint {
+    static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Modification times closer than this to the time the fingerprint was taken are not
+     * trusted for the pre-check, as a further write within the file system's timestamp
+     * granularity would not change them.
+     */
+    static final long RACY_MTIME_MILLIS = 2000L;
+
+    private final long m_size;
+    private final long m_lastModified;
+    private final long m_capturedAt;
+    private final byte[] m_digest;
+
+    private FileFingerprint(final long size, final long lastModified,
+                            final long capturedAt, final byte[] digest) {
+        m_size = size;
+        m_lastModified = lastModified;
+        m_capturedAt = capturedAt;
+        m_digest = digest;
+    }
+
+    /**
+     * Take the fingerprint of a file, reading and digesting its full content.
+     *
+     * @param filePath The file to fingerprint
+     * @return The fingerprint
+     * @throws IOException If the file can not be read
+     */
+    public static FileFingerprint of(final Path filePath)
+            throws IOException {
+        return FileFingerprint.of(filePath, null);
+    }
+
+    /**
+     * Take the fingerprint of a file, re-using a previous fingerprint when the size and
+     * modification time show the file can not have changed since it was taken.
+     *
+     * @param filePath The file to fingerprint
+     * @param previous The previous fingerprint of the same file, may be null
+     * @return The fingerprint, which is the previous instance if the file was not re-read
+     * @throws IOException If the file can not be read
+     */
+    public static FileFingerprint of(final Path filePath, final FileFingerprint previous)
+            throws IOException {
+        long capturedAt = System.currentTimeMillis();
+        BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+
+        if (previous != null && previous.m_size == size && previous.m_lastModified == lastModified &&
+                previous.m_capturedAt - lastModified > RACY_MTIME_MILLIS) {
+            return previous;
+        }
+
+        return new FileFingerprint(size, lastModified, capturedAt, FileFingerprint.digest(filePath));
+    }
+
+    private static byte[] digest(final Path filePath)
+            throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " not supported", ex);
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(filePath)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Check whether this fingerprint describes the same content as another.
+     *
+     * @param other The fingerprint to compare with, may be null
+     * @return True if the digests of the two fingerprints match
+     */
+    public boolean sameContent(final FileFingerprint other) {
+        return other != null && MessageDigest.isEqual(m_digest, other.m_digest);
+    }
+
+    public long getSize() {
+        return m_size;
+    }
+
+    public long getLastModified() {
+        return m_lastModified;
+    }
+
+    /**
+     * Get the digest of the file content as a lower case hex string.
+     *
+     * @return The hex encoded digest
+     */
+    public String getDigestHex() {
+        StringBuilder hex = new StringBuilder(m_digest.length * 2);
+        for (byte b : m_digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (! (obj instanceof FileFingerprint)) {
+            return false;
+        }
+        FileFingerprint other = (FileFingerprint) obj;
+        return m_size == other.m_size && m_lastModified == other.m_lastModified &&
+               Arrays.equals(m_digest, other.m_digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(m_digest);
+    }
+
+    @Override
+    public String toString() {
+        return "FileFingerprint[size=" + m_size + ", lastModified=" + m_lastModified +
+               ", " + DIGEST_ALGORITHM + "=" + getDigestHex() + "]";
+    }
+}
@@ -1,13 +1,8 @@
 package com.bb.reload_ssl_keys;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.nio.file.StandardWatchEventKinds;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,83 +10,137 @@ import org.slf4j.LoggerFactory;
 /**
  * The FileWatcher provides the logic for monitoring the directory containing a specified
  * file path for changes.  When the watcher is notified of a change in the file at the specified
- * path, then the run() method on the provided callback is executed.
+ * path, then the run() method on the provided callback is executed.  The directory itself is 
+ * watched through the shared {@link WatchRegistry}, so any number of FileWatchers share a 
+ * single WatchService and selector thread.  Files reached through symbolic links are watched
+ * through a {@link SymlinkChainWatch}, so re-pointing any link on the way to the file is seen
+ * as a change to the file.  How the file is watched is decided by a {@link WatchStrategy}; by
+ * default files on file systems which deliver no events are polled instead.
+ * <p>
+ * By default the callback is run once no change has been seen for the callback delay.  If a
+ * trial parse of the file is provided, a {@link WriteCompletionDetector} instead runs the
+ * callback as soon as the write is complete, with the callback delay as the longest wait.
+ * Every change seen is emitted as a flight recorder event through {@link ReloadEvents}.
  * 
  * @author Scott Stanley
  */
 public class FileWatcher {
     static final Logger LOG = LoggerFactory.getLogger(FileWatcher.class);
+    static final long DEFAULT_POLL_MIN_MILLIS = 1000L;
+    static final long DEFAULT_POLL_MAX_MILLIS = 60000L;
 
-    final private Path m_fileName;
-    final private Path m_parentDir;
-    final private WatchService m_watcher;
-    private boolean m_stopped = false;
-    final private Thread m_watcherThread;
+    final private WatchStrategy.Watch m_registration;
     final private Debouncer m_callbackDebouncer;
+    final private WriteCompletionDetector m_completionDetector;
 
     public FileWatcher(final Path filePath, final Runnable callback, final Long callbackDelaySeconds) 
             throws IOException {
-        //
-        // Configure the watcher
-        //
-        m_watcher = FileSystems.getDefault().newWatchService();
-        
-        m_fileName = filePath.getFileName();
-        m_parentDir = filePath.getParent();
-  
-        m_parentDir.register(m_watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this(filePath, callback, callbackDelaySeconds, null, 0L);
+    }
+
+    public FileWatcher(final Path filePath, final Runnable callback, final Long callbackDelaySeconds,
+                       final Predicate<Path> trialParse, final long quietMillis)
+            throws IOException {
+        this(filePath, callback, callbackDelaySeconds, trialParse, quietMillis, 
+             FileWatcher.defaultStrategy());
+    }
+
+    /**
+     * Get the default strategy, using native events where available and polling elsewhere.
+     */
+    static WatchStrategy defaultStrategy() {
+        return new AutoWatchStrategy(new NativeWatchStrategy(),
+                new PollingWatchStrategy(DEFAULT_POLL_MIN_MILLIS, DEFAULT_POLL_MAX_MILLIS, null));
+    }
+
+    /**
+     * Create a FileWatcher which runs the callback once a write to the file is complete.
+     *
+     * @param filePath The file to watch
+     * @param callback The callback to run when the file has changed
+     * @param callbackDelaySeconds The delay after the last change, or with a trial parse the longest wait
+     * @param trialParse Test of whether the file content is complete, or null to use the delay alone
+     * @param quietMillis The period the file must be stable for before it is parsed
+     * @param strategy How the file is watched
+     */
+    public FileWatcher(final Path filePath, final Runnable callback, final Long callbackDelaySeconds,
+                       final Predicate<Path> trialParse, final long quietMillis, final WatchStrategy strategy)
+            throws IOException {
+        this(filePath, callback, callbackDelaySeconds, trialParse, quietMillis, strategy, Debouncer.Policy.TRAILING);
+    }
+
+    /**
+     * Create a FileWatcher whose callback is debounced with the specified policy.
+     *
+     * @param filePath The file to watch
+     * @param callback The callback to run when the file has changed
+     * @param callbackDelaySeconds The delay after the last change, or with a trial parse the longest wait
+     * @param trialParse Test of whether the file content is complete, or null to use the delay alone
+     * @param quietMillis The period the file must be stable for before it is parsed
+     * @param strategy How the file is watched
+     * @param policy The bounds on how the callback is debounced
+     */
+    public FileWatcher(final Path filePath, final Runnable callback, final Long callbackDelaySeconds,
+                       final Predicate<Path> trialParse, final long quietMillis, final WatchStrategy strategy,
+                       final Debouncer.Policy policy)
+            throws IOException {
+        if (trialParse == null) {
+            m_callbackDebouncer = new Debouncer(callback, callbackDelaySeconds, policy);
+            m_completionDetector = null;
+        } else {
+            m_callbackDebouncer = new Debouncer(callback, 0L, policy);
+            m_completionDetector = new WriteCompletionDetector(filePath, trialParse, quietMillis,
+                    callbackDelaySeconds * 1000L, m_callbackDebouncer::trigger);
+        }
         
         //
-        // Start the thread waiting on changes
+        // Register the file with the shared watcher
         //
-        m_callbackDebouncer = new Debouncer(callback, callbackDelaySeconds);
-        Runnable runner = () -> {
-            while (! m_stopped) {
-                // Get the event key
-                WatchKey key;
-                try {
-                    key = m_watcher.take();
-                } catch (InterruptedException x) {
-                    return;
-                }
-                
-                // Process the events
-                for (WatchEvent<?> event: key.pollEvents()) {
-                    WatchEvent.Kind<?> kind = event.kind();
-                    
-                    if (kind == StandardWatchEventKinds.ENTRY_CREATE ||
-                            kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-                        Path modifiedPath = Path.class.cast(event.context());
-                        
-                        if (modifiedPath.equals(m_fileName)) {
-                            File updatedFile = m_parentDir.resolve(modifiedPath).toFile();
-                            LOG.info("File modified: ", updatedFile.getAbsolutePath());
-                            m_callbackDebouncer.trigger();
-                        }
-                    }
+        try {
+            m_registration = strategy.watch(filePath, (modifiedPath, kind) -> {
+                LOG.info("File modified: {}", modifiedPath);
+                ReloadEvents.fileChanged(modifiedPath, kind);
+                if (m_completionDetector != null) {
+                    // The callback will run once the write is complete, not mid-write
+                    m_callbackDebouncer.cancelRetry();
+                    m_completionDetector.fileChanged(kind);
+                } else {
+                    m_callbackDebouncer.trigger();
                 }
-                
-                // Reset the key for future events
-                key.reset();
+            });
+        } catch (IOException ex) {
+            if (m_completionDetector != null) {
+                m_completionDetector.shutdown();
             }
-        };
-        
-        m_watcherThread = new Thread(runner);
-        m_watcherThread.start();
+            m_callbackDebouncer.shutdown(false);
+            throw ex;
+        }
     }
     
+    /**
+     * Run the callback again after the specified delay, unless the file changes first.
+     *
+     * @param delayMillis The delay before the retry
+     */
+    public void retry(final long delayMillis) {
+        m_callbackDebouncer.retry(delayMillis);
+    }
+
+    /**
+     * Run the callback now, without waiting for a change or the callback delay.
+     */
+    public void runNow() {
+        m_callbackDebouncer.runNow();
+    }
+
     /**
      * Stop the file watcher
      */
     public void stopWatcher() {
-        m_stopped = true;
-        m_watcherThread.interrupt();
-        
-        try {
-            m_watcher.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        m_registration.cancel();
+        if (m_completionDetector != null) {
+            m_completionDetector.shutdown();
         }
-        
+        m_callbackDebouncer.shutdown(false);
     }
 }
@@ -0,0 +1,141 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A token bucket which limits the rate of full TLS handshakes for a window after each
+ * reload.  When the keys change every reconnecting client needs a full handshake, and
+ * without a limit those handshakes can occupy every core at once.  Within the window a
+ * handshake with no token available is shed at once, leaving the client to retry.  Outside
+ * the window every handshake is admitted without any locking.
+ * <p>
+ * A handshake can instead be allowed to wait briefly for a token, but the wait parks the
+ * Jetty selector or worker thread choosing the key, the very threads the limit protects, so
+ * it is capped at {@link #MAX_WAIT_CAP_MILLIS}.
+ *
+ * @author Scott Stanley
+ */
+public class HandshakeLimiter {
+    static final Logger LOG = LoggerFactory.getLogger(HandshakeLimiter.class);
+    /** The longest a handshake may hold its thread waiting for a token */
+    static final long MAX_WAIT_CAP_MILLIS = 10L;
+
+    private final double m_burst;
+    private final double m_nanosPerToken;
+    private final long m_maxWaitNanos;
+    private final long m_windowNanos;
+    private volatile long m_windowEnd;
+    private double m_tokens;
+    private long m_lastRefill;
+    private final AtomicLong m_admitted = new AtomicLong();
+    private final AtomicLong m_delayed = new AtomicLong();
+    private final AtomicLong m_shed = new AtomicLong();
+
+    /**
+     * Create a limiter.  It is inactive until the first window is started.
+     *
+     * @param ratePerSec The number of handshakes admitted per second within the window
+     * @param burst The number of handshakes which may be admitted at once, at least one
+     * @param maxWaitMillis The longest a handshake waits for a token before it is shed, zero
+     *                      to shed at once; capped at {@link #MAX_WAIT_CAP_MILLIS}
+     * @param windowMillis The period after each reload during which the limit applies
+     */
+    public HandshakeLimiter(final double ratePerSec, final int burst,
+                            final long maxWaitMillis, final long windowMillis) {
+        if (ratePerSec <= 0) {
+            throw new IllegalArgumentException("Handshake rate must be positive: " + ratePerSec);
+        }
+        m_burst = Math.max(1, burst);
+        m_nanosPerToken = TimeUnit.SECONDS.toNanos(1) / ratePerSec;
+        if (maxWaitMillis > MAX_WAIT_CAP_MILLIS) {
+            LOG.warn("Handshake wait of {}ms would hold Jetty threads, capping it at {}ms",
+                     maxWaitMillis, MAX_WAIT_CAP_MILLIS);
+        }
+        m_maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(MAX_WAIT_CAP_MILLIS, Math.max(0L, maxWaitMillis)));
+        m_windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        m_windowEnd = System.nanoTime();
+    }
+
+    /**
+     * Start a limiting window, beginning with a full bucket.
+     */
+    public void startWindow() {
+        long now = System.nanoTime();
+        synchronized (this) {
+            m_tokens = m_burst;
+            m_lastRefill = now;
+        }
+        m_windowEnd = now + m_windowNanos;
+        LOG.debug("Limiting handshakes for {}ms", TimeUnit.NANOSECONDS.toMillis(m_windowNanos));
+    }
+
+    /**
+     * Check whether the limiting window is open.
+     */
+    public boolean isLimiting() {
+        return System.nanoTime() - m_windowEnd < 0;
+    }
+
+    /**
+     * Admit a handshake, shedding it if the window is open and the bucket is empty, unless a
+     * token is due within the maximum wait.
+     *
+     * @return true if the handshake may proceed, false if it should be shed
+     */
+    public boolean admit() {
+        long now = System.nanoTime();
+        if (now - m_windowEnd >= 0) {
+            return true;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            m_tokens = Math.min(m_burst, m_tokens + (now - m_lastRefill) / m_nanosPerToken);
+            m_lastRefill = now;
+
+            // Tokens below zero are reserved by handshakes already waiting
+            waitNanos = m_tokens >= 1 ? 0L : (long) ((1 - m_tokens) * m_nanosPerToken);
+            if (waitNanos > m_maxWaitNanos) {
+                m_shed.incrementAndGet();
+                return false;
+            }
+            m_tokens -= 1;
+        }
+
+        if (waitNanos > 0) {
+            m_delayed.incrementAndGet();
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        m_admitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Get the number of handshakes admitted within a window.
+     */
+    public long getAdmittedCount() {
+        return m_admitted.get();
+    }
+
+    /**
+     * Get the number of admitted handshakes which had to wait for a token.
+     */
+    public long getDelayedCount() {
+        return m_delayed.get();
+    }
+
+    /**
+     * Get the number of handshakes shed.
+     */
+    public long getShedCount() {
+        return m_shed.get();
+    }
+}
@@ -0,0 +1,271 @@
+package com.bb.reload_ssl_keys;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The HandshakeWarmer runs full TLS handshakes against the candidate SSLContext of staged key
+ * material before it is published.  The first handshakes with new keys run through cold key
+ * manager and SSLEngine code, and for RSA keys compute the blinding parameters, so without
+ * warming they are slow at exactly the moment every client reconnects.
+ * <p>
+ * The handshakes run entirely in memory between a client and a server SSLEngine, for each
+ * protocol the factory has selected and each family of its cipher suites, where a family is a
+ * key exchange and cipher regardless of key size and hash.  Families which can not be used
+ * with the keys, such as ECDSA suites with an RSA key, are skipped after their first
+ * handshake fails.
+ * <p>
+ * The handshakes also validate the key material end to end; it is rejected if any protocol
+ * completes no handshake, or a handshake presents a certificate which is not in the key
+ * material.
+ *
+ * @author Scott Stanley
+ */
+public class HandshakeWarmer {
+    private static final Logger LOG = LoggerFactory.getLogger(HandshakeWarmer.class);
+    private static final String TLS13 = "TLSv1.3";
+    private static final int MAX_STEPS = 1000;
+
+    private final SslContextFactory m_sslCtxFactory;
+    private final int m_handshakes;
+    private final AtomicLong m_handshakeCount = new AtomicLong();
+    private SSLContext m_clientContext = null;
+
+    /**
+     * Create a warmer for key material staged for the factory.
+     *
+     * @param sslCtxFactory The factory whose protocols and cipher suites are warmed
+     * @param handshakes The number of handshakes run for each protocol and cipher family
+     */
+    public HandshakeWarmer(final SslContextFactory sslCtxFactory, final int handshakes) {
+        m_sslCtxFactory = sslCtxFactory;
+        m_handshakes = handshakes;
+    }
+
+    /**
+     * Get the number of handshakes completed against candidate contexts.
+     *
+     * @return The number of handshakes
+     */
+    public long getHandshakeCount() {
+        return m_handshakeCount.get();
+    }
+
+    /**
+     * Run the handshakes against the candidate context of the key material.
+     *
+     * @param keyMaterial The staged key material
+     * @throws GeneralSecurityException If a protocol completes no handshake or the wrong
+     *                                  certificate is presented
+     */
+    public void warm(final KeyMaterial keyMaterial) throws GeneralSecurityException {
+        long startNanos = System.nanoTime();
+        SSLContext candidate = keyMaterial.getCandidateContext();
+        SSLEngine probe = candidate.createSSLEngine();
+        String[] protocols = m_sslCtxFactory.getSelectedProtocols() != null ?
+                m_sslCtxFactory.getSelectedProtocols() : probe.getEnabledProtocols();
+        String[] cipherSuites = m_sslCtxFactory.getSelectedCipherSuites() != null ?
+                m_sslCtxFactory.getSelectedCipherSuites() : probe.getEnabledCipherSuites();
+
+        int handshakes = 0;
+        for (String protocol : protocols) {
+            if (protocol.startsWith("SSLv2")) {
+                continue;
+            }
+            int completed = 0;
+            for (Map.Entry<String, List<String>> family : HandshakeWarmer.families(protocol, cipherSuites).entrySet()) {
+                String[] suites = family.getValue().toArray(new String[0]);
+                for (int i = 0; i < m_handshakes; i++) {
+                    SSLEngine server = candidate.createSSLEngine();
+                    server.setUseClientMode(false);
+                    server.setEnabledProtocols(protocols);
+                    server.setEnabledCipherSuites(cipherSuites);
+                    SSLEngine client = getClientContext().createSSLEngine();
+                    client.setUseClientMode(true);
+                    client.setEnabledProtocols(new String[] {protocol});
+                    client.setEnabledCipherSuites(suites);
+                    try {
+                        HandshakeWarmer.handshake(client, server);
+                    } catch (SSLException ex) {
+                        LOG.debug("Skipping {} {} handshakes", protocol, family.getKey(), ex);
+                        break;
+                    }
+                    HandshakeWarmer.checkPresented(keyMaterial, client.getSession());
+                    completed++;
+                }
+            }
+            if (completed == 0) {
+                throw new GeneralSecurityException("No " + protocol + " handshake completed with " + keyMaterial);
+            }
+            handshakes += completed;
+        }
+
+        m_handshakeCount.addAndGet(handshakes);
+        LOG.info("Warmed {} with {} handshakes in {}ms", keyMaterial, handshakes,
+                 (System.nanoTime() - startNanos) / 1000000L);
+    }
+
+    /**
+     * Group the cipher suites usable with a protocol into families, dropping the key sizes
+     * and hash from each name.  TLS 1.3 suites are only usable with TLS 1.3, and the others
+     * only with earlier protocols.
+     */
+    static Map<String, List<String>> families(final String protocol, final String[] cipherSuites) {
+        Map<String, List<String>> families = new LinkedHashMap<>();
+        for (String suite : cipherSuites) {
+            boolean tls13Suite = ! suite.contains("_WITH_");
+            if (suite.endsWith("_SCSV") || tls13Suite != TLS13.equals(protocol)) {
+                continue;
+            }
+            families.computeIfAbsent(HandshakeWarmer.family(suite), f -> new ArrayList<>()).add(suite);
+        }
+        return families;
+    }
+
+    /**
+     * Get the family of a cipher suite, such as ECDHE_RSA_WITH_AES_GCM for
+     * TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384.
+     */
+    static String family(final String suite) {
+        StringBuilder family = new StringBuilder();
+        String[] parts = suite.split("_");
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.chars().allMatch(Character::isDigit) || part.startsWith("SHA") || part.equals("MD5")) {
+                continue;
+            }
+            if (family.length() > 0) {
+                family.append('_');
+            }
+            family.append(part);
+        }
+        return family.toString();
+    }
+
+    /**
+     * Check the certificate presented by the candidate context is one of the key material's.
+     */
+    private static void checkPresented(final KeyMaterial keyMaterial, final SSLSession session)
+            throws GeneralSecurityException {
+        Certificate[] chain;
+        try {
+            chain = session.getPeerCertificates();
+        } catch (SSLPeerUnverifiedException ex) {
+            throw new GeneralSecurityException("Handshake with " + keyMaterial + " presented no certificate", ex);
+        }
+        if (chain.length == 0 || ! keyMaterial.getCertificates().containsValue((X509Certificate) chain[0])) {
+            throw new GeneralSecurityException("Handshake with " + keyMaterial +
+                                               " presented a certificate which is not in the key material");
+        }
+    }
+
+    /**
+     * Get the client context, which trusts every server certificate; the certificate
+     * presented is checked against the key material instead.
+     */
+    private synchronized SSLContext getClientContext() throws GeneralSecurityException {
+        if (m_clientContext == null) {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[] {new X509TrustManager() {
+                @Override
+                public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+                }
+
+                @Override
+                public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+                }
+
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+            }}, null);
+            m_clientContext = context;
+        }
+        return m_clientContext;
+    }
+
+    /**
+     * Run a handshake between a client and a server engine, passing their records through
+     * memory until both have finished.
+     *
+     * @param client The client engine
+     * @param server The server engine
+     * @throws SSLException If the handshake fails or does not complete
+     */
+    static void handshake(final SSLEngine client, final SSLEngine server) throws SSLException {
+        int packetSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+        int appSize = Math.max(client.getSession().getApplicationBufferSize(), server.getSession().getApplicationBufferSize());
+        ByteBuffer clientToServer = ByteBuffer.allocate(packetSize);
+        ByteBuffer serverToClient = ByteBuffer.allocate(packetSize);
+        ByteBuffer clientApp = ByteBuffer.allocate(appSize);
+        ByteBuffer serverApp = ByteBuffer.allocate(appSize);
+        ByteBuffer empty = ByteBuffer.allocate(0);
+
+        client.beginHandshake();
+        server.beginHandshake();
+        for (int steps = 0; steps < MAX_STEPS; steps++) {
+            if (HandshakeWarmer.isDone(client) && HandshakeWarmer.isDone(server)) {
+                return;
+            }
+            HandshakeWarmer.step(client, empty, clientToServer, serverToClient, clientApp);
+            HandshakeWarmer.step(server, empty, serverToClient, clientToServer, serverApp);
+        }
+        throw new SSLHandshakeException("Handshake did not complete");
+    }
+
+    private static boolean isDone(final SSLEngine engine) {
+        HandshakeStatus status = engine.getHandshakeStatus();
+        return status == HandshakeStatus.NOT_HANDSHAKING || status == HandshakeStatus.FINISHED;
+    }
+
+    private static void step(final SSLEngine engine, final ByteBuffer empty, final ByteBuffer out,
+                             final ByteBuffer in, final ByteBuffer app) throws SSLException {
+        switch (engine.getHandshakeStatus()) {
+            case NEED_WRAP:
+                engine.wrap(empty, out);
+                HandshakeWarmer.runTasks(engine);
+                break;
+            case NEED_TASK:
+                HandshakeWarmer.runTasks(engine);
+                break;
+            default:
+                // Also drain post handshake messages, such as session tickets
+                if (in.position() > 0) {
+                    in.flip();
+                    engine.unwrap(in, app);
+                    in.compact();
+                    HandshakeWarmer.runTasks(engine);
+                }
+                break;
+        }
+    }
+
+    private static void runTasks(final SSLEngine engine) {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.bb.reload_ssl_keys;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder event types of the module.  This class references the jdk.jfr API
+ * and must only be used through {@link ReloadEvents}, which checks the API is present.
+ * <p>
+ * Each event is created and checked with isEnabled() before any field is filled in, so when
+ * the event type is not being recorded the JIT removes the allocation entirely.
+ *
+ * @author Scott Stanley
+ */
+final class JfrEvents {
+    static final String CATEGORY = "Reload SSL Keys";
+    static final String PREFIX = "com.bb.reload_ssl_keys.";
+
+    private JfrEvents() {
+    }
+
+    static void fileChanged(final Path path, final String name, final WatchEvent.Kind<?> kind) {
+        FileChanged event = new FileChanged();
+        if (event.isEnabled()) {
+            event.path = (name == null ? path : path.resolve(name)).toString();
+            event.kind = kind == null ? null : kind.name();
+            event.commit();
+        }
+    }
+
+    static void debounceTriggered(final int triggers, final long delayNanos) {
+        DebounceTriggered event = new DebounceTriggered();
+        if (event.isEnabled()) {
+            event.triggers = triggers;
+            event.delay = delayNanos;
+            event.commit();
+        }
+    }
+
+    static void debounceFired(final int triggers, final long waitedNanos, final long runNanos) {
+        DebounceFired event = new DebounceFired();
+        if (event.isEnabled()) {
+            event.coalesced = triggers;
+            event.waited = waitedNanos;
+            event.run = runNanos;
+            event.commit();
+        }
+    }
+
+    static void reload(final Object source, final String outcome,
+                       final long durationNanos, final long eventToReloadNanos) {
+        Reload event = new Reload();
+        if (event.isEnabled()) {
+            event.source = String.valueOf(source);
+            event.outcome = outcome;
+            event.reloadDuration = durationNanos;
+            event.eventToReload = eventToReloadNanos;
+            event.commit();
+        }
+    }
+
+    @Name(PREFIX + "FileChanged")
+    @Label("File Changed")
+    @Category(CATEGORY)
+    @Description("A change event delivered for a watched key, trust or certificate file")
+    @StackTrace(false)
+    static final class FileChanged extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Kind")
+        String kind;
+    }
+
+    @Name(PREFIX + "DebounceTriggered")
+    @Label("Debounce Triggered")
+    @Category(CATEGORY)
+    @Description("A trigger of a debouncer, postponing its callback")
+    @StackTrace(false)
+    static final class DebounceTriggered extends Event {
+        @Label("Triggers In Burst")
+        int triggers;
+
+        @Label("Delay")
+        @Timespan(Timespan.NANOSECONDS)
+        long delay;
+    }
+
+    @Name(PREFIX + "DebounceFired")
+    @Label("Debounce Fired")
+    @Category(CATEGORY)
+    @Description("A debouncer running its callback once triggers have settled")
+    @StackTrace(false)
+    static final class DebounceFired extends Event {
+        @Label("Coalesced Triggers")
+        int coalesced;
+
+        @Label("Waited")
+        @Description("Time from the first trigger of the burst to the callback running")
+        @Timespan(Timespan.NANOSECONDS)
+        long waited;
+
+        @Label("Callback Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long run;
+    }
+
+    @Name(PREFIX + "Reload")
+    @Label("Reload")
+    @Category(CATEGORY)
+    @Description("A reload of keys, trust material or directory entries")
+    @StackTrace(false)
+    static final class Reload extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Reload Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long reloadDuration;
+
+        @Label("Event To Reload")
+        @Description("Time from the first file event to the end of the reload, -1 if not started by an event")
+        @Timespan(Timespan.NANOSECONDS)
+        long eventToReload;
+    }
+}
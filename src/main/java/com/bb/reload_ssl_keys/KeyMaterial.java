@@ -0,0 +1,131 @@
+package com.bb.reload_ssl_keys;
+
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.eclipse.jetty.util.ssl.X509;
+
+/**
+ * KeyMaterial is the immutable result of staging a key store off the hot path.  The key
+ * store it holds has already been parsed, decrypted and validated, and is ready to be
+ * handed to an SslContextFactory without any further disk I/O.
+ *
+ * @author Scott Stanley
+ */
+public final class KeyMaterial {
+    private final KeyStore m_keyStore;
+    private final Map<String, X509Certificate> m_certificates;
+    private final X509ExtendedKeyManager m_keyManager;
+    private final SSLContext m_candidateContext;
+    private final long m_earliestExpiry;
+
+    KeyMaterial(final KeyStore keyStore, final Map<String, X509Certificate> certificates,
+                final X509ExtendedKeyManager keyManager, final SSLContext candidateContext) {
+        m_keyStore = keyStore;
+        m_certificates = Collections.unmodifiableMap(certificates);
+        m_keyManager = keyManager;
+        m_candidateContext = candidateContext;
+        long expiry = Long.MAX_VALUE;
+        for (X509Certificate certificate : certificates.values()) {
+            if (certificate != null) {
+                expiry = Math.min(expiry, certificate.getNotAfter().getTime());
+            }
+        }
+        m_earliestExpiry = expiry;
+    }
+
+    /**
+     * Get the in memory key store, ready to be set on an SslContextFactory.
+     *
+     * @return The staged key store
+     */
+    public KeyStore getKeyStore() {
+        return m_keyStore;
+    }
+
+    /**
+     * Get the aliases of the private key entries in the key store.
+     *
+     * @return The private key aliases
+     */
+    public Set<String> getAliases() {
+        return m_certificates.keySet();
+    }
+
+    /**
+     * Get the leaf certificate of each private key entry, indexed by alias.
+     *
+     * @return The leaf certificates
+     */
+    public Map<String, X509Certificate> getCertificates() {
+        return m_certificates;
+    }
+
+    /**
+     * Get the earliest expiry of the leaf certificates, Long.MAX_VALUE if there are none.
+     *
+     * @return The earliest expiry in milliseconds since the epoch
+     */
+    public long getEarliestExpiry() {
+        return m_earliestExpiry;
+    }
+
+    /**
+     * Get the key manager built over the staged key store, or null if the key manager
+     * factory did not produce an X509ExtendedKeyManager.
+     *
+     * @return The staged key manager
+     */
+    public X509ExtendedKeyManager getKeyManager() {
+        return m_keyManager;
+    }
+
+    /**
+     * Get the SSLContext which was built from the key material to validate it.
+     *
+     * @return The candidate SSLContext
+     */
+    public SSLContext getCandidateContext() {
+        return m_candidateContext;
+    }
+
+    /**
+     * Check whether this key material can replace another without rebuilding the
+     * SslContextFactory, which requires the same aliases, each with the same key
+     * algorithm and the same SNI host names.
+     *
+     * @param other The key material currently in use, may be null
+     * @return True if the two are compatible
+     */
+    public boolean isCompatible(final KeyMaterial other) {
+        if (other == null || m_keyManager == null || ! getAliases().equals(other.getAliases())) {
+            return false;
+        }
+
+        for (Map.Entry<String, X509Certificate> entry : m_certificates.entrySet()) {
+            X509Certificate cert = entry.getValue();
+            X509Certificate otherCert = other.m_certificates.get(entry.getKey());
+            if (! cert.getPublicKey().getAlgorithm().equals(otherCert.getPublicKey().getAlgorithm())) {
+                return false;
+            }
+
+            X509 x509 = new X509(entry.getKey(), cert);
+            X509 otherX509 = new X509(entry.getKey(), otherCert);
+            if (! x509.getHosts().equals(otherX509.getHosts()) || ! x509.getWilds().equals(otherX509.getWilds())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyMaterial" + getAliases();
+    }
+}
@@ -0,0 +1,277 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * The KeyStoreLoader stages a key store for publishing to an SslContextFactory.  The key
+ * store file is read once, parsed and every private key is decrypted and checked against
+ * its certificate.  The entries are then copied into an in memory store protected with the
+ * key manager password, which is cheap to unlock, and a candidate SSLContext is built from
+ * it to validate the result.  All of this happens off the factory lock, so that the lock is
+ * only held while the already staged store is swapped in.
+ * <p>
+ * The private keys of a key store are decrypted and validated in parallel on a
+ * {@link ParallelLoader}, then copied into the staged store in alias order.  The certificate
+ * chain and private key files of a PEM source are likewise parsed in parallel.
+ * <p>
+ * A certificate chain and private key held in PEM files are staged in the same way, after
+ * being parsed by the {@link PemReader}.
+ *
+ * @author Scott Stanley
+ */
+public class KeyStoreLoader {
+    static final String STAGED_KEYSTORE_TYPE = "JKS";
+    private static final byte[] CHALLENGE = "reload-ssl-keys".getBytes(StandardCharsets.US_ASCII);
+
+    private final String m_keyStoreType;
+    private final String m_keyStoreProvider;
+    private final char[] m_keyStorePassword;
+    private final char[] m_keyManagerPassword;
+    private final String m_keyManagerFactoryAlgorithm;
+    private final String m_protocol;
+    private final ParallelLoader m_parallelLoader;
+
+    /**
+     * Create a loader matching the configuration of the SslContextFactory which will be
+     * given the staged key stores.
+     *
+     * @param sslCtxFactory The factory the key stores are staged for
+     * @param keyStorePassword The password of the key store file
+     * @param keyManagerPassword The password of the private keys, or null if the same as the key store
+     */
+    public KeyStoreLoader(final SslContextFactory sslCtxFactory,
+                          final String keyStorePassword, final String keyManagerPassword) {
+        this(sslCtxFactory, keyStorePassword, keyManagerPassword, ParallelLoader.SERIAL);
+    }
+
+    /**
+     * Create a loader matching the configuration of the SslContextFactory which will be
+     * given the staged key stores, decoding and validating entries on a parallel loader.
+     *
+     * @param sslCtxFactory The factory the key stores are staged for
+     * @param keyStorePassword The password of the key store file
+     * @param keyManagerPassword The password of the private keys, or null if the same as the key store
+     * @param parallelLoader The loader entries are decoded and validated on
+     */
+    public KeyStoreLoader(final SslContextFactory sslCtxFactory, final String keyStorePassword,
+                          final String keyManagerPassword, final ParallelLoader parallelLoader) {
+        m_keyStoreType = sslCtxFactory.getKeyStoreType();
+        m_keyStoreProvider = sslCtxFactory.getKeyStoreProvider();
+        m_keyStorePassword = keyStorePassword.toCharArray();
+        m_keyManagerPassword = keyManagerPassword == null ? m_keyStorePassword : keyManagerPassword.toCharArray();
+        m_keyManagerFactoryAlgorithm = sslCtxFactory.getKeyManagerFactoryAlgorithm();
+        m_protocol = sslCtxFactory.getProtocol();
+        m_parallelLoader = parallelLoader;
+    }
+
+    /**
+     * Get the key manager factory algorithm the staged key managers are built with.
+     *
+     * @return The key manager factory algorithm
+     */
+    public String getKeyManagerFactoryAlgorithm() {
+        return m_keyManagerFactoryAlgorithm;
+    }
+
+    /**
+     * Load, decrypt and validate the key store at the specified path.
+     *
+     * @param keyStorePath The key store file
+     * @return The staged key material
+     * @throws IOException If the file can not be read or parsed
+     * @throws GeneralSecurityException If the key store content is not valid
+     */
+    public KeyMaterial load(final Path keyStorePath)
+            throws IOException, GeneralSecurityException {
+        //
+        // Parse the key store from a single read of the file
+        //
+        byte[] content = Files.readAllBytes(keyStorePath);
+        KeyStore source = m_keyStoreProvider == null ?
+                KeyStore.getInstance(m_keyStoreType) :
+                KeyStore.getInstance(m_keyStoreType, m_keyStoreProvider);
+        source.load(new ByteArrayInputStream(content), m_keyStorePassword);
+        return stage(source, "Key store " + keyStorePath);
+    }
+
+    /**
+     * Load and validate a certificate chain and private key from PEM files, such as the
+     * fullchain.pem and privkey.pem written by certbot.  Each file is read once and parsed in
+     * memory, no intermediate key store file is written.
+     *
+     * @param chainPath The PEM file holding the certificate chain, server certificate first
+     * @param keyPath The PEM file holding the private key
+     * @param alias The alias to store the key under
+     * @return The staged key material
+     * @throws IOException If either file can not be read
+     * @throws GeneralSecurityException If the files can not be parsed or the key does not match the certificate
+     */
+    public KeyMaterial loadPem(final Path chainPath, final Path keyPath, final String alias)
+            throws IOException, GeneralSecurityException {
+        List<Object> parsed = m_parallelLoader.mapAll(Arrays.asList(Boolean.FALSE, Boolean.TRUE), isKey ->
+                isKey ? PemReader.readPrivateKey(Files.readAllBytes(keyPath)) :
+                        PemReader.readCertificates(Files.readAllBytes(chainPath)));
+        @SuppressWarnings("unchecked")
+        List<X509Certificate> chain = (List<X509Certificate>) parsed.get(0);
+        if (chain.isEmpty()) {
+            throw new GeneralSecurityException("Certificate chain " + chainPath + " contains no certificates");
+        }
+        PrivateKey key = (PrivateKey) parsed.get(1);
+
+        KeyStore source = KeyStore.getInstance(STAGED_KEYSTORE_TYPE);
+        source.load(null, null);
+        source.setKeyEntry(alias, key, m_keyManagerPassword, chain.toArray(new Certificate[0]));
+        return stage(source, "Certificate chain " + chainPath);
+    }
+
+    /**
+     * Decrypt and validate the entries of a parsed key store, staging them for the factory.
+     */
+    private KeyMaterial stage(final KeyStore source, final String description)
+            throws IOException, GeneralSecurityException {
+        //
+        // Decrypt and validate the entries in parallel, then copy them into the staged
+        // store in alias order
+        //
+        List<String> aliases = Collections.list(source.aliases());
+        Collections.sort(aliases);
+        List<Entry> entries = m_parallelLoader.mapAll(aliases, alias -> decode(source, alias));
+
+        KeyStore staged = KeyStore.getInstance(STAGED_KEYSTORE_TYPE);
+        staged.load(null, null);
+        Map<String, X509Certificate> certificates = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry == null) {
+                continue;
+            }
+            if (entry.m_key != null) {
+                staged.setKeyEntry(entry.m_alias, entry.m_key, m_keyManagerPassword, entry.m_chain);
+                certificates.put(entry.m_alias, (X509Certificate) entry.m_chain[0]);
+            } else {
+                staged.setCertificateEntry(entry.m_alias, entry.m_chain[0]);
+            }
+        }
+        if (staged.size() == 0) {
+            throw new GeneralSecurityException(description + " contains no entries");
+        }
+
+        //
+        // Build a candidate context to prove the factory will accept the staged store
+        //
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(m_keyManagerFactoryAlgorithm);
+        kmf.init(staged, m_keyManagerPassword);
+        KeyManager[] keyManagers = kmf.getKeyManagers();
+        SSLContext candidate = SSLContext.getInstance(m_protocol);
+        candidate.init(keyManagers, null, null);
+        candidate.createSSLEngine();
+
+        X509ExtendedKeyManager keyManager = null;
+        if (keyManagers.length == 1 && keyManagers[0] instanceof X509ExtendedKeyManager) {
+            keyManager = (X509ExtendedKeyManager) keyManagers[0];
+        }
+
+        return new KeyMaterial(staged, certificates, keyManager, candidate);
+    }
+
+    /**
+     * Decrypt and validate a single entry of a parsed key store, returning null if it holds
+     * neither a key nor a certificate.
+     */
+    private Entry decode(final KeyStore source, final String alias) throws GeneralSecurityException {
+        if (source.isKeyEntry(alias)) {
+            Key key = source.getKey(alias, m_keyManagerPassword);
+            Certificate[] chain = source.getCertificateChain(alias);
+            if (! (key instanceof PrivateKey) || chain == null || chain.length == 0 ||
+                    ! (chain[0] instanceof X509Certificate)) {
+                throw new GeneralSecurityException("Key entry " + alias + " has no private key and certificate chain");
+            }
+            KeyStoreLoader.validateKeyPair(alias, (PrivateKey) key, chain[0].getPublicKey());
+            return new Entry(alias, (PrivateKey) key, chain);
+        }
+        if (source.isCertificateEntry(alias)) {
+            return new Entry(alias, null, new Certificate[] {source.getCertificate(alias)});
+        }
+        return null;
+    }
+
+    /**
+     * Check the private key belongs to the certificate's public key by signing a challenge
+     * with one and verifying it with the other.
+     */
+    static void validateKeyPair(final String alias, final PrivateKey privateKey, final PublicKey publicKey)
+            throws GeneralSecurityException {
+        if (! privateKey.getAlgorithm().equals(publicKey.getAlgorithm())) {
+            throw new GeneralSecurityException("Key entry " + alias + " has a " + privateKey.getAlgorithm() +
+                                               " key but a " + publicKey.getAlgorithm() + " certificate");
+        }
+
+        String sigAlgorithm = KeyStoreLoader.signatureAlgorithm(privateKey.getAlgorithm());
+        if (sigAlgorithm == null) {
+            return;
+        }
+
+        Signature signer = Signature.getInstance(sigAlgorithm);
+        signer.initSign(privateKey);
+        signer.update(CHALLENGE);
+        byte[] signature = signer.sign();
+
+        Signature verifier = Signature.getInstance(sigAlgorithm);
+        verifier.initVerify(publicKey);
+        verifier.update(CHALLENGE);
+        if (! verifier.verify(signature)) {
+            throw new GeneralSecurityException("Key entry " + alias + " private key does not match its certificate");
+        }
+    }
+
+    private static String signatureAlgorithm(final String keyAlgorithm) {
+        switch (keyAlgorithm) {
+            case "RSA":
+                return "SHA256withRSA";
+            case "EC":
+                return "SHA256withECDSA";
+            case "DSA":
+                return "SHA256withDSA";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A decoded key store entry; a private key and its chain, or a single trusted certificate.
+     */
+    private static final class Entry {
+        private final String m_alias;
+        private final PrivateKey m_key;
+        private final Certificate[] m_chain;
+
+        Entry(final String alias, final PrivateKey key, final Certificate[] chain) {
+            m_alias = alias;
+            m_key = key;
+            m_chain = chain;
+        }
+    }
+}
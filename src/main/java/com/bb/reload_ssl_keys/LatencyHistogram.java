@@ -0,0 +1,115 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations.  Each duration is counted in a bucket covering a power
+ * of two range of microseconds, so recording is a handful of atomic increments with no
+ * allocation, and percentiles are reported as the upper bound of the bucket they fall in;
+ * never more than twice the true value.  The count, sum and maximum are kept exactly.
+ * <p>
+ * Readers see a consistent enough view for monitoring; a percentile read while durations
+ * are being recorded may not include the latest of them.
+ *
+ * @author Scott Stanley
+ */
+public class LatencyHistogram {
+    static final int BUCKETS = 40;
+
+    private final AtomicLongArray m_buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong m_count = new AtomicLong();
+    private final AtomicLong m_sumMicros = new AtomicLong();
+    private final AtomicLong m_maxMicros = new AtomicLong();
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos The duration in nanoseconds, negative durations are recorded as zero
+     */
+    public void record(final long nanos) {
+        long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        m_buckets.incrementAndGet(LatencyHistogram.bucket(micros));
+        m_sumMicros.addAndGet(micros);
+        m_count.incrementAndGet();
+
+        long max = m_maxMicros.get();
+        while (micros > max && ! m_maxMicros.compareAndSet(max, micros)) {
+            max = m_maxMicros.get();
+        }
+    }
+
+    /**
+     * Get the bucket of a duration; bucket zero holds durations under two microseconds and
+     * bucket i durations from 2^i up to 2^(i+1) microseconds.
+     */
+    static int bucket(final long micros) {
+        int bucket = 63 - Long.numberOfLeadingZeros(Math.max(1L, micros));
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * Get the number of durations recorded.
+     */
+    public long getCount() {
+        return m_count.get();
+    }
+
+    /**
+     * Get the mean duration in milliseconds, zero if none have been recorded.
+     */
+    public double getMeanMillis() {
+        long count = m_count.get();
+        return count == 0 ? 0.0d : m_sumMicros.get() / 1000.0d / count;
+    }
+
+    /**
+     * Get the longest duration in milliseconds.
+     */
+    public double getMaxMillis() {
+        return m_maxMicros.get() / 1000.0d;
+    }
+
+    /**
+     * Get the duration in milliseconds which the specified fraction of durations do not
+     * exceed, as the upper bound of the bucket it falls in.
+     *
+     * @param fraction The fraction, such as 0.99 for the 99th percentile
+     * @return The duration, zero if none have been recorded
+     */
+    public double getPercentileMillis(final double fraction) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = m_buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0.0d;
+        }
+
+        long rank = (long) Math.ceil(Math.min(1.0d, Math.max(0.0d, fraction)) * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1L, rank)) {
+                // The maximum is exact, so never report beyond it
+                return Math.min(2L << i, Math.max(1L, m_maxMicros.get())) / 1000.0d;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Clear every recorded duration.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            m_buckets.set(i, 0L);
+        }
+        m_count.set(0L);
+        m_sumMicros.set(0L);
+        m_maxMicros.set(0L);
+    }
+}
@@ -0,0 +1,18 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Watches files using the events of the platform WatchService, shared through the
+ * {@link WatchRegistry} and following symbolic links with a {@link SymlinkChainWatch}.
+ *
+ * @author Scott Stanley
+ */
+public class NativeWatchStrategy implements WatchStrategy {
+
+    @Override
+    public Watch watch(final Path filePath, final WatchRegistry.Listener listener) throws IOException {
+        return new SymlinkChainWatch(filePath, listener);
+    }
+}
@@ -0,0 +1,188 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ParallelLoader decodes and validates key material on a bounded ForkJoinPool.  Private
+ * key decryption and key pair validation dominate the cost of loading a large key store or
+ * certificate directory, and each entry is independent of the others, so the entries are
+ * handed to the pool as separate tasks.  The results are returned in the order the items
+ * were given, so whatever is assembled from them does not depend on which task finished
+ * first.
+ * <p>
+ * A loader with a parallelism of one, and any batch of a single item, runs on the calling
+ * thread.  The pool's threads are daemons and are stopped by {@link #shutdown()}.
+ *
+ * @author Scott Stanley
+ */
+public class ParallelLoader {
+    /** A loader which runs every task on the calling thread. */
+    public static final ParallelLoader SERIAL = new ParallelLoader(1);
+
+    private static final AtomicInteger POOL_ID = new AtomicInteger();
+
+    private final int m_parallelism;
+    private final ForkJoinPool m_pool;
+
+    /**
+     * Create a loader.
+     *
+     * @param parallelism The most tasks run at once, zero or less for the number of processors
+     */
+    public ParallelLoader(final int parallelism) {
+        m_parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        if (m_parallelism > 1) {
+            String prefix = "ReloadSslKeys-Loader-" + POOL_ID.incrementAndGet() + "-";
+            AtomicInteger threadId = new AtomicInteger();
+            m_pool = new ForkJoinPool(m_parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(prefix + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        } else {
+            m_pool = null;
+        }
+    }
+
+    /**
+     * Get the most tasks this loader runs at once.
+     */
+    public int getParallelism() {
+        return m_parallelism;
+    }
+
+    /**
+     * Apply a task to each item, returning the outcome of each in the order of the items.
+     * A task which fails does not stop the others.
+     *
+     * @param items The items to apply the task to
+     * @param task The task
+     * @return The outcome for each item
+     */
+    public <T, R> List<Outcome<R>> map(final List<T> items, final Task<T, R> task) {
+        List<Outcome<R>> outcomes = new ArrayList<>(items.size());
+        if (m_pool == null || items.size() < 2) {
+            for (T item : items) {
+                outcomes.add(ParallelLoader.apply(task, item));
+            }
+            return outcomes;
+        }
+
+        List<ForkJoinTask<Outcome<R>>> tasks = new ArrayList<>(items.size());
+        for (T item : items) {
+            tasks.add(m_pool.submit(() -> ParallelLoader.apply(task, item)));
+        }
+        boolean interrupted = false;
+        for (ForkJoinTask<Outcome<R>> submitted : tasks) {
+            while (true) {
+                try {
+                    outcomes.add(submitted.get());
+                    break;
+                } catch (InterruptedException ex) {
+                    // Finish the batch, the tasks can not be abandoned part way
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    outcomes.add(new Outcome<>(null, ex.getCause() instanceof Exception ?
+                            (Exception) ex.getCause() : new IllegalStateException(ex.getCause())));
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return outcomes;
+    }
+
+    /**
+     * Apply a task to each item, returning the results in the order of the items.  If any
+     * task fails, the failure of the first failed item is thrown.
+     *
+     * @param items The items to apply the task to
+     * @param task The task
+     * @return The result for each item
+     * @throws IOException If the first failed task failed reading a file
+     * @throws GeneralSecurityException If the first failed task found invalid key material
+     */
+    public <T, R> List<R> mapAll(final List<T> items, final Task<T, R> task)
+            throws IOException, GeneralSecurityException {
+        List<R> results = new ArrayList<>(items.size());
+        for (Outcome<R> outcome : map(items, task)) {
+            results.add(outcome.get());
+        }
+        return results;
+    }
+
+    /**
+     * Stop the pool's threads.  Tasks already submitted are completed.
+     */
+    public void shutdown() {
+        if (m_pool != null) {
+            m_pool.shutdown();
+        }
+    }
+
+    private static <T, R> Outcome<R> apply(final Task<T, R> task, final T item) {
+        try {
+            return new Outcome<>(task.apply(item), null);
+        } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+            return new Outcome<>(null, ex);
+        }
+    }
+
+    /**
+     * A unit of loading work applied to a single item.
+     */
+    @FunctionalInterface
+    public interface Task<T, R> {
+        R apply(T item) throws IOException, GeneralSecurityException;
+    }
+
+    /**
+     * The result of a task, or the exception it failed with.
+     */
+    public static final class Outcome<R> {
+        private final R m_result;
+        private final Exception m_failure;
+
+        Outcome(final R result, final Exception failure) {
+            m_result = result;
+            m_failure = failure;
+        }
+
+        /**
+         * Get the exception the task failed with, null if it succeeded.
+         */
+        public Exception getFailure() {
+            return m_failure;
+        }
+
+        /**
+         * Get the result of the task, throwing the exception it failed with.
+         */
+        public R get() throws IOException, GeneralSecurityException {
+            if (m_failure instanceof IOException) {
+                throw (IOException) m_failure;
+            }
+            if (m_failure instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) m_failure;
+            }
+            if (m_failure instanceof RuntimeException) {
+                throw (RuntimeException) m_failure;
+            }
+            if (m_failure != null) {
+                throw new IllegalStateException(m_failure);
+            }
+            return m_result;
+        }
+    }
+}
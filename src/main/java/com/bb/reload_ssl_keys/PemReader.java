@@ -0,0 +1,322 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The PemReader parses the PEM files written by certbot and other ACME clients, a
+ * certificate chain such as fullchain.pem and a private key such as privkey.pem, so they
+ * can be loaded without first being converted into a key store file.
+ * <p>
+ * Private keys are accepted in PKCS#8 form (BEGIN PRIVATE KEY), as PKCS#1 RSA keys (BEGIN
+ * RSA PRIVATE KEY) and as SEC1 EC keys (BEGIN EC PRIVATE KEY), optionally preceded by an EC
+ * PARAMETERS block.  The last two are wrapped into PKCS#8 so the JDK's key factories can
+ * decode them.  Encrypted keys are not supported.
+ *
+ * @author Scott Stanley
+ */
+public final class PemReader {
+    static final String CERTIFICATE = "CERTIFICATE";
+    static final String PRIVATE_KEY = "PRIVATE KEY";
+    static final String RSA_PRIVATE_KEY = "RSA PRIVATE KEY";
+    static final String EC_PRIVATE_KEY = "EC PRIVATE KEY";
+    static final String EC_PARAMETERS = "EC PARAMETERS";
+    static final String ENCRYPTED_PRIVATE_KEY = "ENCRYPTED PRIVATE KEY";
+
+    private static final String BEGIN = "-----BEGIN ";
+    private static final String END = "-----END ";
+    private static final String DASHES = "-----";
+
+    static final int TAG_INTEGER = 0x02;
+    static final int TAG_OCTET_STRING = 0x04;
+    static final int TAG_NULL = 0x05;
+    static final int TAG_OID = 0x06;
+    static final int TAG_SEQUENCE = 0x30;
+    static final int TAG_EC_PARAMETERS = 0xa0;
+
+    static final byte[] OID_RSA = {0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x01};
+    static final byte[] OID_EC = {0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x02, 0x01};
+
+    private static final Map<String, String> KEY_ALGORITHMS = new HashMap<>();
+    static {
+        KEY_ALGORITHMS.put(PemReader.hex(OID_RSA), "RSA");
+        KEY_ALGORITHMS.put(PemReader.hex(OID_EC), "EC");
+        KEY_ALGORITHMS.put("2a8648ce380401", "DSA");
+        KEY_ALGORITHMS.put("2a864886f70d01010a", "RSASSA-PSS");
+        KEY_ALGORITHMS.put("2b6570", "Ed25519");
+        KEY_ALGORITHMS.put("2b6571", "Ed448");
+    }
+
+    private PemReader() {
+    }
+
+    /**
+     * Read the certificates from PEM content, in the order they appear.  A certificate
+     * chain file lists the server's certificate first, followed by its issuers.
+     *
+     * @param content The PEM content
+     * @return The certificates, empty if there are none
+     * @throws GeneralSecurityException If the content is not valid PEM or a certificate can not be decoded
+     */
+    public static List<X509Certificate> readCertificates(final byte[] content)
+            throws GeneralSecurityException {
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        List<X509Certificate> certificates = new ArrayList<>();
+        for (Block block : PemReader.blocks(content)) {
+            if (CERTIFICATE.equals(block.m_type)) {
+                certificates.add((X509Certificate) factory.generateCertificate(new ByteArrayInputStream(block.m_der)));
+            }
+        }
+        return certificates;
+    }
+
+    /**
+     * Read the first private key from PEM content.
+     *
+     * @param content The PEM content
+     * @return The private key
+     * @throws GeneralSecurityException If there is no supported private key in the content
+     */
+    public static PrivateKey readPrivateKey(final byte[] content)
+            throws GeneralSecurityException {
+        byte[] ecParameters = null;
+        for (Block block : PemReader.blocks(content)) {
+            switch (block.m_type) {
+                case PRIVATE_KEY:
+                    return PemReader.decodePkcs8(block.m_der);
+                case RSA_PRIVATE_KEY:
+                    return PemReader.decodePkcs8(PemReader.wrapRsa(block.m_der));
+                case EC_PARAMETERS:
+                    ecParameters = block.m_der;
+                    break;
+                case EC_PRIVATE_KEY:
+                    return PemReader.decodePkcs8(PemReader.wrapEc(block.m_der, ecParameters));
+                case ENCRYPTED_PRIVATE_KEY:
+                    throw new GeneralSecurityException("Encrypted private keys are not supported");
+                default:
+                    break;
+            }
+        }
+        throw new GeneralSecurityException("No private key found");
+    }
+
+    /**
+     * Decode a PKCS#8 private key, using the algorithm named by its algorithm identifier.
+     */
+    private static PrivateKey decodePkcs8(final byte[] pkcs8)
+            throws GeneralSecurityException {
+        Der privateKeyInfo = new Der(pkcs8).enter(TAG_SEQUENCE);
+        privateKeyInfo.read(TAG_INTEGER);
+        byte[] oid = privateKeyInfo.enter(TAG_SEQUENCE).read(TAG_OID);
+        String algorithm = KEY_ALGORITHMS.get(PemReader.hex(oid));
+        if (algorithm == null) {
+            throw new GeneralSecurityException("Unsupported private key algorithm " + PemReader.hex(oid));
+        }
+        return KeyFactory.getInstance(algorithm).generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+    }
+
+    /**
+     * Wrap a PKCS#1 RSA private key into PKCS#8.
+     */
+    static byte[] wrapRsa(final byte[] pkcs1) {
+        return Der.encode(TAG_SEQUENCE,
+                          Der.encode(TAG_INTEGER, new byte[] {0}),
+                          Der.encode(TAG_SEQUENCE, Der.encode(TAG_OID, OID_RSA), Der.encode(TAG_NULL)),
+                          Der.encode(TAG_OCTET_STRING, pkcs1));
+    }
+
+    /**
+     * Wrap a SEC1 EC private key into PKCS#8.  The curve is taken from the key's own
+     * parameters, or failing that from a separate EC PARAMETERS block.
+     */
+    static byte[] wrapEc(final byte[] sec1, final byte[] ecParameters)
+            throws GeneralSecurityException {
+        Der ecPrivateKey = new Der(sec1).enter(TAG_SEQUENCE);
+        ecPrivateKey.read(TAG_INTEGER);
+        ecPrivateKey.read(TAG_OCTET_STRING);
+        byte[] parameters = ecParameters;
+        if (ecPrivateKey.hasMore() && ecPrivateKey.peek() == TAG_EC_PARAMETERS) {
+            parameters = ecPrivateKey.read(TAG_EC_PARAMETERS);
+        }
+        if (parameters == null) {
+            throw new GeneralSecurityException("EC private key does not name its curve");
+        }
+
+        return Der.encode(TAG_SEQUENCE,
+                          Der.encode(TAG_INTEGER, new byte[] {0}),
+                          Der.encode(TAG_SEQUENCE, Der.encode(TAG_OID, OID_EC), parameters),
+                          Der.encode(TAG_OCTET_STRING, sec1));
+    }
+
+    /**
+     * Split PEM content into its blocks, decoding the base64 body of each.  Text outside
+     * the blocks, such as the comments openssl writes, is ignored.
+     */
+    static List<Block> blocks(final byte[] content)
+            throws GeneralSecurityException {
+        String text = new String(content, StandardCharsets.US_ASCII);
+        List<Block> blocks = new ArrayList<>();
+        int index = 0;
+        int begin;
+        while ((begin = text.indexOf(BEGIN, index)) != -1) {
+            int typeEnd = text.indexOf(DASHES, begin + BEGIN.length());
+            if (typeEnd == -1) {
+                throw new GeneralSecurityException("Truncated PEM header");
+            }
+            String type = text.substring(begin + BEGIN.length(), typeEnd);
+            String footer = END + type + DASHES;
+            int end = text.indexOf(footer, typeEnd);
+            if (end == -1) {
+                throw new GeneralSecurityException("Missing PEM footer for " + type);
+            }
+
+            String body = text.substring(typeEnd + DASHES.length(), end);
+            if (body.indexOf(':') != -1) {
+                throw new GeneralSecurityException("Encrypted PEM blocks are not supported");
+            }
+            try {
+                blocks.add(new Block(type, Base64.getMimeDecoder().decode(body)));
+            } catch (IllegalArgumentException ex) {
+                throw new GeneralSecurityException("Invalid base64 in PEM block " + type, ex);
+            }
+            index = end + footer.length();
+        }
+        return blocks;
+    }
+
+    static String hex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A single PEM block, its type and decoded content.
+     */
+    static final class Block {
+        final String m_type;
+        final byte[] m_der;
+
+        Block(final String type, final byte[] der) {
+            m_type = type;
+            m_der = der;
+        }
+    }
+
+    /**
+     * The minimal DER reading and writing needed to wrap private keys.
+     */
+    static final class Der {
+        private final byte[] m_data;
+        private final int m_end;
+        private int m_pos;
+
+        Der(final byte[] data) {
+            this(data, 0, data.length);
+        }
+
+        private Der(final byte[] data, final int start, final int end) {
+            m_data = data;
+            m_pos = start;
+            m_end = end;
+        }
+
+        boolean hasMore() {
+            return m_pos < m_end;
+        }
+
+        int peek() {
+            return m_data[m_pos] & 0xFF;
+        }
+
+        /**
+         * Read an element with the expected tag, returning its content.
+         */
+        byte[] read(final int tag) throws GeneralSecurityException {
+            int length = header(tag);
+            byte[] value = Arrays.copyOfRange(m_data, m_pos, m_pos + length);
+            m_pos += length;
+            return value;
+        }
+
+        /**
+         * Read a constructed element with the expected tag, returning a reader of its content.
+         */
+        Der enter(final int tag) throws GeneralSecurityException {
+            int length = header(tag);
+            Der content = new Der(m_data, m_pos, m_pos + length);
+            m_pos += length;
+            return content;
+        }
+
+        private int header(final int tag) throws GeneralSecurityException {
+            if (m_pos + 2 > m_end || peek() != tag) {
+                throw new GeneralSecurityException("Invalid DER, expected tag " + Integer.toHexString(tag));
+            }
+            m_pos++;
+            int length = m_data[m_pos++] & 0xFF;
+            if (length > 0x7F) {
+                int count = length & 0x7F;
+                if (count == 0 || count > 3 || m_pos + count > m_end) {
+                    throw new GeneralSecurityException("Invalid DER length");
+                }
+                length = 0;
+                for (int i = 0; i < count; i++) {
+                    length = (length << 8) | (m_data[m_pos++] & 0xFF);
+                }
+            }
+            if (length > m_end - m_pos) {
+                throw new GeneralSecurityException("Truncated DER element");
+            }
+            return length;
+        }
+
+        /**
+         * Encode an element from its tag and the concatenation of the content parts.
+         */
+        static byte[] encode(final int tag, final byte[]... parts) {
+            int length = 0;
+            for (byte[] part : parts) {
+                length += part.length;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+            out.write(tag);
+            if (length < 0x80) {
+                out.write(length);
+            } else if (length < 0x100) {
+                out.write(0x81);
+                out.write(length);
+            } else if (length < 0x10000) {
+                out.write(0x82);
+                out.write(length >> 8);
+                out.write(length);
+            } else {
+                out.write(0x83);
+                out.write(length >> 16);
+                out.write(length >> 8);
+                out.write(length);
+            }
+            for (byte[] part : parts) {
+                out.write(part, 0, part.length);
+            }
+            return out.toByteArray();
+        }
+    }
+}
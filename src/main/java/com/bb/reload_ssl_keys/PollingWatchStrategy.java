@@ -0,0 +1,174 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches files by polling them, for file systems such as NFS, overlay and FUSE mounts
+ * which deliver no WatchService events.  Each poll is a single stat of the file, comparing
+ * its size, modification time and file key; the file key changes when the file is replaced
+ * or a link to it is re-pointed.  Polls run on the {@link SharedScheduler}.
+ * <p>
+ * The interval adapts to the file.  It starts at the minimum interval and doubles while
+ * the file is quiet, up to the maximum.  The maximum shrinks as the certificate in the file
+ * approaches expiry, as this is when a renewal is due.  Any change drops the interval back
+ * to the minimum.
+ *
+ * @author Scott Stanley
+ */
+public class PollingWatchStrategy implements WatchStrategy {
+    static final Logger LOG = LoggerFactory.getLogger(PollingWatchStrategy.class);
+
+    /** The maximum interval is at most this fraction of the time remaining until expiry */
+    static final long EXPIRY_DIVISOR = 1440L;
+
+    private final long m_minIntervalMillis;
+    private final long m_maxIntervalMillis;
+    private final LongSupplier m_expiryMillis;
+
+    /**
+     * Create a polling strategy.
+     *
+     * @param minIntervalMillis The shortest interval between polls
+     * @param maxIntervalMillis The longest interval between polls of a quiet file
+     * @param expiryMillis Supplies the expiry time of the certificate being watched, or
+     *          Long.MAX_VALUE if not known, for files watched without their own; may be null
+     */
+    public PollingWatchStrategy(final long minIntervalMillis, final long maxIntervalMillis,
+                                final LongSupplier expiryMillis) {
+        m_minIntervalMillis = Math.max(1L, minIntervalMillis);
+        m_maxIntervalMillis = Math.max(m_minIntervalMillis, maxIntervalMillis);
+        m_expiryMillis = expiryMillis == null ? () -> Long.MAX_VALUE : expiryMillis;
+    }
+
+    @Override
+    public Watch watch(final Path filePath, final WatchRegistry.Listener listener) {
+        return watch(filePath, listener, null);
+    }
+
+    @Override
+    public Watch watch(final Path filePath, final WatchRegistry.Listener listener, final LongSupplier expiryMillis) {
+        PolledFile polledFile = new PolledFile(filePath.toAbsolutePath().normalize(), listener,
+                                               expiryMillis == null ? m_expiryMillis : expiryMillis);
+        polledFile.start();
+        return polledFile;
+    }
+
+    /**
+     * Get the longest interval to use now for files watched without their own expiry.
+     */
+    long getMaxInterval(final long now) {
+        return getMaxInterval(now, m_expiryMillis.getAsLong());
+    }
+
+    /**
+     * Get the longest interval to use now, allowing for the certificate expiry.
+     */
+    long getMaxInterval(final long now, final long expiryMillis) {
+        long remaining = expiryMillis - now;
+        if (remaining <= 0) {
+            return m_minIntervalMillis;
+        }
+        return Math.max(m_minIntervalMillis, Math.min(m_maxIntervalMillis, remaining / EXPIRY_DIVISOR));
+    }
+
+    /**
+     * The stat of the file compared between polls, null if the file does not exist.
+     */
+    static String stat(final Path filePath) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+            return attrs.size() + "@" + attrs.lastModifiedTime().toMillis() + "#" + attrs.fileKey();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * A single polled file.
+     */
+    class PolledFile implements Watch {
+        private final Path m_filePath;
+        private final WatchRegistry.Listener m_listener;
+        private final LongSupplier m_fileExpiryMillis;
+        private final Scheduler m_scheduler;
+        private String m_stat;
+        private Object m_fileKey;
+        private long m_interval;
+        private volatile boolean m_cancelled = false;
+
+        PolledFile(final Path filePath, final WatchRegistry.Listener listener, final LongSupplier expiryMillis) {
+            m_filePath = filePath;
+            m_listener = listener;
+            m_fileExpiryMillis = expiryMillis;
+            m_scheduler = SharedScheduler.getInstance().acquire();
+            m_stat = PollingWatchStrategy.stat(filePath);
+            m_fileKey = fileKey(m_stat);
+            m_interval = m_minIntervalMillis;
+        }
+
+        void start() {
+            LOG.debug("Polling {} every {}ms to {}ms", m_filePath, m_minIntervalMillis, m_maxIntervalMillis);
+            m_scheduler.schedule(this::poll, m_interval, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void cancel() {
+            if (! m_cancelled) {
+                m_cancelled = true;
+                SharedScheduler.getInstance().release();
+            }
+        }
+
+        long getInterval() {
+            return m_interval;
+        }
+
+        private void poll() {
+            if (m_cancelled) {
+                return;
+            }
+
+            String stat = PollingWatchStrategy.stat(m_filePath);
+            boolean changed = ! Objects.equals(stat, m_stat);
+            if (changed) {
+                Object fileKey = fileKey(stat);
+                boolean replaced = stat != null && ! Objects.equals(fileKey, m_fileKey);
+                m_stat = stat;
+                m_fileKey = fileKey;
+                m_interval = m_minIntervalMillis;
+                if (stat != null) {
+                    try {
+                        m_listener.fileChanged(m_filePath, replaced ?
+                                StandardWatchEventKinds.ENTRY_CREATE : StandardWatchEventKinds.ENTRY_MODIFY);
+                    } catch (RuntimeException ex) {
+                        LOG.warn("Listener for " + m_filePath + " failed", ex);
+                    }
+                }
+            } else {
+                long expiry = m_fileExpiryMillis.getAsLong();
+                m_interval = Math.min(m_interval * 2, getMaxInterval(System.currentTimeMillis(), expiry));
+            }
+
+            synchronized (this) {
+                if (! m_cancelled) {
+                    m_scheduler.schedule(this::poll, m_interval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private Object fileKey(final String stat) {
+            return stat == null ? null : stat.substring(stat.indexOf('#') + 1);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The ReloadControlServer lets deploy tooling on the same host reload the keys and wait for
+ * a certificate to be served over HTTP, so a rollout can move on as soon as each node has
+ * switched over rather than sleeping for the reload delay.  It listens on the loopback
+ * address only, and refuses requests from any other address.
+ * <p>
+ * A reload must carry the {@value #TOKEN_HEADER} header, holding the configured token when
+ * there is one.  A browser page can not send a custom header to another origin without a
+ * preflight the server never answers, so the header keeps pages from reloading the keys
+ * while the token keeps out other local processes.
+ * <ul>
+ * <li>POST /reload reloads the keys, answering with the fingerprint of the certificate
+ * served once the reload is live</li>
+ * <li>GET /await?fingerprint=... answers once a certificate with the SHA-256 fingerprint is
+ * being served</li>
+ * <li>GET /fingerprint answers with the fingerprint of the certificate being served</li>
+ * </ul>
+ * Both waits take a timeoutSec parameter and answer 504 when it passes.  Responses are
+ * plain text and completed asynchronously, so waiting requests hold no thread.
+ *
+ * @author Scott Stanley
+ */
+public class ReloadControlServer {
+    private static final Logger LOG = LoggerFactory.getLogger(ReloadControlServer.class);
+    static final long DEFAULT_TIMEOUT_SEC = 60L;
+    static final String TOKEN_HEADER = "X-Reload-Token";
+
+    private final ReloadSslKeysModule m_module;
+    private final int m_port;
+    private final byte[] m_token;
+    private HttpServer m_server = null;
+    private Scheduler m_scheduler = null;
+
+    /**
+     * Create a control server for the module.
+     *
+     * @param module The module reloaded
+     * @param port The loopback port to listen on
+     */
+    public ReloadControlServer(final ReloadSslKeysModule module, final int port) {
+        this(module, port, null);
+    }
+
+    /**
+     * Create a control server for the module whose reloads require a token.
+     *
+     * @param module The module reloaded
+     * @param port The loopback port to listen on
+     * @param token The token reloads must carry in the {@value #TOKEN_HEADER} header, null or
+     *              empty to require only the header
+     */
+    public ReloadControlServer(final ReloadSslKeysModule module, final int port, final String token) {
+        m_module = module;
+        m_port = port;
+        m_token = token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Start listening.
+     *
+     * @throws IOException If the port can not be bound
+     */
+    public synchronized void start() throws IOException {
+        if (m_server != null) {
+            return;
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), m_port), 0);
+        server.createContext("/reload", exchange -> handle(exchange, "POST", true, params -> m_module.reloadNow()));
+        server.createContext("/await", exchange -> handle(exchange, "GET", false, params -> {
+            String fingerprint = params.get("fingerprint");
+            if (fingerprint == null || fingerprint.isEmpty()) {
+                throw new IllegalArgumentException("The fingerprint parameter is required");
+            }
+            return m_module.awaitReload(fingerprint);
+        }));
+        server.createContext("/fingerprint", exchange -> handle(exchange, "GET", false,
+                params -> CompletableFuture.completedFuture(m_module.getCertificateFingerprint())));
+        m_scheduler = SharedScheduler.getInstance().acquire();
+        server.start();
+        m_server = server;
+        LOG.info("Reload control listening on {}", server.getAddress());
+        if (m_token == null) {
+            LOG.warn("No reload control token configured (reloadsslkeys.controlToken), any local process " +
+                     "sending the {} header can reload the keys", TOKEN_HEADER);
+        }
+    }
+
+    /**
+     * Stop listening, abandoning requests still waiting.
+     */
+    public synchronized void stop() {
+        if (m_server != null) {
+            m_server.stop(0);
+            m_server = null;
+            SharedScheduler.getInstance().release();
+            m_scheduler = null;
+        }
+    }
+
+    /**
+     * Get the port being listened on, which is the bound port when started on port zero.
+     *
+     * @return The port, -1 if not started
+     */
+    public synchronized int getPort() {
+        return m_server == null ? -1 : m_server.getAddress().getPort();
+    }
+
+    /**
+     * A request served by a future fingerprint.
+     */
+    @FunctionalInterface
+    interface Action {
+        CompletableFuture<String> apply(Map<String, String> params);
+    }
+
+    private void handle(final HttpExchange exchange, final String method, final boolean authorize,
+                        final Action action) {
+        try {
+            if (! exchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+                ReloadControlServer.respond(exchange, 403, "Only loopback clients are served");
+                return;
+            }
+            if (! method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                ReloadControlServer.respond(exchange, 405, method + " required");
+                return;
+            }
+            if (authorize && ! isAuthorized(exchange.getRequestHeaders().getFirst(TOKEN_HEADER))) {
+                ReloadControlServer.respond(exchange, 403, "A valid " + TOKEN_HEADER + " header is required");
+                return;
+            }
+
+            Map<String, String> params = ReloadControlServer.parseQuery(exchange.getRequestURI().getRawQuery());
+            long timeoutSec = params.containsKey("timeoutSec") ?
+                    Long.parseLong(params.get("timeoutSec")) : DEFAULT_TIMEOUT_SEC;
+            CompletableFuture<String> future = action.apply(params);
+            Scheduler.Task timeout = m_scheduler.schedule(
+                    () -> future.completeExceptionally(new TimeoutException("Timed out after " + timeoutSec + "s")),
+                    timeoutSec, TimeUnit.SECONDS);
+            future.whenComplete((fingerprint, failure) -> {
+                timeout.cancel();
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null ?
+                        failure.getCause() : failure;
+                if (cause == null) {
+                    ReloadControlServer.respond(exchange, 200, fingerprint == null ? "" : fingerprint);
+                } else if (cause instanceof TimeoutException) {
+                    ReloadControlServer.respond(exchange, 504, cause.getMessage());
+                } else {
+                    ReloadControlServer.respond(exchange, 500, String.valueOf(cause.getMessage()));
+                }
+            });
+        } catch (IllegalArgumentException ex) {
+            ReloadControlServer.respond(exchange, 400, ex.getMessage());
+        } catch (RuntimeException ex) {
+            LOG.warn("Reload control request " + exchange.getRequestURI() + " failed", ex);
+            ReloadControlServer.respond(exchange, 500, String.valueOf(ex.getMessage()));
+        }
+    }
+
+    /**
+     * Check the token a request carries, comparing in constant time.
+     */
+    private boolean isAuthorized(final String token) {
+        if (token == null) {
+            return false;
+        }
+        return m_token == null || MessageDigest.isEqual(m_token, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Map<String, String> parseQuery(final String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            try {
+                String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+                params.put(name, value);
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return params;
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) {
+        byte[] content = (body + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        } catch (IOException ex) {
+            LOG.debug("Unable to answer reload control request", ex);
+        } finally {
+            exchange.close();
+        }
+    }
+}
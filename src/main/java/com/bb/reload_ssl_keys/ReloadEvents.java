@@ -0,0 +1,99 @@
+package com.bb.reload_ssl_keys;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+/**
+ * ReloadEvents emits Java Flight Recorder events for each stage of the watch, debounce and
+ * reload pipeline, so a rotation can be read alongside the GC, socket and TLS events of an
+ * existing recording.  The events are defined in {@link JfrEvents}, which is only loaded when
+ * the running JVM provides the jdk.jfr API; on JVMs without it every method is a no-op.
+ * <p>
+ * When the JVM is not recording the events, each method is a check of a final flag and of
+ * whether the event type is enabled, and nothing is allocated or formatted.
+ *
+ * @author Scott Stanley
+ */
+final class ReloadEvents {
+    static final String SUCCEEDED = "succeeded";
+    static final String FAILED = "failed";
+    static final String SKIPPED = "skipped";
+
+    static final boolean AVAILABLE = ReloadEvents.isJfrAvailable();
+
+    private ReloadEvents() {
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, ReloadEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Record a change event delivered for a watched file.
+     *
+     * @param path The file which changed
+     * @param kind The kind of change, or null if not known
+     */
+    static void fileChanged(final Path path, final WatchEvent.Kind<?> kind) {
+        if (AVAILABLE) {
+            JfrEvents.fileChanged(path, null, kind);
+        }
+    }
+
+    /**
+     * Record a change event delivered for an entry of a watched directory.
+     *
+     * @param directory The directory watched
+     * @param name The name of the entry which changed
+     */
+    static void fileChanged(final Path directory, final String name) {
+        if (AVAILABLE) {
+            JfrEvents.fileChanged(directory, name, null);
+        }
+    }
+
+    /**
+     * Record a trigger of a debouncer.
+     *
+     * @param triggers The number of triggers in the current burst, including this one
+     * @param delayNanos The quiet period the debouncer waits for
+     */
+    static void debounceTriggered(final int triggers, final long delayNanos) {
+        if (AVAILABLE) {
+            JfrEvents.debounceTriggered(triggers, delayNanos);
+        }
+    }
+
+    /**
+     * Record a debouncer running its callback.
+     *
+     * @param triggers The number of triggers coalesced into this run
+     * @param waitedNanos The time from the first trigger of the burst to the run
+     * @param runNanos The time the callback ran for
+     */
+    static void debounceFired(final int triggers, final long waitedNanos, final long runNanos) {
+        if (AVAILABLE) {
+            JfrEvents.debounceFired(triggers, waitedNanos, runNanos);
+        }
+    }
+
+    /**
+     * Record the outcome of a reload.
+     *
+     * @param source The files or directory reloaded
+     * @param outcome One of {@link #SUCCEEDED}, {@link #FAILED} or {@link #SKIPPED}
+     * @param durationNanos The time the reload took
+     * @param eventToReloadNanos The time from the first file event to the end of the reload, or -1 if not known
+     */
+    static void reload(final Object source, final String outcome,
+                       final long durationNanos, final long eventToReloadNanos) {
+        if (AVAILABLE) {
+            JfrEvents.reload(source, outcome, durationNanos, eventToReloadNanos);
+        }
+    }
+}
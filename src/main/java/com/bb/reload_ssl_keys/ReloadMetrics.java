@@ -0,0 +1,140 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ReloadMetrics count the file events seen by the module and the reloads they lead to,
+ * and time both the reloads themselves and the latency from the first file event of a burst
+ * to the completion of the reload it caused.  Events which arrive while an earlier event is
+ * still waiting for its reload are coalesced into that reload.
+ * <p>
+ * Every update is a few atomic operations, so the metrics are safe to update from the watch
+ * and reload threads without locking.  Each reload is also emitted as a flight recorder
+ * event through {@link ReloadEvents}.
+ *
+ * @author Scott Stanley
+ */
+public class ReloadMetrics {
+    private final AtomicLong m_fileEvents = new AtomicLong();
+    private final AtomicLong m_coalescedEvents = new AtomicLong();
+    private final AtomicLong m_reloads = new AtomicLong();
+    private final AtomicLong m_failedReloads = new AtomicLong();
+    private final AtomicLong m_pendingSince = new AtomicLong();
+    private final LatencyHistogram m_reloadDuration = new LatencyHistogram();
+    private final LatencyHistogram m_eventToReload = new LatencyHistogram();
+
+    /**
+     * Count a file event, starting the event to reload clock if no event is pending.
+     */
+    public void fileEvent() {
+        m_fileEvents.incrementAndGet();
+        if (! m_pendingSince.compareAndSet(0L, ReloadMetrics.nonZero(System.nanoTime()))) {
+            m_coalescedEvents.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record a reload which completed successfully.
+     *
+     * @param source The files or directory reloaded
+     * @param startNanos The System.nanoTime() at which the reload started
+     */
+    public void reloadSucceeded(final Object source, final long startNanos) {
+        long now = System.nanoTime();
+        m_reloadDuration.record(now - startNanos);
+        m_reloads.incrementAndGet();
+        long pendingSince = m_pendingSince.getAndSet(0L);
+        if (pendingSince != 0L) {
+            m_eventToReload.record(now - pendingSince);
+        }
+        ReloadEvents.reload(source, ReloadEvents.SUCCEEDED, now - startNanos,
+                            pendingSince == 0L ? -1L : now - pendingSince);
+    }
+
+    /**
+     * Record a reload which failed, the previous keys remaining in use.
+     *
+     * @param source The files or directory reloaded
+     * @param startNanos The System.nanoTime() at which the reload started
+     */
+    public void reloadFailed(final Object source, final long startNanos) {
+        long now = System.nanoTime();
+        m_reloadDuration.record(now - startNanos);
+        m_failedReloads.incrementAndGet();
+        long pendingSince = m_pendingSince.getAndSet(0L);
+        ReloadEvents.reload(source, ReloadEvents.FAILED, now - startNanos,
+                            pendingSince == 0L ? -1L : now - pendingSince);
+    }
+
+    /**
+     * Record a reload which was skipped because nothing had changed.
+     *
+     * @param source The files or directory reloaded
+     * @param startNanos The System.nanoTime() at which the reload started
+     */
+    public void reloadSkipped(final Object source, final long startNanos) {
+        long now = System.nanoTime();
+        long pendingSince = m_pendingSince.getAndSet(0L);
+        ReloadEvents.reload(source, ReloadEvents.SKIPPED, now - startNanos,
+                            pendingSince == 0L ? -1L : now - pendingSince);
+    }
+
+    /**
+     * Wrap a watch strategy so that every event it delivers is counted.
+     *
+     * @param strategy The strategy to wrap
+     * @return The counting strategy
+     */
+    public WatchStrategy counting(final WatchStrategy strategy) {
+        return (filePath, listener) -> strategy.watch(filePath, (path, kind) -> {
+            fileEvent();
+            listener.fileChanged(path, kind);
+        });
+    }
+
+    public long getFileEventCount() {
+        return m_fileEvents.get();
+    }
+
+    public long getCoalescedEventCount() {
+        return m_coalescedEvents.get();
+    }
+
+    public long getReloadCount() {
+        return m_reloads.get();
+    }
+
+    public long getFailedReloadCount() {
+        return m_failedReloads.get();
+    }
+
+    /**
+     * Get the durations of reloads, successful or not.
+     */
+    public LatencyHistogram getReloadDuration() {
+        return m_reloadDuration;
+    }
+
+    /**
+     * Get the latencies from the first file event of a burst to the completion of its reload.
+     */
+    public LatencyHistogram getEventToReload() {
+        return m_eventToReload;
+    }
+
+    /**
+     * Clear the counts and timings.
+     */
+    public void reset() {
+        m_fileEvents.set(0L);
+        m_coalescedEvents.set(0L);
+        m_reloads.set(0L);
+        m_failedReloads.set(0L);
+        m_reloadDuration.reset();
+        m_eventToReload.reset();
+    }
+
+    private static long nonZero(final long nanos) {
+        return nanos == 0L ? 1L : nanos;
+    }
+}
@@ -1,57 +1,1833 @@
 package com.bb.reload_ssl_keys;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.GeneralSecurityException;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.annotation.Name;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.security.Password;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.ssl.X509;
+import org.eclipse.jetty.util.thread.Scheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A simple Jetty module which watches the SSL key file being used by the 
+ * A simple Jetty module which watches the SSL key file being used by the
  * SslContextFactory for changes.  When the file is modified, this module
- * forces the SslContextFactory to reload the SSL key.
- * 
+ * forces the SslContextFactory to reload the SSL key.  Modifications which
+ * leave the content of the key file unchanged, such as a touch or a renewal
+ * which rewrites identical bytes, do not cause a reload.
+ * <p>
+ * The reload starts as soon as the new key file has been completely written; a
+ * key file renamed into place is picked up immediately, one written in place once
+ * it has been stable for a short quiet period, and in both cases only once it can
+ * be parsed.  The reload delay is the longest the module waits for this.
+ * <p>
+ * The key file is watched with WatchService events, or on file systems which
+ * deliver none, such as NFS, overlay and FUSE mounts, by polling it on an interval
+ * which backs off while the file is quiet and tightens as the certificate nears
+ * expiry.
+ * <p>
+ * When the key store password is configured the new key store is staged before
+ * the factory is touched; it is parsed, decrypted and validated on the reload
+ * thread and then swapped into the factory as an in memory store.  A key store
+ * which fails to load leaves the factory serving the previous keys.  Without the
+ * password the factory is simply asked to reload the file itself.
+ * <p>
+ * With session preservation enabled the factory's SSLContext is built over a
+ * {@link ReloadableKeyManager}.  A new key store with the same aliases, key types
+ * and host names is then swapped into the live context without rebuilding it, so
+ * cached sessions and session tickets stay valid; sessions from before the swap
+ * can optionally be retired gradually over a hand over window.
+ * <p>
+ * Instead of the factory's key store, the module can load a certificate chain and
+ * private key held in PEM files, such as certbot's fullchain.pem and privkey.pem.  Both
+ * files are watched and parsed in memory into the key store handed to the factory, and
+ * when both are replaced together the keys are reloaded once.
+ * <p>
+ * For hosts serving many certificates the module can instead serve every certificate in a
+ * {@link CertificateDirectory}, selecting between them by SNI host name.  The factory's
+ * SSLContext is built once over a {@link SniKeyManager}, and a change to one certificate
+ * only parses that certificate and re-indexes its host names.
+ * <p>
+ * For mutual TLS the module can also watch the factory's trust store and any certificate
+ * revocation list files, with their own reload delay.  The factory's SSLContext is built
+ * over a {@link ReloadableTrustManager}, and a trust only change swaps a new trust manager
+ * into it; the key managers are not touched and no private key is decrypted.
+ * <p>
+ * Further factories, server or client, can be bound to the same key files, such as a client
+ * factory presenting the server's certificate to upstreams for mutual TLS.  The files are
+ * watched and parsed once, and every reload gives each factory the new keys or none of them.
+ * Other components can register a {@link Listener} to be told of each reload.
+ * <p>
+ * The module is a Jetty managed object; added to the Server as a bean, the counts of file
+ * events and reloads, reload timings and the certificate being served are published over
+ * JMX by Jetty's jmx module.
+ * <p>
+ * New key material can be warmed before it is published, by a {@link HandshakeWarmer}
+ * running loopback handshakes against it for each protocol and cipher family; key material
+ * which completes no handshake is not published.
+ * <p>
+ * Deploy tooling can reload the keys, or wait for a certificate to be served, through
+ * {@link #reloadNow()} and {@link #awaitReload(String)}, over JMX, or over HTTP on the
+ * loopback address with a {@link ReloadControlServer}.
+ * <p>
+ * Nodes of a fleet which see the same key files change at once, such as certificates
+ * renewed on shared storage, can spread their reloads over a window with a
+ * {@link ReloadStagger}, so only part of the fleet takes the handshake hit at a time.
+ * <p>
+ * A handshake rate limit can also be configured.  For a window after each reload
+ * the rate of full handshakes is limited, with excess handshakes waiting for a short
+ * period and then being shed, so reconnecting clients do not saturate every core.
+ *
  * @author Scott Stanley
  */
+@ManagedObject("Reloads the SslContextFactory keys when the key files change")
 public class ReloadSslKeysModule extends AbstractLifeCycle {
     static final Logger LOG = LoggerFactory.getLogger(ReloadSslKeysModule.class);
-    
+    static final String WATCH_MODE_AUTO = "auto";
+    static final String WATCH_MODE_NATIVE = "native";
+    static final String WATCH_MODE_POLL = "poll";
+    static final String DEFAULT_PEM_ALIAS = "pem";
+    static final long PEM_PAIR_DELAY_SEC = 1L;
+
     private SslContextFactory m_sslCtxFactory = null;
-    private FileWatcher m_fileWatcher = null;
+    private final List<SslContextFactory> m_boundFactories = new ArrayList<>();
+    private final List<Listener> m_listeners = new CopyOnWriteArrayList<>();
+    private String m_generatedPassword = null;
+    private final List<FileWatcher> m_fileWatchers = new ArrayList<>();
+    private Debouncer m_pairDebouncer = null;
     private Long m_reloadDelaySec = 15L;
+    private boolean m_detectWriteCompletion = true;
+    private long m_writeQuietMs = 500L;
+    private long m_reloadMaxWaitSec = 0L;
+    private boolean m_reloadLeadingEdge = false;
+    private long m_reloadMinIntervalSec = 0L;
+    private long m_retryInitialMs = 5000L;
+    private long m_retryMaxMs = 300000L;
+    private RetryBackoff m_keyBackoff = null;
+    private RetryBackoff m_trustBackoff = null;
+    private LongConsumer m_keyRetry = null;
+    private Runnable m_keyRunNow = null;
+    private long m_expiryCheckMinSec = 60L;
+    private long m_expiryCheckMaxSec = 3600L;
+    private ExpiryChecker m_expiryChecker = null;
+    private boolean m_virtualThreads = false;
+    private String m_watchMode = WATCH_MODE_AUTO;
+    private long m_pollMinMs = FileWatcher.DEFAULT_POLL_MIN_MILLIS;
+    private long m_pollMaxMs = FileWatcher.DEFAULT_POLL_MAX_MILLIS;
+    private Path m_keystorePath = null;
+    private Path m_certificateChainPath = null;
+    private Path m_privateKeyPath = null;
+    private Path m_certificateDirectoryPath = null;
+    private CertificateDirectory m_certificateDirectory = null;
+    private SniKeyManager m_sniKeyManager = null;
+    // Read by the expiry checker as well as the reload thread
+    private volatile List<Path> m_watchedPaths = Collections.emptyList();
+    private volatile FileFingerprint[] m_fingerprints = null;
+    private String m_keyStorePassword = null;
+    private String m_keyManagerPassword = null;
+    private int m_loadParallelism = 0;
+    private ParallelLoader m_parallelLoader = null;
+    private KeyStoreLoader m_keyStoreLoader = null;
+    private volatile KeyMaterial m_keyMaterial = null;
+    private volatile long m_factoryExpiry = 0L;
+    private int m_warmupHandshakes = 0;
+    private HandshakeWarmer m_handshakeWarmer = null;
+    private boolean m_trustStoreFromKeyStore = false;
+    private boolean m_preserveSessions = false;
+    private long m_sessionHandOverSec = 0L;
+    private ReloadableKeyManager m_keyManager = null;
+    private String m_keyManagerFactoryAlgorithm = null;
+    private Scheduler m_scheduler = null;
+    private SessionHandOver m_sessionHandOver = null;
+    private long m_handshakeRateLimit = 0L;
+    private int m_handshakeBurst = 0;
+    private long m_handshakeMaxWaitMs = 0L;
+    private long m_handshakeLimitWindowSec = 30L;
+    private HandshakeLimiter m_handshakeLimiter = null;
+    private final AtomicLong m_skippedReloads = new AtomicLong();
+    private boolean m_watchTrustStore = false;
+    private String m_trustStorePassword = null;
+    private List<Path> m_crlPaths = Collections.emptyList();
+    private long m_trustReloadDelaySec = 15L;
+    private Path m_trustStorePath = null;
+    private List<Path> m_trustPaths = Collections.emptyList();
+    private FileFingerprint[] m_trustFingerprints = null;
+    private final List<FileWatcher> m_trustWatchers = new ArrayList<>();
+    private Debouncer m_trustDebouncer = null;
+    private TrustStoreLoader m_trustStoreLoader = null;
+    private ReloadableTrustManager m_trustManager = null;
+    private String m_trustManagerFactoryAlgorithm = null;
+    private final AtomicLong m_trustReloads = new AtomicLong();
+    private final ReloadMetrics m_metrics = new ReloadMetrics();
+    private final Queue<CompletableFuture<String>> m_reloadFutures = new ConcurrentLinkedQueue<>();
+    private final Map<CompletableFuture<String>, String> m_awaitFutures = new ConcurrentHashMap<>();
+    private int m_controlPort = 0;
+    private String m_controlToken = null;
+    private ReloadControlServer m_controlServer = null;
+    private long m_reloadSpreadSec = 0L;
+    private int m_reloadMaxPercent = 10;
+    private Path m_reloadLeaseDirectory = null;
+    private String m_reloadNodeId = null;
+    private ReloadStagger m_reloadStagger = null;
+    private long m_staggerSince = 0L;
+
+
+    /**
+     * A Listener is notified after each reload of the keys, once every factory bound to the
+     * key files has been given the new keys.  Listeners are called on the reload thread and
+     * should return quickly.
+     */
+    public interface Listener {
+        /**
+         * The keys have been reloaded.
+         *
+         * @param keyMaterial The key material now being served, or null if the factories
+         *                    reloaded the key files themselves
+         */
+        void keysReloaded(KeyMaterial keyMaterial);
 
+        /**
+         * A reload of the keys failed, every factory is still serving the previous keys.
+         *
+         * @param cause The failure
+         */
+        default void reloadFailed(final Exception cause) {
+        }
+    }
 
     public ReloadSslKeysModule() {
     }
-    
+
     public void setSslContextFactory(final SslContextFactory sslCtxFactory) {
         m_sslCtxFactory = sslCtxFactory;
     }
-    
+
+    /**
+     * Bind a further factory, server or client, to the key files of the first.  The key files
+     * are watched and parsed once for every bound factory, and each reload gives all of them
+     * the new keys or, if any of them fails, none.  The first factory added becomes the
+     * module's factory if none has been set.  Bound factories must use the same key store and
+     * key manager passwords as the module's factory; a certificate directory is only served
+     * by the module's factory.
+     *
+     * @param sslCtxFactory The factory to bind
+     */
+    public void addSslContextFactory(final SslContextFactory sslCtxFactory) {
+        if (m_sslCtxFactory == null) {
+            m_sslCtxFactory = sslCtxFactory;
+        } else if (sslCtxFactory != m_sslCtxFactory && ! m_boundFactories.contains(sslCtxFactory)) {
+            m_boundFactories.add(sslCtxFactory);
+        }
+    }
+
+    /**
+     * Get the factories given the keys, the module's factory first.
+     *
+     * @return The factories
+     */
+    public List<SslContextFactory> getSslContextFactories() {
+        List<SslContextFactory> factories = new ArrayList<>();
+        if (m_sslCtxFactory != null) {
+            factories.add(m_sslCtxFactory);
+        }
+        factories.addAll(m_boundFactories);
+        return Collections.unmodifiableList(factories);
+    }
+
+    /**
+     * Set the loopback port of the HTTP endpoint deploy tooling can reload the keys and wait
+     * for a certificate through, zero disables it.
+     */
+    public void setControlPort(final int controlPort) {
+        m_controlPort = controlPort;
+    }
+
+    /**
+     * Set the token reloads over the HTTP endpoint must carry in the X-Reload-Token header.
+     */
+    public void setControlToken(final String controlToken) {
+        m_controlToken = controlToken;
+    }
+
+    /**
+     * Get the control server, null if it is not enabled.
+     */
+    ReloadControlServer getControlServer() {
+        return m_controlServer;
+    }
+
+    /**
+     * Set the window over which the reloads of a fleet of nodes sharing the key files are
+     * spread, zero reloads as soon as the change is seen.
+     */
+    public void setReloadSpreadSec(final long reloadSpreadSec) {
+        m_reloadSpreadSec = reloadSpreadSec;
+    }
+
+    /**
+     * Set the most of the fleet which may be reloading at once, as a percentage.
+     */
+    public void setReloadMaxPercent(final int reloadMaxPercent) {
+        m_reloadMaxPercent = reloadMaxPercent;
+    }
+
+    /**
+     * Set a directory on storage shared by the fleet in which nodes claim reload slots as
+     * lease files, rather than each waiting the offset given by its node id.
+     */
+    public void setReloadLeaseDirectory(final String reloadLeaseDirectory) {
+        m_reloadLeaseDirectory = ReloadSslKeysModule.toPath(reloadLeaseDirectory);
+    }
+
+    /**
+     * Set the id of this node within the fleet, defaulting to the host name.
+     */
+    public void setReloadNodeId(final String reloadNodeId) {
+        m_reloadNodeId = reloadNodeId;
+    }
+
+    /**
+     * Get the reload stagger, null if reloads are not staggered.
+     */
+    ReloadStagger getReloadStagger() {
+        return m_reloadStagger;
+    }
+
+    /**
+     * Add a listener notified after each reload of the keys.
+     */
+    public void addListener(final Listener listener) {
+        m_listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        m_listeners.remove(listener);
+    }
+
     public void setReloadDelaySec(final long reloadDelaySec) {
         m_reloadDelaySec = reloadDelaySec;
     }
-    
+
+    /**
+     * Enable reloading as soon as a write to the key file is complete, rather than after
+     * the reload delay has passed with no further changes.
+     */
+    public void setDetectWriteCompletion(final boolean detectWriteCompletion) {
+        m_detectWriteCompletion = detectWriteCompletion;
+    }
+
+    /**
+     * Set the period a key file written in place must be stable for before it is reloaded.
+     */
+    public void setWriteQuietMs(final long writeQuietMs) {
+        m_writeQuietMs = writeQuietMs;
+    }
+
+    /**
+     * Set the longest a reload is postponed after the first change of a burst, so files which
+     * are rewritten continually are still reloaded.  Zero waits for the changes to stop.
+     */
+    public void setReloadMaxWaitSec(final long reloadMaxWaitSec) {
+        m_reloadMaxWaitSec = reloadMaxWaitSec;
+    }
+
+    /**
+     * Enable reloading on the first change of a burst, rather than once the changes have
+     * settled.  Later changes in the burst are reloaded once, when they settle.
+     */
+    public void setReloadLeadingEdge(final boolean reloadLeadingEdge) {
+        m_reloadLeadingEdge = reloadLeadingEdge;
+    }
+
+    /**
+     * Set the shortest period between the end of one reload and the start of the next.
+     */
+    public void setReloadMinIntervalSec(final long reloadMinIntervalSec) {
+        m_reloadMinIntervalSec = reloadMinIntervalSec;
+    }
+
+    /**
+     * Set the delay before a failed reload is first retried.  Consecutive failures double the
+     * delay, up to the maximum.  Zero disables retries, leaving failed reloads until the
+     * files change again.
+     */
+    public void setRetryInitialMs(final long retryInitialMs) {
+        m_retryInitialMs = retryInitialMs;
+    }
+
+    /**
+     * Set the longest delay between retries of a failed reload.
+     */
+    public void setRetryMaxMs(final long retryMaxMs) {
+        m_retryMaxMs = retryMaxMs;
+    }
+
+    /**
+     * Run the file watch loop and reload callbacks on virtual threads, where the JVM supports
+     * them; platform threads are used otherwise.  The setting is process wide.
+     */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        m_virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Set the shortest interval between checks that the key files on disk match the keys
+     * being served, used as the certificate nears expiry.
+     */
+    public void setExpiryCheckMinSec(final long expiryCheckMinSec) {
+        m_expiryCheckMinSec = expiryCheckMinSec;
+    }
+
+    /**
+     * Set the longest interval between checks that the key files on disk match the keys being
+     * served.  Zero disables the checks.
+     */
+    public void setExpiryCheckMaxSec(final long expiryCheckMaxSec) {
+        m_expiryCheckMaxSec = expiryCheckMaxSec;
+    }
+
+    /**
+     * Get the number of reloads forced by a check finding the key files changed without a
+     * file event being seen.
+     *
+     * @return The number of forced reloads
+     */
+    @ManagedAttribute("Number of reloads forced by finding the key files changed without a file event")
+    public long getForcedReloadCount() {
+        ExpiryChecker expiryChecker = m_expiryChecker;
+        return expiryChecker == null ? 0L : expiryChecker.getForcedReloadCount();
+    }
+
+    /**
+     * Get the number of consecutive failures of the key reload since it last succeeded.
+     *
+     * @return The number of consecutive failures
+     */
+    @ManagedAttribute("Number of consecutive failed key reloads since the last success")
+    public int getConsecutiveFailureCount() {
+        RetryBackoff backoff = m_keyBackoff;
+        return backoff == null ? 0 : backoff.getAttempts();
+    }
+
+    /**
+     * Get the policy reloads triggered by file changes are debounced with.
+     */
+    Debouncer.Policy getReloadPolicy() {
+        return new Debouncer.Policy(TimeUnit.SECONDS.toMillis(m_reloadMaxWaitSec), m_reloadLeadingEdge,
+                                    TimeUnit.SECONDS.toMillis(m_reloadMinIntervalSec));
+    }
+
+    /**
+     * Set how the key file is watched; auto, native or poll.  Auto polls files on file
+     * systems which do not deliver change events and uses native events elsewhere.
+     */
+    public void setWatchMode(final String watchMode) {
+        m_watchMode = watchMode;
+    }
+
+    /**
+     * Set the shortest interval between polls of the key file.
+     */
+    public void setPollMinMs(final long pollMinMs) {
+        m_pollMinMs = pollMinMs;
+    }
+
+    /**
+     * Set the longest interval between polls of a key file which is not changing.
+     */
+    public void setPollMaxMs(final long pollMaxMs) {
+        m_pollMaxMs = pollMaxMs;
+    }
+
+    /**
+     * Set the PEM file holding the certificate chain to load instead of the factory's key
+     * store, server certificate first.  Requires the private key path to be set as well.
+     */
+    public void setCertificateChainPath(final String certificateChainPath) {
+        m_certificateChainPath = ReloadSslKeysModule.toPath(certificateChainPath);
+    }
+
+    /**
+     * Set the PEM file holding the private key for the certificate chain.
+     */
+    public void setPrivateKeyPath(final String privateKeyPath) {
+        m_privateKeyPath = ReloadSslKeysModule.toPath(privateKeyPath);
+    }
+
+    /**
+     * Set a directory of certificates to serve by SNI host name instead of the factory's
+     * key store.  Each entry is a subdirectory holding fullchain.pem and privkey.pem, or a
+     * single .pem file holding both.
+     */
+    public void setCertificateDirectory(final String certificateDirectory) {
+        m_certificateDirectoryPath = ReloadSslKeysModule.toPath(certificateDirectory);
+    }
+
+    private static Path toPath(final String path) {
+        return path == null || path.trim().isEmpty() ? null : Paths.get(path.trim()).toAbsolutePath();
+    }
+
+    /**
+     * Set the most key store entries or certificates decoded and validated at once, zero
+     * for the number of processors and one to load them serially.
+     */
+    public void setLoadParallelism(final int loadParallelism) {
+        m_loadParallelism = loadParallelism;
+    }
+
+    /**
+     * Enable watching the factory's trust store, and the revocation lists, for changes.
+     */
+    public void setWatchTrustStore(final boolean watchTrustStore) {
+        m_watchTrustStore = watchTrustStore;
+    }
+
+    /**
+     * Set the password of the trust store, matching the one given to the SslContextFactory.
+     * Obfuscated passwords are accepted.
+     */
+    public void setTrustStorePassword(final String trustStorePassword) {
+        m_trustStorePassword = trustStorePassword;
+    }
+
+    /**
+     * Set the certificate revocation list files to check peers against, comma separated, in
+     * addition to the factory's CRL path.  Revocation lists are only checked when the factory
+     * validates peer certificates.
+     */
+    public void setCrlPaths(final String crlPaths) {
+        List<Path> paths = new ArrayList<>();
+        if (crlPaths != null) {
+            for (String crlPath : crlPaths.split(",")) {
+                Path path = ReloadSslKeysModule.toPath(crlPath);
+                if (path != null) {
+                    paths.add(path);
+                }
+            }
+        }
+        m_crlPaths = paths;
+    }
+
+    /**
+     * Set the period the trust store and revocation lists must be unchanged for before
+     * they are reloaded.
+     */
+    public void setTrustReloadDelaySec(final long trustReloadDelaySec) {
+        m_trustReloadDelaySec = trustReloadDelaySec;
+    }
+
+    /**
+     * Set the password of the key store, matching the one given to the SslContextFactory.
+     * Obfuscated passwords are accepted.
+     */
+    public void setKeyStorePassword(final String keyStorePassword) {
+        m_keyStorePassword = keyStorePassword;
+    }
+
+    /**
+     * Set the password of the private keys, matching the one given to the SslContextFactory.
+     * Obfuscated passwords are accepted.
+     */
+    public void setKeyManagerPassword(final String keyManagerPassword) {
+        m_keyManagerPassword = keyManagerPassword;
+    }
+
+    /**
+     * Set the number of loopback handshakes run against new key material for each protocol
+     * and cipher family before it is published, zero disables them.  Requires the key store
+     * password to be set.
+     */
+    public void setWarmupHandshakes(final int warmupHandshakes) {
+        m_warmupHandshakes = warmupHandshakes;
+    }
+
+    /**
+     * Get the number of loopback handshakes run against new key material before publishing it.
+     *
+     * @return The number of warm up handshakes
+     */
+    @ManagedAttribute("Number of loopback handshakes run to warm new keys before publishing them")
+    public long getWarmupHandshakeCount() {
+        HandshakeWarmer handshakeWarmer = m_handshakeWarmer;
+        return handshakeWarmer == null ? 0L : handshakeWarmer.getHandshakeCount();
+    }
+
+    /**
+     * Enable swapping compatible key material into the live SSLContext, preserving its
+     * session cache and session tickets.  Requires the key store password to be set.
+     */
+    public void setPreserveSessions(final boolean preserveSessions) {
+        m_preserveSessions = preserveSessions;
+    }
+
+    /**
+     * Set the period over which sessions established before a swap are retired, zero
+     * leaves them to expire with the session timeout.
+     */
+    public void setSessionHandOverSec(final long sessionHandOverSec) {
+        m_sessionHandOverSec = sessionHandOverSec;
+    }
+
+    /**
+     * Set the number of full handshakes per second admitted during the window after a
+     * reload, zero disables the limit.  Requires the key store password to be set.
+     */
+    public void setHandshakeRateLimit(final long handshakeRateLimit) {
+        m_handshakeRateLimit = handshakeRateLimit;
+    }
+
+    /**
+     * Set the number of handshakes which may be admitted at once, defaulting to the rate.
+     */
+    public void setHandshakeBurst(final int handshakeBurst) {
+        m_handshakeBurst = handshakeBurst;
+    }
+
+    /**
+     * Set the longest a handshake waits to be admitted before it is shed, zero to shed at
+     * once.  The wait holds a Jetty thread, so it is capped at a few milliseconds.
+     */
+    public void setHandshakeMaxWaitMs(final long handshakeMaxWaitMs) {
+        m_handshakeMaxWaitMs = handshakeMaxWaitMs;
+    }
+
+    /**
+     * Set the period after each reload during which handshakes are limited.
+     */
+    public void setHandshakeLimitWindowSec(final long handshakeLimitWindowSec) {
+        m_handshakeLimitWindowSec = handshakeLimitWindowSec;
+    }
+
+    /**
+     * Get the handshake limiter, null if handshakes are not being limited.
+     */
+    public HandshakeLimiter getHandshakeLimiter() {
+        return m_handshakeLimiter;
+    }
+
+    /**
+     * Get the number of reloads which were skipped because the content of the
+     * key file had not changed.
+     *
+     * @return The number of skipped reloads
+     */
+    @ManagedAttribute("Number of reloads skipped because the key files were unchanged")
+    public long getSkippedReloadCount() {
+        return m_skippedReloads.get();
+    }
+
+    /**
+     * Get the number of times a new trust store or revocation list has been swapped in.
+     *
+     * @return The number of trust reloads
+     */
+    @ManagedAttribute("Number of times a new trust store or revocation list was swapped in")
+    public long getTrustReloadCount() {
+        return m_trustReloads.get();
+    }
+
+    /**
+     * Get the metrics of file events and reloads.
+     */
+    ReloadMetrics getMetrics() {
+        return m_metrics;
+    }
+
+    @ManagedAttribute("Number of change events seen on the watched files")
+    public long getFileEventCount() {
+        return m_metrics.getFileEventCount();
+    }
+
+    @ManagedAttribute("Number of file events coalesced into the reload of an earlier event")
+    public long getCoalescedEventCount() {
+        return m_metrics.getCoalescedEventCount();
+    }
+
+    @ManagedAttribute("Number of reloads completed")
+    public long getReloadCount() {
+        return m_metrics.getReloadCount();
+    }
+
+    @ManagedAttribute("Number of reloads which failed, leaving the previous keys in use")
+    public long getFailedReloadCount() {
+        return m_metrics.getFailedReloadCount();
+    }
+
+    @ManagedAttribute("Mean reload duration (ms)")
+    public double getReloadDurationMeanMs() {
+        return m_metrics.getReloadDuration().getMeanMillis();
+    }
+
+    @ManagedAttribute("Median reload duration (ms)")
+    public double getReloadDurationP50Ms() {
+        return m_metrics.getReloadDuration().getPercentileMillis(0.5d);
+    }
+
+    @ManagedAttribute("99th percentile reload duration (ms)")
+    public double getReloadDurationP99Ms() {
+        return m_metrics.getReloadDuration().getPercentileMillis(0.99d);
+    }
+
+    @ManagedAttribute("Longest reload duration (ms)")
+    public double getReloadDurationMaxMs() {
+        return m_metrics.getReloadDuration().getMaxMillis();
+    }
+
+    @ManagedAttribute("Mean time from a file event to the completion of its reload (ms)")
+    public double getEventToReloadMeanMs() {
+        return m_metrics.getEventToReload().getMeanMillis();
+    }
+
+    @ManagedAttribute("Median time from a file event to the completion of its reload (ms)")
+    public double getEventToReloadP50Ms() {
+        return m_metrics.getEventToReload().getPercentileMillis(0.5d);
+    }
+
+    @ManagedAttribute("99th percentile time from a file event to the completion of its reload (ms)")
+    public double getEventToReloadP99Ms() {
+        return m_metrics.getEventToReload().getPercentileMillis(0.99d);
+    }
+
+    @ManagedAttribute("Longest time from a file event to the completion of its reload (ms)")
+    public double getEventToReloadMaxMs() {
+        return m_metrics.getEventToReload().getMaxMillis();
+    }
+
+    /**
+     * Get the expiry of the certificate being served which expires first, as an ISO-8601
+     * instant, or null if no certificate is being served.
+     */
+    @ManagedAttribute("Expiry (notAfter) of the served certificate which expires first")
+    public String getCertificateNotAfter() {
+        X509Certificate certificate = getExpiringCertificate();
+        return certificate == null ? null : certificate.getNotAfter().toInstant().toString();
+    }
+
+    /**
+     * Get the SHA-256 fingerprint of the certificate being served which expires first, or
+     * null if no certificate is being served.
+     */
+    @ManagedAttribute("SHA-256 fingerprint of the served certificate which expires first")
+    public String getCertificateFingerprint() {
+        X509Certificate certificate = getExpiringCertificate();
+        try {
+            return certificate == null ? null : ReloadSslKeysModule.fingerprint(certificate);
+        } catch (GeneralSecurityException ex) {
+            LOG.debug("Unable to fingerprint certificate", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Get the time since the file watch loop, shared by every watched file in the JVM, last
+     * showed it was running; it wakes at least once a second.
+     *
+     * @return The age of the heartbeat in milliseconds, -1 if no files are watched for events
+     */
+    @ManagedAttribute("Time since the file watch loop last showed it was running (ms), -1 if not running")
+    public long getWatchHeartbeatAgeMs() {
+        return WatchRegistry.getInstance().getHeartbeatAgeMillis();
+    }
+
+    @ManagedAttribute("Number of times file watch events were lost and the watched files checked again")
+    public long getWatchOverflowCount() {
+        return WatchRegistry.getInstance().getOverflowCount();
+    }
+
+    /**
+     * Reload the keys now, without waiting for a file event or the reload delay.  The reload
+     * runs on the thread which reloads the keys on file events, so never alongside one.
+     *
+     * @return A future completed with the fingerprint of the certificate served once the
+     *         reload is live, or exceptionally if the reload fails or no key files are being
+     *         watched, as when serving a certificate directory
+     */
+    public CompletableFuture<String> reloadNow() {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Runnable runNow = m_keyRunNow;
+        if (runNow == null) {
+            future.completeExceptionally(new IllegalStateException("No key files are being watched"));
+            return future;
+        }
+        m_reloadFutures.add(future);
+        // A caller which stops waiting, as on a timeout, leaves nothing behind for the next reload
+        future.whenComplete((f, ex) -> m_reloadFutures.remove(future));
+        runNow.run();
+        return future;
+    }
+
+    /**
+     * Wait for a certificate to be served, such as one just written to the key files.
+     *
+     * @param fingerprint The SHA-256 fingerprint of the certificate, in hex with or without colons
+     * @return A future completed with the fingerprint once a reload has made the certificate
+     *         live, at once if it already is; callers should bound how long they wait
+     */
+    public CompletableFuture<String> awaitReload(final String fingerprint) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        String normalized = ReloadSslKeysModule.normalizeFingerprint(fingerprint);
+        m_awaitFutures.put(future, normalized);
+        future.whenComplete((f, ex) -> m_awaitFutures.remove(future));
+        completeAwaits();
+        return future;
+    }
+
+    @ManagedOperation(value = "Reload the keys now, returning the served certificate fingerprint once live", impact = "ACTION")
+    public String reloadNow(@Name(value = "timeoutSec", description = "Longest time to wait (s)") final long timeoutSec)
+            throws Exception {
+        return ReloadSslKeysModule.await(reloadNow(), timeoutSec);
+    }
+
+    @ManagedOperation(value = "Wait for the certificate with a SHA-256 fingerprint to be served", impact = "INFO")
+    public String awaitReload(@Name(value = "fingerprint", description = "SHA-256 fingerprint of the certificate") final String fingerprint,
+                              @Name(value = "timeoutSec", description = "Longest time to wait (s)") final long timeoutSec)
+            throws Exception {
+        return ReloadSslKeysModule.await(awaitReload(fingerprint), timeoutSec);
+    }
+
+    private static String await(final CompletableFuture<String> future, final long timeoutSec) throws Exception {
+        try {
+            return future.get(timeoutSec, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        } finally {
+            future.cancel(false);
+        }
+    }
+
+    static String normalizeFingerprint(final String fingerprint) {
+        return fingerprint.replace(":", "").trim().toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Complete the futures waiting for a reload which has just finished, with the fingerprint
+     * being served or the failure.
+     */
+    private static void completeReloads(final List<CompletableFuture<String>> futures, final String fingerprint,
+                                        final Exception failure) {
+        for (CompletableFuture<String> future : futures) {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(fingerprint);
+            }
+        }
+    }
+
+    /**
+     * Complete the futures waiting for a certificate which is now being served.
+     */
+    private void completeAwaits() {
+        if (m_awaitFutures.isEmpty()) {
+            return;
+        }
+        Map<String, String> served = new HashMap<>();
+        for (X509Certificate certificate : getServedCertificates()) {
+            try {
+                String fingerprint = ReloadSslKeysModule.fingerprint(certificate);
+                served.put(ReloadSslKeysModule.normalizeFingerprint(fingerprint), fingerprint);
+            } catch (GeneralSecurityException ex) {
+                LOG.debug("Unable to fingerprint certificate", ex);
+            }
+        }
+        for (Map.Entry<CompletableFuture<String>, String> await : m_awaitFutures.entrySet()) {
+            String fingerprint = served.get(await.getValue());
+            if (fingerprint != null) {
+                await.getKey().complete(fingerprint);
+            }
+        }
+    }
+
+    @ManagedOperation(value = "Reset the reload counts and timings", impact = "ACTION")
+    public void resetStatistics() {
+        m_metrics.reset();
+    }
+
+    /**
+     * Get the colon separated, upper case hex SHA-256 digest of a certificate, as printed by
+     * keytool and openssl.
+     */
+    static String fingerprint(final X509Certificate certificate) throws GeneralSecurityException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+        StringBuilder fingerprint = new StringBuilder(digest.length * 3);
+        for (byte b : digest) {
+            if (fingerprint.length() > 0) {
+                fingerprint.append(':');
+            }
+            fingerprint.append(String.format("%02X", b & 0xff));
+        }
+        return fingerprint.toString();
+    }
+
     @Override
     protected void doStart() throws Exception {
+        if (m_virtualThreads) {
+            VirtualThreads.getInstance().setEnabled(true);
+        }
         if (m_sslCtxFactory != null) {
-            Path keystorePath = Paths.get(URI.create(m_sslCtxFactory.getKeyStorePath()));
-            m_fileWatcher = new FileWatcher(keystorePath, () -> {
-                try {
-                    LOG.info("Reloading keys in SslContextFactory");
-                    m_sslCtxFactory.reload(scf -> {});
-                } catch (Exception ex) {
-                    LOG.info("Failed reloading SslCOntextFactory", ex);
+            m_parallelLoader = new ParallelLoader(m_loadParallelism);
+            if (m_certificateDirectoryPath != null) {
+                startCertificateDirectory();
+            } else {
+                startKeyStore();
+            }
+            if (m_watchTrustStore) {
+                startTrustStore();
+            }
+            if (m_controlPort > 0) {
+                m_controlServer = new ReloadControlServer(this, m_controlPort, m_controlToken);
+                m_controlServer.start();
+            }
+        }
+    }
+
+    /**
+     * Load the factory's key store, or the PEM files, and start watching them.
+     */
+    private void startKeyStore() throws Exception {
+        if (isPemSource()) {
+            m_watchedPaths = Arrays.asList(m_certificateChainPath, m_privateKeyPath);
+            m_fingerprints = fingerprints(m_watchedPaths, null);
+            m_keyStoreLoader = createPemLoader();
+        } else {
+            if (m_certificateChainPath != null || m_privateKeyPath != null) {
+                LOG.warn("Both the certificate chain and private key paths are needed to load PEM files, " +
+                         "using the SslContextFactory key store");
+            }
+            m_keystorePath = Paths.get(URI.create(m_sslCtxFactory.getKeyStorePath()));
+            m_watchedPaths = Collections.singletonList(m_keystorePath);
+            m_fingerprints = fingerprints(m_watchedPaths, null);
+            m_keyStoreLoader = createKeyStoreLoader();
+        }
+        bindFactories();
+        if (m_warmupHandshakes > 0) {
+            if (m_keyStoreLoader != null) {
+                m_handshakeWarmer = new HandshakeWarmer(m_sslCtxFactory, m_warmupHandshakes);
+            } else {
+                LOG.warn("Warm up handshakes require a staged key store, new keys will not be warmed");
+            }
+        }
+        if (m_handshakeRateLimit > 0) {
+            m_handshakeLimiter = new HandshakeLimiter(m_handshakeRateLimit,
+                    m_handshakeBurst > 0 ? m_handshakeBurst : (int) m_handshakeRateLimit,
+                    m_handshakeMaxWaitMs, m_handshakeLimitWindowSec * 1000L);
+        }
+        if (m_preserveSessions || m_handshakeLimiter != null) {
+            enableReloadableKeyManager();
+        }
+        if (m_reloadSpreadSec > 0) {
+            m_reloadStagger = new ReloadStagger(m_reloadNodeId, m_reloadSpreadSec * 1000L, m_reloadMaxPercent,
+                                                m_reloadLeaseDirectory);
+            m_reloadStagger.start();
+        }
+        startWatching();
+        if (m_expiryCheckMaxSec > 0) {
+            m_expiryChecker = new ExpiryChecker(this::getEarliestExpiry, this::isKeyMaterialStale, this::forceReload,
+                                                m_expiryCheckMinSec * 1000L, m_expiryCheckMaxSec * 1000L);
+            m_expiryChecker.start();
+        }
+    }
+
+    /**
+     * Give the bound factories the staged key material, so that they serve the same keys as
+     * the module's factory from the start.  Without staged key material each factory loads
+     * the key files itself.
+     */
+    private void bindFactories() throws Exception {
+        if (m_boundFactories.isEmpty()) {
+            return;
+        }
+        if (m_keyStoreLoader != null) {
+            KeyMaterial keyMaterial = m_keyMaterial;
+            for (SslContextFactory factory : m_boundFactories) {
+                if (factory.isStarted()) {
+                    factory.reload(scf -> installBound(scf, keyMaterial));
+                } else {
+                    installBound(factory, keyMaterial);
                 }
-            }, m_reloadDelaySec); 
+            }
+        }
+        LOG.info("Bound {} further SslContextFactory instances to {}", m_boundFactories.size(), m_watchedPaths);
+    }
+
+    /**
+     * Check whether the key files on disk differ from those last loaded.  While failed reloads
+     * are being retried the difference is left to the retries.
+     */
+    boolean isKeyMaterialStale() {
+        RetryBackoff backoff = m_keyBackoff;
+        if (backoff != null && backoff.getAttempts() > 0) {
+            return false;
+        }
+        FileFingerprint[] loaded = m_fingerprints;
+        FileFingerprint[] current = fingerprints(m_watchedPaths, loaded);
+        return current != null && ! ReloadSslKeysModule.sameContent(current, loaded);
+    }
+
+    /**
+     * Reload the keys through the debouncer which reloads them on file events, so the forced
+     * reload never runs alongside one.
+     */
+    private void forceReload() {
+        LongConsumer retry = m_keyRetry;
+        if (retry != null) {
+            retry.accept(0L);
+        }
+    }
+
+    /**
+     * Watch each of the key files, reloading the keys when any of them changes.
+     */
+    private void startWatching() throws IOException {
+        Runnable callback = this::reloadKeys;
+        if (m_watchedPaths.size() > 1) {
+            // Files replaced together, such as a certificate chain and its key, are reloaded once
+            m_pairDebouncer = new Debouncer(this::reloadKeys, PEM_PAIR_DELAY_SEC);
+            callback = m_pairDebouncer::trigger;
+            m_keyRetry = m_pairDebouncer::retry;
+            m_keyRunNow = m_pairDebouncer::runNow;
+        }
+        if (m_retryInitialMs > 0) {
+            m_keyBackoff = new RetryBackoff(m_retryInitialMs, m_retryMaxMs);
+        }
+
+        WatchStrategy strategy = m_metrics.counting(createWatchStrategy());
+        try {
+            for (Path path : m_watchedPaths) {
+                m_fileWatchers.add(new FileWatcher(path, callback, m_reloadDelaySec,
+                        m_detectWriteCompletion ? this::isParsable : null, m_writeQuietMs, strategy, getReloadPolicy()));
+            }
+            if (m_keyRetry == null) {
+                m_keyRetry = m_fileWatchers.get(0)::retry;
+                m_keyRunNow = m_fileWatchers.get(0)::runNow;
+            }
+        } catch (IOException ex) {
+            stopWatching();
+            throw ex;
+        }
+    }
+
+    private void stopWatching() {
+        if (m_expiryChecker != null) {
+            m_expiryChecker.stop();
+            m_expiryChecker = null;
+        }
+        m_keyRetry = null;
+        m_keyRunNow = null;
+        for (FileWatcher fileWatcher : m_fileWatchers) {
+            fileWatcher.stopWatcher();
+        }
+        m_fileWatchers.clear();
+        if (m_pairDebouncer != null) {
+            m_pairDebouncer.shutdown(false);
+            m_pairDebouncer = null;
+        }
+        for (FileWatcher fileWatcher : m_trustWatchers) {
+            fileWatcher.stopWatcher();
+        }
+        m_trustWatchers.clear();
+        if (m_trustDebouncer != null) {
+            m_trustDebouncer.shutdown(false);
+            m_trustDebouncer = null;
+        }
+    }
+
+    /**
+     * Build the factory's SSLContext over a ReloadableTrustManager loaded from the trust
+     * store and revocation lists, then watch them.  A separate trust store file is needed;
+     * a factory trusting its own key store has its trust reloaded with the key store.
+     */
+    private void startTrustStore() throws Exception {
+        String trustStorePath = m_sslCtxFactory.getTrustStorePath();
+        if (trustStorePath == null || trustStorePath.equals(m_sslCtxFactory.getKeyStorePath())) {
+            LOG.warn("The SslContextFactory has no separate trust store, it will not be watched");
+            return;
+        }
+        if (m_sslCtxFactory.getProvider() != null) {
+            LOG.warn("Trust store watching is not supported with SSL provider {}, it will not be watched",
+                     m_sslCtxFactory.getProvider());
+            return;
+        }
+
+        m_trustStorePath = Paths.get(URI.create(trustStorePath));
+        List<Path> crlPaths = new ArrayList<>();
+        String crlPath = m_sslCtxFactory.getCrlPath();
+        if (crlPath != null && ! crlPath.trim().isEmpty()) {
+            crlPaths.add(crlPath.startsWith("file:") ? Paths.get(URI.create(crlPath)) : ReloadSslKeysModule.toPath(crlPath));
+        }
+        crlPaths.addAll(m_crlPaths);
+        m_trustStoreLoader = new TrustStoreLoader(m_sslCtxFactory,
+                m_trustStorePassword == null ? null : new Password(m_trustStorePassword).toString());
+        if (! crlPaths.isEmpty() && ! m_trustStoreLoader.isCheckingRevocation()) {
+            LOG.warn("Revocation lists {} are only checked when the SslContextFactory validates peer certificates " +
+                     "with the {} algorithm", crlPaths, TrustStoreLoader.PKIX);
+        }
+
+        List<Path> trustPaths = new ArrayList<>();
+        trustPaths.add(m_trustStorePath);
+        trustPaths.addAll(crlPaths);
+        m_trustPaths = trustPaths;
+        m_trustFingerprints = fingerprints(m_trustPaths, null);
+        TrustStoreLoader.TrustMaterial trustMaterial = m_trustStoreLoader.load(m_trustStorePath, crlPaths);
+
+        ReloadableKeyManagerFactory.installProvider();
+        ReloadableTrustManager trustManager = new ReloadableTrustManager(trustMaterial.getTrustManager());
+        ReloadableTrustManagerFactory.bind(trustMaterial.getTrustStore(), trustManager);
+        m_trustManagerFactoryAlgorithm = m_sslCtxFactory.getTrustManagerFactoryAlgorithm();
+        m_sslCtxFactory.reload(scf -> {
+            scf.setTrustManagerFactoryAlgorithm(ReloadableTrustManagerFactory.ALGORITHM);
+            scf.setTrustStore(trustMaterial.getTrustStore());
+        });
+        m_trustManager = trustManager;
+
+        // The trust store and revocation lists are often replaced together, reload them once
+        m_trustDebouncer = new Debouncer(this::reloadTrust, PEM_PAIR_DELAY_SEC);
+        if (m_retryInitialMs > 0) {
+            m_trustBackoff = new RetryBackoff(m_retryInitialMs, m_retryMaxMs);
+        }
+        WatchStrategy strategy = m_metrics.counting(createWatchStrategy());
+        for (Path path : m_trustPaths) {
+            m_trustWatchers.add(new FileWatcher(path, m_trustDebouncer::trigger, m_trustReloadDelaySec,
+                    m_detectWriteCompletion ? this::isTrustParsable : null, m_writeQuietMs, strategy,
+                    getReloadPolicy()));
+        }
+        LOG.info("Watching trust store {} and {} revocation lists", m_trustStorePath, crlPaths.size());
+    }
+
+    /**
+     * Swap a new trust manager into the live SSLContext if the content of the trust store
+     * or revocation lists has changed since they were last loaded.
+     */
+    private void reloadTrust() {
+        long startNanos = System.nanoTime();
+        FileFingerprint[] fingerprints = fingerprints(m_trustPaths, m_trustFingerprints);
+        if (ReloadSslKeysModule.sameContent(fingerprints, m_trustFingerprints)) {
+            m_metrics.reloadSkipped(m_trustPaths, startNanos);
+            ReloadSslKeysModule.succeeded(m_trustBackoff);
+            LOG.info("Trust files {} unchanged, skipping reload", m_trustPaths);
+            return;
+        }
+
+        try {
+            TrustStoreLoader.TrustMaterial trustMaterial =
+                    m_trustStoreLoader.load(m_trustStorePath, m_trustPaths.subList(1, m_trustPaths.size()));
+            m_trustManager.swap(trustMaterial.getTrustManager());
+            m_trustFingerprints = fingerprints;
+            m_trustReloads.incrementAndGet();
+            m_metrics.reloadSucceeded(m_trustPaths, startNanos);
+            ReloadSslKeysModule.succeeded(m_trustBackoff);
+            LOG.info("Swapped trust store {} and {} revocation lists into the live SSLContext",
+                     m_trustStorePath, trustMaterial.getCrlCount());
+        } catch (Exception ex) {
+            m_metrics.reloadFailed(m_trustPaths, startNanos);
+            LOG.warn("Failed reloading trust store " + m_trustStorePath + ", keeping the current trust", ex);
+            Debouncer trustDebouncer = m_trustDebouncer;
+            ReloadSslKeysModule.scheduleRetry(m_trustBackoff, trustDebouncer == null ? null : trustDebouncer::retry);
+        }
+    }
+
+    /**
+     * Reset a backoff after a reload succeeds or finds nothing to reload.
+     */
+    private static void succeeded(final RetryBackoff backoff) {
+        if (backoff != null) {
+            backoff.reset();
+        }
+    }
+
+    /**
+     * Schedule a retry of a failed reload, after the next backed off delay.
+     */
+    private static void scheduleRetry(final RetryBackoff backoff, final LongConsumer retry) {
+        if (backoff != null && retry != null) {
+            long delayMillis = backoff.nextDelayMillis();
+            LOG.info("Retrying reload in {}ms, attempt {}", delayMillis, backoff.getAttempts());
+            retry.accept(delayMillis);
+        }
+    }
+
+    /**
+     * Trial parse of a trust store or revocation list, used to decide whether it has been
+     * completely written.
+     */
+    private boolean isTrustParsable(final Path path) {
+        try {
+            byte[] content = Files.readAllBytes(path);
+            if (! path.equals(m_trustStorePath)) {
+                return ! TrustStoreLoader.readCrls(content).isEmpty();
+            }
+            String type = m_sslCtxFactory.getTrustStoreType() != null ?
+                    m_sslCtxFactory.getTrustStoreType() : m_sslCtxFactory.getKeyStoreType();
+            String provider = m_sslCtxFactory.getTrustStoreProvider();
+            KeyStore trustStore = provider == null ? KeyStore.getInstance(type) : KeyStore.getInstance(type, provider);
+            trustStore.load(new ByteArrayInputStream(content),
+                    m_trustStorePassword == null ? null : new Password(m_trustStorePassword).toString().toCharArray());
+            return trustStore.size() > 0;
+        } catch (Exception ex) {
+            LOG.debug("Trust file " + path + " can not be parsed yet", ex);
+            return false;
         }
     }
 
+    private boolean isPemSource() {
+        return m_certificateChainPath != null && m_privateKeyPath != null;
+    }
+
+    /**
+     * Serve the certificates of the certificate directory, building the factory's SSLContext
+     * once over the SniKeyManager they are loaded into.  The factory is given an empty key
+     * store bound to that key manager, so it does not wrap it with its own SNI selection.
+     */
+    private void startCertificateDirectory() throws Exception {
+        if (! m_boundFactories.isEmpty()) {
+            LOG.warn("A certificate directory is only served by the module's SslContextFactory, " +
+                     "{} bound factories will not be given its certificates", m_boundFactories.size());
+        }
+        if (m_reloadSpreadSec > 0) {
+            LOG.warn("Reloads of a certificate directory are not staggered, each certificate is reloaded when it changes");
+        }
+        if (m_sslCtxFactory.getProvider() != null) {
+            throw new IllegalStateException("A certificate directory is not supported with SSL provider " + 
+                                            m_sslCtxFactory.getProvider());
+        }
+        if (m_preserveSessions || m_handshakeRateLimit > 0) {
+            LOG.info("The SSLContext is not rebuilt when certificates in a directory change, " +
+                     "session preservation and handshake limits do not apply");
+        }
+
+        m_sniKeyManager = new SniKeyManager(m_sslCtxFactory.getCertAlias());
+        m_certificateDirectory = new CertificateDirectory(m_certificateDirectoryPath, m_sniKeyManager,
+                createWatchStrategy(), m_detectWriteCompletion ? PEM_PAIR_DELAY_SEC : m_reloadDelaySec,
+                isPolled(m_certificateDirectoryPath) ? m_pollMaxMs : 0L, m_parallelLoader, getReloadPolicy());
+        m_certificateDirectory.setReloadMetrics(m_metrics);
+        m_certificateDirectory.start();
+
+        ReloadableKeyManagerFactory.installProvider();
+        KeyStore keyStore = KeyStore.getInstance(KeyStoreLoader.STAGED_KEYSTORE_TYPE);
+        keyStore.load(null, null);
+        ReloadableKeyManager keyManager = new ReloadableKeyManager(m_sniKeyManager);
+        ReloadableKeyManagerFactory.bind(keyStore, keyManager);
+
+        m_keyManagerFactoryAlgorithm = m_sslCtxFactory.getKeyManagerFactoryAlgorithm();
+        String algorithm = ReloadableKeyManagerFactory.algorithmFor(m_keyManagerFactoryAlgorithm);
+        m_sslCtxFactory.reload(scf -> {
+            scf.setKeyManagerFactoryAlgorithm(algorithm);
+            scf.setKeyStore(keyStore);
+        });
+        m_keyManager = keyManager;
+    }
+
+    /**
+     * Check whether a path must be polled for the configured watch mode.
+     */
+    private boolean isPolled(final Path path) {
+        if (WATCH_MODE_POLL.equalsIgnoreCase(m_watchMode)) {
+            return true;
+        }
+        if (WATCH_MODE_NATIVE.equalsIgnoreCase(m_watchMode)) {
+            return false;
+        }
+        String type = AutoWatchStrategy.fileStoreType(path);
+        return type != null && AutoWatchStrategy.isPolled(type);
+    }
+
+    /**
+     * Get the key manager serving the certificate directory, null if there is none.
+     */
+    SniKeyManager getSniKeyManager() {
+        return m_sniKeyManager;
+    }
+
     @Override
     protected void doStop() throws Exception {
-        m_fileWatcher.stopWatcher();
+        if (m_controlServer != null) {
+            m_controlServer.stop();
+            m_controlServer = null;
+        }
+        stopWatching();
+        if (m_reloadStagger != null) {
+            m_reloadStagger.stop();
+            m_reloadStagger = null;
+        }
+        m_staggerSince = 0L;
+        List<CompletableFuture<String>> pending = new ArrayList<>(m_reloadFutures);
+        m_reloadFutures.removeAll(pending);
+        pending.addAll(m_awaitFutures.keySet());
+        ReloadSslKeysModule.completeReloads(pending, null, new IllegalStateException("Module stopped"));
+        if (m_certificateDirectory != null) {
+            m_certificateDirectory.stop();
+            m_certificateDirectory = null;
+        }
+        if (m_parallelLoader != null) {
+            m_parallelLoader.shutdown();
+            m_parallelLoader = null;
+        }
+        if (m_sessionHandOver != null) {
+            m_sessionHandOver.cancel();
+            m_sessionHandOver = null;
+        }
+        if (m_scheduler != null) {
+            SharedScheduler.getInstance().release();
+            m_scheduler = null;
+        }
+        if (m_keyManager != null) {
+            m_sslCtxFactory.setKeyManagerFactoryAlgorithm(m_keyManagerFactoryAlgorithm);
+            m_keyManager = null;
+        }
+        if (m_trustManager != null) {
+            m_sslCtxFactory.setTrustManagerFactoryAlgorithm(m_trustManagerFactoryAlgorithm);
+            m_trustManager = null;
+        }
+        m_trustStoreLoader = null;
+        m_handshakeLimiter = null;
+        m_sniKeyManager = null;
+        m_keyStoreLoader = null;
+        m_handshakeWarmer = null;
+        m_generatedPassword = null;
+        m_keyMaterial = null;
+    }
+
+    /**
+     * Rebuild the factory's SSLContext over a ReloadableKeyManager, so later compatible key
+     * material can be swapped in without replacing the context and handshakes can be limited.
+     */
+    private void enableReloadableKeyManager() throws Exception {
+        if (m_keyStoreLoader == null || m_keyMaterial.getKeyManager() == null) {
+            LOG.warn("Session preservation and handshake limits require a staged key store, neither will be enabled");
+            m_handshakeLimiter = null;
+            return;
+        }
+        if (m_sslCtxFactory.getProvider() != null) {
+            LOG.warn("Session preservation and handshake limits are not supported with SSL provider {}, " +
+                     "neither will be enabled", m_sslCtxFactory.getProvider());
+            m_handshakeLimiter = null;
+            return;
+        }
+
+        ReloadableKeyManagerFactory.installProvider();
+        ReloadableKeyManager keyManager = new ReloadableKeyManager(m_keyMaterial.getKeyManager(), m_handshakeLimiter);
+        ReloadableKeyManagerFactory.bind(m_keyMaterial.getKeyStore(), keyManager);
+
+        KeyMaterial keyMaterial = m_keyMaterial;
+        boolean replaceTrustStore = m_trustStoreFromKeyStore;
+        m_keyManagerFactoryAlgorithm = m_sslCtxFactory.getKeyManagerFactoryAlgorithm();
+        String algorithm = ReloadableKeyManagerFactory.algorithmFor(m_keyManagerFactoryAlgorithm);
+        m_sslCtxFactory.reload(scf -> {
+            scf.setKeyManagerFactoryAlgorithm(algorithm);
+            install(scf, keyMaterial, replaceTrustStore);
+        });
+        m_keyManager = keyManager;
+
+        if (m_preserveSessions && m_sessionHandOverSec > 0) {
+            m_scheduler = SharedScheduler.getInstance().acquire();
+        }
+        if (m_preserveSessions) {
+            LOG.info("Session preservation enabled for SslContextFactory");
+        }
+        if (m_handshakeLimiter != null) {
+            LOG.info("Limiting handshakes to {}/s for {}s after each reload", 
+                     m_handshakeRateLimit, m_handshakeLimitWindowSec);
+        }
+    }
+
+    /**
+     * Create the strategy used to watch the key file for the configured watch mode.
+     */
+    private WatchStrategy createWatchStrategy() {
+        WatchStrategy polling = new PollingWatchStrategy(m_pollMinMs, m_pollMaxMs, this::getEarliestExpiry);
+        if (WATCH_MODE_POLL.equalsIgnoreCase(m_watchMode)) {
+            return polling;
+        }
+        if (WATCH_MODE_NATIVE.equalsIgnoreCase(m_watchMode)) {
+            return new NativeWatchStrategy();
+        }
+        if (! WATCH_MODE_AUTO.equalsIgnoreCase(m_watchMode)) {
+            LOG.warn("Unknown watch mode {}, using {}", m_watchMode, WATCH_MODE_AUTO);
+        }
+        return new AutoWatchStrategy(new NativeWatchStrategy(), polling);
+    }
+
+    /**
+     * Get the earliest expiry of the certificates being served, Long.MAX_VALUE if unknown.
+     * This is called on every quiet poll of every polled file, so it reads the expiry kept
+     * by the key manager or key material rather than looking through the certificates; the
+     * factory's view is only looked through once after each reload.
+     */
+    long getEarliestExpiry() {
+        SniKeyManager sniKeyManager = m_sniKeyManager;
+        KeyMaterial keyMaterial = m_keyMaterial;
+        if (sniKeyManager != null) {
+            return sniKeyManager.getEarliestExpiry();
+        } else if (keyMaterial != null) {
+            return keyMaterial.getEarliestExpiry();
+        }
+
+        long expiry = m_factoryExpiry;
+        if (expiry == 0L) {
+            X509Certificate certificate = getExpiringCertificate();
+            if (certificate == null) {
+                return Long.MAX_VALUE;
+            }
+            expiry = certificate.getNotAfter().getTime();
+            m_factoryExpiry = expiry;
+        }
+        return expiry;
+    }
+
+    /**
+     * Get the certificate being served which expires first, null if there is none.  Staged
+     * key material is preferred over the factory's view, which is not updated when keys are
+     * swapped into the live context.
+     */
+    X509Certificate getExpiringCertificate() {
+        X509Certificate expiring = null;
+        for (X509Certificate certificate : getServedCertificates()) {
+            if (certificate != null && (expiring == null || certificate.getNotAfter().before(expiring.getNotAfter()))) {
+                expiring = certificate;
+            }
+        }
+        return expiring;
+    }
+
+    /**
+     * Get the certificates being served, from the staged key material in preference to the
+     * factory's view.
+     */
+    private List<X509Certificate> getServedCertificates() {
+        List<X509Certificate> certificates = new ArrayList<>();
+        SniKeyManager sniKeyManager = m_sniKeyManager;
+        KeyMaterial keyMaterial = m_keyMaterial;
+        if (sniKeyManager != null) {
+            for (String alias : sniKeyManager.getAliases()) {
+                certificates.add(sniKeyManager.getCertificate(alias));
+            }
+        } else if (keyMaterial != null) {
+            certificates.addAll(keyMaterial.getCertificates().values());
+        } else if (m_sslCtxFactory != null) {
+            for (String alias : m_sslCtxFactory.getAliases()) {
+                X509 x509 = m_sslCtxFactory.getX509(alias);
+                if (x509 != null) {
+                    certificates.add(x509.getCertificate());
+                }
+            }
+        }
+        return certificates;
+    }
+
+    /**
+     * Create the loader used to stage new key stores and stage the current key store with
+     * it, returning null if key stores can not be staged for the factory.
+     */
+    private KeyStoreLoader createKeyStoreLoader() {
+        if (m_keyStorePassword == null || m_keyStorePassword.isEmpty()) {
+            LOG.warn("No key store password configured (jetty.sslContext.keyStorePassword), new key stores will not " +
+                     "be staged or validated before use; reloads will be performed in place by the SslContextFactory");
+            return null;
+        }
+
+        KeyStoreLoader loader = new KeyStoreLoader(m_sslCtxFactory,
+                new Password(m_keyStorePassword).toString(),
+                m_keyManagerPassword == null ? null : new Password(m_keyManagerPassword).toString(),
+                m_parallelLoader);
+        try {
+            m_keyMaterial = loader.load(m_keystorePath);
+            m_trustStoreFromKeyStore = isTrustStoreFromKeyStore();
+            return loader;
+        } catch (Exception ex) {
+            LOG.warn("Unable to stage key store " + m_keystorePath + 
+                     ", reloads will be performed in place by the SslContextFactory", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Create the loader used to stage the PEM files and install the current certificate
+     * chain and key in the factory.  The staged store is protected with the configured key
+     * manager or key store password, or failing those with a random password which is given
+     * to the factory.
+     */
+    private KeyStoreLoader createPemLoader() throws Exception {
+        String password = m_keyManagerPassword != null ? m_keyManagerPassword : m_keyStorePassword;
+        String generatedPassword = null;
+        if (password == null || password.isEmpty()) {
+            generatedPassword = ReloadSslKeysModule.randomPassword();
+            password = generatedPassword;
+        }
+
+        KeyStoreLoader loader = new KeyStoreLoader(m_sslCtxFactory, new Password(password).toString(), null,
+                                                   m_parallelLoader);
+        KeyMaterial keyMaterial = loader.loadPem(m_certificateChainPath, m_privateKeyPath, getPemAlias());
+        String factoryPassword = generatedPassword;
+        m_generatedPassword = generatedPassword;
+        m_sslCtxFactory.reload(scf -> {
+            if (factoryPassword != null) {
+                scf.setKeyManagerPassword(factoryPassword);
+            }
+            install(scf, keyMaterial, false);
+        });
+        m_keyMaterial = keyMaterial;
+        m_trustStoreFromKeyStore = false;
+        LOG.info("Loaded certificate chain {} and private key {}", m_certificateChainPath, m_privateKeyPath);
+        return loader;
+    }
+
+    /**
+     * Get the alias the PEM key is stored under, the factory's certificate alias if it has one.
+     */
+    private String getPemAlias() {
+        String certAlias = m_sslCtxFactory.getCertAlias();
+        return certAlias == null || certAlias.isEmpty() ? DEFAULT_PEM_ALIAS : certAlias;
+    }
+
+    private static String randomPassword() {
+        byte[] random = new byte[24];
+        new SecureRandom().nextBytes(random);
+        return Base64.getEncoder().encodeToString(random);
+    }
+
+    /**
+     * Reload the keys in the SslContextFactory if the content of the key files has changed
+     * since they were last loaded.
+     */
+    private void reloadKeys() {
+        long startNanos = System.nanoTime();
+        // Futures added from here on wait for the next reload, which may see newer files
+        List<CompletableFuture<String>> waiting = new ArrayList<>();
+        for (CompletableFuture<String> future; (future = m_reloadFutures.poll()) != null; ) {
+            waiting.add(future);
+        }
+
+        FileFingerprint[] loaded = m_fingerprints;
+        FileFingerprint[] fingerprints = fingerprints(m_watchedPaths, loaded);
+        if (ReloadSslKeysModule.sameContent(fingerprints, loaded)) {
+            m_staggerSince = 0L;
+            m_skippedReloads.incrementAndGet();
+            m_metrics.reloadSkipped(m_watchedPaths, startNanos);
+            ReloadSslKeysModule.succeeded(m_keyBackoff);
+            LOG.info("Key files {} unchanged, skipping reload", m_watchedPaths);
+            ReloadSslKeysModule.completeReloads(waiting, getCertificateFingerprint(), null);
+            return;
+        }
+        if (isStaggering(waiting)) {
+            return;
+        }
+
+        try {
+            LOG.info("Reloading keys in SslContextFactory");
+            if (m_keyStoreLoader != null) {
+                KeyMaterial keyMaterial = isPemSource() ?
+                        m_keyStoreLoader.loadPem(m_certificateChainPath, m_privateKeyPath, getPemAlias()) :
+                        m_keyStoreLoader.load(m_keystorePath);
+                if (m_handshakeWarmer != null) {
+                    m_handshakeWarmer.warm(keyMaterial);
+                }
+                publish(keyMaterial);
+                if (m_handshakeLimiter != null) {
+                    m_handshakeLimiter.startWindow();
+                }
+            } else {
+                m_sslCtxFactory.reload(scf -> {});
+                for (SslContextFactory factory : m_boundFactories) {
+                    factory.reload(scf -> {});
+                }
+                m_factoryExpiry = 0L;
+            }
+            m_fingerprints = fingerprints;
+            m_metrics.reloadSucceeded(m_watchedPaths, startNanos);
+            ReloadSslKeysModule.succeeded(m_keyBackoff);
+            if (m_reloadStagger != null) {
+                m_reloadStagger.reloaded(true);
+            }
+        } catch (Exception ex) {
+            if (m_reloadStagger != null) {
+                m_reloadStagger.reloaded(false);
+            }
+            m_metrics.reloadFailed(m_watchedPaths, startNanos);
+            LOG.warn("Failed reloading SslContextFactory", ex);
+            ReloadSslKeysModule.scheduleRetry(m_keyBackoff, m_keyRetry);
+            notifyFailed(ex);
+            ReloadSslKeysModule.completeReloads(waiting, null, ex);
+            return;
+        }
+        notifyReloaded(m_keyStoreLoader != null ? m_keyMaterial : null);
+        ReloadSslKeysModule.completeReloads(waiting, getCertificateFingerprint(), null);
+        completeAwaits();
+    }
+
+    /**
+     * Check whether the reload of changed key files is held back to stagger it across the
+     * fleet, scheduling the next attempt if it is.  Reloads asked for explicitly are not held.
+     */
+    private boolean isStaggering(final List<CompletableFuture<String>> waiting) {
+        ReloadStagger stagger = m_reloadStagger;
+        LongConsumer retry = m_keyRetry;
+        if (stagger == null || retry == null || ! waiting.isEmpty()) {
+            m_staggerSince = 0L;
+            return false;
+        }
+        if (m_staggerSince == 0L) {
+            m_staggerSince = System.nanoTime();
+        }
+        long delayMillis = stagger.delayMillis(m_staggerSince);
+        if (delayMillis <= 0) {
+            m_staggerSince = 0L;
+            return false;
+        }
+        LOG.info("Key files {} changed, staggering reload by {}ms", m_watchedPaths, delayMillis);
+        retry.accept(delayMillis);
+        return true;
+    }
+
+    private void notifyReloaded(final KeyMaterial keyMaterial) {
+        for (Listener listener : m_listeners) {
+            try {
+                listener.keysReloaded(keyMaterial);
+            } catch (RuntimeException ex) {
+                LOG.warn("Reload listener " + listener + " failed", ex);
+            }
+        }
+    }
+
+    private void notifyFailed(final Exception cause) {
+        for (Listener listener : m_listeners) {
+            try {
+                listener.reloadFailed(cause);
+            } catch (RuntimeException ex) {
+                LOG.warn("Reload listener " + listener + " failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Swap the staged key material into the bound factories and then the module's factory, as
+     * a single transaction.  If any factory fails to load it, every factory already given it
+     * is restored to the previous key material.
+     */
+    private void publish(final KeyMaterial keyMaterial) throws Exception {
+        KeyMaterial previous = m_keyMaterial;
+        List<SslContextFactory> reloaded = new ArrayList<>();
+        try {
+            for (SslContextFactory factory : m_boundFactories) {
+                reloaded.add(factory);
+                factory.reload(scf -> installBound(scf, keyMaterial));
+            }
+            publishFactory(keyMaterial);
+        } catch (Exception ex) {
+            for (SslContextFactory factory : reloaded) {
+                try {
+                    factory.reload(scf -> installBound(scf, previous));
+                } catch (Exception rollbackEx) {
+                    ex.addSuppressed(rollbackEx);
+                }
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Swap the staged key material into the module's factory.  If the factory fails to load
+     * it, the previous key material is restored so the factory is never left unloaded.
+     */
+    private void publishFactory(final KeyMaterial keyMaterial) throws Exception {
+        KeyMaterial previous = m_keyMaterial;
+        if (m_preserveSessions && m_keyManager != null && keyMaterial.isCompatible(previous)) {
+            swap(keyMaterial);
+            return;
+        }
+
+        boolean replaceTrustStore = m_trustStoreFromKeyStore;
+        ReloadableKeyManager keyManager = null;
+        if (m_keyManager != null && keyMaterial.getKeyManager() != null) {
+            keyManager = new ReloadableKeyManager(keyMaterial.getKeyManager(), m_handshakeLimiter);
+            ReloadableKeyManagerFactory.bind(keyMaterial.getKeyStore(), keyManager);
+        }
+
+        try {
+            m_sslCtxFactory.reload(scf -> install(scf, keyMaterial, replaceTrustStore));
+        } catch (Exception ex) {
+            try {
+                m_sslCtxFactory.reload(scf -> install(scf, previous, replaceTrustStore));
+            } catch (Exception rollbackEx) {
+                ex.addSuppressed(rollbackEx);
+            }
+            throw ex;
+        }
+        m_keyMaterial = keyMaterial;
+        if (m_keyManager != null) {
+            m_keyManager = keyManager;
+            if (m_sessionHandOver != null) {
+                m_sessionHandOver.cancel();
+                m_sessionHandOver = null;
+            }
+        }
+    }
+
+    /**
+     * Swap compatible key material into the live SSLContext, keeping its sessions.
+     */
+    private void swap(final KeyMaterial keyMaterial) {
+        long swapTime = System.currentTimeMillis();
+        ReloadableKeyManagerFactory.bind(keyMaterial.getKeyStore(), m_keyManager);
+        m_keyManager.swap(keyMaterial.getKeyManager());
+        m_keyMaterial = keyMaterial;
+        LOG.info("Swapped new keys into the live SSLContext, existing sessions preserved");
+
+        if (m_scheduler != null) {
+            if (m_sessionHandOver != null) {
+                m_sessionHandOver.cancel();
+            }
+            m_sessionHandOver = new SessionHandOver(m_sslCtxFactory.getSslContext().getServerSessionContext(),
+                                                    m_scheduler, swapTime, m_sessionHandOverSec * 1000L);
+            m_sessionHandOver.start();
+        }
+    }
+
+    /**
+     * Install key material in a bound factory, which keeps its own trust store.
+     */
+    private void installBound(final SslContextFactory scf, final KeyMaterial keyMaterial) {
+        if (m_generatedPassword != null) {
+            scf.setKeyManagerPassword(m_generatedPassword);
+        }
+        ReloadSslKeysModule.install(scf, keyMaterial, false);
+    }
+
+    private static void install(final SslContextFactory scf, final KeyMaterial keyMaterial,
+                                final boolean replaceTrustStore) {
+        scf.setKeyStore(keyMaterial.getKeyStore());
+        if (replaceTrustStore) {
+            scf.setTrustStore(keyMaterial.getKeyStore());
+        }
+    }
+
+    /**
+     * Check whether the factory takes its trusted certificates from the key store, in which
+     * case the staged store also replaces the trust store so it is not re-read from disk.
+     * A started factory reports the trust store it loaded, which holds the same entries as
+     * the staged key store when it was read from the key store file.
+     */
+    private boolean isTrustStoreFromKeyStore() {
+        String trustStorePath = m_sslCtxFactory.getTrustStorePath();
+        if (trustStorePath != null && ! trustStorePath.equals(m_sslCtxFactory.getKeyStorePath())) {
+            return false;
+        }
+
+        KeyStore trustStore = m_sslCtxFactory.getTrustStore();
+        try {
+            return trustStore == null ||
+                   ReloadSslKeysModule.aliases(trustStore).equals(ReloadSslKeysModule.aliases(m_keyMaterial.getKeyStore()));
+        } catch (KeyStoreException ex) {
+            return false;
+        }
+    }
+
+    private static Set<String> aliases(final KeyStore keyStore) throws KeyStoreException {
+        Set<String> aliases = new HashSet<>();
+        for (String alias : Collections.list(keyStore.aliases())) {
+            aliases.add(alias.toLowerCase(Locale.ENGLISH));
+        }
+        return aliases;
+    }
+
+    /**
+     * Trial parse of a key file, used to decide whether it has been completely written.
+     */
+    private boolean isParsable(final Path path) {
+        if (! isPemSource()) {
+            return isKeyStoreParsable(path);
+        }
+        try {
+            byte[] content = Files.readAllBytes(path);
+            if (path.equals(m_certificateChainPath)) {
+                return ! PemReader.readCertificates(content).isEmpty();
+            }
+            return PemReader.readPrivateKey(content) != null;
+        } catch (Exception ex) {
+            LOG.debug("PEM file " + path + " can not be parsed yet", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Trial parse of the key file, used to decide whether it has been completely written.
+     * Without the key store password the structure is parsed but not its integrity.
+     */
+    private boolean isKeyStoreParsable(final Path keyStorePath) {
+        try (InputStream in = Files.newInputStream(keyStorePath)) {
+            String provider = m_sslCtxFactory.getKeyStoreProvider();
+            KeyStore keyStore = provider == null ?
+                    KeyStore.getInstance(m_sslCtxFactory.getKeyStoreType()) :
+                    KeyStore.getInstance(m_sslCtxFactory.getKeyStoreType(), provider);
+            keyStore.load(in, m_keyStorePassword == null ? null : new Password(m_keyStorePassword).toString().toCharArray());
+            return keyStore.size() > 0;
+        } catch (Exception ex) {
+            LOG.debug("Key file " + keyStorePath + " can not be parsed yet", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Take the fingerprints of the watched files, returning null if any of them can not be read.
+     */
+    private static FileFingerprint[] fingerprints(final List<Path> paths, final FileFingerprint[] previous) {
+        FileFingerprint[] fingerprints = new FileFingerprint[paths.size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            Path path = paths.get(i);
+            try {
+                fingerprints[i] = FileFingerprint.of(path, previous == null ? null : previous[i]);
+            } catch (IOException ex) {
+                LOG.warn("Unable to fingerprint " + path, ex);
+                return null;
+            }
+        }
+        return fingerprints;
+    }
+
+    private static boolean sameContent(final FileFingerprint[] fingerprints, final FileFingerprint[] previous) {
+        if (fingerprints == null || previous == null) {
+            return false;
+        }
+        for (int i = 0; i < fingerprints.length; i++) {
+            if (! fingerprints[i].sameContent(previous[i])) {
+                return false;
+            }
+        }
+        return true;
     }
 }
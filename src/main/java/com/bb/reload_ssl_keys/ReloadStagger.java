@@ -0,0 +1,410 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ReloadStagger spreads the reloads of a fleet of nodes watching the same key files, such
+ * as certificates renewed on shared storage, over a spread window, so that at most a given
+ * percentage of the fleet takes the handshake hit after a reload at once.  Every node sees
+ * the change at the same moment and asks the stagger how long to wait before reloading.
+ * <p>
+ * Without a lease directory each node waits a deterministic offset into the window.  The
+ * window is divided into 100 / maxPercent slots, and a hash of the node id picks the node's
+ * slot, so nodes are spread evenly without talking to each other and a node always reloads
+ * at the same point in the window.
+ * <p>
+ * With a lease directory on shared storage the nodes instead claim reload slots as lease
+ * files.  Each node registers itself with a file named for its id, so the number of slots is
+ * maxPercent of the registered nodes, and a node reloads as soon as it creates a free slot's
+ * lease file.  The lease is held for the window's share of each slot after the reload, while
+ * clients reconnect, and is then deleted.  Leases left by a node which died are broken once
+ * they are older than the window and the hold together.  Only one of several nodes finding
+ * the same lease stale may break it, and a lease claimed since it was found stale is never
+ * broken.
+ * <p>
+ * Either way, a node which is still waiting when the window has passed reloads regardless,
+ * so coordination can delay a reload but never prevent it.
+ *
+ * @author Scott Stanley
+ */
+public class ReloadStagger {
+    private static final Logger LOG = LoggerFactory.getLogger(ReloadStagger.class);
+    static final String NODE_SUFFIX = ".node";
+    static final String LEASE_PREFIX = "slot-";
+    static final String LEASE_SUFFIX = ".lease";
+    static final String BROKEN_SUFFIX = ".broken";
+    static final long LEASE_POLL_MILLIS = 1000L;
+    static final long NODE_REFRESH_MILLIS = 15L * 60L * 1000L;
+    static final long NODE_EXPIRY_MILLIS = 4L * NODE_REFRESH_MILLIS;
+
+    private final String m_nodeId;
+    private final long m_spreadMillis;
+    private final int m_maxPercent;
+    private final Path m_leaseDirectory;
+    private final long m_hash;
+    private Scheduler m_scheduler = null;
+    private Scheduler.Task m_refresh = null;
+    private Path m_lease = null;
+    private Scheduler.Task m_release = null;
+
+    /**
+     * Create a stagger.
+     *
+     * @param nodeId The id of this node, unique within the fleet and stable across restarts
+     * @param spreadMillis The window the fleet's reloads are spread over
+     * @param maxPercent The most of the fleet reloading at once, as a percentage
+     * @param leaseDirectory The shared directory holding the lease files, null to stagger
+     *                       by the node's offset alone
+     */
+    public ReloadStagger(final String nodeId, final long spreadMillis, final int maxPercent, final Path leaseDirectory) {
+        m_nodeId = nodeId == null || nodeId.trim().isEmpty() ? ReloadStagger.defaultNodeId() : nodeId.trim();
+        m_spreadMillis = Math.max(0L, spreadMillis);
+        m_maxPercent = Math.min(100, Math.max(1, maxPercent));
+        m_leaseDirectory = leaseDirectory;
+        m_hash = ReloadStagger.hash(m_nodeId);
+    }
+
+    /**
+     * Register this node in the lease directory, if there is one, and keep its registration
+     * fresh.  Any lease this node held before it was restarted is released.
+     *
+     * @throws IOException If the node can not be registered
+     */
+    public synchronized void start() throws IOException {
+        if (m_leaseDirectory == null || m_scheduler != null) {
+            return;
+        }
+        Files.createDirectories(m_leaseDirectory);
+        register();
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(m_leaseDirectory, LEASE_PREFIX + "*" + LEASE_SUFFIX)) {
+            for (Path lease : leases) {
+                if (m_nodeId.equals(ReloadStagger.holder(lease))) {
+                    Files.deleteIfExists(lease);
+                }
+            }
+        }
+
+        m_scheduler = SharedScheduler.getInstance().acquire();
+        scheduleRefresh();
+        LOG.info("Staggering reloads of node {} through {} over {}ms, at most {}% at once",
+                 m_nodeId, m_leaseDirectory, m_spreadMillis, m_maxPercent);
+    }
+
+    /**
+     * Release any lease held and remove this node's registration.
+     */
+    public synchronized void stop() {
+        if (m_scheduler == null) {
+            return;
+        }
+        if (m_refresh != null) {
+            m_refresh.cancel();
+            m_refresh = null;
+        }
+        release();
+        try {
+            Files.deleteIfExists(getNodeFile());
+        } catch (IOException ex) {
+            LOG.warn("Unable to remove node registration " + getNodeFile(), ex);
+        }
+        SharedScheduler.getInstance().release();
+        m_scheduler = null;
+    }
+
+    public String getNodeId() {
+        return m_nodeId;
+    }
+
+    /**
+     * Get this node's deterministic offset into the spread window, the start of its slot.
+     *
+     * @return The offset in milliseconds
+     */
+    public long getOffsetMillis() {
+        long slots = (100 + m_maxPercent - 1) / m_maxPercent;
+        return Math.floorMod(m_hash, slots) * (m_spreadMillis / slots);
+    }
+
+    /**
+     * Get the period a lease is held after the reload, the window's share of each slot.
+     *
+     * @return The hold in milliseconds
+     */
+    public long getHoldMillis() {
+        return Math.max(LEASE_POLL_MILLIS, m_spreadMillis * m_maxPercent / 100L);
+    }
+
+    /**
+     * Get the number of reload slots, maxPercent of the nodes registered in the lease
+     * directory and never less than one.
+     *
+     * @return The number of slots, zero without a lease directory
+     */
+    public int getSlotCount() {
+        if (m_leaseDirectory == null) {
+            return 0;
+        }
+        long expiry = System.currentTimeMillis() - NODE_EXPIRY_MILLIS;
+        int nodes = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(m_leaseDirectory, "*" + NODE_SUFFIX)) {
+            for (Path file : files) {
+                if (ReloadStagger.lastModified(file) > expiry) {
+                    nodes++;
+                }
+            }
+        } catch (IOException ex) {
+            LOG.warn("Unable to count the nodes registered in " + m_leaseDirectory, ex);
+        }
+        return Math.max(1, nodes * m_maxPercent / 100);
+    }
+
+    /**
+     * Check whether this node holds a reload slot.
+     */
+    public synchronized boolean isHoldingLease() {
+        return m_lease != null;
+    }
+
+    /**
+     * Get how much longer to wait before reloading keys which changed at the specified time.
+     * With a lease directory a lease is claimed if a slot is free, and is held until
+     * {@link #reloaded(boolean)} is called.
+     *
+     * @param changedNanos The System.nanoTime() at which the change was first seen
+     * @return The delay in milliseconds before asking again, zero to reload now
+     */
+    public synchronized long delayMillis(final long changedNanos) {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - changedNanos);
+        long remaining = m_spreadMillis - elapsed;
+        if (m_leaseDirectory == null) {
+            return Math.max(0L, Math.min(getOffsetMillis() - elapsed, remaining));
+        }
+
+        if (m_lease != null || tryAcquire()) {
+            // A lease still held from the last reload covers this one too
+            if (m_release != null) {
+                m_release.cancel();
+                m_release = null;
+            }
+            return 0L;
+        }
+        if (remaining <= 0) {
+            LOG.warn("No reload slot free in {} within {}ms, reloading regardless", m_leaseDirectory, m_spreadMillis);
+            return 0L;
+        }
+        return Math.min(LEASE_POLL_MILLIS, remaining);
+    }
+
+    /**
+     * Record the end of a reload, holding any lease while clients reconnect after a successful
+     * reload and releasing it at once after a failure.
+     *
+     * @param succeeded Whether the reload succeeded
+     */
+    public synchronized void reloaded(final boolean succeeded) {
+        if (m_lease == null) {
+            return;
+        }
+        if (! succeeded || m_scheduler == null) {
+            release();
+            return;
+        }
+        Path lease = m_lease;
+        m_release = m_scheduler.schedule(() -> release(lease), getHoldMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Claim the first free slot, starting from this node's own so that nodes contending for
+     * the slots mostly try different ones.
+     */
+    private boolean tryAcquire() {
+        int slots = getSlotCount();
+        long staleBefore = System.currentTimeMillis() - m_spreadMillis - getHoldMillis();
+        for (int i = 0; i < slots; i++) {
+            Path lease = m_leaseDirectory.resolve(LEASE_PREFIX + Math.floorMod(m_hash + i, slots) + LEASE_SUFFIX);
+            try {
+                long modified = ReloadStagger.lastModified(lease);
+                if (modified > 0 && modified < staleBefore &&
+                        ! breakLease(lease, modified, ReloadStagger.holder(lease))) {
+                    continue;
+                }
+                Files.write(lease, m_nodeId.getBytes(StandardCharsets.UTF_8),
+                            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                m_lease = lease;
+                LOG.info("Claimed reload slot {} of {}", lease.getFileName(), slots);
+                return true;
+            } catch (FileAlreadyExistsException ex) {
+                // Held by another node
+            } catch (IOException ex) {
+                LOG.warn("Unable to claim reload slot " + lease, ex);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Break a stale lease, returning true if this node broke it.  The breaking node first
+     * creates a marker named for the holder and modification time it found, so of several
+     * nodes finding the same lease stale only one goes on.  That node deletes the lease only
+     * if it is still the stale one; a lease claimed since it was checked is left alone.
+     */
+    boolean breakLease(final Path lease, final long modified, final String holder) {
+        Path marker = lease.resolveSibling(lease.getFileName() + "." + modified + "." +
+                Long.toHexString(ReloadStagger.hash(holder == null ? "" : holder)) + BROKEN_SUFFIX);
+        try {
+            Files.write(marker, m_nodeId.getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException ex) {
+            // Being broken by another node, unless that node died part way through
+            if (ReloadStagger.lastModified(marker) < System.currentTimeMillis() - m_spreadMillis - getHoldMillis()) {
+                ReloadStagger.deleteMarker(marker);
+            }
+            return false;
+        } catch (IOException ex) {
+            LOG.warn("Unable to break reload lease " + lease, ex);
+            return false;
+        }
+
+        try {
+            if (ReloadStagger.lastModified(lease) != modified || ! Objects.equals(holder, ReloadStagger.holder(lease))) {
+                return false;
+            }
+            Files.deleteIfExists(lease);
+            LOG.warn("Broke stale reload lease {} held by {}", lease, holder);
+            return true;
+        } catch (IOException ex) {
+            LOG.warn("Unable to break reload lease " + lease, ex);
+            return false;
+        } finally {
+            ReloadStagger.deleteMarker(marker);
+        }
+    }
+
+    private static void deleteMarker(final Path marker) {
+        try {
+            Files.deleteIfExists(marker);
+        } catch (IOException ex) {
+            LOG.debug("Unable to delete reload lease marker " + marker, ex);
+        }
+    }
+
+    private synchronized void release(final Path lease) {
+        if (lease.equals(m_lease)) {
+            release();
+        }
+    }
+
+    private void release() {
+        if (m_release != null) {
+            m_release.cancel();
+            m_release = null;
+        }
+        if (m_lease != null) {
+            try {
+                Files.deleteIfExists(m_lease);
+                LOG.info("Released reload slot {}", m_lease.getFileName());
+            } catch (IOException ex) {
+                LOG.warn("Unable to release reload slot " + m_lease, ex);
+            }
+            m_lease = null;
+        }
+    }
+
+    private void register() throws IOException {
+        Path nodeFile = getNodeFile();
+        if (Files.exists(nodeFile)) {
+            Files.setLastModifiedTime(nodeFile, FileTime.fromMillis(System.currentTimeMillis()));
+        } else {
+            Files.write(nodeFile, m_nodeId.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private synchronized void scheduleRefresh() {
+        if (m_scheduler == null) {
+            return;
+        }
+        m_refresh = m_scheduler.schedule(() -> {
+            try {
+                register();
+            } catch (IOException ex) {
+                LOG.warn("Unable to refresh node registration " + getNodeFile(), ex);
+            }
+            scheduleRefresh();
+        }, NODE_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the file registering this node, named for its id with any characters unsafe in a
+     * file name replaced.
+     */
+    Path getNodeFile() {
+        return m_leaseDirectory.resolve(m_nodeId.replaceAll("[^A-Za-z0-9._-]", "_") + NODE_SUFFIX);
+    }
+
+    /**
+     * Get the modification time of a file, zero if it does not exist.
+     */
+    private static long lastModified(final Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException ex) {
+            return 0L;
+        }
+    }
+
+    private static String holder(final Path lease) {
+        try {
+            return new String(Files.readAllBytes(lease), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Hash a node id evenly over the slots; String.hashCode() clusters ids differing only in
+     * a trailing number, as host names in a fleet usually do.
+     */
+    static long hash(final String nodeId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(nodeId.getBytes(StandardCharsets.UTF_8));
+            long hash = 0L;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException ex) {
+            return nodeId.hashCode();
+        }
+    }
+
+    /**
+     * Get the default node id, the host name, or a random id if it can not be found.
+     */
+    static String defaultNodeId() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException ex) {
+            String nodeId = UUID.randomUUID().toString();
+            LOG.warn("Unable to find the host name, staggering reloads as node {}", nodeId);
+            return nodeId;
+        }
+    }
+}
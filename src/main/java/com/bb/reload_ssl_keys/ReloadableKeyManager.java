@@ -0,0 +1,126 @@
+package com.bb.reload_ssl_keys;
+
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+/**
+ * A key manager which forwards every call to a delegate that can be replaced while the
+ * SSLContext using it stays live.  Swapping the delegate changes the certificates and keys
+ * presented by new handshakes without creating a new SSLContext, so the session cache and
+ * session ticket keys of the context survive the change.
+ * <p>
+ * Server alias selection happens once per full handshake, so it is also where an optional
+ * {@link HandshakeLimiter} admits or sheds handshakes.  A shed handshake is given no alias
+ * and fails.
+ *
+ * @author Scott Stanley
+ */
+public class ReloadableKeyManager extends X509ExtendedKeyManager {
+    static final String ADMITTED_KEY = ReloadableKeyManager.class.getName() + ".admitted";
+
+    private volatile X509ExtendedKeyManager m_delegate;
+    private final HandshakeLimiter m_limiter;
+
+    public ReloadableKeyManager(final X509ExtendedKeyManager delegate) {
+        this(delegate, null);
+    }
+
+    /**
+     * Create a key manager whose server handshakes are admitted by the limiter.
+     *
+     * @param delegate The key manager to forward to
+     * @param limiter The handshake limiter, or null to admit every handshake
+     */
+    public ReloadableKeyManager(final X509ExtendedKeyManager delegate, final HandshakeLimiter limiter) {
+        m_delegate = delegate;
+        m_limiter = limiter;
+    }
+
+    /**
+     * Replace the delegate key manager.
+     *
+     * @param delegate The key manager to use for all subsequent handshakes
+     */
+    public void swap(final X509ExtendedKeyManager delegate) {
+        m_delegate = delegate;
+    }
+
+    public X509ExtendedKeyManager getDelegate() {
+        return m_delegate;
+    }
+
+    @Override
+    public String[] getClientAliases(final String keyType, final Principal[] issuers) {
+        return m_delegate.getClientAliases(keyType, issuers);
+    }
+
+    @Override
+    public String chooseClientAlias(final String[] keyType, final Principal[] issuers, final Socket socket) {
+        return m_delegate.chooseClientAlias(keyType, issuers, socket);
+    }
+
+    @Override
+    public String chooseEngineClientAlias(final String[] keyType, final Principal[] issuers, final SSLEngine engine) {
+        return m_delegate.chooseEngineClientAlias(keyType, issuers, engine);
+    }
+
+    @Override
+    public String[] getServerAliases(final String keyType, final Principal[] issuers) {
+        return m_delegate.getServerAliases(keyType, issuers);
+    }
+
+    @Override
+    public String chooseServerAlias(final String keyType, final Principal[] issuers, final Socket socket) {
+        if (! admit(socket instanceof SSLSocket ? ((SSLSocket) socket).getHandshakeSession() : null)) {
+            return null;
+        }
+        return m_delegate.chooseServerAlias(keyType, issuers, socket);
+    }
+
+    @Override
+    public String chooseEngineServerAlias(final String keyType, final Principal[] issuers, final SSLEngine engine) {
+        if (! admit(engine == null ? null : engine.getHandshakeSession())) {
+            return null;
+        }
+        return m_delegate.chooseEngineServerAlias(keyType, issuers, engine);
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(final String alias) {
+        return m_delegate.getCertificateChain(alias);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(final String alias) {
+        return m_delegate.getPrivateKey(alias);
+    }
+
+    /**
+     * Pass the handshake through the limiter.  Alias selection may be repeated for each
+     * candidate key type, so the decision is remembered on the handshake session.
+     */
+    private boolean admit(final SSLSession handshakeSession) {
+        if (m_limiter == null || ! m_limiter.isLimiting()) {
+            return true;
+        }
+        if (handshakeSession != null) {
+            Object admitted = handshakeSession.getValue(ADMITTED_KEY);
+            if (admitted != null) {
+                return (Boolean) admitted;
+            }
+        }
+
+        boolean admitted = m_limiter.admit();
+        if (handshakeSession != null) {
+            handshakeSession.putValue(ADMITTED_KEY, admitted);
+        }
+        return admitted;
+    }
+}
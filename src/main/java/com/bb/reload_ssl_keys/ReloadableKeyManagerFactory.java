@@ -0,0 +1,173 @@
+package com.bb.reload_ssl_keys;
+
+import java.lang.ref.WeakReference;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.UnrecoverableKeyException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.KeyManagerFactorySpi;
+import javax.net.ssl.ManagerFactoryParameters;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+/**
+ * A KeyManagerFactory which hands out {@link ReloadableKeyManager}s.  Setting an
+ * SslContextFactory's key manager factory algorithm to {@link #ALGORITHM} makes the
+ * SSLContext it builds use the ReloadableKeyManager bound to the key store it was given,
+ * allowing the module to swap certificates without the factory building a new context.
+ * Key stores which have no bound key manager, such as one the SslContextFactory loaded
+ * itself, are handled by the factory's original key manager factory algorithm, wrapped in a
+ * new ReloadableKeyManager; {@link #algorithmFor(String)} gives the algorithm name which
+ * delegates to it.
+ * <p>
+ * Both the key store and the key manager of a binding are held weakly.  The key manager's
+ * delegate can reference its key store, so a strongly held key manager would keep every key
+ * store ever published, private keys included, reachable.
+ *
+ * @author Scott Stanley
+ */
+public class ReloadableKeyManagerFactory extends KeyManagerFactorySpi {
+    public static final String ALGORITHM = "ReloadSslKeys";
+    static final String PROVIDER_NAME = "ReloadSslKeys";
+
+    private static final Map<KeyStore, WeakReference<ReloadableKeyManager>> BOUND_MANAGERS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final String m_delegateAlgorithm;
+    private KeyManager[] m_keyManagers = null;
+
+    public ReloadableKeyManagerFactory() {
+        this(KeyManagerFactory.getDefaultAlgorithm());
+    }
+
+    /**
+     * Create a factory delegating unbound key stores to the specified algorithm.
+     *
+     * @param delegateAlgorithm The key manager factory algorithm for unbound key stores
+     */
+    public ReloadableKeyManagerFactory(final String delegateAlgorithm) {
+        m_delegateAlgorithm = delegateAlgorithm;
+    }
+
+    /**
+     * Install the provider serving the {@link #ALGORITHM} key manager factory and the
+     * {@link ReloadableTrustManagerFactory#ALGORITHM} trust manager factory, if it is not
+     * already installed.
+     */
+    public static synchronized void installProvider() {
+        if (Security.getProvider(PROVIDER_NAME) == null) {
+            Security.addProvider(new ReloadSslKeysProvider());
+        }
+    }
+
+    /**
+     * Get the algorithm name of a reloadable key manager factory which delegates unbound key
+     * stores to the specified algorithm, installing the provider if required.
+     *
+     * @param delegateAlgorithm The SslContextFactory's original key manager factory algorithm
+     * @return The algorithm to set on the SslContextFactory
+     */
+    public static synchronized String algorithmFor(final String delegateAlgorithm) {
+        installProvider();
+        if (delegateAlgorithm == null || delegateAlgorithm.equals(KeyManagerFactory.getDefaultAlgorithm())) {
+            return ALGORITHM;
+        }
+        Provider provider = Security.getProvider(PROVIDER_NAME);
+        if (! (provider instanceof ReloadSslKeysProvider)) {
+            throw new IllegalStateException("Provider " + PROVIDER_NAME + " was installed by another class loader");
+        }
+        return ((ReloadSslKeysProvider) provider).addDelegating(delegateAlgorithm);
+    }
+
+    /**
+     * Bind a key manager to a key store, so that factories initialised with the key store
+     * produce that key manager.  The binding is dropped when either the key store or the key
+     * manager is no longer referenced, so the caller must hold the key manager until the
+     * SslContextFactory has been initialised with the key store.
+     *
+     * @param keyStore The key store which will be given to the SslContextFactory
+     * @param keyManager The key manager to use for it
+     */
+    public static void bind(final KeyStore keyStore, final ReloadableKeyManager keyManager) {
+        BOUND_MANAGERS.put(keyStore, new WeakReference<>(keyManager));
+    }
+
+    @Override
+    protected void engineInit(final KeyStore keyStore, final char[] password)
+            throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableKeyException {
+        WeakReference<ReloadableKeyManager> bound = keyStore == null ? null : BOUND_MANAGERS.get(keyStore);
+        ReloadableKeyManager keyManager = bound == null ? null : bound.get();
+        if (keyManager == null) {
+            KeyManagerFactory delegate = KeyManagerFactory.getInstance(m_delegateAlgorithm);
+            delegate.init(keyStore, password);
+            keyManager = new ReloadableKeyManager((X509ExtendedKeyManager) delegate.getKeyManagers()[0]);
+        }
+        m_keyManagers = new KeyManager[] {keyManager};
+    }
+
+    @Override
+    protected void engineInit(final ManagerFactoryParameters params)
+            throws InvalidAlgorithmParameterException {
+        throw new InvalidAlgorithmParameterException(ALGORITHM + " does not support ManagerFactoryParameters");
+    }
+
+    @Override
+    protected KeyManager[] engineGetKeyManagers() {
+        if (m_keyManagers == null) {
+            throw new IllegalStateException("KeyManagerFactory not initialized");
+        }
+        return m_keyManagers.clone();
+    }
+
+    /**
+     * The security provider registering the key and trust manager factories.
+     */
+    @SuppressWarnings("deprecation")
+    private static class ReloadSslKeysProvider extends Provider {
+        private static final long serialVersionUID = 1L;
+
+        ReloadSslKeysProvider() {
+            super(PROVIDER_NAME, 1.0d, "Reloadable key and trust managers for the Reload SSL Keys module");
+            putService(new Provider.Service(this, "KeyManagerFactory", ALGORITHM,
+                                            ReloadableKeyManagerFactory.class.getName(), null, null) {
+                @Override
+                public Object newInstance(final Object constructorParameter) {
+                    return new ReloadableKeyManagerFactory();
+                }
+            });
+            putService(new Provider.Service(this, "TrustManagerFactory", ReloadableTrustManagerFactory.ALGORITHM,
+                                            ReloadableTrustManagerFactory.class.getName(), null, null) {
+                @Override
+                public Object newInstance(final Object constructorParameter) {
+                    return new ReloadableTrustManagerFactory();
+                }
+            });
+        }
+
+        /**
+         * Add a key manager factory delegating unbound key stores to the specified algorithm,
+         * if it has not already been added.
+         */
+        synchronized String addDelegating(final String delegateAlgorithm) {
+            String algorithm = ALGORITHM + "-" + delegateAlgorithm;
+            if (getService("KeyManagerFactory", algorithm) == null) {
+                putService(new Provider.Service(this, "KeyManagerFactory", algorithm,
+                                                ReloadableKeyManagerFactory.class.getName(), null, null) {
+                    @Override
+                    public Object newInstance(final Object constructorParameter) {
+                        return new ReloadableKeyManagerFactory(delegateAlgorithm);
+                    }
+                });
+            }
+            return algorithm;
+        }
+    }
+}
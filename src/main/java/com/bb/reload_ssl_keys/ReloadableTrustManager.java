@@ -0,0 +1,79 @@
+package com.bb.reload_ssl_keys;
+
+import java.net.Socket;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+/**
+ * A trust manager which forwards every call to a delegate that can be replaced while the
+ * SSLContext using it stays live.  Swapping the delegate changes the certificate authorities
+ * and revocation lists peers are checked against for new handshakes, without creating a new
+ * SSLContext or touching its key managers.  Sessions established before the swap may still be
+ * resumed, as a resumed handshake does not check the peer's certificates again.
+ *
+ * @author Scott Stanley
+ */
+public class ReloadableTrustManager extends X509ExtendedTrustManager {
+    private volatile X509ExtendedTrustManager m_delegate;
+
+    public ReloadableTrustManager(final X509ExtendedTrustManager delegate) {
+        m_delegate = delegate;
+    }
+
+    /**
+     * Replace the delegate trust manager.
+     *
+     * @param delegate The trust manager to use for all subsequent handshakes
+     */
+    public void swap(final X509ExtendedTrustManager delegate) {
+        m_delegate = delegate;
+    }
+
+    public X509ExtendedTrustManager getDelegate() {
+        return m_delegate;
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType)
+            throws CertificateException {
+        m_delegate.checkClientTrusted(chain, authType);
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+            throws CertificateException {
+        m_delegate.checkClientTrusted(chain, authType, socket);
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+            throws CertificateException {
+        m_delegate.checkClientTrusted(chain, authType, engine);
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType)
+            throws CertificateException {
+        m_delegate.checkServerTrusted(chain, authType);
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+            throws CertificateException {
+        m_delegate.checkServerTrusted(chain, authType, socket);
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+            throws CertificateException {
+        m_delegate.checkServerTrusted(chain, authType, engine);
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return m_delegate.getAcceptedIssuers();
+    }
+}
@@ -0,0 +1,80 @@
+package com.bb.reload_ssl_keys;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.net.ssl.ManagerFactoryParameters;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.TrustManagerFactorySpi;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+/**
+ * A TrustManagerFactory which hands out {@link ReloadableTrustManager}s.  Setting an
+ * SslContextFactory's trust manager factory algorithm to {@link #ALGORITHM} makes the
+ * SSLContext it builds use the ReloadableTrustManager bound to the trust store it was given,
+ * allowing the module to swap trusted certificates and revocation lists without the factory
+ * building a new context.  Trust stores which have no bound trust manager are handled by the
+ * default trust manager factory algorithm, wrapped in a new ReloadableTrustManager.
+ * <p>
+ * The factory is served by the same provider as the {@link ReloadableKeyManagerFactory}.
+ *
+ * @author Scott Stanley
+ */
+public class ReloadableTrustManagerFactory extends TrustManagerFactorySpi {
+    public static final String ALGORITHM = "ReloadSslTrust";
+
+    private static final Map<KeyStore, ReloadableTrustManager> BOUND_MANAGERS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private TrustManager[] m_trustManagers = null;
+
+    public ReloadableTrustManagerFactory() {
+    }
+
+    /**
+     * Bind a trust manager to a trust store, so that factories initialised with the trust
+     * store produce that trust manager.  The binding is dropped when the trust store is no
+     * longer referenced.
+     *
+     * @param trustStore The trust store which will be given to the SslContextFactory
+     * @param trustManager The trust manager to use for it
+     */
+    public static void bind(final KeyStore trustStore, final ReloadableTrustManager trustManager) {
+        BOUND_MANAGERS.put(trustStore, trustManager);
+    }
+
+    @Override
+    protected void engineInit(final KeyStore trustStore) throws KeyStoreException {
+        ReloadableTrustManager trustManager = trustStore == null ? null : BOUND_MANAGERS.get(trustStore);
+        if (trustManager == null) {
+            try {
+                TrustManagerFactory delegate = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                delegate.init(trustStore);
+                trustManager = new ReloadableTrustManager((X509ExtendedTrustManager) delegate.getTrustManagers()[0]);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new KeyStoreException("Default trust manager factory algorithm not available", ex);
+            }
+        }
+        m_trustManagers = new TrustManager[] {trustManager};
+    }
+
+    @Override
+    protected void engineInit(final ManagerFactoryParameters params)
+            throws InvalidAlgorithmParameterException {
+        throw new InvalidAlgorithmParameterException(ALGORITHM + " does not support ManagerFactoryParameters");
+    }
+
+    @Override
+    protected TrustManager[] engineGetTrustManagers() {
+        if (m_trustManagers == null) {
+            throw new IllegalStateException("TrustManagerFactory not initialized");
+        }
+        return m_trustManagers.clone();
+    }
+}
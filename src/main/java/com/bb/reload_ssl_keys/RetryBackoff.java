@@ -0,0 +1,58 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The RetryBackoff spaces out the retries of a failed reload.  Each consecutive failure
+ * doubles the delay, starting from the initial delay and capped at the maximum, and the delay
+ * is jittered down by up to half so that instances which failed together do not retry
+ * together.  A success resets the backoff to the initial delay.
+ *
+ * @author Scott Stanley
+ */
+public class RetryBackoff {
+    private final long m_initialMillis;
+    private final long m_maxMillis;
+    private final AtomicInteger m_attempts = new AtomicInteger();
+
+    /**
+     * Create a backoff.
+     *
+     * @param initialMillis The delay before the first retry
+     * @param maxMillis The longest delay between retries
+     */
+    public RetryBackoff(final long initialMillis, final long maxMillis) {
+        m_initialMillis = Math.max(1L, initialMillis);
+        m_maxMillis = Math.max(m_initialMillis, maxMillis);
+    }
+
+    /**
+     * Record a failure, getting the delay before the retry.
+     *
+     * @return The delay in milliseconds, between half and all of the backed off delay
+     */
+    public long nextDelayMillis() {
+        int attempt = m_attempts.getAndIncrement();
+        long delay = m_maxMillis;
+        if (attempt < Long.numberOfLeadingZeros(m_initialMillis) - 1) {
+            delay = Math.min(m_maxMillis, m_initialMillis << attempt);
+        }
+        long half = delay / 2;
+        return delay - ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * Record a success, so the next failure is retried after the initial delay.
+     */
+    public void reset() {
+        m_attempts.set(0);
+    }
+
+    /**
+     * Get the number of consecutive failures since the last success.
+     */
+    public int getAttempts() {
+        return m_attempts.get();
+    }
+}
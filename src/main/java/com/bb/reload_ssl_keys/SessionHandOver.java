@@ -0,0 +1,105 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * After new certificates are swapped into a live SSLContext, the sessions established with
+ * the previous certificates can still be resumed.  The SessionHandOver retires those
+ * sessions gradually over a window, oldest first, so that clients move onto the new
+ * certificates without all of them needing a full handshake at the same moment.
+ * <p>
+ * Only sessions held in the server's session cache can be retired.  Sessions resumed from
+ * stateless session tickets (TLS 1.3, and TLS 1.2 on newer JDKs unless
+ * jdk.tls.server.enableSessionTicketExtension is false) remain resumable until the ticket
+ * expires.
+ *
+ * @author Scott Stanley
+ */
+public class SessionHandOver {
+    static final Logger LOG = LoggerFactory.getLogger(SessionHandOver.class);
+    static final long TICK_MILLIS = 1000L;
+
+    private final SSLSessionContext m_sessions;
+    private final Scheduler m_scheduler;
+    private final long m_swapTime;
+    private final long m_windowMillis;
+    private final long m_oldestCreationTime;
+    private volatile boolean m_cancelled = false;
+    private long m_invalidated = 0;
+
+    /**
+     * Create a hand over for the sessions of the specified context.
+     *
+     * @param sessions The session context holding the sessions to retire
+     * @param scheduler The scheduler used to pace the hand over
+     * @param swapTime The time the new certificates went live, sessions created before it are retired
+     * @param windowMillis The period over which the sessions are retired
+     */
+    public SessionHandOver(final SSLSessionContext sessions, final Scheduler scheduler,
+                           final long swapTime, final long windowMillis) {
+        m_sessions = sessions;
+        m_scheduler = scheduler;
+        m_swapTime = swapTime;
+        m_windowMillis = windowMillis;
+
+        long oldest = swapTime;
+        for (byte[] id : Collections.list(sessions.getIds())) {
+            SSLSession session = sessions.getSession(id);
+            if (session != null) {
+                oldest = Math.min(oldest, session.getCreationTime());
+            }
+        }
+        m_oldestCreationTime = oldest;
+    }
+
+    /**
+     * Start retiring sessions.
+     */
+    public void start() {
+        LOG.debug("Handing over sessions created before {} over {}ms", m_swapTime, m_windowMillis);
+        m_scheduler.schedule(this::retire, Math.min(TICK_MILLIS, m_windowMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop retiring sessions, leaving any remaining sessions to expire normally.
+     */
+    public void cancel() {
+        m_cancelled = true;
+    }
+
+    /**
+     * Invalidate the share of the old sessions due by now, then schedule the next share.
+     */
+    private void retire() {
+        if (m_cancelled) {
+            return;
+        }
+
+        long elapsed = System.currentTimeMillis() - m_swapTime;
+        double fraction = m_windowMillis <= 0 ? 1.0d : Math.min(1.0d, (double) elapsed / m_windowMillis);
+        long cutoff = m_oldestCreationTime + (long) ((m_swapTime - m_oldestCreationTime) * fraction);
+
+        for (byte[] id : Collections.list(m_sessions.getIds())) {
+            SSLSession session = m_sessions.getSession(id);
+            if (session != null && session.getCreationTime() < m_swapTime &&
+                    (fraction >= 1.0d || session.getCreationTime() <= cutoff)) {
+                session.invalidate();
+                m_invalidated++;
+            }
+        }
+
+        if (fraction < 1.0d) {
+            m_scheduler.schedule(this::retire, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            LOG.info("Session hand over complete, {} sessions retired", m_invalidated);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.bb.reload_ssl_keys;
+
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The SharedScheduler holds a single process wide Scheduler used by every Debouncer which
+ * was not given a scheduler of its own.  Users acquire the scheduler and release it when they
+ * are done; the underlying thread is started on the first acquire and stopped when the last
+ * user releases it.
+ *
+ * @author Scott Stanley
+ */
+public final class SharedScheduler {
+    static final Logger LOG = LoggerFactory.getLogger(SharedScheduler.class);
+    private static final SharedScheduler INSTANCE = new SharedScheduler();
+
+    private Scheduler m_scheduler = null;
+    private int m_refCount = 0;
+
+    private SharedScheduler() {
+    }
+
+    /**
+     * Get the process wide shared scheduler holder.
+     *
+     * @return The SharedScheduler
+     */
+    public static SharedScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Acquire a reference to the shared scheduler, starting it if required.  Each call
+     * must be matched by a call to {@link #release()}.
+     *
+     * @return The started, shared Scheduler
+     */
+    public synchronized Scheduler acquire() {
+        if (m_scheduler == null) {
+            Scheduler scheduler = new ScheduledExecutorScheduler("ReloadSslKeys-Scheduler", true);
+            try {
+                scheduler.start();
+            } catch (Exception ex) {
+                throw new IllegalStateException("Failed starting shared scheduler", ex);
+            }
+            m_scheduler = scheduler;
+            LOG.debug("Started shared scheduler");
+        }
+        m_refCount++;
+
+        return m_scheduler;
+    }
+
+    /**
+     * Release a reference to the shared scheduler, stopping it when no references remain.
+     */
+    public synchronized void release() {
+        if (m_refCount == 0) {
+            return;
+        }
+
+        m_refCount--;
+        if (m_refCount == 0) {
+            try {
+                m_scheduler.stop();
+            } catch (Exception ex) {
+                LOG.warn("Failed stopping shared scheduler", ex);
+            }
+            m_scheduler = null;
+            LOG.debug("Stopped shared scheduler");
+        }
+    }
+
+    /**
+     * Get the number of outstanding references to the shared scheduler.
+     *
+     * @return The reference count
+     */
+    public synchronized int getRefCount() {
+        return m_refCount;
+    }
+}
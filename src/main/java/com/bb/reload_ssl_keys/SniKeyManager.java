@@ -0,0 +1,333 @@
+package com.bb.reload_ssl_keys;
+
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.eclipse.jetty.util.ssl.X509;
+
+/**
+ * A server key manager holding any number of certificates which selects between them by
+ * the SNI host name of each handshake.  Certificates are added, replaced and removed one
+ * alias at a time; only the host names of the changed certificate are re-indexed, so the
+ * cost of a change does not depend on how many certificates are held.
+ * <p>
+ * The alias table and the host name index are concurrent maps whose values are immutable
+ * lists replaced on write, so handshakes select an alias without locking while changes are
+ * made.  Changes themselves are serialised.  The earliest expiry of the certificates held
+ * is kept up to date as they change, so it can be read as often as wanted for free.
+ * <p>
+ * A handshake with no SNI host name, or one which matches no certificate, is given the
+ * default alias if its key type fits, otherwise the first alias loaded with a key of the
+ * requested type.
+ *
+ * @author Scott Stanley
+ */
+public class SniKeyManager extends X509ExtendedKeyManager {
+    private final String m_defaultAlias;
+    private final Map<String, Entry> m_entries = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> m_hosts = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> m_wilds = new ConcurrentHashMap<>();
+    private final Map<String, String> m_fallbacks = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Integer> m_expiries = new TreeMap<>();
+    private volatile long m_earliestExpiry = Long.MAX_VALUE;
+
+    /**
+     * Create an empty key manager.
+     *
+     * @param defaultAlias The alias used when the SNI host name matches no certificate, may be null
+     */
+    public SniKeyManager(final String defaultAlias) {
+        m_defaultAlias = defaultAlias;
+    }
+
+    /**
+     * Add or replace the key and certificate chain held under an alias.
+     *
+     * @param alias The alias
+     * @param privateKey The private key
+     * @param chain The certificate chain, server certificate first
+     */
+    public synchronized void put(final String alias, final PrivateKey privateKey, final X509Certificate[] chain) {
+        Entry entry = new Entry(alias, privateKey, chain.clone());
+        Entry previous = m_entries.put(alias, entry);
+
+        // Index the new names before dropping the old, so the alias never disappears
+        SniKeyManager.index(m_hosts, entry.m_x509.getHosts(), alias);
+        SniKeyManager.index(m_wilds, entry.m_x509.getWilds(), alias);
+        if (previous != null) {
+            SniKeyManager.unindex(m_hosts, previous.m_x509.getHosts(), entry.m_x509.getHosts(), alias);
+            SniKeyManager.unindex(m_wilds, previous.m_x509.getWilds(), entry.m_x509.getWilds(), alias);
+            if (! previous.m_keyType.equals(entry.m_keyType)) {
+                replaceFallback(previous);
+            }
+            removeExpiry(previous);
+        }
+        m_fallbacks.putIfAbsent(entry.m_keyType, alias);
+        m_expiries.merge(entry.m_expiry, 1, Integer::sum);
+        m_earliestExpiry = m_expiries.firstKey();
+    }
+
+    /**
+     * Remove the key and certificate chain held under an alias.
+     *
+     * @param alias The alias
+     * @return true if the alias was held
+     */
+    public synchronized boolean remove(final String alias) {
+        Entry previous = m_entries.remove(alias);
+        if (previous == null) {
+            return false;
+        }
+        SniKeyManager.unindex(m_hosts, previous.m_x509.getHosts(), Collections.emptySet(), alias);
+        SniKeyManager.unindex(m_wilds, previous.m_x509.getWilds(), Collections.emptySet(), alias);
+        replaceFallback(previous);
+        removeExpiry(previous);
+        m_earliestExpiry = m_expiries.isEmpty() ? Long.MAX_VALUE : m_expiries.firstKey();
+        return true;
+    }
+
+    /**
+     * Get the aliases held, in sorted order.
+     */
+    public Set<String> getAliases() {
+        return new TreeSet<>(m_entries.keySet());
+    }
+
+    /**
+     * Get the number of aliases held.
+     */
+    public int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * Get the server certificate held under an alias, or null if there is none.
+     */
+    public X509Certificate getCertificate(final String alias) {
+        Entry entry = m_entries.get(alias);
+        return entry == null ? null : entry.m_chain[0];
+    }
+
+    /**
+     * Get the expiry of the server certificate held under an alias, Long.MAX_VALUE if there is none.
+     */
+    public long getExpiry(final String alias) {
+        Entry entry = m_entries.get(alias);
+        return entry == null ? Long.MAX_VALUE : entry.m_expiry;
+    }
+
+    /**
+     * Get the earliest expiry of the certificates held, Long.MAX_VALUE if there are none.
+     */
+    public long getEarliestExpiry() {
+        return m_earliestExpiry;
+    }
+
+    private void removeExpiry(final Entry removed) {
+        m_expiries.computeIfPresent(removed.m_expiry, (expiry, count) -> count == 1 ? null : count - 1);
+    }
+
+    private static void index(final Map<String, List<String>> index, final Set<String> names, final String alias) {
+        for (String name : names) {
+            index.compute(name, (n, aliases) -> {
+                if (aliases == null) {
+                    return Collections.singletonList(alias);
+                }
+                if (aliases.contains(alias)) {
+                    return aliases;
+                }
+                List<String> copy = new ArrayList<>(aliases);
+                copy.add(alias);
+                return Collections.unmodifiableList(copy);
+            });
+        }
+    }
+
+    private static void unindex(final Map<String, List<String>> index, final Set<String> names,
+                                final Set<String> keep, final String alias) {
+        for (String name : names) {
+            if (keep.contains(name)) {
+                continue;
+            }
+            index.computeIfPresent(name, (n, aliases) -> {
+                List<String> copy = new ArrayList<>(aliases);
+                copy.remove(alias);
+                return copy.isEmpty() ? null : Collections.unmodifiableList(copy);
+            });
+        }
+    }
+
+    /**
+     * Replace the fallback for a removed entry's key type, if it was that entry.
+     */
+    private void replaceFallback(final Entry removed) {
+        if (! removed.m_alias.equals(m_fallbacks.get(removed.m_keyType))) {
+            return;
+        }
+        m_fallbacks.remove(removed.m_keyType);
+        for (Entry entry : m_entries.values()) {
+            if (entry.m_keyType.equals(removed.m_keyType)) {
+                m_fallbacks.put(entry.m_keyType, entry.m_alias);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String chooseServerAlias(final String keyType, final Principal[] issuers, final Socket socket) {
+        return chooseAlias(keyType, socket instanceof SSLSocket ? ((SSLSocket) socket).getHandshakeSession() : null);
+    }
+
+    @Override
+    public String chooseEngineServerAlias(final String keyType, final Principal[] issuers, final SSLEngine engine) {
+        return chooseAlias(keyType, engine == null ? null : engine.getHandshakeSession());
+    }
+
+    /**
+     * Choose the alias for a handshake; an exact host name match, then a wildcard match,
+     * then the default.
+     */
+    private String chooseAlias(final String keyType, final SSLSession handshakeSession) {
+        if (keyType == null) {
+            return null;
+        }
+        String host = SniKeyManager.sniHost(handshakeSession);
+        if (host != null) {
+            String alias = match(m_hosts.get(host), keyType);
+            if (alias == null) {
+                int dot = host.indexOf('.');
+                if (dot != -1) {
+                    alias = match(m_wilds.get(host.substring(dot + 1)), keyType);
+                }
+            }
+            if (alias != null) {
+                return alias;
+            }
+        }
+
+        if (m_defaultAlias != null) {
+            Entry entry = m_entries.get(m_defaultAlias);
+            if (entry != null && entry.matches(keyType)) {
+                return m_defaultAlias;
+            }
+        }
+        return m_fallbacks.get(SniKeyManager.keyAlgorithm(keyType));
+    }
+
+    private String match(final List<String> aliases, final String keyType) {
+        if (aliases != null) {
+            for (String alias : aliases) {
+                Entry entry = m_entries.get(alias);
+                if (entry != null && entry.matches(keyType)) {
+                    return alias;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String sniHost(final SSLSession handshakeSession) {
+        if (handshakeSession instanceof ExtendedSSLSession) {
+            for (SNIServerName name : ((ExtendedSSLSession) handshakeSession).getRequestedServerNames()) {
+                if (name instanceof SNIHostName) {
+                    return ((SNIHostName) name).getAsciiName().toLowerCase(Locale.ENGLISH);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the key algorithm of a key type, which for TLS 1.2 may also name the algorithm
+     * the certificate is signed with, as in EC_RSA.
+     */
+    private static String keyAlgorithm(final String keyType) {
+        int separator = keyType.indexOf('_');
+        return separator == -1 ? keyType : keyType.substring(0, separator);
+    }
+
+    @Override
+    public String[] getServerAliases(final String keyType, final Principal[] issuers) {
+        if (keyType == null) {
+            return null;
+        }
+        List<String> aliases = new ArrayList<>();
+        for (Entry entry : m_entries.values()) {
+            if (entry.matches(keyType)) {
+                aliases.add(entry.m_alias);
+            }
+        }
+        return aliases.isEmpty() ? null : aliases.toArray(new String[0]);
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(final String alias) {
+        Entry entry = alias == null ? null : m_entries.get(alias);
+        return entry == null ? null : entry.m_chain.clone();
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(final String alias) {
+        Entry entry = alias == null ? null : m_entries.get(alias);
+        return entry == null ? null : entry.m_privateKey;
+    }
+
+    @Override
+    public String[] getClientAliases(final String keyType, final Principal[] issuers) {
+        return null;
+    }
+
+    @Override
+    public String chooseClientAlias(final String[] keyType, final Principal[] issuers, final Socket socket) {
+        return null;
+    }
+
+    @Override
+    public String chooseEngineClientAlias(final String[] keyType, final Principal[] issuers, final SSLEngine engine) {
+        return null;
+    }
+
+    /**
+     * A key and certificate chain held under an alias, with the host names it serves.
+     */
+    private static final class Entry {
+        private final String m_alias;
+        private final PrivateKey m_privateKey;
+        private final X509Certificate[] m_chain;
+        private final X509 m_x509;
+        private final String m_keyType;
+        private final long m_expiry;
+
+        Entry(final String alias, final PrivateKey privateKey, final X509Certificate[] chain) {
+            m_alias = alias;
+            m_privateKey = privateKey;
+            m_chain = chain;
+            m_x509 = new X509(alias, chain[0]);
+            m_keyType = privateKey.getAlgorithm();
+            m_expiry = chain[0].getNotAfter().getTime();
+        }
+
+        boolean matches(final String keyType) {
+            return m_keyType.equals(SniKeyManager.keyAlgorithm(keyType));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a file which may be reached through symbolic links.  Certbot's live directory
+ * links each file into the archive directory, and Kubernetes secret volumes link each file
+ * through a ..data link which is swapped to a new directory on every update.  Neither
+ * changes produce an event for the watched file name in its own directory.
+ * <p>
+ * The SymlinkChainWatch follows the chain of links to the target file and registers every
+ * link along the chain, and the target itself, with the {@link WatchRegistry}.  After each
+ * event the chain is resolved again and the registrations follow any change.  Changes to
+ * the target file are passed straight on, while changes to the links are only passed on
+ * when the file now resolves to a different target.
+ *
+ * @author Scott Stanley
+ */
+public class SymlinkChainWatch implements WatchStrategy.Watch {
+    static final Logger LOG = LoggerFactory.getLogger(SymlinkChainWatch.class);
+    static final int MAX_LINKS = 40;
+
+    private final Path m_filePath;
+    private final WatchRegistry.Listener m_listener;
+    private Chain m_chain;
+    private List<WatchRegistry.Registration> m_registrations = Collections.emptyList();
+    private boolean m_cancelled = false;
+
+    /**
+     * Start watching the file and the links leading to it.
+     *
+     * @param filePath The file to watch, as configured
+     * @param listener Notified with the configured path when the file changes
+     * @throws IOException If the chain can not be resolved or watched
+     */
+    public SymlinkChainWatch(final Path filePath, final WatchRegistry.Listener listener)
+            throws IOException {
+        m_filePath = filePath.toAbsolutePath().normalize();
+        m_listener = listener;
+
+        Chain chain = Chain.resolve(m_filePath);
+        synchronized (this) {
+            m_registrations = register(chain);
+            m_chain = chain;
+        }
+        if (! chain.m_links.isEmpty()) {
+            LOG.info("Watching {} through links {}, resolved to {}", m_filePath, chain.m_links, chain.m_target);
+        }
+    }
+
+    /**
+     * Get the file the watched path currently resolves to.
+     */
+    public synchronized Path getTarget() {
+        return m_chain.m_target;
+    }
+
+    /**
+     * Get every path being watched, the links along the chain followed by the target.
+     */
+    public synchronized List<Path> getWatchedPaths() {
+        return m_chain.watchPoints();
+    }
+
+    @Override
+    public synchronized void cancel() {
+        m_cancelled = true;
+        for (WatchRegistry.Registration registration : m_registrations) {
+            registration.cancel();
+        }
+        m_registrations = Collections.emptyList();
+    }
+
+    private List<WatchRegistry.Registration> register(final Chain chain) throws IOException {
+        List<WatchRegistry.Registration> registrations = new ArrayList<>();
+        try {
+            for (Path watchPoint : chain.watchPoints()) {
+                registrations.add(WatchRegistry.getInstance().register(watchPoint, this::changed));
+            }
+        } catch (IOException ex) {
+            for (WatchRegistry.Registration registration : registrations) {
+                registration.cancel();
+            }
+            throw ex;
+        }
+        return registrations;
+    }
+
+    /**
+     * Called when a link on the chain or the target changes.
+     */
+    private void changed(final Path changedPath, final WatchEvent.Kind<?> kind) {
+        boolean notify;
+        WatchEvent.Kind<?> notifyKind = kind;
+        synchronized (this) {
+            if (m_cancelled) {
+                return;
+            }
+
+            Chain chain;
+            try {
+                chain = Chain.resolve(m_filePath);
+            } catch (IOException ex) {
+                // Part way through a swap, wait for the next event
+                LOG.debug("Unable to resolve " + m_filePath, ex);
+                return;
+            }
+
+            boolean retargeted = ! chain.m_target.equals(m_chain.m_target);
+            notify = retargeted || changedPath.equals(chain.m_target);
+            if (retargeted) {
+                LOG.info("{} now resolves to {}", m_filePath, chain.m_target);
+                // The new target appears as a complete file, just as an atomic rename would
+                notifyKind = StandardWatchEventKinds.ENTRY_CREATE;
+            }
+
+            if (! chain.watchPoints().equals(m_chain.watchPoints())) {
+                try {
+                    List<WatchRegistry.Registration> previous = m_registrations;
+                    m_registrations = register(chain);
+                    for (WatchRegistry.Registration registration : previous) {
+                        registration.cancel();
+                    }
+                } catch (IOException ex) {
+                    LOG.warn("Unable to watch the links to " + m_filePath, ex);
+                }
+            }
+            m_chain = chain;
+        }
+
+        if (notify) {
+            m_listener.fileChanged(m_filePath, notifyKind);
+        }
+    }
+
+    /**
+     * The symbolic links followed to reach a file, and the file they lead to.
+     */
+    static class Chain {
+        private final List<Path> m_links;
+        private final Path m_target;
+
+        private Chain(final List<Path> links, final Path target) {
+            m_links = links;
+            m_target = target;
+        }
+
+        /**
+         * Resolve the chain of links for a path.  The target need not exist.
+         */
+        static Chain resolve(final Path path) throws IOException {
+            List<Path> links = new ArrayList<>();
+            Path target = Chain.resolve(path.toAbsolutePath(), links);
+            return new Chain(links, target);
+        }
+
+        private static Path resolve(final Path path, final List<Path> links) throws IOException {
+            Path resolved = path.getRoot();
+            for (Path name : path) {
+                String element = name.toString();
+                if (".".equals(element)) {
+                    continue;
+                }
+                if ("..".equals(element)) {
+                    resolved = resolved.getParent() == null ? resolved : resolved.getParent();
+                    continue;
+                }
+
+                Path candidate = resolved.resolve(name);
+                if (Files.isSymbolicLink(candidate)) {
+                    if (links.size() >= MAX_LINKS) {
+                        throw new IOException("Too many levels of symbolic links: " + path);
+                    }
+                    links.add(candidate);
+                    resolved = Chain.resolve(resolved.resolve(Files.readSymbolicLink(candidate)), links);
+                } else {
+                    resolved = candidate;
+                }
+            }
+            return resolved;
+        }
+
+        List<Path> watchPoints() {
+            List<Path> watchPoints = new ArrayList<>(m_links);
+            watchPoints.add(m_target);
+            return watchPoints;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CRL;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXCertPathChecker;
+import java.security.cert.X509CertSelector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.net.ssl.CertPathTrustManagerParameters;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * The TrustStoreLoader builds a trust manager from a trust store file and any certificate
+ * revocation list files, in the same way the SslContextFactory builds its own.  When the
+ * factory validates peer certificates with the PKIX algorithm the revocation lists are
+ * checked, otherwise only the trust store is used.
+ * <p>
+ * Each file is read once and parsed in memory.  No private keys are involved, so building a
+ * new trust manager is cheap compared with staging a key store.
+ *
+ * @author Scott Stanley
+ */
+public class TrustStoreLoader {
+    static final String PKIX = "PKIX";
+
+    private final String m_trustStoreType;
+    private final String m_trustStoreProvider;
+    private final char[] m_trustStorePassword;
+    private final String m_trustManagerFactoryAlgorithm;
+    private final boolean m_checkRevocation;
+    private final int m_maxCertPathLength;
+    private final PKIXCertPathChecker m_pkixCertPathChecker;
+
+    /**
+     * Create a loader matching the trust configuration of the SslContextFactory which will
+     * be given the trust managers.
+     *
+     * @param sslCtxFactory The factory the trust managers are built for
+     * @param trustStorePassword The password of the trust store file, or null to skip its integrity check
+     */
+    public TrustStoreLoader(final SslContextFactory sslCtxFactory, final String trustStorePassword) {
+        m_trustStoreType = sslCtxFactory.getTrustStoreType() != null ?
+                sslCtxFactory.getTrustStoreType() : sslCtxFactory.getKeyStoreType();
+        m_trustStoreProvider = sslCtxFactory.getTrustStoreProvider();
+        m_trustStorePassword = trustStorePassword == null ? null : trustStorePassword.toCharArray();
+        m_trustManagerFactoryAlgorithm = sslCtxFactory.getTrustManagerFactoryAlgorithm();
+        m_checkRevocation = sslCtxFactory.isValidatePeerCerts() && PKIX.equalsIgnoreCase(m_trustManagerFactoryAlgorithm);
+        m_maxCertPathLength = sslCtxFactory.getMaxCertPathLength();
+        m_pkixCertPathChecker = sslCtxFactory.getPkixCertPathChecker();
+    }
+
+    /**
+     * Get the trust manager factory algorithm the trust managers are built with.
+     *
+     * @return The trust manager factory algorithm
+     */
+    public String getTrustManagerFactoryAlgorithm() {
+        return m_trustManagerFactoryAlgorithm;
+    }
+
+    /**
+     * Check whether the trust managers built check certificate revocation lists.
+     *
+     * @return true if revocation lists are checked
+     */
+    public boolean isCheckingRevocation() {
+        return m_checkRevocation;
+    }
+
+    /**
+     * Load the trust store and revocation lists, building a trust manager from them.
+     *
+     * @param trustStorePath The trust store file
+     * @param crlPaths The revocation list files, may be empty
+     * @return The trust store and the trust manager built from it
+     * @throws IOException If a file can not be read
+     * @throws GeneralSecurityException If a file can not be parsed or holds no certificates
+     */
+    public TrustMaterial load(final Path trustStorePath, final List<Path> crlPaths)
+            throws IOException, GeneralSecurityException {
+        byte[] content = Files.readAllBytes(trustStorePath);
+        KeyStore trustStore = m_trustStoreProvider == null ?
+                KeyStore.getInstance(m_trustStoreType) :
+                KeyStore.getInstance(m_trustStoreType, m_trustStoreProvider);
+        trustStore.load(new ByteArrayInputStream(content), m_trustStorePassword);
+        boolean hasCertificate = false;
+        for (String alias : Collections.list(trustStore.aliases())) {
+            hasCertificate |= trustStore.getCertificate(alias) != null;
+        }
+        if (! hasCertificate) {
+            throw new GeneralSecurityException("Trust store " + trustStorePath + " contains no certificates");
+        }
+
+        List<CRL> crls = new ArrayList<>();
+        for (Path crlPath : crlPaths) {
+            Collection<? extends CRL> read = TrustStoreLoader.readCrls(Files.readAllBytes(crlPath));
+            if (read.isEmpty()) {
+                throw new GeneralSecurityException("Revocation list " + crlPath + " contains no CRLs");
+            }
+            crls.addAll(read);
+        }
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(m_trustManagerFactoryAlgorithm);
+        if (m_checkRevocation) {
+            PKIXBuilderParameters params = new PKIXBuilderParameters(trustStore, new X509CertSelector());
+            params.setMaxPathLength(m_maxCertPathLength);
+            params.setRevocationEnabled(true);
+            if (m_pkixCertPathChecker != null) {
+                params.addCertPathChecker(m_pkixCertPathChecker);
+            }
+            if (! crls.isEmpty()) {
+                params.addCertStore(CertStore.getInstance("Collection", new CollectionCertStoreParameters(crls)));
+            }
+            tmf.init(new CertPathTrustManagerParameters(params));
+        } else {
+            tmf.init(trustStore);
+        }
+
+        for (TrustManager trustManager : tmf.getTrustManagers()) {
+            if (trustManager instanceof X509ExtendedTrustManager) {
+                return new TrustMaterial(trustStore, (X509ExtendedTrustManager) trustManager, crls.size());
+            }
+        }
+        throw new GeneralSecurityException("Trust manager factory " + m_trustManagerFactoryAlgorithm +
+                                           " built no X509 trust manager");
+    }
+
+    /**
+     * Parse the revocation lists in a file, DER or PEM encoded.
+     */
+    static Collection<? extends CRL> readCrls(final byte[] content) throws GeneralSecurityException {
+        return CertificateFactory.getInstance("X.509").generateCRLs(new ByteArrayInputStream(content));
+    }
+
+    /**
+     * A loaded trust store and the trust manager built from it.
+     */
+    public static final class TrustMaterial {
+        private final KeyStore m_trustStore;
+        private final X509ExtendedTrustManager m_trustManager;
+        private final int m_crlCount;
+
+        TrustMaterial(final KeyStore trustStore, final X509ExtendedTrustManager trustManager, final int crlCount) {
+            m_trustStore = trustStore;
+            m_trustManager = trustManager;
+            m_crlCount = crlCount;
+        }
+
+        public KeyStore getTrustStore() {
+            return m_trustStore;
+        }
+
+        public X509ExtendedTrustManager getTrustManager() {
+            return m_trustManager;
+        }
+
+        /**
+         * Get the number of revocation lists the trust manager was built with.
+         */
+        public int getCrlCount() {
+            return m_crlCount;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.bb.reload_ssl_keys;
+
+import java.lang.reflect.Method;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * VirtualThreads creates the threads the watch selector and reload callbacks run on.  When
+ * enabled, and the running JVM supports them, these are virtual threads; otherwise they are
+ * platform daemon threads.  Virtual threads are created through reflection, so the module
+ * still compiles for and runs on Java 8, where they are simply not available.
+ * <p>
+ * The setting is process wide, like the {@link WatchRegistry} and {@link SharedScheduler}
+ * whose threads it affects, and applies to threads created after it is changed.
+ *
+ * @author Scott Stanley
+ */
+public final class VirtualThreads {
+    static final Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+    private static final VirtualThreads INSTANCE = new VirtualThreads();
+
+    private final Method m_ofVirtual;
+    private final Method m_name;
+    private final Method m_unstarted;
+    private volatile boolean m_enabled = false;
+
+    private VirtualThreads() {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+
+            // Where virtual threads are a preview feature they can not be created unless enabled
+            unstarted.invoke(name.invoke(ofVirtual.invoke(null), "ReloadSslKeys-Probe"), (Runnable) () -> {});
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException ex) {
+            ofVirtual = null;
+        }
+        m_ofVirtual = ofVirtual;
+        m_name = name;
+        m_unstarted = unstarted;
+    }
+
+    /**
+     * Get the process wide thread factory.
+     *
+     * @return The VirtualThreads
+     */
+    public static VirtualThreads getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Check whether the running JVM supports virtual threads.
+     *
+     * @return true if virtual threads can be created
+     */
+    public boolean isAvailable() {
+        return m_ofVirtual != null;
+    }
+
+    /**
+     * Enable or disable virtual threads.  If they are not available, platform threads
+     * continue to be used.
+     *
+     * @param enabled true to use virtual threads
+     */
+    public void setEnabled(final boolean enabled) {
+        if (enabled && ! isAvailable()) {
+            LOG.warn("Virtual threads are not available in Java {}, using platform threads",
+                     System.getProperty("java.version"));
+        }
+        m_enabled = enabled;
+    }
+
+    /**
+     * Check whether new threads are virtual threads.
+     *
+     * @return true if virtual threads are enabled and available
+     */
+    public boolean isEnabled() {
+        return m_enabled && isAvailable();
+    }
+
+    /**
+     * Create an unstarted thread, virtual if enabled and otherwise a platform daemon thread.
+     *
+     * @param name The name of the thread
+     * @param task The task the thread runs
+     * @return The unstarted thread
+     */
+    public Thread newThread(final String name, final Runnable task) {
+        if (isEnabled()) {
+            try {
+                return (Thread) m_unstarted.invoke(m_name.invoke(m_ofVirtual.invoke(null), name), task);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                LOG.warn("Unable to create virtual thread " + name + ", using a platform thread", ex);
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,532 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The WatchRegistry multiplexes every file being watched within the JVM over a single
+ * WatchService serviced by a single selector thread.  Parent directories shared by several
+ * watched files are only registered once, and the registrations are reference counted so
+ * that the directory watch is cancelled when the last file in it is unregistered.  When no
+ * registrations remain the WatchService is closed and the selector thread exits.  The
+ * selector is a virtual thread if {@link VirtualThreads} are enabled.
+ * <p>
+ * A whole directory can also be registered, in which case the listener is told of every
+ * entry created, modified or deleted within it.
+ * <p>
+ * The selector recovers from lost events.  The size, modification time and file key of each
+ * watched file are recorded when it is registered and whenever an event for it is
+ * dispatched, which is a single stat.  When the WatchService overflows the directory is
+ * checked again on a rescan thread, so the selector goes on servicing other watches.  Only
+ * files whose stat has changed are read and fingerprinted, and their listeners told if
+ * their content differs from when they were last fingerprinted, while directory listeners
+ * are told of the directory itself with the OVERFLOW kind so they can list it again.  A
+ * directory which is deleted, or otherwise invalidates its watch, is registered again once
+ * it reappears and then checked in the same way.  The selector wakes at least every
+ * {@link #HEARTBEAT_MILLIS}, so the age of its heartbeat shows whether it is still running.
+ *
+ * @author Scott Stanley
+ */
+public final class WatchRegistry {
+    static final Logger LOG = LoggerFactory.getLogger(WatchRegistry.class);
+    static final long HEARTBEAT_MILLIS = 1000L;
+    private static final WatchRegistry INSTANCE = new WatchRegistry();
+
+    private WatchService m_watcher = null;
+    private int m_refCount = 0;
+    private final Map<Path, WatchedDirectory> m_directories = new ConcurrentHashMap<>();
+    private final Map<WatchKey, WatchedDirectory> m_keys = new ConcurrentHashMap<>();
+    private final Set<WatchedDirectory> m_lost = ConcurrentHashMap.newKeySet();
+    private volatile long m_heartbeat = 0L;
+    private final AtomicLong m_overflows = new AtomicLong();
+    private final AtomicLong m_reregistrations = new AtomicLong();
+    private final CallbackExecutor m_rescanExecutor = new CallbackExecutor("ReloadSslKeys-Rescan");
+
+    /**
+     * Listener notified by the selector thread when a watched file is created or modified.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called from the selector thread, or the rescan thread after events have been lost;
+         * implementations should return quickly.
+         *
+         * @param filePath The full path of the file which changed
+         * @param kind The kind of change reported by the WatchService
+         */
+        void fileChanged(Path filePath, WatchEvent.Kind<?> kind);
+    }
+
+    private WatchRegistry() {
+    }
+
+    /**
+     * Get the process wide registry.
+     *
+     * @return The shared WatchRegistry
+     */
+    public static WatchRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register a listener for changes to the specified file.
+     *
+     * @param filePath The file to be watched
+     * @param listener The listener to notify when the file changes
+     * @return The registration, which must be cancelled when the file no longer needs watching
+     * @throws IOException If the parent directory can not be watched
+     */
+    public Registration register(final Path filePath, final Listener listener)
+            throws IOException {
+        Path absPath = filePath.toAbsolutePath().normalize();
+        String stat = PollingWatchStrategy.stat(absPath);
+        synchronized (this) {
+            return register(absPath.getParent(), absPath, listener, stat);
+        }
+    }
+
+    /**
+     * Register a listener for changes to every entry of the specified directory, including
+     * entries which are deleted.
+     *
+     * @param directory The directory to be watched
+     * @param listener The listener to notify with the path of each entry which changes
+     * @return The registration, which must be cancelled when the directory no longer needs watching
+     * @throws IOException If the directory can not be watched
+     */
+    public synchronized Registration registerDirectory(final Path directory, final Listener listener)
+            throws IOException {
+        return register(directory.toAbsolutePath().normalize(), null, listener, null);
+    }
+
+    private Registration register(final Path directory, final Path filePath, final Listener listener,
+                                  final String stat) throws IOException {
+        if (m_watcher == null) {
+            m_watcher = FileSystems.getDefault().newWatchService();
+            startSelector(m_watcher);
+        }
+
+        WatchedDirectory dir = m_directories.get(directory);
+        if (dir == null) {
+            WatchKey key;
+            try {
+                key = WatchRegistry.registerKey(directory, m_watcher);
+            } catch (IOException ex) {
+                closeIfUnused();
+                throw ex;
+            }
+            dir = new WatchedDirectory(directory, key);
+            m_directories.put(directory, dir);
+            m_keys.put(key, dir);
+            LOG.debug("Watching directory {}", directory);
+        }
+
+        Registration registration = new Registration(dir, filePath, listener);
+        dir.add(registration, stat);
+        m_refCount++;
+
+        return registration;
+    }
+
+    /**
+     * Get the number of active registrations.
+     *
+     * @return The number of registrations which have not been cancelled
+     */
+    public synchronized int getRegistrationCount() {
+        return m_refCount;
+    }
+
+    /**
+     * Get the number of directories currently registered with the WatchService.
+     *
+     * @return The number of distinct watched directories
+     */
+    public int getDirectoryCount() {
+        return m_directories.size();
+    }
+
+    /**
+     * Get the number of watched directories whose watch has been lost, waiting for them to
+     * reappear.
+     *
+     * @return The number of lost directories
+     */
+    public int getLostDirectoryCount() {
+        return m_lost.size();
+    }
+
+    /**
+     * Get the number of times the WatchService overflowed, losing events.
+     *
+     * @return The number of overflows
+     */
+    public long getOverflowCount() {
+        return m_overflows.get();
+    }
+
+    /**
+     * Get the number of times a lost directory was registered again.
+     *
+     * @return The number of re-registrations
+     */
+    public long getReregistrationCount() {
+        return m_reregistrations.get();
+    }
+
+    /**
+     * Get the time since the selector thread last completed a pass of its loop, which it does
+     * at least every {@link #HEARTBEAT_MILLIS} while running.
+     *
+     * @return The age of the heartbeat in milliseconds, -1 if nothing is being watched
+     */
+    public synchronized long getHeartbeatAgeMillis() {
+        if (m_watcher == null) {
+            return -1L;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_heartbeat);
+    }
+
+    private synchronized void unregister(final Registration registration) {
+        WatchedDirectory dir = registration.m_directory;
+        if (! dir.remove(registration)) {
+            return;
+        }
+        m_refCount--;
+
+        if (dir.isEmpty()) {
+            WatchKey key = dir.m_key;
+            if (key != null) {
+                key.cancel();
+                m_keys.remove(key);
+            }
+            m_directories.remove(dir.m_path);
+            m_lost.remove(dir);
+            LOG.debug("Stopped watching directory {}", dir.m_path);
+        }
+
+        closeIfUnused();
+    }
+
+    private void closeIfUnused() {
+        if (m_refCount == 0 && m_watcher != null) {
+            try {
+                m_watcher.close();
+            } catch (IOException ex) {
+                LOG.warn("Failed closing WatchService", ex);
+            }
+            m_watcher = null;
+        }
+    }
+
+    private static WatchKey registerKey(final Path directory, final WatchService watcher) throws IOException {
+        return directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    private void startSelector(final WatchService watcher) {
+        m_heartbeat = System.nanoTime();
+        Thread selector = VirtualThreads.getInstance().newThread("ReloadSslKeys-Watcher", () -> runSelector(watcher));
+        selector.start();
+    }
+
+    private void runSelector(final WatchService watcher) {
+        LOG.debug("Watch selector started");
+        while (true) {
+            // Get the event key, waking periodically to beat and look for lost directories
+            WatchKey key;
+            try {
+                key = watcher.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                break;
+            }
+
+            try {
+                if (key != null) {
+                    process(key);
+                }
+                if (! m_lost.isEmpty()) {
+                    reregisterLost(watcher);
+                }
+            } catch (ClosedWatchServiceException ex) {
+                break;
+            } catch (RuntimeException ex) {
+                LOG.warn("Failed processing watch events", ex);
+            }
+            m_heartbeat = System.nanoTime();
+        }
+        LOG.debug("Watch selector stopped");
+    }
+
+    /**
+     * Dispatch the events of a key and reset it.  A key which can not be reset is no longer
+     * valid, typically because its directory was deleted, so the directory is marked lost.
+     */
+    private void process(final WatchKey key) {
+        WatchedDirectory dir = m_keys.get(key);
+        boolean overflowed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW) {
+                overflowed = true;
+            } else if (dir != null) {
+                dir.dispatch((Path) event.context(), kind);
+            }
+        }
+        if (dir != null && overflowed) {
+            m_overflows.incrementAndGet();
+            LOG.warn("Watch events lost for {}, checking its files", dir.m_path);
+            rescan(dir);
+        }
+
+        // Reset the key for future events
+        if (! key.reset()) {
+            lost(key, dir);
+        }
+    }
+
+    private synchronized void lost(final WatchKey key, final WatchedDirectory dir) {
+        m_keys.remove(key);
+        if (dir != null && dir.m_key == key && m_directories.get(dir.m_path) == dir) {
+            dir.m_key = null;
+            m_lost.add(dir);
+            LOG.warn("Directory {} is no longer watched, waiting for it to reappear", dir.m_path);
+        }
+    }
+
+    /**
+     * Register lost directories which have reappeared, then check their files for changes
+     * made while they were not watched.
+     */
+    private void reregisterLost(final WatchService watcher) {
+        for (WatchedDirectory dir : m_lost) {
+            if (! Files.isDirectory(dir.m_path)) {
+                continue;
+            }
+            synchronized (this) {
+                if (! m_lost.contains(dir) || m_watcher != watcher) {
+                    continue;
+                }
+                try {
+                    WatchKey key = WatchRegistry.registerKey(dir.m_path, watcher);
+                    dir.m_key = key;
+                    m_keys.put(key, dir);
+                    m_lost.remove(dir);
+                    m_reregistrations.incrementAndGet();
+                } catch (IOException ex) {
+                    LOG.debug("Unable to watch " + dir.m_path + " yet", ex);
+                    continue;
+                }
+            }
+            LOG.info("Directory {} reappeared, watching it again", dir.m_path);
+            rescan(dir);
+        }
+    }
+
+    /**
+     * Hand the check of a directory's files to the rescan thread, reading them there rather
+     * than holding up the events of every other watch.  A check already waiting covers this one.
+     */
+    private void rescan(final WatchedDirectory dir) {
+        if (dir.m_rescanPending.compareAndSet(false, true)) {
+            m_rescanExecutor.execute(() -> {
+                dir.m_rescanPending.set(false);
+                dir.rescan();
+            });
+        }
+    }
+
+    /**
+     * A directory registered with the WatchService along with the registrations for the
+     * files within it, indexed by file name, and those for the whole directory.
+     */
+    private static class WatchedDirectory {
+        private final Path m_path;
+        private volatile WatchKey m_key;
+        private final Map<Path, List<Registration>> m_files = new ConcurrentHashMap<>();
+        private final Map<Path, FileState> m_states = new ConcurrentHashMap<>();
+        private final List<Registration> m_entries = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean m_rescanPending = new AtomicBoolean();
+
+        WatchedDirectory(final Path path, final WatchKey key) {
+            m_path = path;
+            m_key = key;
+        }
+
+        /**
+         * Add a registration, recording the stat taken when it was made if it is the first
+         * for its file, to compare against when events are lost.
+         */
+        void add(final Registration registration, final String stat) {
+            if (registration.m_fileName == null) {
+                m_entries.add(registration);
+                return;
+            }
+            m_files.computeIfAbsent(registration.m_fileName, n -> {
+                if (stat != null) {
+                    m_states.put(n, new FileState(stat, null));
+                }
+                return new CopyOnWriteArrayList<>();
+            }).add(registration);
+        }
+
+        /**
+         * Check every watched file after events have been lost, telling the listeners of
+         * those which have changed since they were last seen, and tell directory listeners
+         * of the directory itself.  Runs on the rescan thread; a file is only read when its
+         * stat has changed, and is then compared with the content it last had.
+         */
+        void rescan() {
+            for (Map.Entry<Path, List<Registration>> file : m_files.entrySet()) {
+                List<Registration> registrations = file.getValue();
+                if (registrations.isEmpty()) {
+                    continue;
+                }
+                Path filePath = registrations.get(0).m_filePath;
+                FileState previous = m_states.get(file.getKey());
+                String stat = PollingWatchStrategy.stat(filePath);
+                if (stat == null || (previous != null && stat.equals(previous.m_stat))) {
+                    continue;
+                }
+
+                FileFingerprint fingerprint = previous == null ? null : previous.m_fingerprint;
+                FileFingerprint current;
+                try {
+                    current = FileFingerprint.of(filePath, fingerprint);
+                } catch (IOException ex) {
+                    m_states.remove(file.getKey());
+                    continue;
+                }
+                m_states.put(file.getKey(), new FileState(stat, current));
+                if (fingerprint != null && current.sameContent(fingerprint)) {
+                    continue;
+                }
+                WatchEvent.Kind<?> kind = previous == null ?
+                        StandardWatchEventKinds.ENTRY_CREATE : StandardWatchEventKinds.ENTRY_MODIFY;
+                for (Registration registration : registrations) {
+                    notify(registration, filePath, kind);
+                }
+            }
+            for (Registration registration : m_entries) {
+                notify(registration, m_path, StandardWatchEventKinds.OVERFLOW);
+            }
+        }
+
+        boolean remove(final Registration registration) {
+            if (registration.m_fileName == null) {
+                return m_entries.remove(registration);
+            }
+            List<Registration> registrations = m_files.get(registration.m_fileName);
+            if (registrations == null || ! registrations.remove(registration)) {
+                return false;
+            }
+            if (registrations.isEmpty()) {
+                m_files.remove(registration.m_fileName);
+            }
+            return true;
+        }
+
+        boolean isEmpty() {
+            return m_files.isEmpty() && m_entries.isEmpty();
+        }
+
+        void dispatch(final Path fileName, final WatchEvent.Kind<?> kind) {
+            if (! m_entries.isEmpty()) {
+                Path entryPath = m_path.resolve(fileName);
+                for (Registration registration : m_entries) {
+                    notify(registration, entryPath, kind);
+                }
+            }
+
+            // Files are only watched for new content
+            List<Registration> registrations = m_files.get(fileName);
+            if (registrations == null || registrations.isEmpty() || kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                return;
+            }
+            // The listeners handle the file as it is now, a later overflow need only report newer changes
+            String stat = PollingWatchStrategy.stat(registrations.get(0).m_filePath);
+            if (stat == null) {
+                m_states.remove(fileName);
+            } else {
+                m_states.put(fileName, new FileState(stat, null));
+            }
+            for (Registration registration : registrations) {
+                notify(registration, registration.m_filePath, kind);
+            }
+        }
+
+        private static void notify(final Registration registration, final Path path, final WatchEvent.Kind<?> kind) {
+            try {
+                registration.m_listener.fileChanged(path, kind);
+            } catch (RuntimeException ex) {
+                LOG.warn("Listener for " + path + " failed", ex);
+            }
+        }
+    }
+
+    /**
+     * The stat of a watched file when it was last seen, and its fingerprint if it was read
+     * then; a file seen through an event is not read on the selector thread.
+     */
+    private static final class FileState {
+        private final String m_stat;
+        private final FileFingerprint m_fingerprint;
+
+        FileState(final String stat, final FileFingerprint fingerprint) {
+            m_stat = stat;
+            m_fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Handle for a single file registration.
+     */
+    public final class Registration {
+        private final WatchedDirectory m_directory;
+        private final Path m_filePath;
+        private final Path m_fileName;
+        private final Listener m_listener;
+
+        Registration(final WatchedDirectory directory, final Path filePath, final Listener listener) {
+            m_directory = directory;
+            m_filePath = filePath == null ? directory.m_path : filePath;
+            m_fileName = filePath == null ? null : filePath.getFileName();
+            m_listener = listener;
+        }
+
+        /**
+         * Get the absolute path of the watched file, or directory.
+         *
+         * @return The watched path
+         */
+        public Path getFilePath() {
+            return m_filePath;
+        }
+
+        /**
+         * Cancel the registration, calling this more than once has no effect.
+         */
+        public void cancel() {
+            unregister(this);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.LongSupplier;
+
+/**
+ * A WatchStrategy decides how changes to a watched file are detected.  The
+ * {@link NativeWatchStrategy} relies on the events of the platform WatchService, while the
+ * {@link PollingWatchStrategy} checks the file itself for file systems which deliver no
+ * events.  The {@link AutoWatchStrategy} picks between them for each file.
+ *
+ * @author Scott Stanley
+ */
+public interface WatchStrategy {
+    /**
+     * An active watch of a single file.
+     */
+    interface Watch {
+        /**
+         * Stop watching, calling this more than once has no effect.
+         */
+        void cancel();
+    }
+
+    /**
+     * Start watching a file.
+     *
+     * @param filePath The file to watch
+     * @param listener Notified with the file path when the file changes
+     * @return The watch, which must be cancelled when the file no longer needs watching
+     * @throws IOException If the file can not be watched
+     */
+    Watch watch(Path filePath, WatchRegistry.Listener listener) throws IOException;
+
+    /**
+     * Start watching the file of a single certificate.  Strategies which poll check the file
+     * more often as that certificate approaches expiry, rather than as any certificate does.
+     *
+     * @param filePath The file to watch
+     * @param listener Notified with the file path when the file changes
+     * @param expiryMillis Supplies the expiry time of the certificate in the file, or
+     *          Long.MAX_VALUE if not known
+     * @return The watch, which must be cancelled when the file no longer needs watching
+     * @throws IOException If the file can not be watched
+     */
+    default Watch watch(final Path filePath, final WatchRegistry.Listener listener,
+                        final LongSupplier expiryMillis) throws IOException {
+        return watch(filePath, listener);
+    }
+}
@@ -0,0 +1,179 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The WriteCompletionDetector decides when a change to a watched file has been completely
+ * written, so it can be acted on without a long fixed delay.
+ * <ul>
+ *   <li>A file created under the watched name, as happens when a new file is atomically
+ *       renamed into place, is checked straight away.</li>
+ *   <li>A file written in place is checked once its size and modification time have been
+ *       stable, with no further events, for a quiet period.</li>
+ * </ul>
+ * Before the change is reported a trial parse of the file must succeed; if it fails the
+ * detector keeps waiting for further writes.  Once the maximum wait has passed since the
+ * first event the change is reported regardless, leaving the caller to handle a bad file.
+ * <p>
+ * Checks are timed on the shared scheduler but run on the detector's own
+ * {@link CallbackExecutor}, so a trial parse stalled on slow storage holds up no other timers.
+ *
+ * @author Scott Stanley
+ */
+public class WriteCompletionDetector {
+    static final Logger LOG = LoggerFactory.getLogger(WriteCompletionDetector.class);
+
+    private final Path m_filePath;
+    private final Predicate<Path> m_trialParse;
+    private final long m_quietMillis;
+    private final long m_maxWaitMillis;
+    private final Runnable m_onComplete;
+    private final Scheduler m_scheduler;
+    private final CallbackExecutor m_checkExecutor = new CallbackExecutor("ReloadSslKeys-WriteCheck");
+    private long m_firstEvent = 0L;
+    private long m_lastEvent = 0L;
+    private long m_stableSince = 0L;
+    private String m_lastStat = null;
+    private boolean m_created = false;
+    private boolean m_checkScheduled = false;
+    private boolean m_shutdown = false;
+
+    /**
+     * Create a detector using the process wide {@link SharedScheduler}.
+     *
+     * @param filePath The file being written
+     * @param trialParse Test of whether the file content is complete
+     * @param quietMillis The period the file must be stable for before it is parsed
+     * @param maxWaitMillis The longest to wait after the first event before reporting the change
+     * @param onComplete Called when the write is complete
+     */
+    public WriteCompletionDetector(final Path filePath, final Predicate<Path> trialParse,
+                                   final long quietMillis, final long maxWaitMillis,
+                                   final Runnable onComplete) {
+        m_filePath = filePath;
+        m_trialParse = trialParse;
+        m_quietMillis = quietMillis;
+        m_maxWaitMillis = maxWaitMillis;
+        m_onComplete = onComplete;
+        m_scheduler = SharedScheduler.getInstance().acquire();
+    }
+
+    /**
+     * Record a change to the file reported by the WatchService.
+     *
+     * @param kind The kind of change
+     */
+    public synchronized void fileChanged(final WatchEvent.Kind<?> kind) {
+        if (m_shutdown) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (m_firstEvent == 0L) {
+            m_firstEvent = now;
+        }
+        m_lastEvent = now;
+        observe(now);
+
+        if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+            m_created = true;
+            schedule(0L);
+        } else {
+            schedule(m_quietMillis);
+        }
+    }
+
+    /**
+     * Stop detecting, any pending change is dropped.
+     */
+    public synchronized void shutdown() {
+        if (! m_shutdown) {
+            m_shutdown = true;
+            m_checkExecutor.shutdown();
+            SharedScheduler.getInstance().release();
+        }
+    }
+
+    private void schedule(final long delayMillis) {
+        if (! m_checkScheduled) {
+            m_checkScheduled = true;
+            m_scheduler.schedule(() -> m_checkExecutor.execute(this::check), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Record the size and modification time of the file, noting when it last changed.
+     */
+    private void observe(final long now) {
+        String stat;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(m_filePath, BasicFileAttributes.class);
+            stat = attrs.size() + "@" + attrs.lastModifiedTime().toMillis();
+        } catch (IOException ex) {
+            stat = null;
+        }
+        if (stat == null || ! stat.equals(m_lastStat)) {
+            m_lastStat = stat;
+            m_stableSince = now;
+        }
+    }
+
+    private void check() {
+        boolean complete;
+        synchronized (this) {
+            m_checkScheduled = false;
+            if (m_shutdown || m_firstEvent == 0L) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            boolean created = m_created;
+            m_created = false;
+            observe(now);
+
+            long quietFor = now - Math.max(m_lastEvent, m_stableSince);
+            boolean timedOut = now - m_firstEvent >= m_maxWaitMillis;
+            if (m_lastStat == null) {
+                // The file is missing, wait for it to be written
+                complete = false;
+            } else if (created || quietFor >= m_quietMillis || timedOut) {
+                complete = isParsable() || timedOut;
+            } else {
+                schedule(m_quietMillis - quietFor);
+                return;
+            }
+
+            if (complete) {
+                LOG.debug("Write of {} complete after {}ms", m_filePath, now - m_firstEvent);
+                m_firstEvent = 0L;
+            } else if (m_lastStat != null) {
+                // Incomplete content, keep waiting for writes unless the writer has stalled
+                schedule(Math.max(0L, Math.min(m_quietMillis, m_firstEvent + m_maxWaitMillis - now)));
+            }
+        }
+
+        if (complete) {
+            m_onComplete.run();
+        }
+    }
+
+    private boolean isParsable() {
+        try {
+            return m_trialParse.test(m_filePath);
+        } catch (RuntimeException ex) {
+            LOG.debug("Trial parse of " + m_filePath + " failed", ex);
+            return false;
+        }
+    }
+}
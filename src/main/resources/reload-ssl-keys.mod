@@ -21,3 +21,177 @@ etc/reload-ssl-keys.xml
 ## modification to the SSL key file prior to triggering the reload.  This is intended to prevent 
 ## attempts to reload the file before it has completely been written.
 # reloadsslkeys.reloadDelaySec = 15
+
+## Write completion detection.  Rather than always waiting for reloadDelaySec, the reload is
+## triggered as soon as the new key file has been completely written.  A key file renamed into
+## place is reloaded immediately; one written in place once its size and modification time have
+## been stable for writeQuietMs.  In both cases the file must parse first.  reloadDelaySec then
+## becomes the longest the module waits for the write to complete.
+# reloadsslkeys.detectWriteCompletion = true
+# reloadsslkeys.writeQuietMs = 500
+
+## Reload bounds.  A file rewritten every few seconds never settles, so reloadMaxWaitSec, when
+## greater than zero, reloads at most this long after the first change of a burst however
+## long the changes continue.  With reloadLeadingEdge the first change of a burst is reloaded
+## at once and the rest of the burst suppressed; if it changed again the file is reloaded once
+## more when the changes settle.  reloadMinIntervalSec keeps reloads at least this far apart,
+## to limit reload storms.  These apply to the key, trust and certificate directory files.
+# reloadsslkeys.reloadMaxWaitSec = 0
+# reloadsslkeys.reloadLeadingEdge = false
+# reloadsslkeys.reloadMinIntervalSec = 0
+
+## Retries.  A reload which fails, such as one which read a key store mid-write, is retried
+## after retryInitialMs without waiting for the file to change again.  Each consecutive
+## failure doubles the delay up to retryMaxMs, jittered down by up to half so instances do not
+## retry in step; a success resets it.  A change to the file supersedes a pending retry.  Zero
+## disables retries.
+# reloadsslkeys.retryInitialMs = 5000
+# reloadsslkeys.retryMaxMs = 300000
+
+## Expiry checks.  In case a file event is lost, such as when the WatchService overflows, the
+## key files are checked against the keys being served, and reloaded if they differ.  Checks
+## are a stat of each file, which is only read and hashed again if it has changed.  They run
+## every expiryCheckMaxSec, more often as the certificate nears expiry, down to every
+## expiryCheckMinSec in its last day.  Zero expiryCheckMaxSec disables the checks.  Not used
+## for a certificate directory.
+# reloadsslkeys.expiryCheckMinSec = 60
+# reloadsslkeys.expiryCheckMaxSec = 3600
+
+## Watch mode; auto, native or poll.  Native uses file system events.  Poll checks the size,
+## modification time and file key of the key file; the interval starts at pollMinMs, backs off
+## to pollMaxMs while the file is quiet, and shortens as the certificate nears expiry.  Auto
+## polls files on file systems which deliver no events (NFS, SMB, overlay, FUSE, ...), or
+## which can not be registered for events, and uses native events elsewhere.
+# reloadsslkeys.watchMode = auto
+# reloadsslkeys.pollMinMs = 1000
+# reloadsslkeys.pollMaxMs = 60000
+
+## Handshake rate limit (handshakes per second).  After a reload every reconnecting client
+## needs a full handshake.  When greater than zero, full handshakes are limited to this rate
+## for handshakeLimitWindowSec after each reload.  Up to handshakeBurst handshakes (default
+## the rate) are admitted at once; others are shed and the client retries.  A wait for a
+## token of up to handshakeMaxWaitMs can be allowed, but it parks a Jetty thread, so it is
+## capped at 10ms.  Requires the key store password to be set.
+# reloadsslkeys.handshakeRateLimit = 0
+# reloadsslkeys.handshakeBurst = 0
+# reloadsslkeys.handshakeMaxWaitMs = 0
+# reloadsslkeys.handshakeLimitWindowSec = 30
+
+## The new key store is staged (parsed, decrypted and validated) before it is swapped into
+## the SslContextFactory, so a bad key store never replaces the keys being served.  Staging
+## uses the key store and key manager passwords configured for the ssl module
+## (jetty.sslContext.keyStorePassword and jetty.sslContext.keyManagerPassword).  If no
+## key store password is set, the SslContextFactory reloads the key file in place.
+
+## PEM files.  When both paths are set, the certificate chain and private key are loaded from
+## these PEM files, such as certbot's live/<domain>/fullchain.pem and privkey.pem, instead of
+## from the SslContextFactory key store.  Both files are watched; each is read once and parsed
+## in memory into the key store handed to the factory, with no intermediate key store file.
+## When both files are replaced together the keys are reloaded once, and a chain which does
+## not yet match its key is not loaded.  PKCS#8, PKCS#1 RSA and SEC1 EC keys are accepted,
+## unencrypted.  The key is stored under the SslContextFactory's certificate alias, if it has one.
+# reloadsslkeys.certificateChainPath = /etc/letsencrypt/live/example.com/fullchain.pem
+# reloadsslkeys.privateKeyPath = /etc/letsencrypt/live/example.com/privkey.pem
+
+## Certificate directory.  When set, every certificate in this directory is served, selected
+## by the SNI host name of each handshake, instead of the SslContextFactory key store.  Each
+## entry is a subdirectory holding fullchain.pem and privkey.pem, as in certbot's live
+## directory, or a single <alias>.pem file holding both the chain and the key.  The SSLContext
+## is built once; a change to one entry parses only that entry and re-indexes only its host
+## names, so the cost of a rotation does not grow with the number of certificates.  Clients
+## without a matching SNI host name get the SslContextFactory certificate alias, if set, or
+## the first certificate loaded.
+# reloadsslkeys.certificateDirectory = /etc/letsencrypt/live
+
+## Trust store watching, for mutual TLS.  When enabled, the SslContextFactory trust store
+## (jetty.sslContext.trustStorePath, with jetty.sslContext.trustStorePassword) is watched, as
+## are the factory's CRL path and any revocation list files listed in crlPaths (comma
+## separated).  Changes are reloaded once they have settled for trustReloadDelaySec, and the
+## new trust manager is swapped into the live SSLContext; the key managers are not rebuilt and
+## no private key is decrypted.  Revocation lists are only checked when the factory validates
+## peer certificates.  A factory with no separate trust store reloads its trust with the keys.
+# reloadsslkeys.watchTrustStore = false
+# reloadsslkeys.crlPaths =
+# reloadsslkeys.trustReloadDelaySec = 15
+
+## Further factories.  Embedded servers can bind further SslContextFactory instances, server
+## or client, to the same key files with addSslContextFactory, such as a client factory which
+## presents the server's certificate to upstreams.  The files are watched and parsed once, and
+## each reload gives every factory the new keys, or if any factory fails, none of them.
+## Components registered with addListener are told of each reload and each failure.
+
+## Load parallelism.  The private keys of a key store, and the entries of a certificate
+## directory, are decrypted, parsed and validated in parallel on a pool of at most this many
+## threads, and then assembled in alias order, so start up and bulk rotations scale with the
+## number of cores rather than the number of certificates.  Zero uses one thread per
+## processor; one loads everything serially on the reload thread.
+# reloadsslkeys.loadParallelism = 0
+
+## Fleet reload stagger.  When the key files are on storage shared by a fleet of nodes, every
+## node sees them change at once.  When reloadSpreadSec is greater than zero the nodes'
+## reloads are spread over that window, so at most reloadMaxPercent of the fleet reloads at
+## once.  By default each node waits an offset into the window given by a hash of its node
+## id, the host name unless reloadNodeId is set.  With reloadLeaseDirectory set to a shared
+## directory the nodes instead register there and claim reload slots as lease files, holding
+## each slot for its share of the window after reloading.  A node still waiting when the
+## window has passed reloads regardless; reloads asked for over JMX or HTTP are not held.
+# reloadsslkeys.reloadSpreadSec = 0
+# reloadsslkeys.reloadMaxPercent = 10
+# reloadsslkeys.reloadLeaseDirectory =
+# reloadsslkeys.reloadNodeId =
+
+## Reload control.  Deploy tooling can reload the keys and wait for them to be served rather
+## than sleeping for the reload delay.  Over JMX the reloadNow operation reloads the keys and
+## returns the SHA-256 fingerprint of the served certificate once the reload is live, and
+## awaitReload returns once a certificate with the given fingerprint is served.  When
+## controlPort is greater than zero the same is served over HTTP on the loopback address only:
+##   curl -X POST -H 'X-Reload-Token: <token>' 'http://127.0.0.1:<port>/reload?timeoutSec=30'
+##   curl 'http://127.0.0.1:<port>/await?fingerprint=<sha256>&timeoutSec=300'
+##   curl 'http://127.0.0.1:<port>/fingerprint'
+## A wait which times out answers 504, a failed reload 500.  A reload without the
+## X-Reload-Token header, or with the wrong token when controlToken is set, answers 403.
+## Set controlToken so other local processes can not reload the keys.
+# reloadsslkeys.controlPort = 0
+# reloadsslkeys.controlToken =
+
+## Virtual threads.  On Java 21 and later, the file watch loop and the reload callbacks run on
+## virtual threads rather than platform threads, so a blocked watch loop or a slow reload
+## holds no platform thread.  On earlier versions platform threads are still used.  The
+## setting is process wide; key store parsing still uses the load parallelism pool.
+# reloadsslkeys.virtualThreads = false
+
+## Warm up handshakes.  When greater than zero, this many TLS handshakes are run in memory
+## against new keys for each enabled protocol and cipher family (such as ECDHE_RSA with AES
+## GCM) before the keys are published, so the first client handshakes after a reload do not
+## run through cold code paths.  Keys which complete no handshake for a protocol, or present
+## the wrong certificate, are rejected and the previous keys kept.  Requires the key store
+## password to be set; not used for a certificate directory.
+# reloadsslkeys.warmupHandshakes = 0
+
+## Preserve TLS sessions across reloads.  When the new key store holds the same aliases, key
+## types and host names as the current one, its certificates are swapped into the live
+## SSLContext so existing sessions can still be resumed.  Other changes rebuild the context.
+## Requires the key store password to be set.
+# reloadsslkeys.preserveSessions = false
+
+## Session hand over period (seconds).  When greater than zero, sessions established with the
+## previous certificates are retired gradually over this period after a swap, oldest first.
+# reloadsslkeys.sessionHandOverSec = 0
+
+## Metrics.  The module is added to the Server as an unmanaged bean, so with the jmx module
+## enabled it is published as an MBean giving the counts of file events, coalesced events,
+## reloads and failed reloads, reload durations and the time from a file event to the
+## completion of its reload (mean, median, 99th percentile and maximum, in ms), and the expiry
+## and SHA-256 fingerprint of the served certificate which expires first.
+##
+## The MBean also reports the age of the file watch loop's heartbeat; the loop wakes at
+## least once a second, so an age of more than a few seconds means it has stopped.  When the
+## WatchService overflows and events are lost, the watched files are hashed again and any
+## which changed are reloaded; a watched directory which is deleted is watched again once it
+## reappears.
+##
+## Flight recorder events.  File changes, debouncer triggers and runs (with the number of
+## triggers coalesced), and reloads (with their source, outcome and durations) are emitted as
+## JFR events in the "Reload SSL Keys" category, named com.bb.reload_ssl_keys.*.  They are
+## recorded only when enabled in a recording, e.g. -XX:StartFlightRecording with a settings
+## file enabling them, and are skipped on JVMs without JFR.
@@ -0,0 +1,66 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AutoWatchStrategyTest {
+    final static String TEST_PATH_BASE = "work/";
+    final static String TEST_FILE_NAME = "someKeyFile";
+
+    private Path m_testFile;
+    private WatchStrategy.Watch m_watch = null;
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (! testDir.exists()) {
+            testDir.mkdirs();
+        }
+        m_testFile = new File(TEST_PATH_BASE + TEST_FILE_NAME).toPath();
+        Files.write(m_testFile, "original".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_watch != null) {
+            m_watch.cancel();
+        }
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    @Test
+    public void testPolledFileStoreTypes() {
+        Assert.assertTrue("NFS should be polled", AutoWatchStrategy.isPolled("nfs4"));
+        Assert.assertTrue("FUSE should be polled", AutoWatchStrategy.isPolled("fuse.sshfs"));
+        Assert.assertTrue("Overlay should be polled", AutoWatchStrategy.isPolled("overlay"));
+        Assert.assertFalse("ext4 should not be polled", AutoWatchStrategy.isPolled("ext4"));
+        Assert.assertFalse("tmpfs should not be polled", AutoWatchStrategy.isPolled("tmpfs"));
+    }
+
+    @Test
+    public void testFallBackToPolling() {
+        try {
+            WatchStrategy failing = (path, listener) -> {
+                throw new IOException("User limit of inotify watches reached");
+            };
+            AutoWatchStrategy strategy = new AutoWatchStrategy(failing, new PollingWatchStrategy(1000L, 1000L, null));
+
+            m_watch = strategy.watch(m_testFile, (path, kind) -> {});
+            Assert.assertTrue("Should have fallen back to polling", m_watch instanceof PollingWatchStrategy.PolledFile);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CertificateDirectoryTest {
+    final static String TEST_PATH_BASE = "work/";
+    final static long WAIT_MILLIS = 10000L;
+
+    private static File keyStore;
+    private File m_certDir;
+    private SniKeyManager m_keyManager;
+    private CertificateDirectory m_directory;
+
+    @BeforeClass
+    public static void setUpKeyStore() throws Exception {
+        new File(TEST_PATH_BASE).mkdirs();
+        keyStore = new File(TEST_PATH_BASE + "hosts.p12");
+        TestKeyStores.generate(keyStore, "a.example.com", "b.example.com", "c.example.com", "renewed");
+    }
+
+    @AfterClass
+    public static void tearDownKeyStore() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        m_certDir = new File(TEST_PATH_BASE + "live");
+        m_certDir.mkdirs();
+        m_keyManager = new SniKeyManager(null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_directory != null) {
+            m_directory.stop();
+        }
+        FileWatcherTest.deleteRecursively(m_certDir);
+    }
+
+    /**
+     * Write an entry in the certbot layout, a directory holding fullchain.pem and privkey.pem.
+     */
+    private void writeDirectoryEntry(final String name, final String alias) throws Exception {
+        File entry = new File(m_certDir, name);
+        entry.mkdirs();
+        TestKeyStores.exportPem(keyStore, alias,
+                                new File(entry, CertificateDirectory.CHAIN_FILE),
+                                new File(entry, CertificateDirectory.KEY_FILE));
+    }
+
+    /**
+     * Write an entry as a single PEM file holding the chain and the key, replacing it atomically.
+     */
+    private void writeFileEntry(final String name, final String alias) throws Exception {
+        File chain = new File(TEST_PATH_BASE, "chain.tmp");
+        File key = new File(TEST_PATH_BASE, "key.tmp");
+        TestKeyStores.exportPem(keyStore, alias, chain, key);
+        File combined = new File(TEST_PATH_BASE, "combined.tmp");
+        byte[] chainBytes = Files.readAllBytes(chain.toPath());
+        byte[] keyBytes = Files.readAllBytes(key.toPath());
+        byte[] content = Arrays.copyOf(chainBytes, chainBytes.length + keyBytes.length);
+        System.arraycopy(keyBytes, 0, content, chainBytes.length, keyBytes.length);
+        Files.write(combined.toPath(), content);
+        Files.move(combined.toPath(), new File(m_certDir, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private String subject(final String alias) {
+        return m_keyManager.getCertificate(alias) == null ? null :
+               m_keyManager.getCertificate(alias).getSubjectX500Principal().getName();
+    }
+
+    private boolean waitFor(final BooleanSupplier condition) throws InterruptedException {
+        long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+        while (System.currentTimeMillis() < waitUntil) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    @Test
+    public void testLoadsEveryEntry() {
+        try {
+            writeDirectoryEntry("a.example.com", "a.example.com");
+            writeFileEntry("b.example.com.pem", "b.example.com");
+            Files.write(new File(m_certDir, "README").toPath(), "not a certificate".getBytes());
+            new File(m_certDir, ".hidden").mkdirs();
+
+            m_directory = new CertificateDirectory(m_certDir.toPath(), m_keyManager, new NativeWatchStrategy(), 0L, 0L);
+            m_directory.start();
+
+            Assert.assertEquals("Incorrect aliases", new HashSet<>(Arrays.asList("a.example.com", "b.example.com")),
+                                m_keyManager.getAliases());
+            Assert.assertEquals("Incorrect loaded count", 2, m_directory.getLoadedCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testOnlyChangedEntryReloaded() {
+        try {
+            writeDirectoryEntry("a.example.com", "a.example.com");
+            writeFileEntry("b.example.com.pem", "b.example.com");
+            m_directory = new CertificateDirectory(m_certDir.toPath(), m_keyManager, new NativeWatchStrategy(), 0L, 0L);
+            m_directory.start();
+
+            writeFileEntry("b.example.com.pem", "renewed");
+            Assert.assertTrue("Renewed certificate not loaded", waitFor(() -> "CN=renewed".equals(subject("b.example.com"))));
+            Thread.sleep(500);
+            Assert.assertEquals("Only the changed entry should be loaded", 3, m_directory.getLoadedCount());
+            Assert.assertEquals("Other entry should be unchanged", "CN=a.example.com", subject("a.example.com"));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testEntriesAddedAndRemoved() {
+        try {
+            writeDirectoryEntry("a.example.com", "a.example.com");
+            m_directory = new CertificateDirectory(m_certDir.toPath(), m_keyManager, new NativeWatchStrategy(), 0L, 0L);
+            m_directory.start();
+
+            writeDirectoryEntry("c.example.com", "c.example.com");
+            Assert.assertTrue("New entry not loaded", waitFor(() -> subject("c.example.com") != null));
+
+            FileWatcherTest.deleteRecursively(new File(m_certDir, "a.example.com"));
+            Assert.assertTrue("Removed entry still served", waitFor(() -> subject("a.example.com") == null));
+            Assert.assertEquals("Incorrect aliases", new HashSet<>(Arrays.asList("c.example.com")), m_keyManager.getAliases());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testPolledDirectory() {
+        try {
+            m_directory = new CertificateDirectory(m_certDir.toPath(), m_keyManager,
+                    new PollingWatchStrategy(50L, 200L, null), 0L, 100L);
+            m_directory.start();
+            Assert.assertEquals("Directory should be empty", 0, m_keyManager.size());
+
+            writeFileEntry("b.example.com.pem", "b.example.com");
+            Assert.assertTrue("New entry not loaded", waitFor(() -> subject("b.example.com") != null));
+
+            writeFileEntry("b.example.com.pem", "renewed");
+            Assert.assertTrue("Renewed certificate not loaded", waitFor(() -> "CN=renewed".equals(subject("b.example.com"))));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testLostEventsListedByRefresh() {
+        try {
+            writeDirectoryEntry("a.example.com", "a.example.com");
+            m_directory = new CertificateDirectory(m_certDir.toPath(), m_keyManager, new NativeWatchStrategy(), 0L, 0L);
+            m_directory.start();
+
+            // The watch thread is not held up while a refresh is loading entries
+            synchronized (m_directory) {
+                Thread lost = new Thread(m_directory::eventsLost);
+                lost.start();
+                lost.join(1000L);
+                Assert.assertFalse("Lost events held up the watch thread", lost.isAlive());
+            }
+
+            // Entries keep loading once the listing pending from the lost events is done
+            writeDirectoryEntry("b.example.com", "b.example.com");
+            Assert.assertTrue("Entry not loaded after lost events", waitFor(() -> subject("b.example.com") != null));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
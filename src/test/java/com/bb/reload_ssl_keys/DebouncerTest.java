@@ -1,11 +1,18 @@
 package com.bb.reload_ssl_keys;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.util.thread.Scheduler;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 public class DebouncerTest {
+    private final AtomicInteger m_scheduled = new AtomicInteger();
 
     @Before
     public void setUp() throws Exception {
@@ -237,7 +244,357 @@ public class DebouncerTest {
         }
     }
 
+    @Test
+    public void testManyDebouncers_SharedScheduler() {
+        int numDebouncers = 50;
+        int numTriggers = 20;
+        long delaySec = 1L;
+        
+        Scheduler scheduler = new ScheduledExecutorScheduler("DebouncerTest", true);
+        try {
+            scheduler.start();
+            
+            TestMonitor[] monitors = new TestMonitor[numDebouncers];
+            Debouncer[] debouncers = new Debouncer[numDebouncers];
+            for (int d = 0; d < numDebouncers; d++) {
+                TestMonitor mon = new TestMonitor();
+                monitors[d] = mon;
+                debouncers[d] = new Debouncer(() -> {mon.callback();}, delaySec, scheduler);
+            }
+            
+            // Interleave the triggers across all of the debouncers
+            for (int n = 0; n < numTriggers; n++) {
+                for (int d = 0; d < numDebouncers; d++) {
+                    monitors[d].trigger();
+                    debouncers[d].trigger();
+                }
+                Thread.sleep(2);
+            }
+            
+            for (int d = 0; d < numDebouncers; d++) {
+                debouncers[d].shutdown(true);
+                monitors[d].waitOnCompletion(1);
+                
+                Assert.assertEquals("Unexpected number of callbacks", 1, monitors[d].getCallbackCount());
+                double lastCallbackDelaySec = monitors[d].getLastCallbackDelaySec();
+                Assert.assertTrue("Delay " +  lastCallbackDelaySec + " should be longer then the delay", 
+                                  lastCallbackDelaySec >= delaySec);
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            try {
+                scheduler.stop();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    public void testSharedSchedulerReleased() {
+        long delaySec = 1L;
+        
+        try {
+            int initialRefCount = SharedScheduler.getInstance().getRefCount();
+            TestMonitor mon = new TestMonitor();
+            
+            Debouncer db = new Debouncer(() -> {mon.callback();}, delaySec);
+            Assert.assertEquals("Shared scheduler not acquired", 
+                                initialRefCount + 1, SharedScheduler.getInstance().getRefCount());
+            
+            mon.trigger();
+            db.trigger();
+            
+            // Shutdown waits on the pending callback, then gives up the shared scheduler
+            db.shutdown(true);
+            mon.waitOnCompletion(1);
+            Assert.assertEquals("Unexpected number of callbacks", 1, mon.getCallbackCount());
+            for (int n = 0; n < 100 && SharedScheduler.getInstance().getRefCount() != initialRefCount; n++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals("Shared scheduler not released", 
+                                initialRefCount, SharedScheduler.getInstance().getRefCount());
+            
+            // Triggers after shutdown are ignored
+            db.trigger();
+            Thread.sleep(1000 * (delaySec + 1));
+            Assert.assertEquals("Unexpected callback after shutdown", 1, mon.getCallbackCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
     
+    @Test
+    public void testMaxWaitBoundsChurn() {
+        long delaySec = 1L;
+        
+        try {
+            TestMonitor mon = new TestMonitor();
+            
+            Debouncer db = new Debouncer(() -> {mon.callback();}, delaySec, new Debouncer.Policy(1000L, false, 0L));
+            
+            // Trigger faster than the delay for three seconds; without a ceiling nothing would run
+            long start = System.currentTimeMillis();
+            while (System.currentTimeMillis() - start < 3000L) {
+                mon.trigger();
+                db.trigger();
+                Thread.sleep(100);
+            }
+            Assert.assertTrue("Callback should have run within the max wait, ran " + mon.getCallbackCount(),
+                              mon.getCallbackCount() >= 2);
+            
+            db.shutdown(true);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testLeadingEdge() {
+        long delaySec = 1L;
+        
+        try {
+            TestMonitor mon = new TestMonitor();
+            
+            Debouncer db = new Debouncer(() -> {mon.callback();}, delaySec, new Debouncer.Policy(0L, true, 0L));
+            
+            // A single trigger runs at once, and only once
+            mon.trigger();
+            db.trigger();
+            mon.waitOnCompletion(1);
+            Assert.assertTrue("Leading edge should not wait for the delay", mon.getLastCallbackDelaySec() < delaySec);
+            Thread.sleep(1000 * (delaySec + 1));
+            Assert.assertEquals("Unexpected trailing callback", 1, mon.getCallbackCount());
+            
+            // A burst runs at once, then once more when it settles
+            for (int n = 0; n < 5; n++) {
+                mon.trigger();
+                db.trigger();
+                Thread.sleep(20);
+            }
+            mon.waitOnCompletion(3);
+            Assert.assertTrue("Trailing callback should follow the delay", mon.getLastCallbackDelaySec() >= delaySec);
+            
+            db.shutdown(true);
+            Assert.assertEquals("Unexpected number of callbacks", 3, mon.getCallbackCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testMinInterval() {
+        try {
+            TestMonitor mon = new TestMonitor();
+            
+            Debouncer db = new Debouncer(() -> {mon.callback();}, 0L, new Debouncer.Policy(0L, false, 1000L));
+            
+            mon.trigger();
+            db.trigger();
+            mon.waitOnCompletion(1);
+            
+            // The next run is held back until the interval has passed
+            mon.trigger();
+            db.trigger();
+            mon.waitOnCompletion(2);
+            Assert.assertTrue("Runs should be kept apart, delay " + mon.getLastCallbackDelaySec(),
+                              mon.getLastCallbackDelaySec() >= 0.9d);
+            
+            db.shutdown(true);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testRetrySupersededByTrigger() {
+        long delaySec = 1L;
+        
+        try {
+            TestMonitor mon = new TestMonitor();
+            
+            Debouncer db = new Debouncer(() -> {mon.callback();}, delaySec);
+            
+            // A retry runs after its own delay
+            mon.trigger();
+            db.retry(100L);
+            mon.waitOnCompletion(1);
+            Assert.assertTrue("Retry should not wait for the debounce delay", mon.getLastCallbackDelaySec() < delaySec);
+            
+            // A trigger replaces the pending retry, running once after the debounce delay
+            mon.trigger();
+            db.retry(100L);
+            db.trigger();
+            Assert.assertFalse("Retry should be superseded", db.isRetryPending());
+            mon.waitOnCompletion(2);
+            Assert.assertTrue("Superseded retry should run after the delay", mon.getLastCallbackDelaySec() >= delaySec);
+            
+            // A cancelled retry does not run
+            db.retry(100L);
+            db.cancelRetry();
+            Thread.sleep(500);
+            
+            db.shutdown(true);
+            Assert.assertEquals("Unexpected number of callbacks", 2, mon.getCallbackCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testRunNowCutsDelayShort() {
+        long delaySec = 3L;
+        
+        try {
+            TestMonitor mon = new TestMonitor();
+            
+            Debouncer db = new Debouncer(() -> {mon.callback();}, delaySec);
+            
+            // A pending trigger is run at once rather than after the delay, and only once
+            mon.trigger();
+            db.trigger();
+            db.runNow();
+            mon.waitOnCompletion(1);
+            Assert.assertTrue("Run should not wait for the debounce delay", mon.getLastCallbackDelaySec() < delaySec);
+            
+            // With nothing pending it still runs
+            mon.trigger();
+            db.runNow();
+            mon.waitOnCompletion(2);
+            Thread.sleep(500);
+            
+            db.shutdown(true);
+            Assert.assertEquals("Unexpected number of callbacks", 2, mon.getCallbackCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testTriggerDoesNotDelayRunNow() {
+        long delaySec = 3L;
+        Scheduler scheduler = new ScheduledExecutorScheduler("DebouncerTest", true);
+
+        try {
+            scheduler.start();
+            TestMonitor mon = new TestMonitor();
+            Debouncer db = new Debouncer(() -> {mon.callback();}, delaySec, scheduler);
+
+            // Hold the timer thread so the change is seen before the explicit run starts
+            CountDownLatch release = new CountDownLatch(1);
+            scheduler.schedule(() -> {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }, 0L, TimeUnit.MILLISECONDS);
+            mon.trigger();
+            db.trigger();
+            db.runNow();
+            db.trigger();
+            release.countDown();
+
+            mon.waitOnCompletion(1);
+            Assert.assertTrue("Trigger should not delay the run", mon.getLastCallbackDelaySec() < delaySec);
+            db.shutdown(false);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            try {
+                scheduler.stop();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    public void testRepeatedRunNowKeepsOneTimer() {
+        Scheduler scheduler = new ScheduledExecutorScheduler("DebouncerTest", true) {
+            @Override
+            public Task schedule(final Runnable task, final long delay, final TimeUnit unit) {
+                m_scheduled.incrementAndGet();
+                return super.schedule(task, delay, unit);
+            }
+        };
+
+        try {
+            scheduler.start();
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger callbacks = new AtomicInteger();
+            Debouncer db = new Debouncer(() -> {
+                callbacks.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }, 60L, scheduler);
+
+            // Runs asked for while one is in progress wait on a single timer
+            db.trigger();
+            db.runNow();
+            Thread.sleep(200);
+            for (int i = 0; i < 20; i++) {
+                db.runNow();
+            }
+            m_scheduled.set(0);
+            Thread.sleep(1000);
+            Assert.assertTrue("Too many timers scheduled: " + m_scheduled.get(), m_scheduled.get() < 40);
+
+            release.countDown();
+            db.shutdown(true);
+            Assert.assertEquals("Unexpected number of callbacks", 2, callbacks.get());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            try {
+                scheduler.stop();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    public void testSlowCallbackDoesNotHoldUpOthers() {
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch ran = new CountDownLatch(1);
+            Debouncer slow = new Debouncer(() -> {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }, 0L);
+            Debouncer other = new Debouncer(ran::countDown, 0L);
+
+            slow.trigger();
+            Thread.sleep(200);
+            other.trigger();
+            Assert.assertTrue("Callback held up by another debouncer's callback", ran.await(2, TimeUnit.SECONDS));
+
+            release.countDown();
+            slow.shutdown(true);
+            other.shutdown(true);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
     public class TestMonitor {
         private Long m_lastTriggerTime;
         private long m_triggerCount = 0;
@@ -0,0 +1,72 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpiryCheckerTest {
+
+    @Test
+    public void testIntervalShrinksNearExpiry() {
+        long now = System.currentTimeMillis();
+        long minInterval = TimeUnit.MINUTES.toMillis(1L);
+        long maxInterval = TimeUnit.HOURS.toMillis(1L);
+
+        Assert.assertEquals("Unknown expiry should use the max interval", maxInterval,
+                            new ExpiryChecker(() -> Long.MAX_VALUE, () -> false, () -> {}, minInterval, maxInterval)
+                                    .getInterval(now));
+        Assert.assertEquals("Distant expiry should use the max interval", maxInterval,
+                            new ExpiryChecker(() -> now + TimeUnit.DAYS.toMillis(90L), () -> false, () -> {},
+                                              minInterval, maxInterval).getInterval(now));
+        Assert.assertEquals("Expiry in ten days should check every ten minutes", TimeUnit.MINUTES.toMillis(10L),
+                            new ExpiryChecker(() -> now + TimeUnit.DAYS.toMillis(10L), () -> false, () -> {},
+                                              minInterval, maxInterval).getInterval(now));
+        Assert.assertEquals("Expiry within a day should use the min interval", minInterval,
+                            new ExpiryChecker(() -> now + TimeUnit.HOURS.toMillis(12L), () -> false, () -> {},
+                                              minInterval, maxInterval).getInterval(now));
+        Assert.assertEquals("Expired certificate should use the min interval", minInterval,
+                            new ExpiryChecker(() -> now - 1L, () -> false, () -> {}, minInterval, maxInterval)
+                                    .getInterval(now));
+    }
+
+    @Test
+    public void testReloadForcedWhenStale() {
+        try {
+            AtomicBoolean stale = new AtomicBoolean(false);
+            AtomicInteger reloads = new AtomicInteger();
+            ExpiryChecker checker = new ExpiryChecker(() -> Long.MAX_VALUE, stale::get, () -> {
+                reloads.incrementAndGet();
+                stale.set(false);
+            }, 50L, 50L);
+            checker.start();
+            try {
+                long waitUntil = System.currentTimeMillis() + 5000L;
+                while (checker.getCheckCount() < 2 && System.currentTimeMillis() < waitUntil) {
+                    Thread.sleep(10);
+                }
+                Assert.assertTrue("Checks not made", checker.getCheckCount() >= 2);
+                Assert.assertEquals("Reload forced when not stale", 0, reloads.get());
+
+                stale.set(true);
+                waitUntil = System.currentTimeMillis() + 5000L;
+                while (reloads.get() == 0 && System.currentTimeMillis() < waitUntil) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals("Stale key material not reloaded", 1, reloads.get());
+                Assert.assertEquals("Incorrect forced reload count", 1, checker.getForcedReloadCount());
+            } finally {
+                checker.stop();
+            }
+
+            long checks = checker.getCheckCount();
+            Thread.sleep(200);
+            Assert.assertEquals("Checks made after stop", checks, checker.getCheckCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileFingerprintTest {
+    final static String TEST_PATH_BASE = "work/";
+    final static String TEST_FILE_NAME = "someKeyFile";
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (! testDir.exists()) {
+            testDir.mkdirs();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    @Test
+    public void testTouchKeepsContent() {
+        try {
+            Path testFile = new File(TEST_PATH_BASE + TEST_FILE_NAME).toPath();
+            Files.write(testFile, "original".getBytes(StandardCharsets.UTF_8));
+            FileFingerprint original = FileFingerprint.of(testFile);
+
+            // Touching the file changes the modification time, but not the content
+            testFile.toFile().setLastModified(original.getLastModified() + 5000L);
+            FileFingerprint touched = FileFingerprint.of(testFile, original);
+
+            Assert.assertNotSame("Touched file should have been re-read", original, touched);
+            Assert.assertTrue("Touched file should have the same content", touched.sameContent(original));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testRewriteSameBytes() {
+        try {
+            Path testFile = new File(TEST_PATH_BASE + TEST_FILE_NAME).toPath();
+            Files.write(testFile, "original".getBytes(StandardCharsets.UTF_8));
+            FileFingerprint original = FileFingerprint.of(testFile);
+
+            Files.write(testFile, "original".getBytes(StandardCharsets.UTF_8));
+            FileFingerprint rewritten = FileFingerprint.of(testFile, original);
+
+            Assert.assertTrue("Rewritten file should have the same content", rewritten.sameContent(original));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testContentChange() {
+        try {
+            Path testFile = new File(TEST_PATH_BASE + TEST_FILE_NAME).toPath();
+            Files.write(testFile, "original".getBytes(StandardCharsets.UTF_8));
+            FileFingerprint original = FileFingerprint.of(testFile);
+
+            // Same size and modification time, only the racy timestamp check catches the change
+            Files.write(testFile, "modified".getBytes(StandardCharsets.UTF_8));
+            testFile.toFile().setLastModified(original.getLastModified());
+            FileFingerprint modified = FileFingerprint.of(testFile, original);
+
+            Assert.assertFalse("Modified file should have different content", modified.sameContent(original));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnchangedFileNotReread() {
+        try {
+            Path testFile = new File(TEST_PATH_BASE + TEST_FILE_NAME).toPath();
+            Files.write(testFile, "original".getBytes(StandardCharsets.UTF_8));
+            testFile.toFile().setLastModified(System.currentTimeMillis() - 60000L);
+            FileFingerprint original = FileFingerprint.of(testFile);
+
+            FileFingerprint again = FileFingerprint.of(testFile, original);
+            Assert.assertSame("Unchanged file should not have been re-read", original, again);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
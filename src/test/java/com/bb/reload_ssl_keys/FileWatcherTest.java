@@ -2,8 +2,13 @@ package com.bb.reload_ssl_keys;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -43,6 +48,10 @@ public class FileWatcherTest {
      * @return True if the tree was completely deleted.
      */
     public static boolean deleteRecursively(final File fileObj) {
+        if (Files.isSymbolicLink(fileObj.toPath())) {
+            // Remove the link itself, never what it points to
+            return fileObj.delete();
+        }
         if (! fileObj.exists()) {
             return true;
         }
@@ -384,4 +393,69 @@ public class FileWatcherTest {
             Assert.fail("Caught an unexpected exception: " + ex.getMessage());
         }
     }
+
+    @Test
+    public void testSharedDirectoryRegistration() {
+        try {
+            File testFile1 = new File(TEST_PATH_BASE + TEST_FILE_NAME);
+            File testFile2 = new File(TEST_PATH_BASE + TEST_FILE_NAME + "2");
+            FileWatcherTest.createFile(testFile1);
+            FileWatcherTest.createFile(testFile2);
+
+            WatchRegistry registry = WatchRegistry.getInstance();
+            int initialRegistrations = registry.getRegistrationCount();
+            int initialDirectories = registry.getDirectoryCount();
+
+            // Both files live in the same directory, so only one directory is registered
+            FileWatcher watcher1 = new FileWatcher(testFile1.toPath(), () -> {}, 0L);
+            FileWatcher watcher2 = new FileWatcher(testFile2.toPath(), () -> {}, 0L);
+            Assert.assertEquals("Wrong number of registrations", 
+                                initialRegistrations + 2, registry.getRegistrationCount());
+            Assert.assertEquals("Wrong number of directories", 
+                                initialDirectories + 1, registry.getDirectoryCount());
+
+            // The directory remains registered until the last watcher is stopped
+            watcher1.stopWatcher();
+            Assert.assertEquals("Wrong number of directories after first stop", 
+                                initialDirectories + 1, registry.getDirectoryCount());
+            watcher2.stopWatcher();
+            Assert.assertEquals("Wrong number of registrations after stop", 
+                                initialRegistrations, registry.getRegistrationCount());
+            Assert.assertEquals("Wrong number of directories after stop", 
+                                initialDirectories, registry.getDirectoryCount());
+
+            // Stopping twice has no effect
+            watcher2.stopWatcher();
+            Assert.assertEquals("Wrong number of registrations after second stop", 
+                                initialRegistrations, registry.getRegistrationCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testAtomicRenameWithTrialParse() {
+        try {
+            File testFile = new File(TEST_PATH_BASE + TEST_FILE_NAME);
+            FileWatcherTest.createFile(testFile);
+
+            // A long callback delay, which a complete file renamed into place does not wait for
+            Semaphore callbacks = new Semaphore(0);
+            FileWatcher watcher = new FileWatcher(testFile.toPath(), callbacks::release, 15L, 
+                                                  path -> path.toFile().length() > 0, 5000L);
+
+            File tempFile = new File(TEST_PATH_BASE + TEST_FILE_NAME + ".tmp");
+            Files.write(tempFile.toPath(), "new content".getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile.toPath(), testFile.toPath(), 
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            boolean called = callbacks.tryAcquire(3, TimeUnit.SECONDS);
+            watcher.stopWatcher();
+            Assert.assertTrue("Callback not run promptly after rename", called);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
 }
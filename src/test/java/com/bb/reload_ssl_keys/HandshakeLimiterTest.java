@@ -0,0 +1,78 @@
+package com.bb.reload_ssl_keys;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HandshakeLimiterTest {
+
+    @Test
+    public void testInactiveOutsideWindow() {
+        HandshakeLimiter limiter = new HandshakeLimiter(1, 1, 0L, 60000L);
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue("Handshake should be admitted outside the window", limiter.admit());
+        }
+        Assert.assertEquals("No handshakes should be counted", 0, limiter.getAdmittedCount());
+        Assert.assertEquals("No handshakes should be shed", 0, limiter.getShedCount());
+    }
+
+    @Test
+    public void testShedBeyondBurst() {
+        HandshakeLimiter limiter = new HandshakeLimiter(1, 2, 0L, 60000L);
+        limiter.startWindow();
+
+        Assert.assertTrue("First handshake should be admitted", limiter.admit());
+        Assert.assertTrue("Second handshake should be admitted", limiter.admit());
+        Assert.assertFalse("Third handshake should be shed", limiter.admit());
+        Assert.assertEquals("Incorrect admitted count", 2, limiter.getAdmittedCount());
+        Assert.assertEquals("Incorrect shed count", 1, limiter.getShedCount());
+    }
+
+    @Test
+    public void testQueueWithinMaxWait() {
+        HandshakeLimiter limiter = new HandshakeLimiter(200, 1, 10L, 60000L);
+        limiter.startWindow();
+
+        Assert.assertTrue("First handshake should be admitted", limiter.admit());
+        long start = System.nanoTime();
+        Assert.assertTrue("Second handshake should be admitted after waiting", limiter.admit());
+        long waitedMicros = (System.nanoTime() - start) / 1000L;
+
+        Assert.assertTrue("Second handshake did not wait for a token: " + waitedMicros, waitedMicros >= 2000L);
+        Assert.assertEquals("Incorrect delayed count", 1, limiter.getDelayedCount());
+        Assert.assertEquals("No handshakes should be shed", 0, limiter.getShedCount());
+    }
+
+    @Test
+    public void testMaxWaitCapped() {
+        HandshakeLimiter limiter = new HandshakeLimiter(10, 1, 1000L, 60000L);
+        limiter.startWindow();
+
+        // The next token is 100ms away, beyond the cap, so the handshake is shed at once
+        Assert.assertTrue("First handshake should be admitted", limiter.admit());
+        long start = System.currentTimeMillis();
+        Assert.assertFalse("Second handshake should be shed", limiter.admit());
+        long waited = System.currentTimeMillis() - start;
+
+        Assert.assertTrue("Shed handshake held its thread: " + waited, waited < HandshakeLimiter.MAX_WAIT_CAP_MILLIS * 5);
+        Assert.assertEquals("Incorrect shed count", 1, limiter.getShedCount());
+    }
+
+    @Test
+    public void testWindowCloses() {
+        try {
+            HandshakeLimiter limiter = new HandshakeLimiter(1, 1, 0L, 200L);
+            limiter.startWindow();
+
+            Assert.assertTrue("First handshake should be admitted", limiter.admit());
+            Assert.assertFalse("Second handshake should be shed", limiter.admit());
+
+            Thread.sleep(300);
+            Assert.assertFalse("Window should have closed", limiter.isLimiting());
+            Assert.assertTrue("Handshake should be admitted after the window", limiter.admit());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
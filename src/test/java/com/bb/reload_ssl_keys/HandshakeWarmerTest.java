@@ -0,0 +1,127 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class HandshakeWarmerTest {
+    final static String TEST_PATH_BASE = "work/";
+
+    private static File ecKeyStore;
+    private static File rsaKeyStore;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        new File(TEST_PATH_BASE).mkdirs();
+        ecKeyStore = new File(TEST_PATH_BASE + "ec.p12");
+        TestKeyStores.generate(ecKeyStore, "ec");
+        rsaKeyStore = new File(TEST_PATH_BASE + "rsa.p12");
+        TestKeyStores.generateRsa(rsaKeyStore, "rsa");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    private static SslContextFactory.Server newFactory(final String... includeCipherSuites) throws Exception {
+        SslContextFactory.Server sslCtxFactory = new SslContextFactory.Server();
+        sslCtxFactory.setKeyStorePath(ecKeyStore.getAbsolutePath());
+        sslCtxFactory.setKeyStorePassword(TestKeyStores.STORE_PASSWORD);
+        if (includeCipherSuites.length > 0) {
+            sslCtxFactory.setIncludeProtocols("TLSv1.2");
+            sslCtxFactory.setIncludeCipherSuites(includeCipherSuites);
+        }
+        sslCtxFactory.start();
+        return sslCtxFactory;
+    }
+
+    @Test
+    public void testFamilies() {
+        Assert.assertEquals("Incorrect TLS 1.2 family", "ECDHE_RSA_WITH_AES_GCM",
+                            HandshakeWarmer.family("TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"));
+        Assert.assertEquals("Incorrect TLS 1.3 family", "CHACHA20_POLY1305",
+                            HandshakeWarmer.family("TLS_CHACHA20_POLY1305_SHA256"));
+
+        String[] suites = {"TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384",
+                           "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+                           "TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256", "TLS_EMPTY_RENEGOTIATION_INFO_SCSV"};
+        Map<String, List<String>> tls13 = HandshakeWarmer.families("TLSv1.3", suites);
+        Assert.assertEquals("Incorrect TLS 1.3 families", Arrays.asList("AES_GCM"), Arrays.asList(tls13.keySet().toArray()));
+        Assert.assertEquals("Incorrect TLS 1.3 suites", 2, tls13.get("AES_GCM").size());
+        Map<String, List<String>> tls12 = HandshakeWarmer.families("TLSv1.2", suites);
+        Assert.assertEquals("Incorrect TLS 1.2 families", Arrays.asList("ECDHE_ECDSA_WITH_AES_GCM", "ECDHE_ECDSA_WITH_AES_CBC"),
+                            Arrays.asList(tls12.keySet().toArray()));
+    }
+
+    @Test
+    public void testWarmsEachProtocol() {
+        SslContextFactory.Server sslCtxFactory = null;
+        try {
+            sslCtxFactory = newFactory();
+            KeyMaterial keyMaterial = new KeyStoreLoader(sslCtxFactory, TestKeyStores.STORE_PASSWORD, null)
+                    .load(ecKeyStore.toPath());
+
+            HandshakeWarmer warmer = new HandshakeWarmer(sslCtxFactory, 2);
+            warmer.warm(keyMaterial);
+
+            int protocols = sslCtxFactory.getSelectedProtocols().length;
+            Assert.assertTrue("Too few handshakes " + warmer.getHandshakeCount(),
+                              warmer.getHandshakeCount() >= 2 * protocols);
+            Assert.assertEquals("Handshakes not a multiple of the count", 0, warmer.getHandshakeCount() % 2);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            try {
+                if (sslCtxFactory != null) {
+                    sslCtxFactory.stop();
+                }
+            } catch (Exception ex) {
+                // Ignore
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsUnusableKeys() {
+        SslContextFactory.Server sslCtxFactory = null;
+        try {
+            // Only ECDSA suites are enabled, so an RSA key can complete no handshake
+            sslCtxFactory = newFactory("TLS_ECDHE_ECDSA_.*");
+            KeyMaterial keyMaterial = new KeyStoreLoader(sslCtxFactory, TestKeyStores.STORE_PASSWORD, null)
+                    .load(rsaKeyStore.toPath());
+
+            HandshakeWarmer warmer = new HandshakeWarmer(sslCtxFactory, 1);
+            try {
+                warmer.warm(keyMaterial);
+                Assert.fail("RSA key should have been rejected");
+            } catch (GeneralSecurityException ex) {
+                // Expected
+            }
+            Assert.assertEquals("No handshakes should have completed", 0, warmer.getHandshakeCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            try {
+                if (sslCtxFactory != null) {
+                    sslCtxFactory.stop();
+                }
+            } catch (Exception ex) {
+                // Ignore
+            }
+        }
+    }
+}
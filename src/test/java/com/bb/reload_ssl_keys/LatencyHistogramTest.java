@@ -0,0 +1,90 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        Assert.assertEquals("Incorrect bucket for zero", 0, LatencyHistogram.bucket(0L));
+        Assert.assertEquals("Incorrect bucket for 1us", 0, LatencyHistogram.bucket(1L));
+        Assert.assertEquals("Incorrect bucket for 2us", 1, LatencyHistogram.bucket(2L));
+        Assert.assertEquals("Incorrect bucket for 1023us", 9, LatencyHistogram.bucket(1023L));
+        Assert.assertEquals("Incorrect bucket for 1024us", 10, LatencyHistogram.bucket(1024L));
+        Assert.assertEquals("Incorrect bucket for huge durations", LatencyHistogram.BUCKETS - 1,
+                            LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals("Empty percentile should be zero", 0.0d, histogram.getPercentileMillis(0.99d), 0.0d);
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1L));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(100L));
+
+        Assert.assertEquals("Incorrect count", 100, histogram.getCount());
+        Assert.assertEquals("Incorrect mean", 1.99d, histogram.getMeanMillis(), 0.001d);
+        Assert.assertEquals("Incorrect max", 100.0d, histogram.getMaxMillis(), 0.0d);
+        // 1000us falls in the 512-1024us bucket
+        Assert.assertEquals("Incorrect median", 1.024d, histogram.getPercentileMillis(0.5d), 0.0d);
+        Assert.assertEquals("Incorrect 99th percentile", 1.024d, histogram.getPercentileMillis(0.99d), 0.0d);
+        Assert.assertEquals("Percentile should be capped at the max", 100.0d, histogram.getPercentileMillis(1.0d), 0.0d);
+
+        histogram.reset();
+        Assert.assertEquals("Count not reset", 0, histogram.getCount());
+        Assert.assertEquals("Max not reset", 0.0d, histogram.getMaxMillis(), 0.0d);
+    }
+
+    @Test
+    public void testConcurrentRecording() {
+        try {
+            LatencyHistogram histogram = new LatencyHistogram();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final long nanos = TimeUnit.MICROSECONDS.toNanos(t + 1);
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(nanos);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            Assert.assertEquals("Incorrect count", 40000, histogram.getCount());
+            Assert.assertEquals("Incorrect mean", 0.0025d, histogram.getMeanMillis(), 0.000001d);
+            Assert.assertEquals("Incorrect max", 0.004d, histogram.getMaxMillis(), 0.0d);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testMetricsCoalesceEvents() {
+        ReloadMetrics metrics = new ReloadMetrics();
+        metrics.fileEvent();
+        metrics.fileEvent();
+        metrics.fileEvent();
+        metrics.reloadSucceeded("test", System.nanoTime());
+        metrics.fileEvent();
+        metrics.reloadFailed("test", System.nanoTime());
+
+        Assert.assertEquals("Incorrect file event count", 4, metrics.getFileEventCount());
+        Assert.assertEquals("Incorrect coalesced count", 2, metrics.getCoalescedEventCount());
+        Assert.assertEquals("Incorrect reload count", 1, metrics.getReloadCount());
+        Assert.assertEquals("Incorrect failed reload count", 1, metrics.getFailedReloadCount());
+        Assert.assertEquals("Incorrect reload duration count", 2, metrics.getReloadDuration().getCount());
+        Assert.assertEquals("Incorrect event to reload count", 1, metrics.getEventToReload().getCount());
+    }
+}
@@ -0,0 +1,167 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelLoaderTest {
+    final static String TEST_PATH_BASE = "work/";
+
+    private static File keyStore;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        new File(TEST_PATH_BASE).mkdirs();
+        keyStore = new File(TEST_PATH_BASE + "many.p12");
+        TestKeyStores.generate(keyStore, "e.example.com", "a.example.com", "d.example.com",
+                               "b.example.com", "c.example.com", "f.example.com");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    @Test
+    public void testResultsInItemOrder() {
+        ParallelLoader loader = new ParallelLoader(4);
+        try {
+            List<Integer> items = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                items.add(i);
+            }
+
+            // Later items finish first
+            List<Integer> results = loader.mapAll(items, item -> {
+                try {
+                    Thread.sleep(2L * (20 - item));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return item * 10;
+            });
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals("Result out of order", Integer.valueOf(i * 10), results.get(i));
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            loader.shutdown();
+        }
+    }
+
+    @Test
+    public void testRunsInParallel() {
+        ParallelLoader loader = new ParallelLoader(3);
+        try {
+            // Each task waits for all three to be running at once
+            CountDownLatch running = new CountDownLatch(3);
+            Set<String> threads = ConcurrentHashMap.newKeySet();
+            List<Boolean> results = loader.mapAll(Arrays.asList(1, 2, 3), item -> {
+                threads.add(Thread.currentThread().getName());
+                running.countDown();
+                try {
+                    return running.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            });
+            Assert.assertEquals("Tasks did not run at once", Arrays.asList(true, true, true), results);
+            Assert.assertEquals("Incorrect number of threads", 3, threads.size());
+            for (String thread : threads) {
+                Assert.assertTrue("Unexpected thread " + thread, thread.startsWith("ReloadSslKeys-Loader-"));
+            }
+
+            // A serial loader runs on the calling thread
+            String caller = Thread.currentThread().getName();
+            Assert.assertEquals("Serial loader should run on the caller", Arrays.asList(caller, caller),
+                                ParallelLoader.SERIAL.mapAll(Arrays.asList(1, 2), item -> Thread.currentThread().getName()));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            loader.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailuresKeptPerItem() {
+        ParallelLoader loader = new ParallelLoader(4);
+        try {
+            List<ParallelLoader.Outcome<Integer>> outcomes = loader.map(Arrays.asList(1, 2, 3, 4), item -> {
+                if (item == 2) {
+                    throw new IOException("unreadable " + item);
+                }
+                if (item == 3) {
+                    throw new GeneralSecurityException("invalid " + item);
+                }
+                return item;
+            });
+            Assert.assertEquals("Incorrect result", Integer.valueOf(1), outcomes.get(0).get());
+            Assert.assertTrue("Expected an IOException", outcomes.get(1).getFailure() instanceof IOException);
+            Assert.assertTrue("Expected a GeneralSecurityException",
+                              outcomes.get(2).getFailure() instanceof GeneralSecurityException);
+            Assert.assertEquals("Incorrect result", Integer.valueOf(4), outcomes.get(3).get());
+
+            try {
+                loader.mapAll(Arrays.asList(1, 2, 3, 4), item -> {
+                    if (item >= 3) {
+                        throw new GeneralSecurityException("invalid " + item);
+                    }
+                    return item;
+                });
+                Assert.fail("Failure should have been thrown");
+            } catch (GeneralSecurityException ex) {
+                Assert.assertEquals("The first failure should be thrown", "invalid 3", ex.getMessage());
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            loader.shutdown();
+        }
+    }
+
+    @Test
+    public void testKeyStoreStagedInParallel() {
+        ParallelLoader loader = new ParallelLoader(4);
+        try {
+            SslContextFactory.Server sslCtxFactory = new SslContextFactory.Server();
+            KeyMaterial serial = new KeyStoreLoader(sslCtxFactory, TestKeyStores.STORE_PASSWORD, null)
+                    .load(keyStore.toPath());
+            KeyMaterial parallel = new KeyStoreLoader(sslCtxFactory, TestKeyStores.STORE_PASSWORD, null, loader)
+                    .load(keyStore.toPath());
+
+            List<String> expected = Arrays.asList("a.example.com", "b.example.com", "c.example.com",
+                                                  "d.example.com", "e.example.com", "f.example.com");
+            Assert.assertEquals("Entries should be assembled in alias order", expected,
+                                new ArrayList<>(parallel.getCertificates().keySet()));
+            Assert.assertEquals("Parallel and serial loads should match", serial.getCertificates(),
+                                parallel.getCertificates());
+            Assert.assertEquals("Incorrect staged key store size", expected.size(), parallel.getKeyStore().size());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            loader.shutdown();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PollingWatchStrategyTest {
+    final static String TEST_PATH_BASE = "work/";
+    final static String TEST_FILE_NAME = "someKeyFile";
+
+    private Path m_testFile;
+    private final BlockingQueue<WatchEvent.Kind<?>> m_changes = new LinkedBlockingQueue<>();
+    private WatchStrategy.Watch m_watch = null;
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (! testDir.exists()) {
+            testDir.mkdirs();
+        }
+        m_testFile = new File(TEST_PATH_BASE + TEST_FILE_NAME).toPath();
+        Files.write(m_testFile, "original".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_watch != null) {
+            m_watch.cancel();
+        }
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    private WatchStrategy.Watch poll(final long minMillis, final long maxMillis) throws IOException {
+        return new PollingWatchStrategy(minMillis, maxMillis, null).watch(m_testFile, (path, kind) -> m_changes.add(kind));
+    }
+
+    @Test
+    public void testDetectsModification() {
+        try {
+            m_watch = poll(50L, 200L);
+            Files.write(m_testFile, "modified content".getBytes(StandardCharsets.UTF_8));
+
+            Assert.assertEquals("Modification not detected", StandardWatchEventKinds.ENTRY_MODIFY, 
+                                m_changes.poll(2, TimeUnit.SECONDS));
+            Assert.assertNull("Modification should only be reported once", m_changes.poll(500, TimeUnit.MILLISECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testDetectsReplacement() {
+        try {
+            m_watch = poll(50L, 200L);
+
+            Path tempFile = new File(TEST_PATH_BASE + TEST_FILE_NAME + ".tmp").toPath();
+            Files.write(tempFile, "replacement".getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, m_testFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            Assert.assertEquals("Replacement not detected as a new file", StandardWatchEventKinds.ENTRY_CREATE, 
+                                m_changes.poll(2, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBackOffWhileQuiet() {
+        try {
+            m_watch = poll(20L, 160L);
+            PollingWatchStrategy.PolledFile polledFile = (PollingWatchStrategy.PolledFile) m_watch;
+            Assert.assertEquals("Polling should start at the minimum interval", 20L, polledFile.getInterval());
+
+            Thread.sleep(1000);
+            Assert.assertEquals("Quiet file should back off to the maximum interval", 160L, polledFile.getInterval());
+
+            Files.write(m_testFile, "modified content".getBytes(StandardCharsets.UTF_8));
+            Assert.assertNotNull("Modification not detected", m_changes.poll(2, TimeUnit.SECONDS));
+            Assert.assertTrue("Change should reset the interval", polledFile.getInterval() < 160L);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testExpiryOfEachFile() {
+        try {
+            // Some other certificate has expired, this file's certificate is not close to expiry
+            PollingWatchStrategy strategy = new PollingWatchStrategy(20L, 160L, () -> System.currentTimeMillis() - 1000L);
+            m_watch = strategy.watch(m_testFile, (path, kind) -> m_changes.add(kind), () -> Long.MAX_VALUE);
+            PollingWatchStrategy.PolledFile polledFile = (PollingWatchStrategy.PolledFile) m_watch;
+
+            Thread.sleep(1000);
+            Assert.assertEquals("File should back off by its own expiry", 160L, polledFile.getInterval());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testIntervalTightensNearExpiry() {
+        long now = System.currentTimeMillis();
+        long[] expiry = {Long.MAX_VALUE};
+        PollingWatchStrategy strategy = new PollingWatchStrategy(1000L, 60000L, () -> expiry[0]);
+
+        Assert.assertEquals("Unknown expiry should use the maximum", 60000L, strategy.getMaxInterval(now));
+
+        expiry[0] = now + TimeUnit.DAYS.toMillis(30);
+        Assert.assertEquals("Distant expiry should use the maximum", 60000L, strategy.getMaxInterval(now));
+
+        expiry[0] = now + TimeUnit.HOURS.toMillis(1);
+        Assert.assertEquals("Close expiry should shorten the maximum", 
+                            TimeUnit.HOURS.toMillis(1) / PollingWatchStrategy.EXPIRY_DIVISOR, strategy.getMaxInterval(now));
+
+        expiry[0] = now - 1000L;
+        Assert.assertEquals("Expired certificate should use the minimum", 1000L, strategy.getMaxInterval(now));
+    }
+}
@@ -0,0 +1,97 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ReloadEventsTest {
+    final static String TEST_PATH_BASE = "work/";
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        new File(TEST_PATH_BASE).mkdirs();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    private static List<RecordedEvent> events(final List<RecordedEvent> events, final String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(JfrEvents.PREFIX + name))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testPipelineRecorded() {
+        try {
+            Assert.assertTrue("JFR should be available", ReloadEvents.AVAILABLE);
+            Path recordingPath = Paths.get(TEST_PATH_BASE, "reload.jfr");
+            Path keyStore = Paths.get(TEST_PATH_BASE, "keystore.p12");
+
+            try (Recording recording = new Recording()) {
+                for (String name : new String[] {"FileChanged", "DebounceTriggered", "DebounceFired", "Reload"}) {
+                    recording.enable(JfrEvents.PREFIX + name);
+                }
+                recording.start();
+
+                Debouncer debouncer = new Debouncer(() -> {
+                    ReloadEvents.reload(keyStore, ReloadEvents.FAILED, 1000L, -1L);
+                }, 1L);
+                for (int i = 0; i < 3; i++) {
+                    ReloadEvents.fileChanged(keyStore, StandardWatchEventKinds.ENTRY_MODIFY);
+                    debouncer.trigger();
+                }
+                debouncer.shutdown(true);
+
+                recording.stop();
+                recording.dump(recordingPath);
+            }
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(recordingPath);
+            List<RecordedEvent> changes = events(events, "FileChanged");
+            Assert.assertEquals("Incorrect number of file events", 3, changes.size());
+            Assert.assertEquals("Incorrect path", keyStore.toString(), changes.get(0).getString("path"));
+            Assert.assertEquals("Incorrect kind", "ENTRY_MODIFY", changes.get(0).getString("kind"));
+
+            Assert.assertEquals("Incorrect number of triggers", 3, events(events, "DebounceTriggered").size());
+            List<RecordedEvent> fired = events(events, "DebounceFired");
+            Assert.assertEquals("Incorrect number of runs", 1, fired.size());
+            Assert.assertEquals("Incorrect coalesced count", 3, fired.get(0).getInt("coalesced"));
+            Assert.assertTrue("Run should have waited for the delay", 
+                              fired.get(0).getDuration("waited").toMillis() >= 1000L);
+
+            List<RecordedEvent> reloads = events(events, "Reload");
+            Assert.assertEquals("Incorrect number of reloads", 1, reloads.size());
+            Assert.assertEquals("Incorrect outcome", ReloadEvents.FAILED, reloads.get(0).getString("outcome"));
+            Assert.assertEquals("Incorrect source", keyStore.toString(), reloads.get(0).getString("source"));
+            Assert.assertEquals("Incorrect duration", 1000L, reloads.get(0).getDuration("reloadDuration").toNanos());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testNotRecording() {
+        // Without a recording the events are dropped without error
+        ReloadEvents.fileChanged(Paths.get(TEST_PATH_BASE), "entry");
+        ReloadEvents.reload(null, ReloadEvents.SKIPPED, 0L, -1L);
+    }
+}
@@ -0,0 +1,850 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSession;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.ssl.X509;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReloadSslKeysModuleTest {
+    final static String TEST_PATH_BASE = "work/";
+    final static String KEYSTORE_NAME = "keystore.p12";
+    final static long WAIT_MILLIS = 10000L;
+
+    static {
+        // Resume TLS 1.2 sessions from the server's session cache rather than from stateless
+        // session tickets, so the tests can observe sessions being retired
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", "false");
+    }
+
+    private File m_keyStore;
+    private File m_newKeyStore;
+    private SslContextFactory.Server m_sslCtxFactory;
+    private ReloadSslKeysModule m_module;
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (! testDir.exists()) {
+            testDir.mkdirs();
+        }
+
+        m_keyStore = new File(TEST_PATH_BASE + KEYSTORE_NAME);
+        m_newKeyStore = new File(TEST_PATH_BASE + "new-" + KEYSTORE_NAME);
+        TestKeyStores.generate(m_keyStore, "original");
+        TestKeyStores.generate(m_newKeyStore, "renewed");
+
+        m_sslCtxFactory = new SslContextFactory.Server();
+        m_sslCtxFactory.setKeyStorePath(m_keyStore.getAbsolutePath());
+        m_sslCtxFactory.setKeyStorePassword(TestKeyStores.STORE_PASSWORD);
+        m_sslCtxFactory.start();
+
+        m_module = new ReloadSslKeysModule();
+        m_module.setSslContextFactory(m_sslCtxFactory);
+        m_module.setReloadDelaySec(0L);
+        m_module.setKeyStorePassword(TestKeyStores.STORE_PASSWORD);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_module.stop();
+        m_sslCtxFactory.stop();
+
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    /**
+     * Wait for the factory to be serving the specified alias.
+     */
+    private boolean waitForAlias(final String alias) throws InterruptedException {
+        long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+        while (System.currentTimeMillis() < waitUntil) {
+            if (m_sslCtxFactory.getAliases().contains(alias)) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    @Test
+    public void testReloadStagedKeyStore() {
+        try {
+            m_module.start();
+            Assert.assertTrue("Original key not loaded", m_sslCtxFactory.getAliases().contains("original"));
+
+            Files.copy(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            Assert.assertTrue("Renewed key not loaded", waitForAlias("renewed"));
+            Assert.assertFalse("Original key still loaded", m_sslCtxFactory.getAliases().contains("original"));
+            Assert.assertNotNull("Factory unable to create engines", m_sslCtxFactory.newSSLEngine());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testWarmupHandshakes() {
+        try {
+            m_module.setWarmupHandshakes(1);
+            m_module.start();
+
+            Files.copy(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            Assert.assertTrue("Renewed key not loaded", waitForAlias("renewed"));
+            Assert.assertTrue("New keys not warmed", m_module.getWarmupHandshakeCount() > 0);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testCorruptKeyStoreKeepsKeys() {
+        try {
+            m_module.start();
+
+            Files.write(m_keyStore.toPath(), "not a key store".getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(2000);
+
+            Assert.assertTrue("Original key no longer loaded", m_sslCtxFactory.getAliases().contains("original"));
+            Assert.assertNotNull("Factory unable to create engines", m_sslCtxFactory.newSSLEngine());
+
+            // A good key store written afterwards is still picked up
+            Files.copy(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertTrue("Renewed key not loaded", waitForAlias("renewed"));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testTouchSkipsReload() {
+        try {
+            m_module.start();
+
+            m_keyStore.setLastModified(System.currentTimeMillis() + 5000L);
+            long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+            while (m_module.getSkippedReloadCount() == 0 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(50);
+            }
+
+            Assert.assertEquals("Touch should have skipped the reload", 1, m_module.getSkippedReloadCount());
+            Assert.assertTrue("Original key no longer loaded", m_sslCtxFactory.getAliases().contains("original"));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testReloadMetrics() {
+        try {
+            m_module.start();
+            X509Certificate original = (X509Certificate) TestKeyStores.load(m_keyStore).getCertificate("original");
+            X509Certificate renewed = (X509Certificate) TestKeyStores.load(m_newKeyStore).getCertificate("renewed");
+            Assert.assertEquals("Incorrect fingerprint", ReloadSslKeysModule.fingerprint(original),
+                                m_module.getCertificateFingerprint());
+            Assert.assertEquals("Incorrect expiry", original.getNotAfter().toInstant().toString(),
+                                m_module.getCertificateNotAfter());
+
+            // Renamed into place, so no reload can see the key store missing or part written
+            Files.move(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+            while (m_module.getReloadCount() == 0 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(50);
+            }
+
+            Assert.assertTrue("Renewed key not loaded", m_sslCtxFactory.getAliases().contains("renewed"));
+            Assert.assertEquals("Incorrect reload count", 1, m_module.getReloadCount());
+            Assert.assertEquals("Incorrect failed reload count", 0, m_module.getFailedReloadCount());
+            Assert.assertTrue("File event not counted", m_module.getFileEventCount() >= 1);
+            Assert.assertEquals("Incorrect event to reload count", 1, m_module.getMetrics().getEventToReload().getCount());
+            Assert.assertTrue("Reload duration not recorded", m_module.getReloadDurationMaxMs() > 0.0d);
+            Assert.assertTrue("Event latency shorter than reload",
+                              m_module.getEventToReloadMaxMs() >= m_module.getReloadDurationMaxMs());
+            Assert.assertEquals("Incorrect fingerprint after reload", ReloadSslKeysModule.fingerprint(renewed),
+                                m_module.getCertificateFingerprint());
+
+            m_module.resetStatistics();
+            Assert.assertEquals("Reload count not reset", 0, m_module.getReloadCount());
+            Assert.assertEquals("Reload duration not reset", 0.0d, m_module.getReloadDurationMaxMs(), 0.0d);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testFailedReloadRetried() {
+        try {
+            m_module.setDetectWriteCompletion(false);
+            m_module.setRetryInitialMs(200L);
+            m_module.setRetryMaxMs(400L);
+            m_module.start();
+
+            // A corrupt key store is retried without further file events
+            Files.write(m_keyStore.toPath(), "not a key store".getBytes(StandardCharsets.UTF_8));
+            long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+            while (m_module.getFailedReloadCount() < 3 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue("Failed reload not retried", m_module.getFailedReloadCount() >= 3);
+            Assert.assertTrue("Consecutive failures not counted", m_module.getConsecutiveFailureCount() >= 3);
+
+            // Success resets the backoff
+            Files.copy(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+            while (m_module.getReloadCount() == 0 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue("Renewed key not loaded", m_sslCtxFactory.getAliases().contains("renewed"));
+            Assert.assertEquals("Backoff not reset", 0, m_module.getConsecutiveFailureCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBoundFactoriesReloaded() {
+        SslContextFactory.Client clientFactory = new SslContextFactory.Client();
+        try {
+            clientFactory.setKeyStorePath(m_keyStore.getAbsolutePath());
+            clientFactory.setKeyStorePassword(TestKeyStores.STORE_PASSWORD);
+            clientFactory.start();
+            List<KeyMaterial> reloaded = new CopyOnWriteArrayList<>();
+            m_module.addSslContextFactory(clientFactory);
+            m_module.addListener(reloaded::add);
+            Assert.assertEquals("Incorrect factories", Arrays.asList(m_sslCtxFactory, clientFactory),
+                                m_module.getSslContextFactories());
+            m_module.start();
+
+            Files.move(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            Assert.assertTrue("Renewed key not loaded", waitForAlias("renewed"));
+            long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+            while (reloaded.isEmpty() && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue("Client factory not given renewed key", clientFactory.getAliases().contains("renewed"));
+            Assert.assertFalse("Client factory still has original key", clientFactory.getAliases().contains("original"));
+            Assert.assertEquals("Listener not notified once", 1, reloaded.size());
+            Assert.assertEquals("Listener given wrong key material", Collections.singleton("renewed"),
+                                reloaded.get(0).getAliases());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            try {
+                clientFactory.stop();
+            } catch (Exception ex) {
+                // Ignore
+            }
+        }
+    }
+
+    @Test
+    public void testBoundFactoryFailureRollsBack() {
+        // The client factory can only load key stores holding the original alias
+        SslContextFactory.Client clientFactory = new SslContextFactory.Client() {
+            @Override
+            protected KeyManager[] getKeyManagers(final KeyStore keyStore) throws Exception {
+                if (! keyStore.containsAlias("original")) {
+                    throw new KeyStoreException("No original key");
+                }
+                return super.getKeyManagers(keyStore);
+            }
+        };
+        try {
+            clientFactory.setKeyStorePath(m_keyStore.getAbsolutePath());
+            clientFactory.setKeyStorePassword(TestKeyStores.STORE_PASSWORD);
+            clientFactory.start();
+            List<KeyMaterial> reloaded = new CopyOnWriteArrayList<>();
+            List<Exception> failures = new CopyOnWriteArrayList<>();
+            m_module.addSslContextFactory(clientFactory);
+            m_module.addListener(new ReloadSslKeysModule.Listener() {
+                @Override
+                public void keysReloaded(final KeyMaterial keyMaterial) {
+                    reloaded.add(keyMaterial);
+                }
+
+                @Override
+                public void reloadFailed(final Exception cause) {
+                    failures.add(cause);
+                }
+            });
+            m_module.setRetryInitialMs(0L);
+            m_module.start();
+
+            Files.move(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+            while (failures.isEmpty() && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(50);
+            }
+
+            Assert.assertEquals("Listener not told of failure", 1, failures.size());
+            Assert.assertTrue("Listener told of a reload", reloaded.isEmpty());
+            Assert.assertEquals("Incorrect failed reload count", 1, m_module.getFailedReloadCount());
+            Assert.assertTrue("Server factory not left with original key", m_sslCtxFactory.getAliases().contains("original"));
+            Assert.assertTrue("Client factory not rolled back", clientFactory.getAliases().contains("original"));
+            Assert.assertNotNull("Client factory unable to create engines", clientFactory.newSSLEngine());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            try {
+                clientFactory.stop();
+            } catch (Exception ex) {
+                // Ignore
+            }
+        }
+    }
+
+    @Test
+    public void testReloadNowAndAwaitReload() {
+        try {
+            // Nothing but an explicit reload picks up the new key store within the test
+            m_module.setDetectWriteCompletion(false);
+            m_module.setReloadDelaySec(60L);
+            m_module.start();
+            String original = ReloadSslKeysModule.fingerprint(
+                    (X509Certificate) TestKeyStores.load(m_keyStore).getCertificate("original"));
+            String renewed = ReloadSslKeysModule.fingerprint(
+                    (X509Certificate) TestKeyStores.load(m_newKeyStore).getCertificate("renewed"));
+
+            Assert.assertEquals("Served certificate not awaited at once", original,
+                                m_module.awaitReload(original).get(1, TimeUnit.SECONDS));
+            Assert.assertEquals("Unchanged reload not completed with served certificate", original,
+                                m_module.reloadNow().get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+            CompletableFuture<String> awaited = m_module.awaitReload(renewed.replace(":", "").toLowerCase());
+            Assert.assertFalse("Renewed certificate awaited before it was loaded", awaited.isDone());
+            Files.move(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            Assert.assertEquals("Reload not completed with renewed certificate", renewed,
+                                m_module.reloadNow().get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            Assert.assertTrue("Renewed key not live", m_sslCtxFactory.getAliases().contains("renewed"));
+            Assert.assertEquals("Await not completed with renewed certificate", renewed,
+                                awaited.get(1, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testReloadsStaggeredAcrossNodes() {
+        SslContextFactory.Server otherFactory = new SslContextFactory.Server();
+        ReloadSslKeysModule other = new ReloadSslKeysModule();
+        try {
+            // Two nodes watching the same key store share a single reload slot
+            String leaseDirectory = TEST_PATH_BASE + "leases";
+            otherFactory.setKeyStorePath(m_keyStore.getAbsolutePath());
+            otherFactory.setKeyStorePassword(TestKeyStores.STORE_PASSWORD);
+            otherFactory.start();
+            other.setSslContextFactory(otherFactory);
+            other.setReloadDelaySec(0L);
+            other.setKeyStorePassword(TestKeyStores.STORE_PASSWORD);
+            for (ReloadSslKeysModule module : Arrays.asList(m_module, other)) {
+                module.setReloadSpreadSec(60L);
+                module.setReloadMaxPercent(50);
+                module.setReloadLeaseDirectory(leaseDirectory);
+            }
+            m_module.setReloadNodeId("node-a");
+            other.setReloadNodeId("node-b");
+            m_module.start();
+            other.start();
+            Assert.assertEquals("Incorrect slot count", 1, m_module.getReloadStagger().getSlotCount());
+
+            Files.copy(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+            while (System.currentTimeMillis() < waitUntil &&
+                   ! m_sslCtxFactory.getAliases().contains("renewed") && ! otherFactory.getAliases().contains("renewed")) {
+                Thread.sleep(50);
+            }
+            Thread.sleep(2000);
+            boolean first = m_sslCtxFactory.getAliases().contains("renewed");
+            SslContextFactory waitingFactory = first ? otherFactory : m_sslCtxFactory;
+            ReloadSslKeysModule waiting = first ? other : m_module;
+            Assert.assertTrue("Neither node reloaded", first || otherFactory.getAliases().contains("renewed"));
+            Assert.assertTrue("Node reloaded without the slot", waitingFactory.getAliases().contains("original"));
+            Assert.assertTrue("Reloaded node should hold the slot", (first ? m_module : other).getReloadStagger().isHoldingLease());
+
+            // An explicit reload is not held back
+            waiting.reloadNow().get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            Assert.assertTrue("Explicit reload was staggered", waitingFactory.getAliases().contains("renewed"));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        } finally {
+            try {
+                other.stop();
+                otherFactory.stop();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Send a request to the control server, returning the status and body.
+     */
+    private static String[] control(final int port, final String method, final String path) throws Exception {
+        return control(port, method, path, null);
+    }
+
+    private static String[] control(final int port, final String method, final String path, final String token)
+            throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setRequestMethod(method);
+        if (token != null) {
+            connection.setRequestProperty(ReloadControlServer.TOKEN_HEADER, token);
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] body = new byte[4096];
+            int length = 0;
+            for (int read; (read = in.read(body, length, body.length - length)) > 0; ) {
+                length += read;
+            }
+            return new String[] {String.valueOf(status), new String(body, 0, length, StandardCharsets.UTF_8).trim()};
+        }
+    }
+
+    @Test
+    public void testControlServer() {
+        try {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            m_module.setDetectWriteCompletion(false);
+            m_module.setReloadDelaySec(60L);
+            m_module.setControlPort(port);
+            m_module.setControlToken("secret");
+            m_module.start();
+            Assert.assertEquals("Incorrect control port", port, m_module.getControlServer().getPort());
+            String original = ReloadSslKeysModule.fingerprint(
+                    (X509Certificate) TestKeyStores.load(m_keyStore).getCertificate("original"));
+            String renewed = ReloadSslKeysModule.fingerprint(
+                    (X509Certificate) TestKeyStores.load(m_newKeyStore).getCertificate("renewed"));
+
+            Assert.assertArrayEquals("Incorrect served fingerprint", new String[] {"200", original},
+                                     control(port, "GET", "/fingerprint"));
+            Assert.assertEquals("Await should time out", "504",
+                                control(port, "GET", "/await?timeoutSec=1&fingerprint=" + renewed)[0]);
+            Assert.assertEquals("Reload should require POST", "405", control(port, "GET", "/reload")[0]);
+            Assert.assertEquals("Await should require a fingerprint", "400", control(port, "GET", "/await")[0]);
+
+            Assert.assertEquals("Reload should require the token", "403", control(port, "POST", "/reload")[0]);
+            Assert.assertEquals("Reload should require the right token", "403",
+                                control(port, "POST", "/reload", "guess")[0]);
+
+            Files.move(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Assert.assertArrayEquals("Reload not answered with renewed fingerprint", new String[] {"200", renewed},
+                                     control(port, "POST", "/reload?timeoutSec=10", "secret"));
+            Assert.assertArrayEquals("Await not answered with renewed fingerprint", new String[] {"200", renewed},
+                                     control(port, "GET", "/await?timeoutSec=1&fingerprint=" + renewed));
+
+            m_module.stop();
+            Assert.assertNull("Control server not stopped", m_module.getControlServer());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Run a handshake against the factory, returning the client side of the session.
+     */
+    private SSLSession handshake(final SSLContext clientContext) throws Exception {
+        return TestHandshakes.handshake(clientContext, 
+                                        m_sslCtxFactory.newSSLEngine(TestHandshakes.HOST, TestHandshakes.PORT));
+    }
+
+    /**
+     * Wait for a fresh client to be presented with a different certificate.
+     */
+    private Certificate waitForNewCertificate(final Certificate current) throws Exception {
+        long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+        while (System.currentTimeMillis() < waitUntil) {
+            Certificate presented = handshake(TestHandshakes.newTrustAllClientContext()).getPeerCertificates()[0];
+            if (! presented.equals(current)) {
+                return presented;
+            }
+            Thread.sleep(50);
+        }
+        return current;
+    }
+
+    @Test
+    public void testPreserveSessionsCompatibleKeyStore() {
+        try {
+            File compatibleKeyStore = new File(TEST_PATH_BASE + "compatible-" + KEYSTORE_NAME);
+            TestKeyStores.generate(compatibleKeyStore, "original");
+
+            m_sslCtxFactory.setIncludeProtocols("TLSv1.2");
+            m_sslCtxFactory.reload(scf -> {});
+            m_module.setPreserveSessions(true);
+            m_module.start();
+            SSLContext liveContext = m_sslCtxFactory.getSslContext();
+
+            // Establish a session with the original certificate
+            SSLContext clientContext = TestHandshakes.newTrustAllClientContext();
+            SSLSession original = handshake(clientContext);
+            Certificate originalCert = original.getPeerCertificates()[0];
+
+            // Same alias and host names, but a new key and certificate
+            Files.copy(compatibleKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Certificate renewedCert = waitForNewCertificate(originalCert);
+            Assert.assertNotEquals("New certificate not presented", originalCert, renewedCert);
+            Assert.assertSame("SSLContext should not have been replaced", liveContext, m_sslCtxFactory.getSslContext());
+
+            // The client resumes its session from before the swap
+            SSLSession resumed = handshake(clientContext);
+            Assert.assertTrue("Session not resumed", Arrays.equals(original.getId(), resumed.getId()));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testPreserveSessionsIncompatibleKeyStore() {
+        try {
+            m_module.setPreserveSessions(true);
+            m_module.start();
+            SSLContext liveContext = m_sslCtxFactory.getSslContext();
+
+            // A different alias requires the factory to be rebuilt
+            Files.copy(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertTrue("Renewed key not loaded", waitForAlias("renewed"));
+            Assert.assertNotSame("SSLContext should have been replaced", liveContext, m_sslCtxFactory.getSslContext());
+            Assert.assertNotNull("Handshake failed", handshake(TestHandshakes.newTrustAllClientContext()));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testSessionHandOverRetiresOldSessions() {
+        try {
+            File compatibleKeyStore = new File(TEST_PATH_BASE + "compatible-" + KEYSTORE_NAME);
+            TestKeyStores.generate(compatibleKeyStore, "original");
+
+            m_sslCtxFactory.setIncludeProtocols("TLSv1.2");
+            m_sslCtxFactory.reload(scf -> {});
+            m_module.setPreserveSessions(true);
+            m_module.setSessionHandOverSec(1L);
+            m_module.start();
+
+            SSLContext clientContext = TestHandshakes.newTrustAllClientContext();
+            SSLSession original = handshake(clientContext);
+            Certificate originalCert = original.getPeerCertificates()[0];
+
+            Files.copy(compatibleKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            waitForNewCertificate(originalCert);
+
+            // Once the hand over window has passed the old session can no longer be resumed
+            Thread.sleep(3000);
+            SSLSession after = handshake(clientContext);
+            Assert.assertFalse("Old session should have been retired", Arrays.equals(original.getId(), after.getId()));
+            Assert.assertNotEquals("New certificate not presented", originalCert, after.getPeerCertificates()[0]);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testHandshakesLimitedAfterReload() {
+        try {
+            m_module.setHandshakeRateLimit(1L);
+            m_module.setHandshakeMaxWaitMs(0L);
+            m_module.start();
+
+            // Handshakes are not limited until a reload
+            handshake(TestHandshakes.newTrustAllClientContext());
+            handshake(TestHandshakes.newTrustAllClientContext());
+
+            Files.copy(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertTrue("Renewed key not loaded", waitForAlias("renewed"));
+            Thread.sleep(100);
+
+            Assert.assertNotNull("First handshake should be admitted", handshake(TestHandshakes.newTrustAllClientContext()));
+            try {
+                handshake(TestHandshakes.newTrustAllClientContext());
+                Assert.fail("Second handshake should have been shed");
+            } catch (SSLHandshakeException ex) {
+                // Expected
+            }
+            Assert.assertEquals("Incorrect shed count", 1, m_module.getHandshakeLimiter().getShedCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testPollingReload() {
+        try {
+            m_module.setWatchMode(ReloadSslKeysModule.WATCH_MODE_POLL);
+            m_module.setPollMinMs(50L);
+            m_module.setPollMaxMs(200L);
+            m_module.start();
+
+            Files.copy(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertTrue("Renewed key not loaded", waitForAlias("renewed"));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testMissedEventReloadedByExpiryCheck() {
+        try {
+            // Poll so rarely that the change is only found by the expiry check
+            m_module.setWatchMode(ReloadSslKeysModule.WATCH_MODE_POLL);
+            m_module.setPollMinMs(600000L);
+            m_module.setPollMaxMs(600000L);
+            m_module.setExpiryCheckMinSec(1L);
+            m_module.setExpiryCheckMaxSec(1L);
+            m_module.start();
+
+            Files.copy(m_newKeyStore.toPath(), m_keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertTrue("Renewed key not loaded", waitForAlias("renewed"));
+            Assert.assertEquals("Incorrect forced reload count", 1, m_module.getForcedReloadCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Wait for the factory to be serving a certificate with the specified CN under the alias.
+     */
+    private boolean waitForSubject(final String alias, final String cn) throws InterruptedException {
+        long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+        while (System.currentTimeMillis() < waitUntil) {
+            if (isServing(alias, cn)) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    private boolean isServing(final String alias, final String cn) {
+        X509 x509 = m_sslCtxFactory.getX509(alias);
+        return x509 != null && x509.getCertificate().getSubjectX500Principal().getName().equals("CN=" + cn);
+    }
+
+    @Test
+    public void testPemFilesLoaded() {
+        try {
+            File chainFile = new File(TEST_PATH_BASE + "fullchain.pem");
+            File keyFile = new File(TEST_PATH_BASE + "privkey.pem");
+            TestKeyStores.exportPem(m_newKeyStore, "renewed", chainFile, keyFile);
+
+            m_module.setKeyStorePassword(null);
+            m_module.setCertificateChainPath(chainFile.getPath());
+            m_module.setPrivateKeyPath(keyFile.getPath());
+            m_module.start();
+
+            Assert.assertEquals("PEM key not loaded", 
+                                Collections.singleton(ReloadSslKeysModule.DEFAULT_PEM_ALIAS), 
+                                m_sslCtxFactory.getAliases());
+            Assert.assertTrue("PEM certificate not served", isServing(ReloadSslKeysModule.DEFAULT_PEM_ALIAS, "renewed"));
+            Assert.assertNotNull("Handshake failed", handshake(TestHandshakes.newTrustAllClientContext()));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testPemFilesReloadedTogether() {
+        try {
+            File chainFile = new File(TEST_PATH_BASE + "fullchain.pem");
+            File keyFile = new File(TEST_PATH_BASE + "privkey.pem");
+            File newChainFile = new File(TEST_PATH_BASE + "new-fullchain.pem");
+            File newKeyFile = new File(TEST_PATH_BASE + "new-privkey.pem");
+            TestKeyStores.exportPem(m_keyStore, "original", chainFile, keyFile);
+            TestKeyStores.exportPem(m_newKeyStore, "renewed", newChainFile, newKeyFile);
+
+            m_module.setCertificateChainPath(chainFile.getPath());
+            m_module.setPrivateKeyPath(keyFile.getPath());
+            m_module.start();
+            String alias = ReloadSslKeysModule.DEFAULT_PEM_ALIAS;
+            Assert.assertTrue("Original certificate not served", isServing(alias, "original"));
+
+            // A new chain without its key does not match, the original keys are kept
+            Files.copy(newChainFile.toPath(), chainFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Thread.sleep(2000);
+            Assert.assertTrue("Original certificate no longer served", isServing(alias, "original"));
+
+            // Once the key follows, the pair is loaded
+            Files.copy(newKeyFile.toPath(), keyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertTrue("Renewed certificate not served", waitForSubject(alias, "renewed"));
+            Assert.assertNotNull("Handshake failed", handshake(TestHandshakes.newTrustAllClientContext()));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Get the certificate the factory presents to a client asking for the host.
+     */
+    private X509Certificate presented(final String host) throws Exception {
+        SSLSession session = TestHandshakes.handshake(TestHandshakes.newTrustAllClientContext(),
+                m_sslCtxFactory.newSSLEngine(host, TestHandshakes.PORT), host, TestHandshakes.PORT);
+        return (X509Certificate) session.getPeerCertificates()[0];
+    }
+
+    @Test
+    public void testCertificateDirectory() {
+        try {
+            File hosts = new File(TEST_PATH_BASE + "hosts.p12");
+            File renewed = new File(TEST_PATH_BASE + "renewed.p12");
+            TestKeyStores.generate(hosts, "a.example.com", "b.example.com");
+            TestKeyStores.generate(renewed, "b.example.com");
+            File certDir = new File(TEST_PATH_BASE + "live");
+            for (String host : new String[] {"a.example.com", "b.example.com"}) {
+                File entry = new File(certDir, host);
+                entry.mkdirs();
+                TestKeyStores.exportPem(hosts, host, new File(entry, CertificateDirectory.CHAIN_FILE),
+                                        new File(entry, CertificateDirectory.KEY_FILE));
+            }
+
+            m_module.setCertificateDirectory(certDir.getPath());
+            m_module.start();
+            SSLContext liveContext = m_sslCtxFactory.getSslContext();
+            X509Certificate a = presented("a.example.com");
+            X509Certificate b = presented("b.example.com");
+            Assert.assertEquals("Incorrect certificate for a", "CN=a.example.com", a.getSubjectX500Principal().getName());
+            Assert.assertEquals("Incorrect certificate for b", "CN=b.example.com", b.getSubjectX500Principal().getName());
+
+            // Replacing one certificate leaves the SSLContext in place
+            File entry = new File(certDir, "b.example.com");
+            File chain = new File(TEST_PATH_BASE + "renewed-fullchain.pem");
+            File key = new File(TEST_PATH_BASE + "renewed-privkey.pem");
+            TestKeyStores.exportPem(renewed, "b.example.com", chain, key);
+            Files.copy(chain.toPath(), new File(entry, CertificateDirectory.CHAIN_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(key.toPath(), new File(entry, CertificateDirectory.KEY_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+            while (b.equals(presented("b.example.com")) && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(50);
+            }
+            X509Certificate renewedB = presented("b.example.com");
+            Assert.assertNotEquals("Renewed certificate not presented", b, renewedB);
+            Assert.assertEquals("Incorrect renewed certificate", "CN=b.example.com", renewedB.getSubjectX500Principal().getName());
+            Assert.assertEquals("Other certificate should be unchanged", a, presented("a.example.com"));
+            Assert.assertSame("SSLContext should not have been replaced", liveContext, m_sslCtxFactory.getSslContext());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Create a client context presenting the key in the key store and trusting every server.
+     */
+    private static SSLContext newClientContext(final File keyStore) throws Exception {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(TestKeyStores.load(keyStore), TestKeyStores.STORE_PASSWORD.toCharArray());
+        return TestHandshakes.newTrustAllClientContext(kmf.getKeyManagers());
+    }
+
+    private boolean isClientAccepted(final SSLContext clientContext) throws Exception {
+        try {
+            handshake(clientContext);
+            return true;
+        } catch (SSLException ex) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testTrustStoreReloaded() {
+        try {
+            File client = new File(TEST_PATH_BASE + "client.p12");
+            File other = new File(TEST_PATH_BASE + "other.p12");
+            TestKeyStores.generate(client, "client");
+            TestKeyStores.generate(other, "other");
+            File trustStore = new File(TEST_PATH_BASE + "trust.p12");
+            TestKeyStores.writeTrustStore(trustStore, TestKeyStores.load(other).getCertificate("other"));
+
+            m_sslCtxFactory.stop();
+            m_sslCtxFactory.setTrustStorePath(trustStore.getAbsolutePath());
+            m_sslCtxFactory.setTrustStorePassword(TestKeyStores.STORE_PASSWORD);
+            m_sslCtxFactory.setNeedClientAuth(true);
+            m_sslCtxFactory.start();
+
+            m_module.setWatchTrustStore(true);
+            m_module.setTrustStorePassword(TestKeyStores.STORE_PASSWORD);
+            m_module.setTrustReloadDelaySec(0L);
+            m_module.start();
+            SSLContext liveContext = m_sslCtxFactory.getSslContext();
+            SSLContext clientContext = newClientContext(client);
+            Assert.assertFalse("Untrusted client should be rejected", isClientAccepted(clientContext));
+            Assert.assertTrue("Trusted client should be accepted", isClientAccepted(newClientContext(other)));
+
+            // Trust the client as well, without touching the keys
+            TestKeyStores.writeTrustStore(trustStore, TestKeyStores.load(other).getCertificate("other"),
+                                          TestKeyStores.load(client).getCertificate("client"));
+            long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+            while (m_module.getTrustReloadCount() == 0 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals("Trust store not reloaded", 1, m_module.getTrustReloadCount());
+            Assert.assertTrue("Newly trusted client should be accepted", isClientAccepted(clientContext));
+            Assert.assertSame("SSLContext should not have been replaced", liveContext, m_sslCtxFactory.getSslContext());
+            Assert.assertTrue("Original key no longer loaded", m_sslCtxFactory.getAliases().contains("original"));
+
+            // A corrupt trust store keeps the current trust
+            Files.write(trustStore.toPath(), "not a trust store".getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(2000);
+            Assert.assertTrue("Trusted client should still be accepted", isClientAccepted(clientContext));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
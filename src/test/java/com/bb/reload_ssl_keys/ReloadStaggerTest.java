@@ -0,0 +1,264 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReloadStaggerTest {
+    final static String TEST_PATH_BASE = "work/";
+
+    private Path m_leaseDirectory;
+    private final List<ReloadStagger> m_staggers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (! testDir.exists()) {
+            testDir.mkdirs();
+        }
+        m_leaseDirectory = new File(TEST_PATH_BASE + "leases").toPath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (ReloadStagger stagger : m_staggers) {
+            stagger.stop();
+        }
+        m_staggers.clear();
+
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    /**
+     * Start a stagger for each of the nodes, claiming slots in the lease directory.
+     */
+    private List<ReloadStagger> startNodes(final int nodes, final long spreadMillis, final int maxPercent)
+            throws Exception {
+        List<ReloadStagger> staggers = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            ReloadStagger stagger = new ReloadStagger("node-" + i, spreadMillis, maxPercent, m_leaseDirectory);
+            m_staggers.add(stagger);
+            stagger.start();
+            staggers.add(stagger);
+        }
+        return staggers;
+    }
+
+    @Test
+    public void testOffsetsSpreadOverWindow() {
+        try {
+            Map<Long, Integer> slots = new HashMap<>();
+            for (int i = 0; i < 100; i++) {
+                ReloadStagger stagger = new ReloadStagger("node-" + i, 10000L, 20, null);
+                long offset = stagger.getOffsetMillis();
+                Assert.assertEquals("Offset should be deterministic", offset,
+                                    new ReloadStagger("node-" + i, 10000L, 20, null).getOffsetMillis());
+                Assert.assertEquals("Offset should be the start of a slot", 0L, offset % 2000L);
+                slots.merge(offset, 1, Integer::sum);
+
+                long delay = stagger.delayMillis(System.nanoTime());
+                Assert.assertTrue("Delay " + delay + " should be the offset " + offset,
+                                  delay <= offset && delay >= offset - 100L);
+            }
+            Assert.assertEquals("Nodes should be spread over every slot", 5, slots.size());
+            for (Map.Entry<Long, Integer> slot : slots.entrySet()) {
+                Assert.assertTrue("Too many nodes in slot at " + slot.getKey() + "ms", slot.getValue() <= 40);
+            }
+
+            ReloadStagger stagger = new ReloadStagger("node-1", 10000L, 20, null);
+            Assert.assertEquals("Node should reload once its offset has passed", 0L,
+                                stagger.delayMillis(System.nanoTime() - 10000000000L));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testLeasesLimitConcurrentReloads() {
+        try {
+            List<ReloadStagger> staggers = startNodes(10, 60000L, 20);
+            Assert.assertEquals("Incorrect slot count", 2, staggers.get(0).getSlotCount());
+
+            long changed = System.nanoTime();
+            List<ReloadStagger> reloading = new ArrayList<>();
+            for (ReloadStagger stagger : staggers) {
+                long delay = stagger.delayMillis(changed);
+                if (delay == 0L) {
+                    reloading.add(stagger);
+                } else {
+                    Assert.assertTrue("Incorrect poll delay " + delay, delay <= ReloadStagger.LEASE_POLL_MILLIS);
+                    Assert.assertFalse("Waiting node should hold no lease", stagger.isHoldingLease());
+                }
+            }
+            Assert.assertEquals("Incorrect number of nodes reloading", 2, reloading.size());
+            Assert.assertTrue("Reloading node should hold a lease", reloading.get(0).isHoldingLease());
+
+            // A failed reload frees its slot at once
+            reloading.get(0).reloaded(false);
+            Assert.assertFalse("Lease not released", reloading.get(0).isHoldingLease());
+            int claimed = 0;
+            for (ReloadStagger stagger : staggers) {
+                if (! reloading.contains(stagger) && stagger.delayMillis(changed) == 0L) {
+                    claimed++;
+                }
+            }
+            Assert.assertEquals("Freed slot should be claimed once", 1, claimed);
+
+            for (ReloadStagger stagger : staggers) {
+                stagger.stop();
+            }
+            try (Stream<Path> files = Files.list(m_leaseDirectory)) {
+                Assert.assertEquals("Leases and registrations not removed", 0L, files.count());
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testLeaseHeldAfterReload() {
+        try {
+            List<ReloadStagger> staggers = startNodes(2, 2000L, 50);
+            ReloadStagger first = staggers.get(0);
+            ReloadStagger second = staggers.get(1);
+            Assert.assertEquals("Incorrect hold", 1000L, first.getHoldMillis());
+
+            long changed = System.nanoTime();
+            Assert.assertEquals("First node should claim the slot", 0L, first.delayMillis(changed));
+            first.reloaded(true);
+            Assert.assertTrue("Lease should be held while clients reconnect", first.isHoldingLease());
+            Assert.assertTrue("Second node should wait", second.delayMillis(changed) > 0L);
+
+            Thread.sleep(first.getHoldMillis() + 500L);
+            Assert.assertFalse("Lease not released after the hold", first.isHoldingLease());
+            Assert.assertEquals("Second node should claim the freed slot", 0L, second.delayMillis(changed));
+
+            // Once the window has passed a node reloads without a slot
+            Assert.assertEquals("Node should reload when the window has passed", 0L,
+                                first.delayMillis(System.nanoTime() - 3000000000L));
+            Assert.assertFalse("Node reloading regardless should hold no lease", first.isHoldingLease());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testAbandonedLeasesBroken() {
+        try {
+            Files.createDirectories(m_leaseDirectory);
+            Path stale = m_leaseDirectory.resolve(ReloadStagger.LEASE_PREFIX + "0" + ReloadStagger.LEASE_SUFFIX);
+            Files.write(stale, "dead-node".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - 60000L));
+
+            ReloadStagger stagger = startNodes(1, 10000L, 10).get(0);
+            Assert.assertEquals("Stale lease should be broken", 0L, stagger.delayMillis(System.nanoTime()));
+            Assert.assertEquals("Lease not claimed", "node-0",
+                                new String(Files.readAllBytes(stale), StandardCharsets.UTF_8));
+
+            // A restarted node releases the lease it held before it stopped
+            ReloadStagger restarted = new ReloadStagger("node-0", 10000L, 10, m_leaseDirectory);
+            m_staggers.add(restarted);
+            restarted.start();
+            Assert.assertFalse("Lease of the previous run not released", Files.exists(stale));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testStaleLeaseBrokenOnce() {
+        try {
+            List<ReloadStagger> staggers = startNodes(8, 10000L, 10);
+            Assert.assertEquals("Incorrect slot count", 1, staggers.get(0).getSlotCount());
+            Path stale = m_leaseDirectory.resolve(ReloadStagger.LEASE_PREFIX + "0" + ReloadStagger.LEASE_SUFFIX);
+            Files.write(stale, "dead-node".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - 60000L));
+
+            // Every node finds the lease stale at once, only one may take the slot
+            long changed = System.nanoTime();
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger claimed = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (ReloadStagger stagger : staggers) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        if (stagger.delayMillis(changed) == 0L) {
+                            claimed.incrementAndGet();
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join(10000L);
+            }
+
+            Assert.assertEquals("Stale lease should be claimed once", 1, claimed.get());
+            try (Stream<Path> files = Files.list(m_leaseDirectory)) {
+                Assert.assertEquals("Broken leases not removed", 0L,
+                                    files.filter(file -> file.toString().endsWith(ReloadStagger.BROKEN_SUFFIX)).count());
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testFreshLeaseNotBroken() {
+        try {
+            List<ReloadStagger> staggers = startNodes(2, 10000L, 50);
+            ReloadStagger first = staggers.get(0);
+            ReloadStagger second = staggers.get(1);
+            Assert.assertEquals("Incorrect slot count", 1, first.getSlotCount());
+            Path lease = m_leaseDirectory.resolve(ReloadStagger.LEASE_PREFIX + "0" + ReloadStagger.LEASE_SUFFIX);
+            Files.write(lease, "dead-node".getBytes(StandardCharsets.UTF_8));
+            long modified = System.currentTimeMillis() - 60000L;
+            Files.setLastModifiedTime(lease, FileTime.fromMillis(modified));
+
+            // Both nodes find the lease stale, the second breaks it and claims the slot first
+            long changed = System.nanoTime();
+            Assert.assertEquals("Second node should claim the slot", 0L, second.delayMillis(changed));
+            Assert.assertTrue("Second node should hold the lease", second.isHoldingLease());
+
+            // The first node, going on from the same stale lease, must leave the fresh one alone
+            Assert.assertFalse("Fresh lease broken", first.breakLease(lease, modified, "dead-node"));
+            Assert.assertEquals("Fresh lease not kept", "node-1",
+                                new String(Files.readAllBytes(lease), StandardCharsets.UTF_8));
+            Assert.assertTrue("First node should wait for the slot", first.delayMillis(changed) > 0L);
+            try (Stream<Path> files = Files.list(m_leaseDirectory)) {
+                Assert.assertEquals("Markers not removed", 0L,
+                                    files.filter(file -> file.toString().endsWith(ReloadStagger.BROKEN_SUFFIX)).count());
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReloadableKeyManagerFactoryTest {
+    final static String TEST_PATH_BASE = "work/";
+
+    private KeyStore m_keyStore;
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (! testDir.exists()) {
+            testDir.mkdirs();
+        }
+        File keyStore = new File(TEST_PATH_BASE + "keystore.p12");
+        TestKeyStores.generate(keyStore, "original");
+        m_keyStore = TestKeyStores.load(keyStore);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    private static KeyManager[] init(final String algorithm, final KeyStore keyStore) throws Exception {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(algorithm);
+        kmf.init(keyStore, TestKeyStores.STORE_PASSWORD.toCharArray());
+        return kmf.getKeyManagers();
+    }
+
+    @Test
+    public void testUnboundKeyStoreUsesOriginalAlgorithm() {
+        try {
+            String defaultAlgorithm = KeyManagerFactory.getDefaultAlgorithm();
+            String other = "PKIX".equalsIgnoreCase(defaultAlgorithm) ? "SunX509" : "PKIX";
+            Assert.assertEquals("Default algorithm should use the base name", ReloadableKeyManagerFactory.ALGORITHM,
+                                ReloadableKeyManagerFactory.algorithmFor(defaultAlgorithm));
+
+            String algorithm = ReloadableKeyManagerFactory.algorithmFor(other);
+            Assert.assertNotEquals("Other algorithm should have its own name", ReloadableKeyManagerFactory.ALGORITHM,
+                                   algorithm);
+            Assert.assertEquals("Algorithm name should be stable", algorithm, ReloadableKeyManagerFactory.algorithmFor(other));
+
+            X509ExtendedKeyManager expected = (X509ExtendedKeyManager) init(other, m_keyStore)[0];
+            KeyManager keyManager = init(algorithm, m_keyStore)[0];
+            Assert.assertTrue("Not a reloadable key manager", keyManager instanceof ReloadableKeyManager);
+            Assert.assertEquals("Unbound key store not delegated to the original algorithm", expected.getClass(),
+                                ((ReloadableKeyManager) keyManager).getDelegate().getClass());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBindingDoesNotHoldKeyManager() {
+        try {
+            String algorithm = ReloadableKeyManagerFactory.algorithmFor(KeyManagerFactory.getDefaultAlgorithm());
+            ReloadableKeyManager keyManager =
+                    new ReloadableKeyManager((X509ExtendedKeyManager) init("PKIX", m_keyStore)[0]);
+            ReloadableKeyManagerFactory.bind(m_keyStore, keyManager);
+            Assert.assertSame("Bound key manager not produced", keyManager, init(algorithm, m_keyStore)[0]);
+
+            // Once the key manager is dropped the binding must not keep it, or its key store, alive
+            WeakReference<ReloadableKeyManager> released = new WeakReference<>(keyManager);
+            keyManager = null;
+            for (int i = 0; i < 50 && released.get() != null; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            Assert.assertNull("Binding kept the key manager reachable", released.get());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
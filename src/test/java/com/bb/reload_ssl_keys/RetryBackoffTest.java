@@ -0,0 +1,39 @@
+package com.bb.reload_ssl_keys;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryBackoffTest {
+
+    @Test
+    public void testDelaysDoubleUpToCap() {
+        RetryBackoff backoff = new RetryBackoff(100L, 1000L);
+        long[] expected = {100L, 200L, 400L, 800L, 1000L, 1000L};
+        for (int n = 0; n < expected.length; n++) {
+            long delay = backoff.nextDelayMillis();
+            Assert.assertTrue("Delay " + delay + " above backoff " + expected[n], delay <= expected[n]);
+            Assert.assertTrue("Delay " + delay + " jittered below half of " + expected[n], delay >= expected[n] / 2);
+        }
+        Assert.assertEquals("Incorrect attempts", expected.length, backoff.getAttempts());
+    }
+
+    @Test
+    public void testManyFailuresDoNotOverflow() {
+        RetryBackoff backoff = new RetryBackoff(1000L, 300000L);
+        for (int n = 0; n < 100; n++) {
+            long delay = backoff.nextDelayMillis();
+            Assert.assertTrue("Delay " + delay + " out of range", delay > 0 && delay <= 300000L);
+        }
+    }
+
+    @Test
+    public void testResetOnSuccess() {
+        RetryBackoff backoff = new RetryBackoff(100L, 1000L);
+        for (int n = 0; n < 5; n++) {
+            backoff.nextDelayMillis();
+        }
+        backoff.reset();
+        Assert.assertEquals("Attempts not reset", 0, backoff.getAttempts());
+        Assert.assertTrue("Delay not reset", backoff.nextDelayMillis() <= 100L);
+    }
+}
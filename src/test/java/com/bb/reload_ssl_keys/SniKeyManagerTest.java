@@ -0,0 +1,152 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SniKeyManagerTest {
+    final static String TEST_PATH_BASE = "work/";
+
+    private static KeyStore keyStore;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (! testDir.exists()) {
+            testDir.mkdirs();
+        }
+
+        File file = new File(TEST_PATH_BASE + "hosts.p12");
+        TestKeyStores.generate(file, "a.example.com", "b.example.com", "*.wild.example.com");
+        keyStore = TestKeyStores.load(file);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    private static void put(final SniKeyManager keyManager, final String alias, final String entry)
+            throws Exception {
+        PrivateKey key = (PrivateKey) keyStore.getKey(entry, TestKeyStores.STORE_PASSWORD.toCharArray());
+        Certificate[] chain = keyStore.getCertificateChain(entry);
+        keyManager.put(alias, key, Arrays.copyOf(chain, chain.length, X509Certificate[].class));
+    }
+
+    /**
+     * Get the CN of the certificate presented to a client asking for the host.
+     */
+    private static String presented(final SniKeyManager keyManager, final String host) throws Exception {
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(new KeyManager[] {keyManager}, null, null);
+        X509Certificate certificate = (X509Certificate) TestHandshakes.handshake(
+                TestHandshakes.newTrustAllClientContext(), serverContext.createSSLEngine(), host, TestHandshakes.PORT)
+                .getPeerCertificates()[0];
+        return certificate.getSubjectX500Principal().getName().substring("CN=".length());
+    }
+
+    @Test
+    public void testSelectsBySniHost() {
+        try {
+            SniKeyManager keyManager = new SniKeyManager(null);
+            put(keyManager, "a", "a.example.com");
+            put(keyManager, "b", "b.example.com");
+            put(keyManager, "wild", "*.wild.example.com");
+
+            Assert.assertEquals("Incorrect certificate for a", "a.example.com", presented(keyManager, "a.example.com"));
+            Assert.assertEquals("Incorrect certificate for b", "b.example.com", presented(keyManager, "b.example.com"));
+            Assert.assertEquals("Incorrect wildcard certificate", "*.wild.example.com",
+                                presented(keyManager, "host.wild.example.com"));
+
+            // Unknown hosts are given the first certificate loaded
+            Assert.assertEquals("Incorrect fallback certificate", "a.example.com", presented(keyManager, "c.example.com"));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testDefaultAlias() {
+        try {
+            SniKeyManager keyManager = new SniKeyManager("b");
+            put(keyManager, "a", "a.example.com");
+            put(keyManager, "b", "b.example.com");
+
+            Assert.assertEquals("Incorrect default certificate", "b.example.com", presented(keyManager, "c.example.com"));
+            Assert.assertEquals("Incorrect certificate for a", "a.example.com", presented(keyManager, "a.example.com"));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        try {
+            SniKeyManager keyManager = new SniKeyManager(null);
+            put(keyManager, "a", "a.example.com");
+            put(keyManager, "b", "b.example.com");
+
+            // The alias now serves a different host, its old host falls back
+            put(keyManager, "b", "*.wild.example.com");
+            Assert.assertEquals("Replaced certificate not served", "*.wild.example.com",
+                                presented(keyManager, "host.wild.example.com"));
+            Assert.assertEquals("Old host should fall back", "a.example.com", presented(keyManager, "b.example.com"));
+            Assert.assertEquals("Incorrect alias count", 2, keyManager.size());
+
+            Assert.assertTrue("Alias should have been removed", keyManager.remove("a"));
+            Assert.assertFalse("Alias should already be removed", keyManager.remove("a"));
+            Assert.assertNull("Removed alias should have no key", keyManager.getPrivateKey("a"));
+            Assert.assertEquals("Fallback should move to the remaining alias", "*.wild.example.com",
+                                presented(keyManager, "a.example.com"));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testEarliestExpiry() {
+        try {
+            SniKeyManager keyManager = new SniKeyManager(null);
+            Assert.assertEquals("Empty key manager has no expiry", Long.MAX_VALUE, keyManager.getEarliestExpiry());
+
+            put(keyManager, "a", "a.example.com");
+            put(keyManager, "b", "b.example.com");
+            long a = keyManager.getCertificate("a").getNotAfter().getTime();
+            long b = keyManager.getCertificate("b").getNotAfter().getTime();
+            Assert.assertEquals("Incorrect expiry of a", a, keyManager.getExpiry("a"));
+            Assert.assertEquals("Incorrect earliest expiry", Math.min(a, b), keyManager.getEarliestExpiry());
+
+            // Replacing an alias drops the expiry of the certificate it held
+            put(keyManager, "a", "*.wild.example.com");
+            long wild = keyManager.getCertificate("a").getNotAfter().getTime();
+            Assert.assertEquals("Incorrect earliest expiry after replace", Math.min(wild, b),
+                                keyManager.getEarliestExpiry());
+
+            keyManager.remove("b");
+            Assert.assertEquals("Incorrect earliest expiry after remove", wild, keyManager.getEarliestExpiry());
+            keyManager.remove("a");
+            Assert.assertEquals("Removed alias should have no expiry", Long.MAX_VALUE, keyManager.getExpiry("a"));
+            Assert.assertEquals("Empty key manager has no expiry", Long.MAX_VALUE, keyManager.getEarliestExpiry());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
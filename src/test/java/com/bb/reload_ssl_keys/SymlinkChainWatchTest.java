@@ -0,0 +1,138 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SymlinkChainWatchTest {
+    final static String TEST_PATH_BASE = "work/";
+    final static String TEST_FILE_NAME = "keystore.p12";
+
+    private Path m_baseDir;
+    private final Semaphore m_changes = new Semaphore(0);
+    private SymlinkChainWatch m_watch = null;
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (! testDir.exists()) {
+            testDir.mkdirs();
+        }
+        m_baseDir = testDir.toPath().toAbsolutePath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_watch != null) {
+            m_watch.cancel();
+        }
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    private static Path write(final Path file, final String content) throws Exception {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Atomically point a link at a new target, the way certbot and Kubernetes do.
+     */
+    private static void relink(final Path link, final Path target) throws Exception {
+        Path tempLink = link.resolveSibling(link.getFileName() + "_tmp");
+        Files.createSymbolicLink(tempLink, target);
+        Files.move(tempLink, link, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Create a Kubernetes style secret volume, with the key file linked through ..data.
+     */
+    private Path createSecretVolume() throws Exception {
+        Path volume = m_baseDir.resolve("secret");
+        write(volume.resolve("..2024_01_01").resolve(TEST_FILE_NAME), "first");
+        Files.createSymbolicLink(volume.resolve("..data"), Paths.get("..2024_01_01"));
+        return Files.createSymbolicLink(volume.resolve(TEST_FILE_NAME), Paths.get("..data", TEST_FILE_NAME));
+    }
+
+    @Test
+    public void testKubernetesDataSwap() {
+        try {
+            Path keyFile = createSecretVolume();
+            m_watch = new SymlinkChainWatch(keyFile, (path, kind) -> m_changes.release());
+            Assert.assertEquals("Incorrect target", m_baseDir.resolve("secret/..2024_01_01/" + TEST_FILE_NAME), 
+                                m_watch.getTarget());
+            Assert.assertEquals("Links and target should be watched", 3, m_watch.getWatchedPaths().size());
+
+            // Swap ..data over to a new directory
+            Path volume = keyFile.getParent();
+            write(volume.resolve("..2024_02_01").resolve(TEST_FILE_NAME), "second");
+            relink(volume.resolve("..data"), Paths.get("..2024_02_01"));
+
+            Assert.assertTrue("Swap of ..data not seen", m_changes.tryAcquire(5, TimeUnit.SECONDS));
+            Assert.assertEquals("Target not updated", m_baseDir.resolve("secret/..2024_02_01/" + TEST_FILE_NAME), 
+                                m_watch.getTarget());
+
+            // Writes to the new target are seen
+            m_changes.drainPermits();
+            write(volume.resolve("..2024_02_01").resolve(TEST_FILE_NAME), "third");
+            Assert.assertTrue("Write to the new target not seen", m_changes.tryAcquire(5, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testCertbotLiveLink() {
+        try {
+            Path archive = m_baseDir.resolve("archive/example.com");
+            Path live = m_baseDir.resolve("live/example.com");
+            write(archive.resolve("keystore1.p12"), "first");
+            Files.createDirectories(live);
+            Path keyFile = Files.createSymbolicLink(live.resolve(TEST_FILE_NAME), 
+                                                    Paths.get("../../archive/example.com/keystore1.p12"));
+
+            m_watch = new SymlinkChainWatch(keyFile, (path, kind) -> m_changes.release());
+            Assert.assertEquals("Incorrect target", archive.resolve("keystore1.p12"), m_watch.getTarget());
+
+            // Renewal writes a new archive file and re-points the live link
+            write(archive.resolve("keystore2.p12"), "second");
+            relink(keyFile, Paths.get("../../archive/example.com/keystore2.p12"));
+
+            Assert.assertTrue("Renewal not seen", m_changes.tryAcquire(5, TimeUnit.SECONDS));
+            Assert.assertEquals("Target not updated", archive.resolve("keystore2.p12"), m_watch.getTarget());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnchangedTargetIgnored() {
+        try {
+            Path keyFile = createSecretVolume();
+            m_watch = new SymlinkChainWatch(keyFile, (path, kind) -> m_changes.release());
+
+            // Re-point ..data at the directory it already resolves to
+            relink(keyFile.getParent().resolve("..data"), Paths.get("..2024_01_01"));
+
+            Assert.assertFalse("Link change with the same target should be ignored", 
+                               m_changes.tryAcquire(1, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.bb.reload_ssl_keys;
+
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Helper for tests which need to run TLS handshakes.  The handshakes are run entirely in
+ * memory between a client and a server SSLEngine by the {@link HandshakeWarmer}.
+ */
+public class TestHandshakes {
+    final static String HOST = "localhost";
+    final static int PORT = 8443;
+
+    /**
+     * Create a client SSLContext which trusts every server certificate.
+     */
+    public static SSLContext newTrustAllClientContext() throws Exception {
+        return TestHandshakes.newTrustAllClientContext(null);
+    }
+
+    /**
+     * Create a client SSLContext which trusts every server certificate and presents the
+     * certificates of the key managers when asked for one.
+     */
+    public static SSLContext newTrustAllClientContext(final KeyManager[] keyManagers) throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers, new TrustManager[] {new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return context;
+    }
+
+    /**
+     * Run a handshake between a new client engine from the client context and the server
+     * engine, returning the client's view of the session.
+     */
+    public static SSLSession handshake(final SSLContext clientContext, final SSLEngine server)
+            throws Exception {
+        return TestHandshakes.handshake(clientContext, server, HOST, PORT);
+    }
+
+    /**
+     * Run a handshake from a client engine for the specified peer.  Clients only resume
+     * sessions established with the same peer host and port.
+     */
+    public static SSLSession handshake(final SSLContext clientContext, final SSLEngine server,
+                                       final String peerHost, final int peerPort)
+            throws Exception {
+        SSLEngine client = clientContext.createSSLEngine(peerHost, peerPort);
+        client.setUseClientMode(true);
+        server.setUseClientMode(false);
+
+        HandshakeWarmer.handshake(client, server);
+        return client.getSession();
+    }
+}
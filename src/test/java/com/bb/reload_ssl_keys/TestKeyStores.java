@@ -0,0 +1,207 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.Assert;
+
+/**
+ * Helper for tests which need real key stores.  Key stores are generated with the keytool
+ * of the running JDK so the tests run fully offline.
+ */
+public class TestKeyStores {
+    final static String STORE_PASSWORD = "storepw";
+    final static String STORE_TYPE = "PKCS12";
+
+    /**
+     * Generate a PKCS12 key store holding a self-signed EC key for each of the aliases.
+     *
+     * @param keyStore The key store file to create or add to
+     * @param aliases The aliases to generate, each alias is also used as the certificate CN
+     */
+    public static void generate(final File keyStore, final String... aliases)
+            throws IOException, InterruptedException {
+        for (String alias : aliases) {
+            TestKeyStores.keytool("-genkeypair", "-alias", alias,
+                                  "-keyalg", "EC", "-groupname", "secp256r1",
+                                  "-dname", "CN=" + alias, "-validity", "30",
+                                  "-storetype", STORE_TYPE, "-keystore", keyStore.getAbsolutePath(),
+                                  "-storepass", STORE_PASSWORD, "-keypass", STORE_PASSWORD);
+        }
+    }
+
+    /**
+     * Generate a PKCS12 key store holding a self-signed RSA key for the alias.
+     */
+    public static void generateRsa(final File keyStore, final String alias)
+            throws IOException, InterruptedException {
+        TestKeyStores.keytool("-genkeypair", "-alias", alias, "-keyalg", "RSA", "-keysize", "2048",
+                              "-dname", "CN=" + alias, "-validity", "30",
+                              "-storetype", STORE_TYPE, "-keystore", keyStore.getAbsolutePath(),
+                              "-storepass", STORE_PASSWORD, "-keypass", STORE_PASSWORD);
+    }
+
+    /**
+     * Generate a PKCS12 key store holding a self-signed EC certificate authority.
+     */
+    public static void generateCa(final File keyStore, final String alias)
+            throws IOException, InterruptedException {
+        TestKeyStores.keytool("-genkeypair", "-alias", alias,
+                              "-keyalg", "EC", "-groupname", "secp256r1", "-ext", "bc:c",
+                              "-dname", "CN=" + alias, "-validity", "30",
+                              "-storetype", STORE_TYPE, "-keystore", keyStore.getAbsolutePath(),
+                              "-storepass", STORE_PASSWORD, "-keypass", STORE_PASSWORD);
+    }
+
+    /**
+     * Generate an EC key whose certificate is signed by a certificate authority, adding it to
+     * a PKCS12 key store along with the authority's certificate.
+     *
+     * @param keyStore The key store file to create or add to
+     * @param alias The alias to generate, also used as the certificate CN
+     * @param caKeyStore The key store holding the certificate authority
+     * @param caAlias The alias of the certificate authority
+     */
+    public static void generateSigned(final File keyStore, final String alias,
+                                      final File caKeyStore, final String caAlias)
+            throws Exception {
+        TestKeyStores.generate(keyStore, alias);
+        File request = new File(keyStore.getAbsolutePath() + "." + alias + ".csr");
+        File signed = new File(keyStore.getAbsolutePath() + "." + alias + ".crt");
+        File caCertificate = new File(keyStore.getAbsolutePath() + "." + caAlias + ".crt");
+        TestKeyStores.keytool("-certreq", "-alias", alias, "-file", request.getAbsolutePath(),
+                              "-keystore", keyStore.getAbsolutePath(), "-storepass", STORE_PASSWORD);
+        TestKeyStores.keytool("-gencert", "-alias", caAlias, "-infile", request.getAbsolutePath(),
+                              "-outfile", signed.getAbsolutePath(), "-validity", "30",
+                              "-keystore", caKeyStore.getAbsolutePath(), "-storepass", STORE_PASSWORD);
+        Files.write(caCertificate.toPath(), TestKeyStores.load(caKeyStore).getCertificate(caAlias).getEncoded());
+        if (! TestKeyStores.load(keyStore).containsAlias(caAlias)) {
+            TestKeyStores.keytool("-importcert", "-noprompt", "-alias", caAlias, "-file", caCertificate.getAbsolutePath(),
+                                  "-keystore", keyStore.getAbsolutePath(), "-storepass", STORE_PASSWORD);
+        }
+        TestKeyStores.keytool("-importcert", "-alias", alias, "-file", signed.getAbsolutePath(),
+                              "-keystore", keyStore.getAbsolutePath(), "-storepass", STORE_PASSWORD);
+        Files.delete(request.toPath());
+        Files.delete(signed.toPath());
+        Files.delete(caCertificate.toPath());
+    }
+
+    /**
+     * Write a PKCS12 trust store holding the certificates, replacing any existing file
+     * atomically.
+     */
+    public static void writeTrustStore(final File trustStore, final Certificate... certificates)
+            throws Exception {
+        KeyStore store = KeyStore.getInstance(STORE_TYPE);
+        store.load(null, null);
+        for (int i = 0; i < certificates.length; i++) {
+            store.setCertificateEntry("trusted-" + i, certificates[i]);
+        }
+        File temp = new File(trustStore.getAbsolutePath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            store.store(out, STORE_PASSWORD.toCharArray());
+        }
+        Files.move(temp.toPath(), trustStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Write a certificate revocation list signed by a certificate authority, revoking the
+     * certificates with the serial numbers.
+     */
+    public static void generateCrl(final File crl, final File caKeyStore, final String caAlias,
+                                   final BigInteger... serials)
+            throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(Arrays.asList("-gencrl", "-alias", caAlias, "-file", crl.getAbsolutePath(),
+                                                          "-keystore", caKeyStore.getAbsolutePath(),
+                                                          "-storepass", STORE_PASSWORD));
+        for (BigInteger serial : serials) {
+            args.add("-id");
+            args.add(serial.toString());
+        }
+        TestKeyStores.keytool(args.toArray(new String[0]));
+    }
+
+    /**
+     * Export an entry of a key store as PEM files, as certbot writes them; the certificate
+     * chain and the PKCS#8 private key.
+     *
+     * @param keyStore The key store holding the entry
+     * @param alias The alias of the entry
+     * @param chainFile The file to write the certificate chain to
+     * @param keyFile The file to write the private key to
+     */
+    public static void exportPem(final File keyStore, final String alias, final File chainFile, final File keyFile)
+            throws Exception {
+        KeyStore store = TestKeyStores.load(keyStore);
+        StringBuilder chain = new StringBuilder();
+        for (Certificate certificate : store.getCertificateChain(alias)) {
+            chain.append(TestKeyStores.pem("CERTIFICATE", certificate.getEncoded()));
+        }
+        Files.write(chainFile.toPath(), chain.toString().getBytes(StandardCharsets.US_ASCII));
+        Key key = store.getKey(alias, STORE_PASSWORD.toCharArray());
+        Files.write(keyFile.toPath(), TestKeyStores.pem("PRIVATE KEY", key.getEncoded()).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Load a key store generated by this class.
+     */
+    public static KeyStore load(final File keyStore) throws Exception {
+        KeyStore store = KeyStore.getInstance(STORE_TYPE);
+        try (InputStream in = new FileInputStream(keyStore)) {
+            store.load(in, STORE_PASSWORD.toCharArray());
+        }
+        return store;
+    }
+
+    /**
+     * Encode DER content as a PEM block.
+     */
+    public static String pem(final String type, final byte[] der) {
+        return "-----BEGIN " + type + "-----\n" +
+               Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(der) +
+               "\n-----END " + type + "-----\n";
+    }
+
+    /**
+     * Run the keytool of the current JDK, failing the test if it does not succeed.
+     */
+    public static void keytool(final String... args)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool");
+        command.addAll(Arrays.asList(args));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        byte[] output = TestKeyStores.readFully(process);
+        if (process.waitFor() != 0) {
+            Assert.fail("keytool failed: " + new String(output));
+        }
+    }
+
+    private static byte[] readFully(final Process process)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = process.getInputStream().read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,138 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TrustStoreLoaderTest {
+    final static String TEST_PATH_BASE = "work/";
+
+    private static File caKeyStore;
+    private static X509Certificate caCertificate;
+    private static X509Certificate[] clientChain;
+    private static X509Certificate[] otherChain;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        new File(TEST_PATH_BASE).mkdirs();
+        caKeyStore = new File(TEST_PATH_BASE + "ca.p12");
+        TestKeyStores.generateCa(caKeyStore, "ca");
+        File clientKeyStore = new File(TEST_PATH_BASE + "client.p12");
+        TestKeyStores.generateSigned(clientKeyStore, "client", caKeyStore, "ca");
+        File otherKeyStore = new File(TEST_PATH_BASE + "other.p12");
+        TestKeyStores.generate(otherKeyStore, "other");
+
+        caCertificate = (X509Certificate) TestKeyStores.load(caKeyStore).getCertificate("ca");
+        clientChain = TrustStoreLoaderTest.chain(TestKeyStores.load(clientKeyStore), "client");
+        otherChain = TrustStoreLoaderTest.chain(TestKeyStores.load(otherKeyStore), "other");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    private static X509Certificate[] chain(final KeyStore keyStore, final String alias) throws Exception {
+        return Arrays.stream(keyStore.getCertificateChain(alias)).toArray(X509Certificate[]::new);
+    }
+
+    private static SslContextFactory newFactory(final boolean validatePeerCerts) {
+        SslContextFactory.Server sslCtxFactory = new SslContextFactory.Server();
+        sslCtxFactory.setTrustStoreType(TestKeyStores.STORE_TYPE);
+        sslCtxFactory.setValidatePeerCerts(validatePeerCerts);
+        return sslCtxFactory;
+    }
+
+    private static boolean isTrusted(final TrustStoreLoader.TrustMaterial trustMaterial, final X509Certificate[] chain) {
+        try {
+            trustMaterial.getTrustManager().checkClientTrusted(chain, "EC");
+            return true;
+        } catch (CertificateException ex) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testTrustsStoredAuthorities() {
+        try {
+            File trustStore = new File(TEST_PATH_BASE + "trust.p12");
+            TestKeyStores.writeTrustStore(trustStore, caCertificate);
+
+            TrustStoreLoader loader = new TrustStoreLoader(newFactory(false), TestKeyStores.STORE_PASSWORD);
+            TrustStoreLoader.TrustMaterial trustMaterial = loader.load(trustStore.toPath(), Collections.emptyList());
+
+            Assert.assertFalse("Revocation should not be checked", loader.isCheckingRevocation());
+            Assert.assertTrue("Client signed by the authority should be trusted", isTrusted(trustMaterial, clientChain));
+            Assert.assertFalse("Other client should not be trusted", isTrusted(trustMaterial, otherChain));
+            Assert.assertEquals("Incorrect trusted issuers", Arrays.asList(caCertificate),
+                                Arrays.asList(trustMaterial.getTrustManager().getAcceptedIssuers()));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testRevocationListChecked() {
+        try {
+            File trustStore = new File(TEST_PATH_BASE + "trust.p12");
+            TestKeyStores.writeTrustStore(trustStore, caCertificate);
+            File crl = new File(TEST_PATH_BASE + "ca.crl");
+            TestKeyStores.generateCrl(crl, caKeyStore, "ca", BigInteger.ONE);
+
+            TrustStoreLoader loader = new TrustStoreLoader(newFactory(true), TestKeyStores.STORE_PASSWORD);
+            Assert.assertTrue("Revocation should be checked", loader.isCheckingRevocation());
+            TrustStoreLoader.TrustMaterial trustMaterial = loader.load(trustStore.toPath(), Arrays.asList(crl.toPath()));
+            Assert.assertEquals("Incorrect CRL count", 1, trustMaterial.getCrlCount());
+            Assert.assertTrue("Client should be trusted", isTrusted(trustMaterial, clientChain));
+
+            TestKeyStores.generateCrl(crl, caKeyStore, "ca", clientChain[0].getSerialNumber());
+            trustMaterial = loader.load(trustStore.toPath(), Arrays.asList(crl.toPath()));
+            Assert.assertFalse("Revoked client should not be trusted", isTrusted(trustMaterial, clientChain));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testRejectsInvalidFiles() {
+        try {
+            File emptyTrustStore = new File(TEST_PATH_BASE + "empty.p12");
+            TestKeyStores.writeTrustStore(emptyTrustStore);
+            File trustStore = new File(TEST_PATH_BASE + "trust.p12");
+            TestKeyStores.writeTrustStore(trustStore, caCertificate);
+            TrustStoreLoader loader = new TrustStoreLoader(newFactory(true), TestKeyStores.STORE_PASSWORD);
+
+            try {
+                loader.load(emptyTrustStore.toPath(), Collections.emptyList());
+                Assert.fail("Empty trust store should be rejected");
+            } catch (GeneralSecurityException ex) {
+                // Expected
+            }
+            try {
+                loader.load(trustStore.toPath(), Arrays.asList(trustStore.toPath()));
+                Assert.fail("Invalid revocation list should be rejected");
+            } catch (GeneralSecurityException ex) {
+                // Expected
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.bb.reload_ssl_keys;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+    @After
+    public void tearDown() throws Exception {
+        VirtualThreads.getInstance().setEnabled(false);
+    }
+
+    private static boolean isJava21OrLater() {
+        String version = System.getProperty("java.specification.version");
+        return ! version.startsWith("1.") && Integer.parseInt(version) >= 21;
+    }
+
+    private static boolean isVirtual(final Thread thread) throws Exception {
+        return isJava21OrLater() && (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+
+    @Test
+    public void testThreadsMatchAvailability() {
+        try {
+            VirtualThreads virtualThreads = VirtualThreads.getInstance();
+            Assert.assertEquals("Incorrect availability", isJava21OrLater(), virtualThreads.isAvailable());
+
+            Thread platform = virtualThreads.newThread("test-platform", () -> {});
+            Assert.assertTrue("Platform thread should be a daemon", platform.isDaemon());
+            Assert.assertFalse("Thread should not be virtual when disabled", isVirtual(platform));
+            Assert.assertEquals("Incorrect name", "test-platform", platform.getName());
+
+            virtualThreads.setEnabled(true);
+            Assert.assertEquals("Enabled only where available", virtualThreads.isAvailable(), virtualThreads.isEnabled());
+            CountDownLatch ran = new CountDownLatch(1);
+            Thread thread = virtualThreads.newThread("test-thread", ran::countDown);
+            Assert.assertEquals("Thread should be virtual where available", virtualThreads.isAvailable(), isVirtual(thread));
+            Assert.assertEquals("Incorrect name", "test-thread", thread.getName());
+            thread.start();
+            Assert.assertTrue("Thread did not run", ran.await(5, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testDebouncedRunsDoNotOverlap() {
+        try {
+            VirtualThreads.getInstance().setEnabled(true);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger runs = new AtomicInteger();
+            AtomicReference<String> overlap = new AtomicReference<>();
+            Debouncer db = new Debouncer(() -> {
+                if (running.incrementAndGet() > 1) {
+                    overlap.set(Thread.currentThread().getName());
+                }
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                runs.incrementAndGet();
+            }, 0L);
+
+            // Retries keep arriving while the slow callback runs
+            for (int n = 0; n < 10; n++) {
+                db.retry(0L);
+                Thread.sleep(50);
+            }
+            long waitUntil = System.currentTimeMillis() + 5000L;
+            while ((runs.get() < 2 || running.get() > 0) && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(10);
+            }
+            db.shutdown(true);
+
+            Assert.assertNull("Callback runs overlapped", overlap.get());
+            Assert.assertTrue("Callback did not run", runs.get() >= 2);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
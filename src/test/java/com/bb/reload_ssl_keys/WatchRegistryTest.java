@@ -0,0 +1,257 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WatchRegistryTest {
+    final static String TEST_PATH_BASE = "work/";
+    final static long WAIT_MILLIS = 10000L;
+
+    private File m_directory;
+    private Path m_file;
+
+    @Before
+    public void setUp() throws Exception {
+        m_directory = new File(TEST_PATH_BASE + "watched");
+        m_directory.mkdirs();
+        m_file = m_directory.toPath().resolve("key.p12");
+        Files.write(m_file, "original".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    @Test
+    public void testHeartbeat() {
+        try {
+            WatchRegistry registry = WatchRegistry.getInstance();
+            WatchRegistry.Registration registration = registry.register(m_file, (path, kind) -> {});
+            try {
+                Thread.sleep(2 * WatchRegistry.HEARTBEAT_MILLIS);
+                long age = registry.getHeartbeatAgeMillis();
+                Assert.assertTrue("Heartbeat too old " + age, age >= 0 && age < 2 * WatchRegistry.HEARTBEAT_MILLIS);
+            } finally {
+                registration.cancel();
+            }
+            if (registry.getRegistrationCount() == 0) {
+                Assert.assertEquals("Heartbeat reported with nothing watched", -1L, registry.getHeartbeatAgeMillis());
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testDirectoryReappears() {
+        try {
+            WatchRegistry registry = WatchRegistry.getInstance();
+            long reregistrations = registry.getReregistrationCount();
+            Semaphore changes = new Semaphore(0);
+            AtomicBoolean hold = new AtomicBoolean(false);
+            WatchRegistry.Registration registration = registry.register(m_file, (path, kind) -> changes.release());
+            try {
+                FileWatcherTest.deleteRecursively(m_directory);
+                long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+                while (registry.getLostDirectoryCount() == 0 && System.currentTimeMillis() < waitUntil) {
+                    Thread.sleep(50);
+                }
+                Assert.assertEquals("Deleted directory not lost", 1, registry.getLostDirectoryCount());
+
+                m_directory.mkdirs();
+                Files.write(m_file, "renewed".getBytes(StandardCharsets.UTF_8));
+                changes.drainPermits();
+                Assert.assertTrue("File in reappeared directory not seen",
+                                  changes.tryAcquire(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+                Assert.assertEquals("Directory not registered again", reregistrations + 1,
+                                    registry.getReregistrationCount());
+                Assert.assertEquals("Directory still lost", 0, registry.getLostDirectoryCount());
+
+                // Later changes are delivered as events again
+                changes.drainPermits();
+                Files.write(m_file, "renewed again".getBytes(StandardCharsets.UTF_8));
+                Assert.assertTrue("Change after re-registration not seen",
+                                  changes.tryAcquire(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            } finally {
+                registration.cancel();
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testOverflowRescans() {
+        try {
+            WatchRegistry registry = WatchRegistry.getInstance();
+            long overflows = registry.getOverflowCount();
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicBoolean first = new AtomicBoolean(true);
+            Semaphore changes = new Semaphore(0);
+            WatchRegistry.Registration registration = registry.register(m_file, (path, kind) -> {
+                if (first.getAndSet(false)) {
+                    // Hold the selector so the WatchService overflows
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else {
+                    changes.release();
+                }
+            });
+            try {
+                Files.write(m_file, "first".getBytes(StandardCharsets.UTF_8));
+                Assert.assertTrue("Selector not held", blocked.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+                for (int i = 0; i < 600; i++) {
+                    Files.write(m_directory.toPath().resolve("other" + i), new byte[] {(byte) i});
+                }
+                Files.write(m_file, "renewed".getBytes(StandardCharsets.UTF_8));
+                changes.drainPermits();
+                release.countDown();
+
+                Assert.assertTrue("Change lost in overflow not seen",
+                                  changes.tryAcquire(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+                Assert.assertTrue("Overflow not counted", registry.getOverflowCount() > overflows);
+            } finally {
+                release.countDown();
+                registration.cancel();
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testOverflowSkipsHandledChanges() {
+        try {
+            WatchRegistry registry = WatchRegistry.getInstance();
+            long overflows = registry.getOverflowCount();
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Semaphore changes = new Semaphore(0);
+            AtomicBoolean hold = new AtomicBoolean(false);
+            WatchRegistry.Registration registration = registry.register(m_file, (path, kind) -> changes.release());
+            Path trigger = m_directory.toPath().resolve("trigger");
+            Files.write(trigger, "original".getBytes(StandardCharsets.UTF_8));
+            WatchRegistry.Registration held = registry.register(trigger, (path, kind) -> {
+                if (! hold.get()) {
+                    return;
+                }
+                // Hold the selector so the WatchService overflows
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            try {
+                Files.write(m_file, "renewed".getBytes(StandardCharsets.UTF_8));
+                Assert.assertTrue("Change not seen", changes.tryAcquire(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+                Thread.sleep(500L);
+
+                hold.set(true);
+                Files.write(trigger, "held".getBytes(StandardCharsets.UTF_8));
+                Assert.assertTrue("Selector not held", blocked.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+                for (int i = 0; i < 600; i++) {
+                    Files.write(m_directory.toPath().resolve("other" + i), new byte[] {(byte) i});
+                }
+                changes.drainPermits();
+                release.countDown();
+
+                long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+                while (registry.getOverflowCount() == overflows && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50L);
+                }
+                Assert.assertTrue("Overflow not counted", registry.getOverflowCount() > overflows);
+                Assert.assertFalse("Change already handled reported again after overflow",
+                                   changes.tryAcquire(1000L, TimeUnit.MILLISECONDS));
+            } finally {
+                release.countDown();
+                held.cancel();
+                registration.cancel();
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testRescanDoesNotHoldSelector() {
+        try {
+            WatchRegistry registry = WatchRegistry.getInstance();
+            AtomicBoolean hold = new AtomicBoolean(false);
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch rescanning = new CountDownLatch(1);
+            CountDownLatch rescanRelease = new CountDownLatch(1);
+            WatchRegistry.Registration registration = registry.registerDirectory(m_directory.toPath(), (path, kind) -> {
+                try {
+                    if (kind == StandardWatchEventKinds.OVERFLOW) {
+                        // A slow rescan, which must not hold up the events of other watches
+                        rescanning.countDown();
+                        rescanRelease.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    } else if (hold.getAndSet(false)) {
+                        // Hold the selector so the WatchService overflows
+                        blocked.countDown();
+                        release.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            File otherDirectory = new File(TEST_PATH_BASE + "other");
+            otherDirectory.mkdirs();
+            Path otherFile = otherDirectory.toPath().resolve("key.p12");
+            Files.write(otherFile, "original".getBytes(StandardCharsets.UTF_8));
+            Semaphore changes = new Semaphore(0);
+            WatchRegistry.Registration other = registry.register(otherFile, (path, kind) -> changes.release());
+            try {
+                hold.set(true);
+                Files.write(m_file, "held".getBytes(StandardCharsets.UTF_8));
+                Assert.assertTrue("Selector not held", blocked.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+                for (int i = 0; i < 600; i++) {
+                    Files.write(m_directory.toPath().resolve("other" + i), new byte[] {(byte) i});
+                }
+                release.countDown();
+                Assert.assertTrue("Rescan not started", rescanning.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+                changes.drainPermits();
+                Files.write(otherFile, "renewed".getBytes(StandardCharsets.UTF_8));
+                Assert.assertTrue("Change held up by the rescan",
+                                  changes.tryAcquire(WAIT_MILLIS / 2, TimeUnit.MILLISECONDS));
+            } finally {
+                release.countDown();
+                rescanRelease.countDown();
+                other.cancel();
+                registration.cancel();
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.bb.reload_ssl_keys;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteCompletionDetectorTest {
+    final static String TEST_PATH_BASE = "work/";
+    final static String TEST_FILE_NAME = "someKeyFile";
+    final static String COMPLETE = "complete";
+
+    private Path m_testFile;
+    private final Semaphore m_completions = new Semaphore(0);
+    private WriteCompletionDetector m_detector = null;
+
+    /**
+     * Files are only complete when they hold the expected content.
+     */
+    private static final Predicate<Path> TRIAL_PARSE = path -> {
+        try {
+            return COMPLETE.equals(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        } catch (Exception ex) {
+            return false;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File(TEST_PATH_BASE);
+        if (! testDir.exists()) {
+            testDir.mkdirs();
+        }
+        m_testFile = new File(TEST_PATH_BASE + TEST_FILE_NAME).toPath();
+        Files.write(m_testFile, "original".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_detector != null) {
+            m_detector.shutdown();
+        }
+        File testDir = new File(TEST_PATH_BASE);
+        if (testDir.exists()) {
+            FileWatcherTest.deleteRecursively(testDir);
+        }
+    }
+
+    private void write(final String content) throws Exception {
+        Files.write(m_testFile, content.getBytes(StandardCharsets.UTF_8));
+        m_detector.fileChanged(StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    @Test
+    public void testAtomicRenameImmediate() {
+        try {
+            m_detector = new WriteCompletionDetector(m_testFile, TRIAL_PARSE, 5000L, 15000L, m_completions::release);
+
+            Path tempFile = new File(TEST_PATH_BASE + TEST_FILE_NAME + ".tmp").toPath();
+            Files.write(tempFile, COMPLETE.getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, m_testFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            m_detector.fileChanged(StandardWatchEventKinds.ENTRY_CREATE);
+
+            Assert.assertTrue("Rename should complete without waiting for the quiet period", 
+                              m_completions.tryAcquire(1, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testInPlaceWaitsForQuietPeriod() {
+        try {
+            m_detector = new WriteCompletionDetector(m_testFile, TRIAL_PARSE, 300L, 15000L, m_completions::release);
+
+            write("compl");
+            Thread.sleep(100);
+            long lastWrite = System.currentTimeMillis();
+            write(COMPLETE);
+
+            Assert.assertTrue("Write should have completed", m_completions.tryAcquire(5, TimeUnit.SECONDS));
+            long waited = System.currentTimeMillis() - lastWrite;
+            Assert.assertTrue("Completed before the quiet period: " + waited, waited >= 300);
+            Assert.assertFalse("Write should only complete once", m_completions.tryAcquire(1, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnparsableWaitsForWrite() {
+        try {
+            m_detector = new WriteCompletionDetector(m_testFile, TRIAL_PARSE, 100L, 15000L, m_completions::release);
+
+            write("compl");
+            Assert.assertFalse("Incomplete content should not complete", m_completions.tryAcquire(1, TimeUnit.SECONDS));
+
+            write(COMPLETE);
+            Assert.assertTrue("Write should have completed", m_completions.tryAcquire(5, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testMaxWaitReportsUnparsable() {
+        try {
+            m_detector = new WriteCompletionDetector(m_testFile, TRIAL_PARSE, 100L, 1000L, m_completions::release);
+
+            write("corrupt");
+            Assert.assertFalse("Unparsable content should wait", m_completions.tryAcquire(500, TimeUnit.MILLISECONDS));
+            Assert.assertTrue("Change should be reported after the maximum wait", 
+                              m_completions.tryAcquire(5, TimeUnit.SECONDS));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail("Caught an unexpected exception: " + ex.getMessage());
+        }
+    }
+}